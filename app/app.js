@@ -1,5 +1,6 @@
 var express = require('express'),
     bodyParser = require('body-parser'),
+    compression = require('compression'),
     config = require('./config.json'),
     cloudant = require('cloudant'),
     connectorRouter = require('./service/connector-router'),
@@ -58,6 +59,13 @@ cloudant({account: dbCredentials.user, password: dbCredentials.password}, functi
 // Setup routes
 
 var app = express();
+// gzip responses for clients sending "Accept-Encoding: gzip", gzip request bodies are inflated by body-parser
+// the binary geofences listings are compressed as well, their string table shrinks like text
+app.use(compression({
+    filter: function (req, res) {
+        return /^application\/vnd\.ibm\.mf-geofences/.test(res.getHeader('Content-Type')) || compression.filter(req, res);
+    }
+}));
 app.use(bodyParser.json({limit: '15mb', strict: false}));
 app.use(bodyParser.urlencoded({ extended: false }));
 app.use(express.static('ui'));
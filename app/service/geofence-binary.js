@@ -0,0 +1,186 @@
+var _ = require('lodash');
+
+// compact binary encoding of a geofences listing, decoded by the mobile SDKs:
+// - the bytes "MFGF" and the version byte
+// - the properties of the listing, as a JSON string
+// - the string table: a count followed by the strings, referenced by their 1-based index, 0 standing for null
+// - the geofences: a count followed by, for each geofence, the indexes of its code, name and description, a geometry type byte,
+//   then either a position and a radius in centimeters for a point (0), or a count of rings, each with a count of positions,
+//   for a polygon (1)
+// Counts, lengths and indexes are unsigned varints, strings are a byte length followed by UTF-8 bytes. Positions are longitude then
+// latitude in units of 1e-7 degree, as zigzag-encoded varints of the difference with the previous position.
+var MEDIA_TYPE = 'application/vnd.ibm.mf-geofences';
+var MAGIC = 'MFGF';
+var VERSION = 1;
+var GEOMETRY_TYPES = {'Point': 0, 'Polygon': 1};
+var UNITS_PER_DEGREE = 1e7;
+
+// accumulates the encoded bytes - varints are computed with arithmetic since deltas of coordinates exceed 32 bits
+function Writer() {
+    this.chunks = [];
+    this.bytes = [];
+}
+
+Writer.prototype.byte = function (b) {
+    this.bytes.push(b);
+};
+
+Writer.prototype.varint = function (n) {
+    while (n >= 128) {
+        this.bytes.push(128 + n % 128);
+        n = Math.floor(n / 128);
+    }
+    this.bytes.push(n);
+};
+
+Writer.prototype.signedVarint = function (n) {
+    this.varint(n < 0 ? -2 * n - 1 : 2 * n);
+};
+
+Writer.prototype.string = function (s) {
+    var buffer = new Buffer(s, 'utf8');
+    this.varint(buffer.length);
+    this.raw(buffer);
+};
+
+Writer.prototype.raw = function (buffer) {
+    this.chunks.push(new Buffer(this.bytes), buffer);
+    this.bytes = [];
+};
+
+Writer.prototype.toBuffer = function () {
+    this.raw(new Buffer(0));
+    return Buffer.concat(this.chunks);
+};
+
+// whether all the geometries of the sanitized features can be encoded, otherwise the listing must be served as GeoJSON
+var canEncode = function (features) {
+    return _.every(features, function (feature) {
+        return feature.geometry && GEOMETRY_TYPES[feature.geometry.type] !== undefined;
+    });
+};
+
+// encodes the sanitized features and the properties of a listing into a Buffer
+var encode = function (features, properties) {
+    var strings = [];
+    var indexes = {};
+    var ref = function (value) {
+        if (value === undefined || value === null) {
+            return 0;
+        }
+        var key = '$' + value;
+        if (indexes[key] === undefined) {
+            strings.push(String(value));
+            indexes[key] = strings.length;
+        }
+        return indexes[key];
+    };
+    var refs = features.map(function (feature) {
+        var props = feature.properties || {};
+        return [ref(props['@code']), ref(props.name), ref(props.description)];
+    });
+
+    var out = new Writer();
+    out.raw(new Buffer(MAGIC, 'ascii'));
+    out.byte(VERSION);
+    out.string(JSON.stringify(properties));
+    out.varint(strings.length);
+    strings.forEach(function (s) {
+        out.string(s);
+    });
+    out.varint(features.length);
+    var lng = 0, lat = 0;
+    var position = function (coordinates) {
+        var x = Math.round(coordinates[0] * UNITS_PER_DEGREE);
+        var y = Math.round(coordinates[1] * UNITS_PER_DEGREE);
+        out.signedVarint(x - lng);
+        out.signedVarint(y - lat);
+        lng = x;
+        lat = y;
+    };
+    features.forEach(function (feature, i) {
+        refs[i].forEach(function (index) {
+            out.varint(index);
+        });
+        var geometry = feature.geometry;
+        var type = GEOMETRY_TYPES[geometry.type];
+        out.byte(type);
+        if (type === GEOMETRY_TYPES.Point) {
+            var radius = (feature.properties && feature.properties.radius !== undefined) ? Number(feature.properties.radius) : -1;
+            position(geometry.coordinates);
+            out.signedVarint(Math.round(radius * 100));
+        } else {
+            out.varint(geometry.coordinates.length);
+            geometry.coordinates.forEach(function (ring) {
+                out.varint(ring.length);
+                ring.forEach(position);
+            });
+        }
+    });
+    return out.toBuffer();
+};
+
+// decodes a Buffer produced by encode, into the features and properties of the listing - used by the tests
+var decode = function (buffer) {
+    var offset = 0;
+    var varint = function () {
+        var n = 0, scale = 1, b;
+        do {
+            b = buffer[offset++];
+            n += (b % 128) * scale;
+            scale *= 128;
+        } while (b >= 128);
+        return n;
+    };
+    var signedVarint = function () {
+        var n = varint();
+        return (n % 2 === 1) ? -(n + 1) / 2 : n / 2;
+    };
+    var string = function () {
+        var length = varint();
+        offset += length;
+        return buffer.toString('utf8', offset - length, offset);
+    };
+    if (buffer.toString('ascii', 0, 4) !== MAGIC || buffer[4] !== VERSION) {
+        throw new Error('not a binary geofence listing');
+    }
+    offset = 5;
+    var properties = JSON.parse(string());
+    var strings = [null];
+    for (var s = varint(); s > 0; s--) {
+        strings.push(string());
+    }
+    var lng = 0, lat = 0;
+    var position = function () {
+        lng += signedVarint();
+        lat += signedVarint();
+        return [lng / UNITS_PER_DEGREE, lat / UNITS_PER_DEGREE];
+    };
+    var features = [];
+    for (var f = varint(); f > 0; f--) {
+        var props = {'@code': strings[varint()], name: strings[varint()], description: strings[varint()]};
+        var geometry;
+        if (buffer[offset++] === GEOMETRY_TYPES.Point) {
+            geometry = {type: 'Point', coordinates: position()};
+            props.radius = signedVarint() / 100;
+        } else {
+            geometry = {type: 'Polygon', coordinates: []};
+            for (var r = varint(); r > 0; r--) {
+                var ring = [];
+                for (var p = varint(); p > 0; p--) {
+                    ring.push(position());
+                }
+                geometry.coordinates.push(ring);
+            }
+        }
+        features.push({type: 'Feature', geometry: geometry, properties: props});
+    }
+    return {features: features, properties: properties};
+};
+
+module.exports = {
+    MEDIA_TYPE: MEDIA_TYPE,
+    canEncode: canEncode,
+    encode: encode,
+    decode: decode
+};
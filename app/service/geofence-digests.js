@@ -0,0 +1,175 @@
+var crypto = require('crypto'),
+    _ = require('lodash');
+
+// hash tree of the digests of the geofences of each tile, which lets the mobile SDKs find the tiles whose geofences differ
+// from theirs without downloading them - it must be computed exactly like GeofenceDigestTree in the Android SDK:
+// - tiles are 0.25 degree wide and high, numbered by row from the south and by column from the west, and a geofence
+//   belongs to the tile containing its center - the middle of the bounding box of the vertices for a polygon
+// - the leaves of the tree, at level 0, are the tiles, and the node of level n at row r and column c covers
+//   the tiles of rows r * 2^n to (r + 1) * 2^n - 1 and of the corresponding columns, up to the root at level 11
+// - the digest of a tile is computed from a record of each geofence sorted by code, with coordinates in 1e-7 degree,
+//   the digest of a node is computed from the keys and digests of its children which hold geofences
+var TILE_SIZE = 0.25;
+var ROWS = 720;
+var COLUMNS = 1440;
+var ROOT_LEVEL = 11;
+var DIGEST_LENGTH = 16;
+
+var normalizeLongitude = function (lng) {
+    if (lng >= -180 && lng <= 180) {
+        return lng;
+    }
+    var result = (lng + 180) % 360;
+    if (result < 0) {
+        result += 360;
+    }
+    return result - 180;
+};
+
+// the center of a geofence as [longitude, latitude], like the one stored by the SDKs
+var center = function (geometry) {
+    if (geometry.type !== 'Polygon') {
+        return geometry.coordinates;
+    }
+    // longitudes are brought within 180 degrees of the first vertex, so that polygons may cross the antimeridian
+    var ref = geometry.coordinates[0][0][0];
+    var minLng = Infinity, maxLng = -Infinity, minLat = Infinity, maxLat = -Infinity;
+    geometry.coordinates.forEach(function (ring) {
+        ring.forEach(function (position) {
+            var lng = position[0];
+            if (lng - ref > 180) {
+                lng -= 360;
+            } else if (lng - ref < -180) {
+                lng += 360;
+            }
+            minLng = Math.min(minLng, lng);
+            maxLng = Math.max(maxLng, lng);
+            minLat = Math.min(minLat, position[1]);
+            maxLat = Math.max(maxLat, position[1]);
+        });
+    });
+    return [normalizeLongitude((minLng + maxLng) / 2), (minLat + maxLat) / 2];
+};
+
+var tileRow = function (lat) {
+    return Math.max(0, Math.min(ROWS - 1, Math.floor((lat + 90) / TILE_SIZE)));
+};
+
+var tileColumn = function (lng) {
+    return Math.max(0, Math.min(COLUMNS - 1, Math.floor((normalizeLongitude(lng) + 180) / TILE_SIZE)));
+};
+
+var fixed = function (degrees) {
+    return Math.round(degrees * 1e7);
+};
+
+var field = function (value) {
+    if (value === undefined || value === null) {
+        return '~;';
+    }
+    var s = String(value);
+    return s.length + ':' + s + ';';
+};
+
+// the canonical record of a sanitized geofence, from which the digest of its tile is computed
+var record = function (doc) {
+    var props = doc.properties || {};
+    var s = field(props['@code']) + field(props.name) + field(props.description);
+    if (doc.geometry.type === 'Polygon') {
+        s += 'G' + doc.geometry.coordinates.map(function (ring) {
+            return ring.map(function (position) {
+                return fixed(position[0]) + ',' + fixed(position[1]);
+            }).join(' ');
+        }).join('|');
+    } else {
+        var radius = props.radius !== undefined ? Number(props.radius) : -1;
+        s += 'P' + fixed(doc.geometry.coordinates[0]) + ',' + fixed(doc.geometry.coordinates[1]) + ',' + Math.round(radius * 100);
+    }
+    return s + '\n';
+};
+
+var digest = function (text) {
+    return crypto.createHash('sha1').update(text, 'utf8').digest('hex').substring(0, DIGEST_LENGTH);
+};
+
+var nodeId = function (level, row, column) {
+    return level + '/' + row + '/' + column;
+};
+
+// parses a 'level/row/column' node identifier - returns undefined if it is not valid
+var parseNode = function (id) {
+    var values = _.map(String(id).split('/'), Number);
+    if (values.length !== 3 || !_.every(values, _.isSafeInteger) || values[0] < 0 || values[0] > ROOT_LEVEL ||
+        values[1] < 0 || values[2] < 0 || values[1] >= Math.ceil(ROWS / Math.pow(2, values[0])) ||
+        values[2] >= Math.ceil(COLUMNS / Math.pow(2, values[0]))) {
+        return undefined;
+    }
+    return {level: values[0], row: values[1], column: values[2]};
+};
+
+// computes the levels of the tree of the sanitized geofences, from the tiles up to the root
+// each level maps the identifiers of its nodes to {level, row, column, digest}
+var build = function (docs) {
+    var tiles = {};
+    docs.forEach(function (doc) {
+        var c = center(doc.geometry);
+        var id = nodeId(0, tileRow(c[1]), tileColumn(c[0]));
+        (tiles[id] = tiles[id] || {row: tileRow(c[1]), column: tileColumn(c[0]), records: []}).records.push({
+            code: doc.properties['@code'],
+            record: record(doc)
+        });
+    });
+    var level = _.mapValues(tiles, function (tile) {
+        var records = tile.records.sort(function (a, b) {
+            return a.code < b.code ? -1 : (a.code > b.code ? 1 : 0);
+        });
+        return {level: 0, row: tile.row, column: tile.column, digest: digest(_.map(records, 'record').join(''))};
+    });
+    var levels = [level];
+    for (var l = 1; l <= ROOT_LEVEL; l++) {
+        var parents = {};
+        _.forEach(level, function (node) {
+            var id = nodeId(l, Math.floor(node.row / 2), Math.floor(node.column / 2));
+            (parents[id] = parents[id] || {level: l, row: Math.floor(node.row / 2), column: Math.floor(node.column / 2), children: []})
+                .children.push(node);
+        });
+        level = _.mapValues(parents, function (parent) {
+            var children = parent.children.sort(function (a, b) {
+                return (a.row - b.row) || (a.column - b.column);
+            });
+            return {
+                level: parent.level,
+                row: parent.row,
+                column: parent.column,
+                digest: digest(children.map(function (child) {
+                    return nodeId(child.level, child.row, child.column) + '=' + child.digest + '\n';
+                }).join(''))
+            };
+        });
+        levels.push(level);
+    }
+    return levels;
+};
+
+// selects the nodes of the tree which are in the subtree of the specified node, down to the specified number of levels below it
+var subtree = function (levels, node, depth) {
+    var result = [];
+    for (var l = node.level; l >= Math.max(0, node.level - depth); l--) {
+        var shift = Math.pow(2, node.level - l);
+        _.forEach(levels[l], function (candidate) {
+            if (Math.floor(candidate.row / shift) === node.row && Math.floor(candidate.column / shift) === node.column) {
+                result.push(candidate);
+            }
+        });
+    }
+    return result;
+};
+
+module.exports = {
+    ROOT: nodeId(ROOT_LEVEL, 0, 0),
+    ROOT_LEVEL: ROOT_LEVEL,
+    parseNode: parseNode,
+    record: record,
+    build: build,
+    subtree: subtree
+};
@@ -1,8 +1,11 @@
 var express = require('express'),
+    crypto = require('crypto'),
     Cloudant = require('cloudant'),
     _ = require('lodash'),
     cuid = require('cuid'),
     geojsonhint = require('geojsonhint'),
+    geofenceBinary = require('./geofence-binary'),
+    geofenceDigests = require('./geofence-digests'),
     config = require('../config');
 
 var db;
@@ -15,24 +18,86 @@ var sanitize = function (doc) {
         doc['@code'] = doc.id;
         delete doc.id;
     }
-    ['_rev', 'rev', '_id'].forEach(function (val) {
+    ['_rev', 'rev', '_id', 'updated', 'deleted', 'extent'].forEach(function (val) {
         delete doc[val];
     });
     return doc;
 };
 
+// checks the range of a [longitude, latitude] position - pushes any error to the errors array
+var checkPosition = function (position, errors) {
+    if (!_.inRange(position[1], -90, 90)) {
+        errors.push('latitude, Number range from 0° to (+/–)90°');
+    }
+    if (!_.inRange(position[0], -180, 180)) {
+        errors.push('longitude, Number range from 0° to (+/–)180°');
+    }
+};
+
 // GeoJSON format validator - returns an empty array if there is no error
 var checkGeoJsonErrors = function (doc) {
     var errors = geojsonhint.hint(doc);
     if (errors.length === 0 && doc.type === 'Feature') {
-        if (!_.inRange(doc.geometry.coordinates[1], -90, 90)) {
-            errors.push('latitude, Number range from 0° to (+/–)90°');
-        }
-        if (!_.inRange(doc.geometry.coordinates[0], -180, 180)) {
-            errors.push('longitude, Number range from 0° to (+/–)180°');
+        if (doc.geometry.type === 'Polygon') {
+            _.forEach(doc.geometry.coordinates, function (ring) {
+                _.forEach(ring, function (position) {
+                    checkPosition(position, errors);
+                });
+            });
+        } else {
+            checkPosition(doc.geometry.coordinates, errors);
         }
     }
-    return errors;
+    return _.uniq(errors);
+};
+
+// computes the extent of a geofence geometry - the bounding box of the outline of a polygon, or the point itself
+var geometryExtent = function (geometry) {
+    var positions = geometry.type === 'Polygon' ? geometry.coordinates[0] : [geometry.coordinates];
+    return {
+        'minLng': _.min(_.map(positions, 0)),
+        'minLat': _.min(_.map(positions, 1)),
+        'maxLng': _.max(_.map(positions, 0)),
+        'maxLat': _.max(_.map(positions, 1))
+    };
+};
+
+// parses a 'west,south,east,north' bounding box - returns undefined if it is not valid
+var parseBoundingBox = function (bbox) {
+    var values = _.map(String(bbox).split(','), Number);
+    if (values.length !== 4 || !_.every(values, _.isFinite) || values[0] > values[2] || values[1] > values[3]) {
+        return undefined;
+    }
+    return {'minLng': values[0], 'minLat': values[1], 'maxLng': values[2], 'maxLat': values[3]};
+};
+
+// determines whether a document may be in the specified bounding box, based on its extent
+// documents without geometry, such as the tombstones of old geofences, are assumed to be anywhere
+var intersects = function (doc, box) {
+    var extent = doc.extent || (doc.geometry && geometryExtent(doc.geometry));
+    return !extent || (extent.minLng <= box.maxLng && extent.maxLng >= box.minLng && extent.minLat <= box.maxLat && extent.maxLat >= box.minLat);
+};
+
+// computes a weak ETag of a geofences listing, from its bounding box, its content type and the revisions of the listed documents
+// the updatedAfter parameter is left out: clients advance it after each synchronization, and an unchanged listing must still match
+var listingETag = function (bbox, contentType, docs) {
+    var hash = crypto.createHash('md5');
+    hash.update(String(bbox) + ';' + contentType + ';');
+    _.sortBy(docs, '_id').forEach(function (doc) {
+        hash.update(doc._id + '@' + doc._rev + ';');
+    });
+    return 'W/"' + hash.digest('hex') + '"';
+};
+
+// the bookmark of a page is the opaque encoding of the greatest _id it covers
+var encodeBookmark = function (id) {
+    return new Buffer(id, 'utf8').toString('base64');
+};
+
+// returns the _id encoded in a bookmark, or undefined if it is not a valid bookmark
+var decodeBookmark = function (bookmark) {
+    var id = new Buffer(bookmark, 'base64').toString('utf8');
+    return (id.length > 0 && encodeBookmark(id) === bookmark) ? id : undefined;
 };
 
 function asyncLoop(o) {
@@ -72,6 +137,8 @@ var createFeatureObject = function(doc) {
         });
     });
     geofence._id = cuid();
+    geofence.updated = Date.now();
+    geofence.extent = geometryExtent(geofence.geometry);
     geofence.properties.name = (doc.properties.name !== undefined) ? doc.properties.name : geofence._id;
     geofence.properties.radius = (doc.properties.radius !== undefined) ? doc.properties.radius : 100;
 
@@ -115,31 +182,130 @@ router.use(function (req, res, next) {
 
 // on routes that end in /geofences
 router.route('/geofences')
-    // GET geofences listing.
+    // GET geofences listing, or only the changes since a previous listing if 'updatedAfter' is specified,
+    // sorted by _id in pages of 'limit' geofences if specified, starting after the page whose 'bookmark' is specified,
+    // and restricted to the geofences intersecting the 'bbox' bounding box if specified
     .get(function (req, res) {
-        db.find({
-            selector: {
-                '_id': {
-                    '$gt': null
+        // the watermark is taken before the query, so that concurrent changes are included in the next listing
+        var syncDate = new Date(Date.now() - 1);
+        var selector = {
+            '_id': {
+                '$gt': null
+            }
+        };
+        var incremental = req.query.updatedAfter !== undefined;
+        if (incremental) {
+            var updatedAfter = Number(req.query.updatedAfter);
+            if (!_.isSafeInteger(updatedAfter) || updatedAfter < 0) {
+                res.status(400).send(['updatedAfter, Number of milliseconds since the epoch']);
+                return;
+            }
+            selector.updated = {
+                '$gt': updatedAfter
+            };
+        } else {
+            selector.deleted = {
+                '$exists': false
+            };
+        }
+        var query = {
+            selector: selector,
+            sort: [{'_id': 'asc'}]
+        };
+        if (req.query.limit !== undefined) {
+            query.limit = Number(req.query.limit);
+            if (!_.isSafeInteger(query.limit) || query.limit <= 0) {
+                res.status(400).send(['limit, positive Number of geofences per page']);
+                return;
+            }
+        }
+        var box;
+        if (req.query.bbox !== undefined) {
+            box = parseBoundingBox(req.query.bbox);
+            if (box === undefined) {
+                res.status(400).send(['bbox, west,south,east,north bounding box in degrees']);
+                return;
+            }
+            // geofences created before extents were stored are checked once loaded
+            selector.$or = [
+                {
+                    'extent.minLng': {'$lte': box.maxLng},
+                    'extent.maxLng': {'$gte': box.minLng},
+                    'extent.minLat': {'$lte': box.maxLat},
+                    'extent.maxLat': {'$gte': box.minLat}
+                },
+                {
+                    'extent': {'$exists': false}
                 }
+            ];
+        }
+        if (req.query.bookmark !== undefined) {
+            var after = decodeBookmark(String(req.query.bookmark));
+            if (after === undefined) {
+                res.status(400).send(['bookmark, value of the bookmark property of the previous page']);
+                return;
             }
-        }, function (err, data) {
+            selector._id = {
+                '$gt': after
+            };
+        }
+        db.find(query, function (err, data) {
             if (err) {
                 res.status(err.status || err.statusCode || 500).send(err);
+                return;
+            }
+            var more = query.limit !== undefined && data.docs.length >= query.limit;
+            // the bookmark is computed before filtering, so that the next page starts after all the documents scanned
+            var last = _.last(data.docs);
+            if (box !== undefined) {
+                data.docs = _.filter(data.docs, function (doc) {
+                    return intersects(doc, box);
+                });
+            }
+            var features = _.reject(data.docs, 'deleted');
+            // the compact binary encoding is served to the clients which prefer it, unless a geometry cannot be encoded
+            var binary = req.accepts(['application/vnd.geo+json', geofenceBinary.MEDIA_TYPE]) === geofenceBinary.MEDIA_TYPE &&
+                geofenceBinary.canEncode(features);
+            var contentType = binary ? geofenceBinary.MEDIA_TYPE : 'application/vnd.geo+json';
+            res.vary('Accept');
+            // the listing is not modified if the same documents have the same revisions, regardless of its lastSyncDate,
+            // which is only known for a listing in a single page
+            if (!more && req.query.bookmark === undefined) {
+                res.setHeader('ETag', listingETag(req.query.bbox, contentType, data.docs));
+                if (req.fresh) {
+                    res.status(304).end();
+                    return;
+                }
+            }
+            var properties = {
+                'totalFeatures': features.length,
+                'lastSyncDate': syncDate.toISOString()
+            };
+            if (incremental) {
+                properties.deleted = _.map(_.filter(data.docs, 'deleted'), '_id');
+            }
+            if (more) {
+                properties.bookmark = encodeBookmark(last._id);
+            }
+            if (binary) {
+                res.setHeader('Content-disposition', 'attachement; filename=geofences.mfgf');
+                res.setHeader('Content-Type', contentType);
+                res.status(200).send(geofenceBinary.encode(_.map(features, sanitize), properties));
+                return;
             }
             res.setHeader('Content-disposition', 'attachement; filename=geofences.geojson');
-            res.writeHead(200, {'Content-Type': 'application/vnd.geo+json'});
+            res.writeHead(200, {'Content-Type': contentType});
 
             res.write('{\"type\":\"FeatureCollection\",');
             res.write('\"features\":[');
-            data.docs.forEach(function (result, index) {
+            features.forEach(function (result, index) {
                 res.write(JSON.stringify(sanitize(result)));
-                if (index !== data.docs.length - 1) {
+                if (index !== features.length - 1) {
                     res.write(',');
                 }
             });
             res.write('],');
-            res.write('\"properties\":' + JSON.stringify({'totalFeatures': data.docs.length}));
+            res.write('\"properties\":' + JSON.stringify(properties));
             res.end('}');
         });
     })
@@ -178,6 +344,58 @@ router.route('/geofences')
             }
         }
     });
+
+// on routes that end in /geofences/digests - must be declared before /geofences/:id
+router.route('/geofences/digests')
+    // Get nodes of the hash tree of the geofences, for instance /geofences/digests?nodes=11/0/0&depth=4
+    .get(function (req, res) {
+        var syncDate = new Date(Date.now() - 1);
+        var nodes = _.map(String(req.query.nodes || geofenceDigests.ROOT).split(','), geofenceDigests.parseNode);
+        if (!_.every(nodes)) {
+            res.status(400).send(['nodes, comma-separated level/row/column identifiers of nodes']);
+            return;
+        }
+        var depth = (req.query.depth !== undefined) ? Number(req.query.depth) : geofenceDigests.ROOT_LEVEL;
+        if (!_.isSafeInteger(depth) || depth < 0) {
+            res.status(400).send(['depth, Number of levels below the nodes']);
+            return;
+        }
+        // all the geofences are loaded in pages sorted by _id, like a paged listing
+        var docs = [];
+        var loadPage = function (after) {
+            var query = {
+                selector: {
+                    '_id': {'$gt': after},
+                    'deleted': {'$exists': false}
+                },
+                fields: ['_id', 'geometry', 'properties'],
+                sort: [{'_id': 'asc'}],
+                limit: 1000
+            };
+            db.find(query, function (err, data) {
+                if (err) {
+                    res.status(err.status || err.statusCode || 500).send(err);
+                    return;
+                }
+                docs = docs.concat(data.docs);
+                if (data.docs.length >= query.limit) {
+                    loadPage(_.last(data.docs)._id);
+                    return;
+                }
+                var levels = geofenceDigests.build(_.filter(_.map(docs, sanitize), 'geometry'));
+                res.json({
+                    'lastSyncDate': syncDate.toISOString(),
+                    'nodes': _.uniqBy(_.flatten(_.map(nodes, function (node) {
+                        return geofenceDigests.subtree(levels, node, depth);
+                    })), function (node) {
+                        return node.level + '/' + node.row + '/' + node.column;
+                    })
+                });
+            });
+        };
+        loadPage(null);
+    });
+
 // on routes that end in /geofences/:id
 router.route('/geofences/:id')
     //Update a geofence
@@ -188,7 +406,9 @@ router.route('/geofences/:id')
         } else {
             // get the geofence with that unique identifier :id
             db.get(req.params.id, {revs_info: true}, function (err1, doc) {
-                if (!err1) {
+                if (!err1 && doc.deleted) {
+                    res.status(404).send({'error': 'not_found', 'reason': 'deleted'});
+                } else if (!err1) {
                     //Updating geofence Info
                     if (req.body.properties && req.body.properties['@code']) {
                         delete req.body.properties['@code'];
@@ -198,6 +418,8 @@ router.route('/geofences/:id')
                             return value;
                         });
                     });
+                    doc.updated = Date.now();
+                    doc.extent = geometryExtent(doc.geometry);
                     //commit updates
                     db.insert(doc, function (err2, data) {
                         if (err2) {
@@ -216,6 +438,8 @@ router.route('/geofences/:id')
         db.get(req.params.id, function (err, data) {
             if (err) {
                 res.status(err.status || err.statusCode || 500).send(err);
+            } else if (data.deleted) {
+                res.status(404).send({'error': 'not_found', 'reason': 'deleted'});
             } else {
                 res.json(sanitize(data));
             }
@@ -225,9 +449,18 @@ router.route('/geofences/:id')
     .delete(function (req, res) {
         // get the geofence with that  unique identifier :id
         db.get(req.params.id, {revs_info: true}, function (err1, doc) {
-            if (!err1) {
-                // // delete the geofence with the code specified
-                db.destroy(req.params.id, doc._rev, function (err2, data) {
+            if (!err1 && doc.deleted) {
+                res.status(404).send({'error': 'not_found', 'reason': 'deleted'});
+            } else if (!err1) {
+                // replace the geofence with a tombstone, so that incremental listings can report its deletion
+                var tombstone = {
+                    '_id': doc._id,
+                    '_rev': doc._rev,
+                    'deleted': true,
+                    'updated': Date.now(),
+                    'extent': doc.extent || geometryExtent(doc.geometry)
+                };
+                db.insert(tombstone, function (err2) {
                     if (err2) {
                         res.status(err2.status || err2.statusCode || 500).send(err2);
                     } else {
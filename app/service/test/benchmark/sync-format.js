@@ -0,0 +1,53 @@
+var fs = require('fs');
+var os = require('os');
+var path = require('path');
+var zlib = require('zlib');
+var geofenceBinary = require('../../geofence-binary');
+
+// generates the same synthetic listing in GeoJSON and in the binary encoding, and prints their sizes - the decoding times
+// are measured by the SyncFormatBenchmark class of the Android SDK tests, which reads the generated files:
+//   node service/test/benchmark/sync-format.js [output directory] [number of geofences]
+var outputDir = process.argv[2] || os.tmpdir();
+var count = parseInt(process.argv[3] || '5000', 10);
+
+// deterministic pseudo-random numbers, so that every run generates the same listing
+var seed = 42;
+var random = function () {
+    seed = (seed * 1103515245 + 12345) % 2147483648;
+    return seed / 2147483648;
+};
+
+// geofences scattered over a city-sized area, one in ten being an octagon
+var features = [];
+for (var i = 0; i < count; i++) {
+    var lng = 2.2 + 0.3 * random();
+    var lat = 48.8 + 0.15 * random();
+    var properties = {'@code': 'fence-' + i, name: 'Geofence ' + i, description: (i % 3 === 0) ? 'Store #' + i : undefined};
+    var geometry;
+    if (i % 10 === 0) {
+        var ring = [];
+        var size = 0.0005 + 0.001 * random();
+        for (var k = 0; k < 8; k++) {
+            var angle = k * Math.PI / 4;
+            ring.push([Math.round((lng + size * Math.cos(angle)) * 1e7) / 1e7, Math.round((lat + size * Math.sin(angle)) * 1e7) / 1e7]);
+        }
+        ring.push(ring[0]);
+        geometry = {type: 'Polygon', coordinates: [ring]};
+    } else {
+        properties.radius = 50 + Math.round(450 * random());
+        geometry = {type: 'Point', coordinates: [Math.round(lng * 1e7) / 1e7, Math.round(lat * 1e7) / 1e7]};
+    }
+    features.push({type: 'Feature', geometry: geometry, properties: properties});
+}
+var listingProperties = {totalFeatures: count, lastSyncDate: '2016-05-04T10:20:30.000Z'};
+var json = new Buffer(JSON.stringify({type: 'FeatureCollection', features: features, properties: listingProperties}), 'utf8');
+var binary = geofenceBinary.encode(features, listingProperties);
+fs.writeFileSync(path.join(outputDir, 'geofences-benchmark.json'), json);
+fs.writeFileSync(path.join(outputDir, 'geofences-benchmark.bin'), binary);
+
+var kb = function (n) {
+    return (n / 1024).toFixed(0) + ' KB';
+};
+console.log('%d geofences written to %s', count, outputDir);
+console.log('GeoJSON: %s, gzipped %s', kb(json.length), kb(zlib.gzipSync(json).length));
+console.log('binary:  %s, gzipped %s', kb(binary.length), kb(zlib.gzipSync(binary).length));
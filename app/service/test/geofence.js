@@ -1,6 +1,7 @@
 var expect = require('chai').expect;
 var _ = require('lodash');
 var request = require('superagent');
+var geofenceBinary = require('../geofence-binary');
 
 var baseUrl = 'http://localhost:9002/';
 
@@ -23,10 +24,15 @@ var newGeofenceNameUpdated = 'new fence name';
 
 var TEST_TIMEOUT = '40s';
 
+// date before all the changes made by these tests
+var testStartDate = Date.now() - 1;
+
 describe('Geofence RESTful tests', function() {
     before(function(done){
         urls.geofences = {
             getAll:'geofences',
+            getUpdated:'geofences?updatedAfter={updatedAfter}',
+            getPage:'geofences?limit={limit}&bookmark={bookmark}',
             createGeofence:'geofences',
             getGeofence:'geofences/{geofenceCode}',
             updateGeofence:'geofences/{geofenceCode}',
@@ -62,6 +68,204 @@ describe('Geofence RESTful tests', function() {
         });
     });
 
+    describe('GET all geofences with the ETag of the previous listing', function(){
+        it('should respond with a 304 if nothing changed', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    if(err){
+                        done(err);
+                    }
+                    expect(res.headers.etag).to.be.a('string');
+                    request.get(baseUrl.concat(urls.geofences.getAll))
+                        .set('accept', 'application/json')
+                        .set('If-None-Match', res.headers.etag)
+                        .end(function(err2, res2){
+                            expect(res2.statusCode).to.equal(304);
+                            done();
+                        });
+                });
+        });
+    });
+
+    describe('GET geofences updated after the previous listing with its ETag', function(){
+        it('should respond with a 304 if nothing changed, although the watermark moved', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll + '?updatedAfter=' + Date.now()))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    if(err){
+                        done(err);
+                    }
+                    expect(res.headers.etag).to.be.a('string');
+                    var watermark = Date.parse(res.body.properties.lastSyncDate);
+                    request.get(baseUrl.concat(urls.geofences.getAll + '?updatedAfter=' + watermark))
+                        .set('accept', 'application/json')
+                        .set('If-None-Match', res.headers.etag)
+                        .end(function(err2, res2){
+                            expect(res2.statusCode).to.equal(304);
+                            done();
+                        });
+                });
+        });
+    });
+
+    describe('GET geofences in pages of one geofence', function(){
+        it('should return one geofence and the bookmark of the next page', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll + '?limit=1'))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    if(err){
+                        done(err);
+                    }
+                    expect(res.body.features).to.have.length.below(2);
+                    if (!res.body.properties.bookmark) {
+                        done();
+                        return;
+                    }
+                    request.get(baseUrl.concat(sub(urls.geofences.getPage, {limit: 1, bookmark: encodeURIComponent(res.body.properties.bookmark)})))
+                        .set('accept', 'application/json')
+                        .end(function(err2, res2){
+                            if(err2){
+                                done(err2);
+                            }
+                            expect(res2.body.features).to.have.length.below(2);
+                            if (res2.body.features.length > 0) {
+                                expect(res2.body.features[0].properties['@code'] > res.body.features[0].properties['@code']).to.be.true;
+                            }
+                            done();
+                        });
+                });
+        });
+    });
+
+    describe('GET geofences with an invalid bookmark', function(){
+        it('should reject the request with a 400', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(sub(urls.geofences.getPage, {limit: 1, bookmark: 'not-a-bookmark'})))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    expect(err).to.exist;
+                    expect(res.statusCode).to.equal(400);
+                    done();
+                });
+        });
+    });
+
+    describe('GET geofences in a bounding box', function(){
+        it('should only return the geofences intersecting the bounding box', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll + '?bbox=2.25,48.75,2.5,49'))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    if(err){
+                        done(err);
+                    }
+                    expect(res.body.features).to.be.an('array');
+                    _.forEach(res.body.features, function (feature) {
+                        if (feature.geometry.type === 'Point') {
+                            expect(feature.geometry.coordinates[0]).to.be.within(2.25, 2.5);
+                            expect(feature.geometry.coordinates[1]).to.be.within(48.75, 49);
+                        }
+                        expect(feature).to.not.have.property('extent');
+                    });
+                    done();
+                });
+        });
+        it('should reject an invalid bounding box with a 400', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll + '?bbox=2.5,48.75,2.25'))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    expect(err).to.exist;
+                    expect(res.statusCode).to.equal(400);
+                    done();
+                });
+        });
+    });
+
+    describe('GET geofences in the binary encoding', function(){
+        var readBuffer = function (res, callback) {
+            var chunks = [];
+            res.on('data', function (chunk) {
+                chunks.push(chunk);
+            });
+            res.on('end', function () {
+                callback(null, Buffer.concat(chunks));
+            });
+        };
+        it('should return the same geofences as GeoJSON when the binary encoding is preferred', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(urls.geofences.getAll))
+                .set('accept', 'application/json')
+                .end(function(err, jsonRes){
+                    if(err){
+                        done(err);
+                    }
+                    request.get(baseUrl.concat(urls.geofences.getAll))
+                        .set('accept', geofenceBinary.MEDIA_TYPE + ', application/vnd.geo+json;q=0.9')
+                        .buffer(true)
+                        .parse(readBuffer)
+                        .end(function(err, res){
+                            if(err){
+                                done(err);
+                            }
+                            expect(res.headers['content-type']).to.contain(geofenceBinary.MEDIA_TYPE);
+                            expect(res.headers['vary']).to.contain('Accept');
+                            var listing = geofenceBinary.decode(res.body);
+                            expect(listing.properties.totalFeatures).to.equal(jsonRes.body.properties.totalFeatures);
+                            expect(_.map(listing.features, 'properties.@code').sort()).to.eql(_.map(jsonRes.body.features, 'properties.@code').sort());
+                            done();
+                        });
+                });
+        });
+    });
+
+    describe('GET the hash tree of the geofences', function(){
+        it('should return the root and the nodes below it', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat('geofences/digests?nodes=11/0/0&depth=2'))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    if(err){
+                        done(err);
+                    }
+                    expect(res.body.lastSyncDate).to.be.a('string');
+                    expect(res.body.nodes).to.be.an('array');
+                    _.forEach(res.body.nodes, function (node) {
+                        expect(node.level).to.be.within(9, 11);
+                        expect(node.digest).to.match(/^[0-9a-f]{16}$/);
+                    });
+                    done();
+                });
+        });
+        it('should reject an invalid node with a 400', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat('geofences/digests?nodes=12/0/0'))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    expect(err).to.exist;
+                    expect(res.statusCode).to.equal(400);
+                    done();
+                });
+        });
+    });
+
+    describe('GET geofences with an invalid updatedAfter', function(){
+        it('should reject the request with a 400', function(done){
+            this.timeout(TEST_TIMEOUT);
+            request.get(baseUrl.concat(sub(urls.geofences.getUpdated, {updatedAfter: 'yesterday'})))
+                .set('accept', 'application/json')
+                .end(function(err, res){
+                    expect(err).to.exist;
+                    expect(res.statusCode).to.equal(400);
+                    done();
+                });
+        });
+    });
+
     describe('create, update, and delete geofence check', function () {
         var vars = {
             geofenceCode: null
@@ -220,6 +424,23 @@ describe('Geofence RESTful tests', function() {
                         });
                 });
             });
+
+            describe('GET geofences updated after the start of the tests', function(){
+                it('should list the just deleted fence as deleted', function(done) {
+                    this.timeout(TEST_TIMEOUT);
+                    request.get(baseUrl.concat(sub(urls.geofences.getUpdated, {updatedAfter: testStartDate})))
+                        .set('accept', 'application/json')
+                        .end(function (err, res) {
+                            if(err){
+                                done(err);
+                            }
+                            expect(res.body.properties.lastSyncDate).to.be.a('string');
+                            expect(res.body.properties.deleted).to.include(vars.geofenceCode);
+                            expect(_.map(res.body.features, 'properties.@code')).to.not.include(vars.geofenceCode);
+                            done();
+                        });
+                });
+            });
         });
     });
 });
\ No newline at end of file
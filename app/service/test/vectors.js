@@ -0,0 +1,57 @@
+var expect = require('chai').expect;
+var fs = require('fs');
+var path = require('path');
+var geofenceBinary = require('../geofence-binary');
+var geofenceDigests = require('../geofence-digests');
+
+// test vectors shared with the unit tests of the Android SDK, which read them from the same fixtures directory
+var fixtures = path.join(__dirname, 'fixtures');
+var readFixture = function (name) {
+    return fs.readFileSync(path.join(fixtures, name));
+};
+
+describe('Shared test vectors', function() {
+    var listing = JSON.parse(readFixture('geofences.json').toString('utf8'));
+
+    describe('binary encoding', function(){
+        it('should encode the fixture geofences into the expected bytes', function(){
+            var encoded = geofenceBinary.encode(listing.features, listing.properties);
+            expect(encoded.toString('hex')).to.equal(readFixture('geofences.bin').toString('hex'));
+        });
+        it('should decode the expected bytes into the fixture geofences', function(){
+            var decoded = geofenceBinary.decode(readFixture('geofences.bin'));
+            expect(decoded.properties).to.eql(listing.properties);
+            expect(decoded.features.length).to.equal(listing.features.length);
+            decoded.features.forEach(function (feature, i) {
+                var expected = listing.features[i];
+                expect(feature.properties['@code']).to.equal(expected.properties['@code']);
+                expect(feature.geometry.type).to.equal(expected.geometry.type);
+                expect(feature.geometry.coordinates).to.eql(expected.geometry.coordinates);
+            });
+        });
+    });
+
+    describe('digest tree', function(){
+        var vectors = JSON.parse(readFixture('geofence-digests.json').toString('utf8'));
+        var levels = geofenceDigests.build(vectors.features);
+
+        it('should compute the expected record of each geofence', function(){
+            vectors.features.forEach(function (feature) {
+                expect(geofenceDigests.record(feature)).to.equal(vectors.records[feature.properties['@code']]);
+            });
+        });
+        it('should compute the expected tile digests', function(){
+            var tiles = Object.keys(levels[0]).map(function (id) {
+                var node = levels[0][id];
+                return {level: node.level, row: node.row, column: node.column, digest: node.digest};
+            });
+            tiles.sort(function (a, b) {
+                return (a.row - b.row) || (a.column - b.column);
+            });
+            expect(tiles).to.eql(vectors.tiles);
+        });
+        it('should compute the expected root digest', function(){
+            expect(levels[geofenceDigests.ROOT_LEVEL][geofenceDigests.ROOT].digest).to.equal(vectors.root);
+        });
+    });
+});
@@ -41,6 +41,7 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.maps.android.ui.IconGenerator;
+import com.ibm.mf.geofence.GeoDistance;
 import com.ibm.mf.geofence.LoggingConfiguration;
 import com.ibm.mf.geofence.MFGeofence;
 import com.ibm.mf.geofence.MFGeofenceEvent;
@@ -467,11 +468,8 @@ public class MapsActivity extends FragmentActivity {
                         for (MFGeofence g: fences) {
                             boolean active = false;
                             if (currentLocation != null) {
-                                Location loc = new Location(LocationManager.NETWORK_PROVIDER);
-                                loc.setLatitude(g.getLatitude());
-                                loc.setLongitude(g.getLongitude());
-                                loc.setTime(System.currentTimeMillis());
-                                active = loc.distanceTo(currentLocation) <= g.getRadius();
+                                double d = GeoDistance.haversine(g.getLatitude(), g.getLongitude(), currentLocation.getLatitude(), currentLocation.getLongitude());
+                                active = d <= g.getRadius();
                             }
                             refreshGeofenceInfo(g, active);
                         }
@@ -0,0 +1,3 @@
+ALTER TABLE PERSISTENT_GEOFENCE ADD COLUMN M_CELL_KEY INTEGER;
+UPDATE PERSISTENT_GEOFENCE SET M_CELL_KEY = MAX(0, MIN(3599, CAST((M_LATITUDE + 90) / 0.05 AS INTEGER))) * 7200 + MAX(0, MIN(7199, CAST((M_LONGITUDE + 180) / 0.05 AS INTEGER)));
+CREATE INDEX IF NOT EXISTS IDX_PERSISTENT_GEOFENCE_CELL_KEY ON PERSISTENT_GEOFENCE (M_CELL_KEY);
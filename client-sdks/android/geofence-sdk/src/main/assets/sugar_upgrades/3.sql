@@ -0,0 +1 @@
+ALTER TABLE PERSISTENT_GEOFENCE ADD COLUMN M_POLYGON TEXT;
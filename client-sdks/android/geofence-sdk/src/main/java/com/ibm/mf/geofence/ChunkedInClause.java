@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import com.orm.SugarRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes queries with a {@code column IN (?, ..., ?)} clause over an arbitrary number of values.
+ * <p>The values are split into chunks of at most {@link #MAX_CHUNK_SIZE} values, which keeps each statement under
+ * the SQLite limit on the number of bound variables (999 on older devices). The size of each chunk is rounded up
+ * to a power of two by repeating its last value, so that only a handful of distinct SQL strings are ever generated:
+ * they are cached here, and the prepared statements are reused by the statement cache of the Android SQLite connection.
+ */
+final class ChunkedInClause {
+    /**
+     * Maximum number of values bound in a single statement.
+     */
+    static final int MAX_CHUNK_SIZE = 512;
+    /**
+     * Cached where clauses, by column name then by log2 of the chunk size.
+     */
+    private static final Map<String, String[]> sClauses = new HashMap<>();
+
+    private ChunkedInClause() {
+    }
+
+    /**
+     * Find the records of the specified type whose column value is one of the specified values.
+     * @param type the class of the records to find.
+     * @param column the SQL name of the column.
+     * @param values the values to look for, duplicates are ignored.
+     * @param <T> the type of records to find.
+     * @return the records found, in no particular order.
+     */
+    static <T> List<T> find(Class<T> type, String column, Collection<String> values) {
+        String[] distinct = distinct(values);
+        List<T> result = new ArrayList<>(distinct.length);
+        for (int start = 0; start < distinct.length; start += MAX_CHUNK_SIZE) {
+            String[] args = chunk(distinct, start);
+            result.addAll(SugarRecord.find(type, clause(column, args.length), args));
+        }
+        return result;
+    }
+
+    /**
+     * Delete the records of the specified type whose column value is one of the specified values.
+     * @param type the class of the records to delete.
+     * @param column the SQL name of the column.
+     * @param values the values to look for, duplicates are ignored.
+     * @return the number of deleted records.
+     */
+    static int deleteAll(Class<?> type, String column, Collection<String> values) {
+        String[] distinct = distinct(values);
+        int count = 0;
+        for (int start = 0; start < distinct.length; start += MAX_CHUNK_SIZE) {
+            String[] args = chunk(distinct, start);
+            count += SugarRecord.deleteAll(type, clause(column, args.length), args);
+        }
+        return count;
+    }
+
+    /**
+     * Get the where clause for the specified column and number of values, which must be a power of two.
+     */
+    static String clause(String column, int size) {
+        int log2 = Integer.numberOfTrailingZeros(size);
+        synchronized(sClauses) {
+            String[] clauses = sClauses.get(column);
+            if (clauses == null) {
+                clauses = new String[Integer.numberOfTrailingZeros(MAX_CHUNK_SIZE) + 1];
+                sClauses.put(column, clauses);
+            }
+            if (clauses[log2] == null) {
+                StringBuilder sb = new StringBuilder(column.length() + 3 * size + 6).append(column).append(" in (");
+                for (int i=0; i<size; i++) {
+                    sb.append((i > 0) ? ", ?" : "?");
+                }
+                clauses[log2] = sb.append(')').toString();
+            }
+            return clauses[log2];
+        }
+    }
+
+    /**
+     * Extract the chunk of values starting at the specified position, padded to a power of two with its last value.
+     */
+    static String[] chunk(String[] values, int start) {
+        int n = Math.min(MAX_CHUNK_SIZE, values.length - start);
+        int size = Integer.highestOneBit(n);
+        if (size < n) {
+            size <<= 1;
+        }
+        String[] args = new String[size];
+        System.arraycopy(values, start, args, 0, n);
+        for (int i=n; i<size; i++) {
+            args[i] = values[start + n - 1];
+        }
+        return args;
+    }
+
+    /**
+     * Remove the duplicate values, keeping the order of their first occurrence.
+     */
+    static String[] distinct(Collection<String> values) {
+        return new LinkedHashSet<>(values).toArray(new String[0]);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+/**
+ * Distance computations between two points given by their latitude and longitude in degrees.
+ * <p>All methods work on primitive values and do not allocate, so they can be used to rank large numbers of geofences
+ * without creating any garbage, as opposed to {@code android.location.Location.distanceTo()}.
+ * <p>Distances are computed on a sphere whose radius is the mean Earth radius. Compared to geodesic distances on the WGS84 ellipsoid,
+ * the error is at most 0.5%, which is well under the accuracy of network-based locations.
+ */
+public final class GeoDistance {
+    /**
+     * Mean Earth radius in meters.
+     */
+    public static final double EARTH_RADIUS = 6_371_008.8d;
+
+    private GeoDistance() {
+    }
+
+    /**
+     * Compute the great-circle distance between two points with the haversine formula.
+     * @param lat1 latitude of the first point.
+     * @param lng1 longitude of the first point.
+     * @param lat2 latitude of the second point.
+     * @param lng2 longitude of the second point.
+     * @return the distance in meters.
+     */
+    public static double haversine(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinDPhi = Math.sin((phi2 - phi1) / 2d);
+        double sinDLambda = Math.sin(Math.toRadians(lng2 - lng1) / 2d);
+        double h = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2) * sinDLambda * sinDLambda;
+        return 2d * EARTH_RADIUS * Math.asin(Math.min(1d, Math.sqrt(h)));
+    }
+
+    /**
+     * Compute an approximation of the distance between two points with the equirectangular projection.
+     * <p>This is cheaper than {@link #haversine(double, double, double, double) haversine()} as it only requires one cosine and one square root.
+     * Compared to the haversine distance, the relative error is less than 0.01% for distances up to 100 km at latitudes up to 70 degrees,
+     * and less than 0.05% for the same distances at latitudes up to 80 degrees. It increases quickly closer to the poles.
+     * @param lat1 latitude of the first point.
+     * @param lng1 longitude of the first point.
+     * @param lat2 latitude of the second point.
+     * @param lng2 longitude of the second point.
+     * @return the approximate distance in meters.
+     */
+    public static double equirectangular(double lat1, double lng1, double lat2, double lng2) {
+        return EARTH_RADIUS * Math.sqrt(squaredEquirectangular(lat1, lng1, lat2, lng2));
+    }
+
+    /**
+     * Compute the square of the equirectangular distance between two points, expressed in radians.
+     * <p>The result is monotonic with the distance, and is therefore suitable for ranking candidates by distance
+     * without computing any square root. Use {@link #fromSquaredEquirectangular(double)} to convert it to meters.
+     * @param lat1 latitude of the first point.
+     * @param lng1 longitude of the first point.
+     * @param lat2 latitude of the second point.
+     * @param lng2 longitude of the second point.
+     * @return the squared angular distance.
+     */
+    public static double squaredEquirectangular(double lat1, double lng1, double lat2, double lng2) {
+        double dLambda = Math.toRadians(lng2 - lng1);
+        // take the shortest way around, accross the antimeridian if needed
+        if (dLambda > Math.PI) {
+            dLambda -= 2d * Math.PI;
+        } else if (dLambda < -Math.PI) {
+            dLambda += 2d * Math.PI;
+        }
+        double x = dLambda * Math.cos(Math.toRadians((lat1 + lat2) / 2d));
+        double y = Math.toRadians(lat2 - lat1);
+        return x * x + y * y;
+    }
+
+    /**
+     * Convert a value computed with {@link #squaredEquirectangular(double, double, double, double) squaredEquirectangular()} into a distance in meters.
+     * @param squared the squared angular distance.
+     * @return the corresponding distance in meters.
+     */
+    public static double fromSquaredEquirectangular(double squared) {
+        return EARTH_RADIUS * Math.sqrt(squared);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+/**
+ * A fixed grid of cells over the whole Earth, used as a spatial index key for the geofences in the local database.
+ * <p>Cells are {@link #CELL_SIZE} degrees wide and high, and numbered row by row from the south-west corner,
+ * such that the cells of a row within a range of longitudes have contiguous keys.
+ * <p>The cell key computation must be kept in sync with the SQL migration scripts in {@code assets/sugar_upgrades}.
+ */
+final class GeoGrid {
+    /**
+     * Size of a cell in degrees, roughly 5.5 km in latitude.
+     */
+    static final double CELL_SIZE = 0.05d;
+    /**
+     * Number of rows in the grid.
+     */
+    static final int ROWS = 3600;
+    /**
+     * Number of columns in the grid.
+     */
+    static final int COLUMNS = 7200;
+    /**
+     * Beyond this number of rows, the cell ranges of a bounding box are merged into a single range.
+     */
+    static final int MAX_RANGES = 16;
+
+    private GeoGrid() {
+    }
+
+    /**
+     * Compute the key of the cell containing the specified location.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return the cell key.
+     */
+    static long cellKey(double latitude, double longitude) {
+        return (long) row(latitude) * COLUMNS + column(longitude);
+    }
+
+    /**
+     * Compute the grid row for the specified latitude.
+     */
+    static int row(double latitude) {
+        int row = (int) Math.floor((latitude + 90d) / CELL_SIZE);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    /**
+     * Compute the grid column for the specified longitude. The antimeridian written as 180 belongs to the last column,
+     * where the east part of a bounding box crossing it ends, rather than wrapping to the first one.
+     */
+    static int column(double longitude) {
+        int column = (int) Math.floor((GeoQueryPlanner.normalizeLongitude(longitude) + 180d) / CELL_SIZE);
+        return Math.max(0, Math.min(COLUMNS - 1, column));
+    }
+
+    /**
+     * Compute the ranges of cell keys covering the specified bounding box, which must not cross the antimeridian.
+     * There is one range per row of cells, unless the box spans more than {@link #MAX_RANGES} rows,
+     * in which case a single range from the first to the last cell is returned.
+     * @param minLat the minimum latitude of the bounding box.
+     * @param maxLat the maximum latitude of the bounding box.
+     * @param minLng the minimum longitude of the bounding box.
+     * @param maxLng the maximum longitude of the bounding box.
+     * @return the ranges as an array of {@code [start0, end0, start1, end1, ...]}, where the bounds are inclusive.
+     */
+    static long[] cellRanges(double minLat, double maxLat, double minLng, double maxLng) {
+        int row0 = row(minLat);
+        int row1 = row(maxLat);
+        int col0 = column(minLng);
+        int col1 = (maxLng >= 180d) ? COLUMNS - 1 : column(maxLng);
+        int nbRows = row1 - row0 + 1;
+        if ((nbRows > MAX_RANGES) || ((col0 == 0) && (col1 == COLUMNS - 1))) {
+            // full rows are contiguous anyway
+            return new long[] { (long) row0 * COLUMNS + col0, (long) row1 * COLUMNS + col1 };
+        }
+        long[] ranges = new long[2 * nbRows];
+        for (int i=0; i<nbRows; i++) {
+            long rowStart = (long) (row0 + i) * COLUMNS;
+            ranges[2 * i] = rowStart + col0;
+            ranges[2 * i + 1] = rowStart + col1;
+        }
+        return ranges;
+    }
+}
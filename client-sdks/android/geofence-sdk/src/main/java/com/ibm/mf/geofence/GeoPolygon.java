@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A polygon outline given as GeoJSON rings of {@code [longitude, latitude]} positions, with a point-in-polygon test
+ * accelerated by a precomputed grid of edge buckets.
+ * <p>The bounding box of the polygon is divided into horizontal slabs, and each slab holds the edges which overlap it in latitude.
+ * A containment test then casts a ray only across the edges of the slab containing the point, which makes it roughly
+ * O(edges / slabs) instead of O(edges). The even-odd rule is applied over all the rings, so inner rings are holes.
+ * <p>Coordinates are handled as planar, which is accurate enough for venue-sized polygons. Longitudes are unwrapped relative
+ * to the first vertex, so that polygons crossing the antimeridian are supported.
+ */
+final class GeoPolygon {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeoPolygon.class.getSimpleName());
+    /**
+     * Maximum number of slabs.
+     */
+    private static final int MAX_SLABS = 256;
+    /**
+     * Number of recently used polygons kept in {@link #sCache}.
+     */
+    private static final int CACHE_SIZE = 32;
+    /**
+     * Recently used polygons, by GeoJSON coordinates.
+     */
+    private static final Map<String, GeoPolygon> sCache = new LinkedHashMap<String, GeoPolygon>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GeoPolygon> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    /**
+     * Longitude of the first vertex, used as the reference for unwrapping longitudes.
+     */
+    private final double mRefLng;
+    /**
+     * Bounding box of the polygon, with unwrapped longitudes.
+     */
+    private final double mMinLat;
+    private final double mMaxLat;
+    private final double mMinLng;
+    private final double mMaxLng;
+    /**
+     * Edges end points, as parallel arrays.
+     */
+    private final double[] mLat1;
+    private final double[] mLng1;
+    private final double[] mLat2;
+    private final double[] mLng2;
+    /**
+     * Height of a slab in degrees of latitude.
+     */
+    private final double mSlabHeight;
+    /**
+     * Edges of slab {@code i} are {@code mSlabEdges[mSlabStart[i]]} to {@code mSlabEdges[mSlabStart[i + 1] - 1]}.
+     */
+    private final int[] mSlabStart;
+    private final int[] mSlabEdges;
+
+    /**
+     * Build a polygon from the specified rings.
+     * @param rings the rings of {@code [longitude, latitude]} positions, the first one being the outer ring.
+     */
+    GeoPolygon(double[][][] rings) {
+        if ((rings == null) || (rings.length == 0) || (rings[0].length < 3)) {
+            throw new IllegalArgumentException("a polygon requires at least 3 vertices");
+        }
+        mRefLng = rings[0][0][0];
+        int nbEdges = 0;
+        for (double[][] ring: rings) {
+            nbEdges += ring.length;
+        }
+        mLat1 = new double[nbEdges];
+        mLng1 = new double[nbEdges];
+        mLat2 = new double[nbEdges];
+        mLng2 = new double[nbEdges];
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+        int e = 0;
+        for (double[][] ring: rings) {
+            for (int i=0; i<ring.length; i++) {
+                // closing the ring is implicit, a duplicate closing vertex only adds a zero-length edge
+                double[] p1 = ring[i];
+                double[] p2 = ring[(i + 1) % ring.length];
+                mLng1[e] = unwrap(p1[0]);
+                mLat1[e] = p1[1];
+                mLng2[e] = unwrap(p2[0]);
+                mLat2[e] = p2[1];
+                minLat = Math.min(minLat, mLat1[e]);
+                maxLat = Math.max(maxLat, mLat1[e]);
+                minLng = Math.min(minLng, mLng1[e]);
+                maxLng = Math.max(maxLng, mLng1[e]);
+                e++;
+            }
+        }
+        mMinLat = minLat;
+        mMaxLat = maxLat;
+        mMinLng = minLng;
+        mMaxLng = maxLng;
+        int nbSlabs = Math.max(1, Math.min(MAX_SLABS, nbEdges / 4));
+        mSlabHeight = Math.max((maxLat - minLat) / nbSlabs, Double.MIN_NORMAL);
+        // count, then fill the edges of each slab
+        mSlabStart = new int[nbSlabs + 1];
+        for (int i=0; i<nbEdges; i++) {
+            int s0 = slab(Math.min(mLat1[i], mLat2[i]), nbSlabs);
+            int s1 = slab(Math.max(mLat1[i], mLat2[i]), nbSlabs);
+            for (int s = s0; s <= s1; s++) {
+                mSlabStart[s + 1]++;
+            }
+        }
+        for (int s=0; s<nbSlabs; s++) {
+            mSlabStart[s + 1] += mSlabStart[s];
+        }
+        mSlabEdges = new int[mSlabStart[nbSlabs]];
+        int[] fill = new int[nbSlabs];
+        for (int i=0; i<nbEdges; i++) {
+            int s0 = slab(Math.min(mLat1[i], mLat2[i]), nbSlabs);
+            int s1 = slab(Math.max(mLat1[i], mLat2[i]), nbSlabs);
+            for (int s = s0; s <= s1; s++) {
+                mSlabEdges[mSlabStart[s] + fill[s]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Determine whether the specified location is inside this polygon.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return {@code true} if the location is inside the polygon, {@code false} otherwise.
+     */
+    boolean contains(double latitude, double longitude) {
+        double lng = unwrap(longitude);
+        if ((latitude < mMinLat) || (latitude > mMaxLat) || (lng < mMinLng) || (lng > mMaxLng)) {
+            return false;
+        }
+        int s = slab(latitude, mSlabStart.length - 1);
+        boolean inside = false;
+        for (int k = mSlabStart[s]; k < mSlabStart[s + 1]; k++) {
+            int i = mSlabEdges[k];
+            // half-open test on latitudes, so that a vertex on the ray is counted once
+            if ((mLat1[i] > latitude) != (mLat2[i] > latitude)) {
+                double x = mLng1[i] + (latitude - mLat1[i]) * (mLng2[i] - mLng1[i]) / (mLat2[i] - mLat1[i]);
+                if (lng < x) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Compute the smallest circle centered on the middle of the bounding box which contains the polygon.
+     * @return the circle as {@code [latitude, longitude, radius]}, with the radius in meters.
+     */
+    double[] boundingCircle() {
+        double lat = (mMinLat + mMaxLat) / 2d;
+        double lng = GeoQueryPlanner.normalizeLongitude((mMinLng + mMaxLng) / 2d);
+        double radius = 0d;
+        for (int i=0; i<mLat1.length; i++) {
+            radius = Math.max(radius, GeoDistance.haversine(lat, lng, mLat1[i], mLng1[i]));
+        }
+        return new double[] { lat, lng, radius };
+    }
+
+    /**
+     * Get the index of the slab containing the specified latitude.
+     */
+    private int slab(double latitude, int nbSlabs) {
+        int s = (int) ((latitude - mMinLat) / mSlabHeight);
+        return Math.max(0, Math.min(nbSlabs - 1, s));
+    }
+
+    /**
+     * Bring the specified longitude within 180 degrees of the first vertex.
+     */
+    private double unwrap(double longitude) {
+        double d = longitude - mRefLng;
+        if (d > 180d) {
+            return longitude - 360d;
+        } else if (d < -180d) {
+            return longitude + 360d;
+        }
+        return longitude;
+    }
+
+    /**
+     * Get the polygon for the specified GeoJSON coordinates, reusing a recently built one if possible.
+     * @param coordinates the GeoJSON coordinates of the polygon, as stored in {@link PersistentGeofence}.
+     * @return a {@link GeoPolygon} instance.
+     * @throws JSONException if the coordinates cannot be parsed.
+     */
+    static GeoPolygon fromCoordinates(String coordinates) throws JSONException {
+        synchronized(sCache) {
+            GeoPolygon polygon = sCache.get(coordinates);
+            if (polygon == null) {
+                polygon = new GeoPolygon(parseRings(coordinates));
+                sCache.put(coordinates, polygon);
+            }
+            return polygon;
+        }
+    }
+
+    /**
+     * Parse the GeoJSON coordinates of a polygon, logging any error.
+     * @param coordinates the coordinates as a JSON array of rings.
+     * @return the rings of {@code [longitude, latitude]} positions, or {@code null} if the coordinates cannot be parsed.
+     */
+    static double[][][] toRings(String coordinates) {
+        try {
+            return parseRings(coordinates);
+        } catch(JSONException e) {
+            log.error("invalid polygon coordinates " + coordinates, e);
+        }
+        return null;
+    }
+
+    /**
+     * Convert the specified rings into GeoJSON coordinates, logging any error.
+     * @param rings the rings of {@code [longitude, latitude]} positions.
+     * @return the coordinates as a JSON array of rings, or {@code null} if a coordinate is not a finite number.
+     */
+    static String toCoordinates(double[][][] rings) {
+        try {
+            return formatRings(rings);
+        } catch(JSONException e) {
+            log.error("invalid polygon", e);
+        }
+        return null;
+    }
+
+    /**
+     * Parse the GeoJSON coordinates of a polygon.
+     * @param coordinates the coordinates as a JSON array of rings.
+     * @return the rings of {@code [longitude, latitude]} positions.
+     * @throws JSONException if the coordinates cannot be parsed.
+     */
+    static double[][][] parseRings(String coordinates) throws JSONException {
+        return parseRings(new JSONArray(coordinates));
+    }
+
+    /**
+     * Parse the GeoJSON coordinates of a polygon.
+     * @param json the coordinates as a JSON array of rings.
+     * @return the rings of {@code [longitude, latitude]} positions.
+     * @throws JSONException if the coordinates cannot be parsed.
+     */
+    static double[][][] parseRings(JSONArray json) throws JSONException {
+        double[][][] rings = new double[json.length()][][];
+        for (int r=0; r<rings.length; r++) {
+            JSONArray ring = json.getJSONArray(r);
+            rings[r] = new double[ring.length()][];
+            for (int i=0; i<ring.length(); i++) {
+                JSONArray position = ring.getJSONArray(i);
+                rings[r][i] = new double[] { position.getDouble(0), position.getDouble(1) };
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * Convert the specified rings into GeoJSON coordinates.
+     * @param rings the rings of {@code [longitude, latitude]} positions.
+     * @return the coordinates as a JSON array of rings.
+     * @throws JSONException if a coordinate is not a finite number.
+     */
+    static String formatRings(double[][][] rings) throws JSONException {
+        JSONArray json = new JSONArray();
+        for (double[][] ring: rings) {
+            JSONArray jsonRing = new JSONArray();
+            for (double[] position: ring) {
+                jsonRing.put(new JSONArray().put(position[0]).put(position[1]));
+            }
+            json.put(jsonRing);
+        }
+        return json.toString();
+    }
+}
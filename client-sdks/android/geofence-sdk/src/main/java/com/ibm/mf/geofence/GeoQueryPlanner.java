@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+/**
+ * Computes the bounding boxes to query in order to find all the geofences within a given distance of a location.
+ * <p>The resulting boxes never cross the antimeridian: a search area that does is split into two disjoint boxes,
+ * one on each side. A search area that contains a pole is clamped to the pole latitude and covers all longitudes.
+ * Each box is expressed as an array of {@code [minLatitude, maxLatitude, minLongitude, maxLongitude]}, and can be fed
+ * as is to any spatial index over the geofences.
+ */
+final class GeoQueryPlanner {
+    private GeoQueryPlanner() {
+    }
+
+    /**
+     * Compute the boxes covering all points within the specified distance of the specified location.
+     * @param latitude the latitude of the center of the search area.
+     * @param longitude the longitude of the center of the search area.
+     * @param radius the radius of the search area in meters, a negative radius being treated as zero.
+     * @return one or two disjoint bounding boxes.
+     */
+    static double[][] plan(double latitude, double longitude, double radius) {
+        double angular = Math.max(0d, radius) / GeoDistance.EARTH_RADIUS;
+        double dLat = Math.toDegrees(angular);
+        double minLat = latitude - dLat;
+        double maxLat = latitude + dLat;
+        if ((minLat <= -90d) || (maxLat >= 90d)) {
+            // the search area contains a pole: all longitudes are covered
+            return new double[][] { { Math.max(-90d, minLat), Math.min(90d, maxLat), -180d, 180d } };
+        }
+        // half-width in longitude of the circle, computed at the latitude of its tangent points to the meridians
+        double ratio = Math.sin(angular) / Math.cos(Math.toRadians(latitude));
+        if (ratio >= 1d) {
+            return new double[][] { { minLat, maxLat, -180d, 180d } };
+        }
+        double dLng = Math.toDegrees(Math.asin(ratio));
+        double lng = normalizeLongitude(longitude);
+        double minLng = lng - dLng;
+        double maxLng = lng + dLng;
+        if (minLng < -180d) {
+            return new double[][] { { minLat, maxLat, minLng + 360d, 180d }, { minLat, maxLat, -180d, maxLng } };
+        } else if (maxLng > 180d) {
+            return new double[][] { { minLat, maxLat, minLng, 180d }, { minLat, maxLat, -180d, maxLng - 360d } };
+        }
+        return new double[][] { { minLat, maxLat, minLng, maxLng } };
+    }
+
+    /**
+     * Bring the specified longitude into the {@code [-180, 180]} range.
+     */
+    static double normalizeLongitude(double longitude) {
+        if ((longitude >= -180d) && (longitude <= 180d)) {
+            return longitude;
+        }
+        double lng = (longitude + 180d) % 360d;
+        if (lng < 0d) {
+            lng += 360d;
+        }
+        return lng - 180d;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A fixed grid of tiles over the whole Earth, used as the unit of synchronization when only the geofences near the device
+ * are downloaded from the server.
+ * <p>Tiles are {@link #TILE_SIZE} degrees wide and high, and numbered row by row from the south-west corner like the cells of {@link GeoGrid}.
+ * A geofence belongs to the tile which contains its center. Each tile includes its southern and western edges, except the last row
+ * and column which also include their northern and eastern edges.
+ */
+final class GeoTiles {
+    /**
+     * Size of a tile in degrees, roughly 28 km in latitude.
+     */
+    static final double TILE_SIZE = 0.25d;
+    /**
+     * Number of rows in the grid.
+     */
+    static final int ROWS = 720;
+    /**
+     * Number of columns in the grid.
+     */
+    static final int COLUMNS = 1440;
+
+    private GeoTiles() {
+    }
+
+    /**
+     * Compute the key of the tile containing the specified location.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return the tile key.
+     */
+    static long tileKey(double latitude, double longitude) {
+        return (long) row(latitude) * COLUMNS + column(longitude);
+    }
+
+    /**
+     * Compute the tile row for the specified latitude.
+     */
+    static int row(double latitude) {
+        int row = (int) Math.floor((latitude + 90d) / TILE_SIZE);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    /**
+     * Compute the tile column for the specified longitude.
+     */
+    static int column(double longitude) {
+        int column = (int) Math.floor((GeoQueryPlanner.normalizeLongitude(longitude) + 180d) / TILE_SIZE);
+        return Math.max(0, Math.min(COLUMNS - 1, column));
+    }
+
+    /**
+     * Compute the bounding box of the specified tile.
+     * @param tileKey the key of the tile.
+     * @return the box as an array of {@code [minLatitude, maxLatitude, minLongitude, maxLongitude]}.
+     */
+    static double[] bounds(long tileKey) {
+        int row = (int) (tileKey / COLUMNS);
+        int column = (int) (tileKey % COLUMNS);
+        double minLat = row * TILE_SIZE - 90d;
+        double minLng = column * TILE_SIZE - 180d;
+        return new double[] { minLat, minLat + TILE_SIZE, minLng, minLng + TILE_SIZE };
+    }
+
+    /**
+     * Compute the distance between the specified location and the center of the specified tile.
+     * @param tileKey the key of the tile.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return the distance in meters.
+     */
+    static double distance(long tileKey, double latitude, double longitude) {
+        double[] box = bounds(tileKey);
+        return GeoDistance.haversine(latitude, longitude, (box[0] + box[1]) / 2d, (box[2] + box[3]) / 2d);
+    }
+
+    /**
+     * Compute the distance between the specified location and the nearest point of the specified tile.
+     * @param tileKey the key of the tile.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return the distance in meters, 0 if the location is in the tile.
+     */
+    static double distanceToEdge(long tileKey, double latitude, double longitude) {
+        double[] box = bounds(tileKey);
+        double lat = Math.max(box[0], Math.min(box[1], latitude));
+        double lng = GeoQueryPlanner.normalizeLongitude(longitude);
+        if ((lng < box[2]) || (lng > box[3])) {
+            // the nearest edge may be on the other side of the antimeridian
+            double west = GeoQueryPlanner.normalizeLongitude(box[2] - lng);
+            double east = GeoQueryPlanner.normalizeLongitude(lng - box[3]);
+            lng = (Math.abs(west) <= Math.abs(east)) ? box[2] : box[3];
+        }
+        return GeoDistance.haversine(latitude, longitude, lat, lng);
+    }
+
+    /**
+     * Compute the keys of the tiles covering all points within the specified distance of the specified location.
+     * @param latitude the latitude of the center of the area.
+     * @param longitude the longitude of the center of the area.
+     * @param radius the radius of the area in meters.
+     * @return the tile keys, starting with the tile of the location.
+     */
+    static Set<Long> tilesAround(double latitude, double longitude, double radius) {
+        Set<Long> result = new LinkedHashSet<>();
+        result.add(tileKey(latitude, longitude));
+        for (double[] box: GeoQueryPlanner.plan(latitude, longitude, radius)) {
+            int row1 = row(box[1]);
+            int col0 = column(box[2]);
+            int col1 = (box[3] >= 180d) ? COLUMNS - 1 : column(box[3]);
+            for (int row = row(box[0]); row <= row1; row++) {
+                for (int col = col0; col <= col1; col++) {
+                    result.add((long) row * COLUMNS + col);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decoder for the compact binary encoding of geofence listings, an alternative to GeoJSON served with the {@link #MEDIA_TYPE} content type.
+ * <p>The encoding is, in order:
+ * <ul>
+ *     <li>the 4 bytes {@code "MFGF"} followed by the version byte {@link #VERSION}</li>
+ *     <li>the properties of the listing, as in GeoJSON, as a string</li>
+ *     <li>the string table: a count followed by the strings, which are referenced by their 1-based index, 0 standing for {@code null}</li>
+ *     <li>the geofences: a count followed by, for each geofence, the indexes of its code, name and description, a geometry type byte,
+ *     then either a position and a radius in centimeters for a point (0), or a count of rings, each with a count of positions,
+ *     for a polygon (1)</li>
+ * </ul>
+ * Counts, lengths and indexes are unsigned varints. Strings are a byte length followed by UTF-8 bytes. Positions are
+ * longitude then latitude in units of 10<sup>-7</sup> degree, as zigzag-encoded varints of the difference with the previous position.
+ * <p>Decoding involves neither text parsing nor boxing of numbers, and the geofences are written to the local database
+ * via a {@link GeofenceMerger} as soon as they are decoded.
+ */
+final class GeofenceBinaryFormat {
+    /**
+     * Content type of the binary encoding.
+     */
+    static final String MEDIA_TYPE = "application/vnd.ibm.mf-geofences";
+    /**
+     * The bytes at the start of the binary encoding.
+     */
+    static final byte[] MAGIC = { 'M', 'F', 'G', 'F' };
+    /**
+     * The version of the encoding supported by this decoder.
+     */
+    static final int VERSION = 1;
+    private static final int TYPE_POINT = 0;
+    private static final int TYPE_POLYGON = 1;
+    /**
+     * Number of fixed-point coordinate units per degree.
+     */
+    private static final double UNITS_PER_DEGREE = 1e7d;
+    private final DataInputStream mIn;
+    /**
+     * The string table, whose first element is {@code null}.
+     */
+    private String[] mStrings;
+    /**
+     * The previous position decoded, in fixed-point units.
+     */
+    private long mLng = 0L;
+    private long mLat = 0L;
+
+    /**
+     * Create a decoder reading from the specified stream.
+     * @param in the stream to read from, which is buffered by this decoder.
+     */
+    GeofenceBinaryFormat(InputStream in) {
+        this.mIn = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Determine whether the specified stream holds the binary encoding, without consuming it.
+     * @param in a stream which supports {@link InputStream#mark(int) mark and reset}.
+     * @return {@code true} if the stream starts with the binary encoding magic bytes, {@code false} otherwise.
+     * @throws IOException if an error occurs while reading.
+     */
+    static boolean isBinary(InputStream in) throws IOException {
+        byte[] start = new byte[MAGIC.length];
+        in.mark(MAGIC.length);
+        try {
+            int n = 0;
+            int count;
+            while ((n < start.length) && ((count = in.read(start, n, start.length - n)) > 0)) {
+                n += count;
+            }
+            return (n == start.length) && Arrays.equals(start, MAGIC);
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Decode a page of a binary listing of geofences from the specified stream and pass its geofences to the specified sink,
+     * such as a {@link GeofenceMerger} which merges them into the local database. The stream is not closed by this method.
+     * @param in the stream to read from.
+     * @param sink the sink which receives the geofences, usually a {@link GeofenceMerger}.
+     * @return the decoded geofences, the codes of the deleted ones, the new synchronization watermark and the cursor of the next page.
+     * @throws Exception if a decoding error occurs. In this case, the batches already written are kept and no geofence is deleted.
+     */
+    static GeofenceList parseGeofences(InputStream in, GeofenceSink sink) throws Exception {
+        GeofenceBinaryFormat decoder = new GeofenceBinaryFormat(in);
+        JSONObject properties = decoder.readHeader();
+        int count = decoder.readCount();
+        for (int i=0; i<count; i++) {
+            sink.add(decoder.readGeofence());
+        }
+        return sink.finish(properties);
+    }
+
+    /**
+     * Read the header of the encoding, up to and including the string table.
+     * @return the properties of the listing.
+     * @throws Exception if the header is not valid.
+     */
+    JSONObject readHeader() throws Exception {
+        byte[] magic = new byte[MAGIC.length];
+        mIn.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a binary geofence listing");
+        }
+        int version = mIn.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported binary geofence listing version " + version);
+        }
+        JSONObject properties = new JSONObject(readString());
+        mStrings = new String[readCount() + 1];
+        for (int i=1; i<mStrings.length; i++) {
+            mStrings[i] = readString();
+        }
+        return properties;
+    }
+
+    /**
+     * Read a count or a length.
+     */
+    int readCount() throws IOException {
+        long count = readVarint();
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Read the next geofence.
+     * @return a {@link PersistentGeofence} which is not yet stored in the local database.
+     * @throws Exception if the geofence is not valid.
+     */
+    PersistentGeofence readGeofence() throws Exception {
+        String code = readStringRef();
+        String name = readStringRef();
+        String description = readStringRef();
+        int type = mIn.readUnsignedByte();
+        if (type == TYPE_POINT) {
+            double[] position = readPosition();
+            double radius = readSignedVarint() / 100d;
+            return new PersistentGeofence(code, name, description, position[1], position[0], radius, null);
+        } else if (type == TYPE_POLYGON) {
+            double[][][] rings = new double[readCount()][][];
+            for (int r=0; r<rings.length; r++) {
+                rings[r] = new double[readCount()][];
+                for (int i=0; i<rings[r].length; i++) {
+                    rings[r][i] = readPosition();
+                }
+            }
+            // polygons are registered with the platform as their bounding circle, like in GeoJSON
+            double[] circle = new GeoPolygon(rings).boundingCircle();
+            return new PersistentGeofence(code, name, description, circle[0], circle[1], circle[2], GeoPolygon.formatRings(rings));
+        }
+        throw new IOException("unknown geometry type " + type + " for geofence " + code);
+    }
+
+    /**
+     * Read the next position and make it the reference of the following one.
+     * @return the position as {@code [longitude, latitude]} in degrees.
+     */
+    private double[] readPosition() throws IOException {
+        mLng += readSignedVarint();
+        mLat += readSignedVarint();
+        return new double[] { mLng / UNITS_PER_DEGREE, mLat / UNITS_PER_DEGREE };
+    }
+
+    /**
+     * Read a reference to the string table.
+     */
+    private String readStringRef() throws IOException {
+        int index = readCount();
+        if (index >= mStrings.length) {
+            throw new IOException("invalid string index " + index);
+        }
+        return mStrings[index];
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readCount()];
+        mIn.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private long readVarint() throws IOException {
+        long result = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = mIn.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private long readSignedVarint() throws IOException {
+        long n = readVarint();
+        return (n >>> 1) ^ -(n & 1L);
+    }
+}
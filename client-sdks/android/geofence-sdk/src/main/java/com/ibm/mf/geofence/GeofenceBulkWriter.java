@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orm.SugarContext;
+import com.orm.SugarDb;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Merges large numbers of geofences into the local database.
+ * <p>Each geofence is looked up by its unique code in a map of the ids of the local geofences, to determine whether it is
+ * inserted or updated. The map is loaded from the database once, then kept up to date by the writes, which all go through
+ * this class. The changes are applied in transactions of {@link #BATCH_SIZE} rows, each with compiled statements
+ * that are reused for all the rows.
+ * The process-wide {@link GeofenceRTree} is invalidated after each transaction commits.
+ * <p>All the writes are serialized by the process-wide {@link #MERGE_LOCK}, which the {@link GeofenceMerger} also holds while
+ * it computes and applies the deletions of a listing, so that listings downloaded concurrently do not interleave those changes.
+ * <p>The database is accessed directly, bypassing the Sugar ORM mapping. If it cannot be obtained from Sugar, the writer
+ * falls back to the Sugar API, which still avoids one query per geofence.
+ */
+final class GeofenceBulkWriter {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceBulkWriter.class.getSimpleName());
+    /**
+     * Maximum number of rows written in a single transaction.
+     */
+    static final int BATCH_SIZE = 500;
+    /**
+     * Lock held while the local geofences are written.
+     */
+    static final Object MERGE_LOCK = new Object();
+    private static final String SELECT_CODES_SQL = "SELECT ID, M_CODE FROM PERSISTENT_GEOFENCE";
+    private static final String INSERT_SQL = "INSERT INTO PERSISTENT_GEOFENCE"
+        + " (M_CODE, M_NAME, M_DESCRIPTION, M_LATITUDE, M_LONGITUDE, M_RADIUS, M_CELL_KEY, M_POLYGON) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL = "UPDATE PERSISTENT_GEOFENCE"
+        + " SET M_CODE = ?, M_NAME = ?, M_DESCRIPTION = ?, M_LATITUDE = ?, M_LONGITUDE = ?, M_RADIUS = ?, M_CELL_KEY = ?, M_POLYGON = ? WHERE ID = ?";
+    private static final String DELETE_SQL = "DELETE FROM PERSISTENT_GEOFENCE WHERE M_CODE = ?";
+    /**
+     * The ids of the local geofences by code, guarded by {@link #MERGE_LOCK}, or {@code null} until the first write
+     * or after a failed one.
+     */
+    private static Map<String, Long> sCodeIds;
+    /**
+     * The database to write to, or {@code null} to use the Sugar API.
+     */
+    private final SQLiteDatabase mDatabase;
+
+    /**
+     * Initialize this writer with the database managed by Sugar.
+     */
+    GeofenceBulkWriter() {
+        this(sugarDatabase());
+    }
+
+    /**
+     * Initialize this writer with the specified database.
+     * @param database the database to write to, or {@code null} to use the Sugar API.
+     */
+    GeofenceBulkWriter(SQLiteDatabase database) {
+        this.mDatabase = database;
+    }
+
+    /**
+     * Get the ids of the geofences in the local database, by code.
+     */
+    Map<String, Long> codeIds() {
+        Map<String, Long> codeIds = new HashMap<>();
+        if (mDatabase != null) {
+            Cursor cursor = mDatabase.rawQuery(SELECT_CODES_SQL, null);
+            try {
+                while (cursor.moveToNext()) {
+                    codeIds.put(cursor.getString(1), cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        } else {
+            for (PersistentGeofence geofence: PersistentGeofence.listAll(PersistentGeofence.class)) {
+                codeIds.put(geofence.getCode(), geofence.getId());
+            }
+        }
+        return codeIds;
+    }
+
+    /**
+     * Insert or update the specified geofences, based on their code. Upon return, each geofence has the id of its database row.
+     * @param geofences the geofences to write.
+     */
+    void upsert(List<PersistentGeofence> geofences) {
+        if (geofences.isEmpty()) {
+            // typically the last batch of a listing whose size is a multiple of the batch size
+            return;
+        }
+        synchronized(MERGE_LOCK) {
+            long start = System.currentTimeMillis();
+            if (sCodeIds == null) {
+                sCodeIds = codeIds();
+            }
+            int inserted;
+            try {
+                inserted = (mDatabase == null) ? upsertWithSugar(geofences, sCodeIds) : upsertWithStatements(geofences, sCodeIds);
+            } catch(RuntimeException e) {
+                // the map may hold the ids of rows whose transaction was rolled back
+                sCodeIds = null;
+                throw e;
+            }
+            log.debug(String.format(Locale.US, "upserted %,d geofences (%,d inserted, %,d updated) in %,d ms",
+                geofences.size(), inserted, geofences.size() - inserted, System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Insert or update the specified geofences with compiled statements.
+     * @param codeIds the ids of the local geofences by code, updated with the inserted ones.
+     * @return the number of inserted geofences.
+     */
+    private int upsertWithStatements(List<PersistentGeofence> geofences, Map<String, Long> codeIds) {
+        int inserted = 0;
+        SQLiteStatement insert = mDatabase.compileStatement(INSERT_SQL);
+        SQLiteStatement update = mDatabase.compileStatement(UPDATE_SQL);
+        try {
+            for (int batch = 0; batch < geofences.size(); batch += BATCH_SIZE) {
+                int end = Math.min(geofences.size(), batch + BATCH_SIZE);
+                mDatabase.beginTransaction();
+                try {
+                    for (int i = batch; i < end; i++) {
+                        PersistentGeofence geofence = geofences.get(i);
+                        Long id = codeIds.get(geofence.getCode());
+                        if (id != null) {
+                            bind(update, geofence);
+                            update.bindLong(9, id);
+                        }
+                        if ((id == null) || (update.executeUpdateDelete() == 0)) {
+                            // a new code, or a row which no longer exists
+                            bind(insert, geofence);
+                            id = insert.executeInsert();
+                            codeIds.put(geofence.getCode(), id);
+                            inserted++;
+                        }
+                        geofence.setId(id);
+                    }
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+                GeofenceRTree.invalidate();
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+        return inserted;
+    }
+
+    /**
+     * Insert or update the specified geofences with the Sugar API.
+     * @param codeIds the ids of the local geofences by code, updated with the inserted ones.
+     * @return the number of inserted geofences.
+     */
+    private int upsertWithSugar(List<PersistentGeofence> geofences, Map<String, Long> codeIds) {
+        int inserted = 0;
+        for (PersistentGeofence geofence: geofences) {
+            Long id = codeIds.get(geofence.getCode());
+            if (id == null) {
+                inserted++;
+            }
+            geofence.setId(id);
+        }
+        PersistentGeofence.saveInTx(geofences);
+        for (PersistentGeofence geofence: geofences) {
+            codeIds.put(geofence.getCode(), geofence.getId());
+        }
+        GeofenceRTree.invalidate();
+        return inserted;
+    }
+
+    /**
+     * Delete the geofences with the specified codes.
+     * @param codes the codes of the geofences to delete.
+     * @return the codes of the geofences that were actually deleted, that is, which existed in the local database.
+     */
+    List<String> delete(Collection<String> codes) {
+        if (codes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        synchronized(MERGE_LOCK) {
+            try {
+                return deleteLocked(codes);
+            } catch(RuntimeException e) {
+                // the map may still hold the ids of deleted rows
+                sCodeIds = null;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Delete the geofences with the specified codes, while holding the {@link #MERGE_LOCK}.
+     */
+    private List<String> deleteLocked(Collection<String> codes) {
+        List<String> deletedCodes = new ArrayList<>();
+        if (mDatabase == null) {
+            deletedCodes.addAll(GeofencingUtils.geofencesToCodes(GeofencingUtils.geofencesFromCodes(codes)));
+            GeofencingUtils.deleteGeofences(deletedCodes);
+        } else {
+            List<String> list = new ArrayList<>(codes);
+            SQLiteStatement delete = mDatabase.compileStatement(DELETE_SQL);
+            try {
+                for (int batch = 0; batch < list.size(); batch += BATCH_SIZE) {
+                    int end = Math.min(list.size(), batch + BATCH_SIZE);
+                    mDatabase.beginTransaction();
+                    try {
+                        for (int i = batch; i < end; i++) {
+                            delete.bindString(1, list.get(i));
+                            if (delete.executeUpdateDelete() > 0) {
+                                deletedCodes.add(list.get(i));
+                            }
+                        }
+                        mDatabase.setTransactionSuccessful();
+                    } finally {
+                        mDatabase.endTransaction();
+                    }
+                    GeofenceRTree.invalidate();
+                }
+            } finally {
+                delete.close();
+            }
+        }
+        if (sCodeIds != null) {
+            sCodeIds.keySet().removeAll(deletedCodes);
+        }
+        log.debug(String.format(Locale.US, "deleted %,d geofences from local DB", deletedCodes.size()));
+        return deletedCodes;
+    }
+
+    /**
+     * Bind the columns of the specified geofence to the first 8 parameters of the specified statement.
+     */
+    private static void bind(SQLiteStatement statement, PersistentGeofence geofence) {
+        statement.clearBindings();
+        statement.bindString(1, geofence.getCode());
+        bindNullable(statement, 2, geofence.getName());
+        bindNullable(statement, 3, geofence.getDescription());
+        statement.bindDouble(4, geofence.getLatitude());
+        statement.bindDouble(5, geofence.getLongitude());
+        statement.bindDouble(6, geofence.getRadius());
+        statement.bindLong(7, geofence.getCellKey());
+        bindNullable(statement, 8, geofence.getPolygon());
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Get the database managed by Sugar. {@code SugarContext.getSugarDb()} is not public, hence the use of reflection.
+     * @return the database, or {@code null} if it could not be obtained.
+     */
+    static SQLiteDatabase sugarDatabase() {
+        try {
+            Method method = SugarContext.class.getDeclaredMethod("getSugarDb");
+            method.setAccessible(true);
+            SugarDb sugarDb = (SugarDb) method.invoke(SugarContext.getSugarContext());
+            return sugarDb.getDB();
+        } catch(Exception e) {
+            log.error("could not access the Sugar database, falling back to the Sugar API", e);
+        }
+        return null;
+    }
+}
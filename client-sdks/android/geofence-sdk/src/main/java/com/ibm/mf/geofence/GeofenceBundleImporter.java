@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports a zipped bundle of geofences into the local database, replacing all the local geofences.
+ * <p>Each entry of the bundle holds geofences in GeoJSON or in the {@link GeofenceBinaryFormat binary encoding}.
+ * The entries are decompressed one after the other, which a zip stream requires, and decoded concurrently on a pool
+ * of worker threads. At most twice as many entries as there are workers are pending, that is, read but not yet merged:
+ * beyond that, the calling thread waits for the oldest pending entry before reading the next one. This bounds the memory
+ * used by the raw and decoded entries, but not that of the catalog, which holds all the distinct geofences of the bundle
+ * until they are written.
+ * <p>The decoded entries are merged in the order of the bundle into a single catalog, a geofence appearing in several entries
+ * being taken from the last one. The catalog is then written to the {@link GeofenceStores#database() local store} in a single pass,
+ * and the local geofences which are not in the catalog are deleted at once.
+ */
+final class GeofenceBundleImporter {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceBundleImporter.class.getSimpleName());
+    /**
+     * Maximum number of worker threads decoding entries.
+     */
+    static final int MAX_THREADS = 4;
+    /**
+     * Number of geofences written between two progress updates.
+     */
+    static final int PROGRESS_BATCH_SIZE = 4 * GeofenceBulkWriter.BATCH_SIZE;
+
+    /**
+     * Receives the progress of an import, on the importing thread.
+     */
+    interface Progress {
+        /**
+         * Called each time an entry is decoded, then each time a batch of geofences is written.
+         * @param decodedEntries the number of entries decoded so far.
+         * @param decodedGeofences the number of distinct geofences decoded so far.
+         * @param writtenGeofences the number of geofences written so far.
+         * @param totalGeofences the number of geofences in the bundle, or -1 while the entries are still being decoded.
+         */
+        void update(int decodedEntries, int decodedGeofences, int writtenGeofences, int totalGeofences);
+    }
+
+    /**
+     * Decodes the geofences of an entry, on a worker thread.
+     */
+    interface EntryDecoder {
+        /**
+         * Decode the specified entry.
+         * @param name the name of the entry, for logging purposes.
+         * @param in the content of the entry, which supports {@link InputStream#mark(int) mark and reset}.
+         * @return the decoded geofences.
+         * @throws Exception if the entry cannot be decoded.
+         */
+        List<PersistentGeofence> decode(String name, InputStream in) throws Exception;
+    }
+
+    /**
+     * Decodes entries in GeoJSON or in the binary encoding.
+     */
+    static final EntryDecoder FORMAT_DECODER = new EntryDecoder() {
+        @Override
+        public List<PersistentGeofence> decode(String name, InputStream in) throws Exception {
+            final List<PersistentGeofence> geofences = new ArrayList<>();
+            GeofenceSink sink = new GeofenceSink() {
+                @Override
+                public void add(PersistentGeofence geofence) {
+                    geofences.add(geofence);
+                }
+
+                @Override
+                public GeofenceList finish(JSONObject properties) {
+                    // the decoded geofences are returned by decode()
+                    return new GeofenceList(null);
+                }
+            };
+            if (GeofenceBinaryFormat.isBinary(in)) {
+                GeofenceBinaryFormat.parseGeofences(in, sink);
+            } else {
+                GeofencingJSONUtils.parseGeofences(in, sink);
+            }
+            return geofences;
+        }
+    };
+
+    private final int mNbThreads;
+    private final Progress mProgress;
+    private final GeofenceStore mStore;
+    private final EntryDecoder mDecoder;
+
+    /**
+     * Initialize this importer.
+     * @param nbThreads the number of worker threads decoding entries.
+     * @param progress the receiver of the progress of the import, or {@code null} if it is not tracked.
+     */
+    GeofenceBundleImporter(int nbThreads, Progress progress) {
+        this(nbThreads, progress, GeofenceStores.database(), FORMAT_DECODER);
+    }
+
+    /**
+     * Initialize this importer.
+     * @param nbThreads the number of worker threads decoding entries.
+     * @param progress the receiver of the progress of the import, or {@code null} if it is not tracked.
+     * @param store the store to write the geofences to.
+     * @param decoder the decoder of the entries.
+     */
+    GeofenceBundleImporter(int nbThreads, Progress progress, GeofenceStore store, EntryDecoder decoder) {
+        this.mNbThreads = Math.max(1, nbThreads);
+        this.mProgress = progress;
+        this.mStore = store;
+        this.mDecoder = decoder;
+    }
+
+    /**
+     * Get the default number of worker threads, based on the number of processors.
+     */
+    static int defaultThreads() {
+        return Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Import the specified bundle. The stream is not closed by this method.
+     * @param bundle the stream to read the zipped bundle from.
+     * @param name the name of the bundle, for logging purposes.
+     * @return the imported geofences and the codes of the deleted ones.
+     * @throws Exception if the bundle cannot be read or one of its entries cannot be decoded. In this case the local database is unchanged.
+     */
+    GeofenceList importBundle(InputStream bundle, String name) throws Exception {
+        long start = System.currentTimeMillis();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(mNbThreads, mNbThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(mNbThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+        Map<String, PersistentGeofence> catalog = new LinkedHashMap<>();
+        List<Future<List<PersistentGeofence>>> entries = new ArrayList<>();
+        // with this many pending entries, the queue of the pool is never full
+        int maxPending = 2 * mNbThreads;
+        int merged = 0;
+        try {
+            ZipInputStream zis = new ZipInputStream(bundle);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    log.debug(String.format("the zip entry [%s]/%s is a directory", name, entry.getName()));
+                    continue;
+                }
+                while (entries.size() - merged >= maxPending) {
+                    mergeEntry(entries, merged++, catalog);
+                }
+                entries.add(pool.submit(new EntryTask(name + '/' + entry.getName(), readEntry(zis, entry), mDecoder)));
+                // merge the entries already decoded as soon as possible, so their geofences are reported early
+                while ((merged < entries.size()) && entries.get(merged).isDone()) {
+                    mergeEntry(entries, merged++, catalog);
+                }
+            }
+            while (merged < entries.size()) {
+                mergeEntry(entries, merged++, catalog);
+            }
+        } catch(Exception e) {
+            pool.shutdownNow();
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        if (entries.isEmpty()) {
+            throw new IOException(String.format("the bundle %s has no entry", name));
+        }
+        long decoded = System.currentTimeMillis();
+        List<PersistentGeofence> geofences = new ArrayList<>(catalog.values());
+        catalog.clear();
+        GeofenceStore store = mStore;
+        for (int i=0; i<geofences.size(); i += PROGRESS_BATCH_SIZE) {
+            int end = Math.min(geofences.size(), i + PROGRESS_BATCH_SIZE);
+            store.upsert(geofences.subList(i, end));
+            notifyProgress(entries.size(), geofences.size(), end, geofences.size());
+        }
+        List<String> codes = GeofencingUtils.geofencesToCodes(geofences);
+        List<String> deletedCodes = GeofenceStores.deleteAllExcept(store, codes, null, null, null);
+        log.debug(String.format(Locale.US, "imported %,d geofences from %,d entries of bundle %s with %d threads, %,d deleted: decoded in %,d ms, written in %,d ms",
+            geofences.size(), entries.size(), name, mNbThreads, deletedCodes.size(), decoded - start, System.currentTimeMillis() - decoded));
+        return new GeofenceList(codes, geofences.size(), deletedCodes);
+    }
+
+    /**
+     * Merge the geofences of the specified decoded entry into the catalog, then release them.
+     */
+    private void mergeEntry(List<Future<List<PersistentGeofence>>> entries, int index, Map<String, PersistentGeofence> catalog) throws Exception {
+        List<PersistentGeofence> geofences;
+        try {
+            geofences = entries.get(index).get();
+        } catch(ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        entries.set(index, null);
+        for (PersistentGeofence geofence: geofences) {
+            catalog.put(geofence.getCode(), geofence);
+        }
+        notifyProgress(index + 1, catalog.size(), 0, -1);
+    }
+
+    private void notifyProgress(int decodedEntries, int decodedGeofences, int writtenGeofences, int totalGeofences) {
+        if (mProgress != null) {
+            mProgress.update(decodedEntries, decodedGeofences, writtenGeofences, totalGeofences);
+        }
+    }
+
+    /**
+     * Read the content of the current entry of the specified zip stream.
+     */
+    private static byte[] readEntry(ZipInputStream zis, ZipEntry entry) throws IOException {
+        long size = entry.getSize();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(((size > 0L) && (size < Integer.MAX_VALUE)) ? (int) size : 64 * 1024);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = zis.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the geofences of an entry, without writing them to the local database.
+     */
+    private static final class EntryTask implements Callable<List<PersistentGeofence>> {
+        private final String mName;
+        private byte[] mBytes;
+        private final EntryDecoder mDecoder;
+
+        EntryTask(String name, byte[] bytes, EntryDecoder decoder) {
+            this.mName = name;
+            this.mBytes = bytes;
+            this.mDecoder = decoder;
+        }
+
+        @Override
+        public List<PersistentGeofence> call() throws Exception {
+            InputStream in = new ByteArrayInputStream(mBytes);
+            mBytes = null;
+            List<PersistentGeofence> geofences = mDecoder.decode(mName, in);
+            log.debug(String.format(Locale.US, "decoded %,d geofences from entry %s", geofences.size(), mName));
+            return geofences;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide, bounded LRU cache of geofences by code, read through from the local database.
+ * <p>Geofence transitions tend to come in bursts over clusters of small geofences, and each one is looked up twice:
+ * by {@link GeofenceTransitionsService} and by {@link MFGeofenceEvent#fromIntent(android.content.Intent)} on the receiving side.
+ * Only geofences loaded from the local database are cached, so that the cached metadata is always complete.
+ * The cache must be invalidated with the codes of the geofences changed by each synchronization. Geofences read from the database
+ * while an invalidation happens are not added to the cache, since they may predate the synchronization.
+ */
+final class GeofenceCache {
+    /**
+     * Maximum number of cached geofences.
+     */
+    static final int CAPACITY = 256;
+    /**
+     * The cached geofences by code, in access order.
+     */
+    private static final Map<String, PersistentGeofence> sCache = new LinkedHashMap<String, PersistentGeofence>(CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PersistentGeofence> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    /**
+     * Incremented by each invalidation, so that the geofences read from the database before it are not cached after it.
+     */
+    private static long sGeneration;
+    /**
+     * Number of codes found in the cache.
+     */
+    private static long sHits;
+    /**
+     * Number of codes not found in the cache.
+     */
+    private static long sMisses;
+
+    private GeofenceCache() {
+    }
+
+    /**
+     * Get the geofences with the specified codes. Those that are not cached are looked up in the specified fallback store,
+     * then in the local database, and only the latter are added to the cache.
+     * @param codes the codes of the geofences to retrieve.
+     * @param fallback a store to look up before the local database, or {@code null} to query the local database directly.
+     * @return the geofences found, in the order of their codes. Unknown codes are ignored.
+     */
+    static List<PersistentGeofence> get(Collection<String> codes, GeofenceStore fallback) {
+        return get(codes, fallback, GeofenceStores.database());
+    }
+
+    /**
+     * Get the geofences with the specified codes, with the specified store as the local database.
+     * @param codes the codes of the geofences to retrieve.
+     * @param fallback a store to look up before the local database, or {@code null} to query the local database directly.
+     * @param database the store of the local database, whose geofences are added to the cache.
+     * @return the geofences found, in the order of their codes. Unknown codes are ignored.
+     */
+    static List<PersistentGeofence> get(Collection<String> codes, GeofenceStore fallback, GeofenceStore database) {
+        Map<String, PersistentGeofence> found = new HashMap<>(2 * codes.size());
+        List<String> missing = new ArrayList<>();
+        long generation;
+        synchronized(sCache) {
+            generation = sGeneration;
+            for (String code: codes) {
+                PersistentGeofence geofence = sCache.get(code);
+                if (geofence != null) {
+                    found.put(code, geofence);
+                } else {
+                    missing.add(code);
+                }
+            }
+            sHits += codes.size() - missing.size();
+            sMisses += missing.size();
+        }
+        if (!missing.isEmpty() && (fallback != null)) {
+            for (PersistentGeofence geofence: fallback.find(missing)) {
+                found.put(geofence.getCode(), geofence);
+            }
+            missing.removeAll(found.keySet());
+        }
+        if (!missing.isEmpty()) {
+            List<PersistentGeofence> loaded = database.find(missing);
+            synchronized(sCache) {
+                for (PersistentGeofence geofence: loaded) {
+                    found.put(geofence.getCode(), geofence);
+                    if (generation == sGeneration) {
+                        sCache.put(geofence.getCode(), geofence);
+                    }
+                }
+            }
+        }
+        List<PersistentGeofence> result = new ArrayList<>(found.size());
+        for (String code: codes) {
+            PersistentGeofence geofence = found.remove(code);
+            if (geofence != null) {
+                result.add(geofence);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the geofences with the specified codes from the cache.
+     * @param codes the codes of the geofences updated or deleted by a synchronization.
+     */
+    static void invalidate(Collection<String> codes) {
+        synchronized(sCache) {
+            sGeneration++;
+            for (String code: codes) {
+                sCache.remove(code);
+            }
+        }
+    }
+
+    /**
+     * Remove all the geofences from the cache.
+     */
+    static void clear() {
+        synchronized(sCache) {
+            sGeneration++;
+            sCache.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached geofences.
+     */
+    static int size() {
+        synchronized(sCache) {
+            return sCache.size();
+        }
+    }
+
+    /**
+     * Get the number of codes found in the cache since the process started.
+     */
+    static long hitCount() {
+        synchronized(sCache) {
+            return sHits;
+        }
+    }
+
+    /**
+     * Get the number of codes not found in the cache since the process started.
+     */
+    static long missCount() {
+        synchronized(sCache) {
+            return sMisses;
+        }
+    }
+
+    /**
+     * Get a summary of the cache usage, for logging purposes.
+     */
+    static String stats() {
+        synchronized(sCache) {
+            return String.format(Locale.US, "%s[size=%d, hits=%,d, misses=%,d]", GeofenceCache.class.getSimpleName(), sCache.size(), sHits, sMisses);
+        }
+    }
+}
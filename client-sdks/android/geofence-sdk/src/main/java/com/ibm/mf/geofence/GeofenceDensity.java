@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import android.content.Context;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Holds the number of geofences in each non-empty {@link GeoGrid} cell, and estimates from it the radius
+ * of the search area that contains a given number of geofences around a location.
+ * <p>The counts are computed after each synchronization and persisted to a small file in the app's private storage,
+ * so they can be used by the services without accessing the local database.
+ */
+final class GeofenceDensity {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceDensity.class.getSimpleName());
+    /**
+     * Name of the file holding the persisted counts.
+     */
+    private static final String FILE_NAME = "mf-geofence-density.bin";
+    /**
+     * Smallest radius returned by {@link #estimateRadius(double, double, int, double)}.
+     */
+    static final double MIN_RADIUS = 250d;
+    /**
+     * Approximate height of a grid cell in meters.
+     */
+    private static final double CELL_HEIGHT = Math.toRadians(GeoGrid.CELL_SIZE) * GeoDistance.EARTH_RADIUS;
+    /**
+     * The last loaded or stored instance, along with the modification date of its file.
+     */
+    private static GeofenceDensity sCached;
+    private static long sCachedTimestamp = -1L;
+    /**
+     * Keys of the non-empty cells, in ascending order.
+     */
+    private final long[] mCellKeys;
+    /**
+     * Number of geofences in each cell, in the same order as {@link #mCellKeys}.
+     */
+    private final int[] mCounts;
+
+    private GeofenceDensity(long[] cellKeys, int[] counts) {
+        this.mCellKeys = cellKeys;
+        this.mCounts = counts;
+    }
+
+    /**
+     * Compute the cell counts for all the geofences in the specified tree.
+     * @param tree the tree holding all the geofences in the local database.
+     * @return a new {@link GeofenceDensity} instance.
+     */
+    static GeofenceDensity fromTree(GeofenceRTree tree) {
+        int size = tree.size();
+        long[] keys = new long[size];
+        for (int i=0; i<size; i++) {
+            keys[i] = GeoGrid.cellKey(tree.getLatitude(i), tree.getLongitude(i));
+        }
+        Arrays.sort(keys);
+        int nbCells = 0;
+        for (int i=0; i<size; i++) {
+            if ((i == 0) || (keys[i] != keys[i - 1])) {
+                nbCells++;
+            }
+        }
+        long[] cellKeys = new long[nbCells];
+        int[] counts = new int[nbCells];
+        int cell = -1;
+        for (int i=0; i<size; i++) {
+            if ((i == 0) || (keys[i] != keys[i - 1])) {
+                cell++;
+                cellKeys[cell] = keys[i];
+            }
+            counts[cell]++;
+        }
+        return new GeofenceDensity(cellKeys, counts);
+    }
+
+    /**
+     * Get the number of geofences in the specified cell.
+     */
+    int count(long cellKey) {
+        int pos = Arrays.binarySearch(mCellKeys, cellKey);
+        return (pos >= 0) ? mCounts[pos] : 0;
+    }
+
+    /**
+     * Estimate the radius of the circle centered on the specified location which contains the specified number of geofences.
+     * <p>Square rings of cells are added around the cell of the location until they hold enough geofences, then the radius
+     * is derived from the average density of geofences in these cells.
+     * @param latitude the latitude of the location.
+     * @param longitude the longitude of the location.
+     * @param nbGeofences the number of geofences the circle should contain.
+     * @param maxRadius the largest radius to return, used when there are not enough geofences around the location.
+     * @return the estimated radius in meters, between {@link #MIN_RADIUS} and {@code maxRadius}.
+     */
+    double estimateRadius(double latitude, double longitude, int nbGeofences, double maxRadius) {
+        int row0 = GeoGrid.row(latitude);
+        int col0 = GeoGrid.column(longitude);
+        double cellWidth = CELL_HEIGHT * Math.max(0.01d, Math.cos(Math.toRadians(latitude)));
+        int maxRing = (int) Math.ceil(maxRadius / CELL_HEIGHT);
+        long total = 0L;
+        for (int ring=0; ring<=maxRing; ring++) {
+            total += ringCount(row0, col0, ring);
+            if (total >= nbGeofences) {
+                double side = 2 * ring + 1;
+                double density = total / (side * CELL_HEIGHT * side * cellWidth);
+                double radius = Math.sqrt(nbGeofences / (Math.PI * density));
+                return Math.max(MIN_RADIUS, Math.min(maxRadius, radius));
+            }
+        }
+        return maxRadius;
+    }
+
+    /**
+     * Count the geofences in the cells at the specified Chebyshev distance from the specified cell.
+     */
+    private long ringCount(int row0, int col0, int ring) {
+        if (ring == 0) {
+            return count(cellKey(row0, col0));
+        }
+        long total = 0L;
+        for (int row = row0 - ring; row <= row0 + ring; row++) {
+            if ((row < 0) || (row >= GeoGrid.ROWS)) {
+                continue;
+            }
+            if ((row == row0 - ring) || (row == row0 + ring)) {
+                for (int col = col0 - ring; col <= col0 + ring; col++) {
+                    total += count(cellKey(row, col));
+                }
+            } else {
+                total += count(cellKey(row, col0 - ring)) + count(cellKey(row, col0 + ring));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Compute a cell key, wrapping the column around the antimeridian.
+     */
+    private static long cellKey(int row, int column) {
+        int col = column % GeoGrid.COLUMNS;
+        if (col < 0) {
+            col += GeoGrid.COLUMNS;
+        }
+        return (long) row * GeoGrid.COLUMNS + col;
+    }
+
+    /**
+     * Persist this instance to the app's private storage.
+     * @param context the context used to locate the app's private storage.
+     */
+    void store(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(mCellKeys.length);
+            for (int i=0; i<mCellKeys.length; i++) {
+                out.writeLong(mCellKeys[i]);
+                out.writeInt(mCounts[i]);
+            }
+        } catch(Exception e) {
+            log.error(String.format("error storing geofence density to %s", file), e);
+        } finally {
+            close(out);
+        }
+        synchronized(GeofenceDensity.class) {
+            sCached = this;
+            sCachedTimestamp = file.lastModified();
+        }
+    }
+
+    /**
+     * Load the counts persisted in the app's private storage.
+     * @param context the context used to locate the app's private storage.
+     * @return a {@link GeofenceDensity} instance, or {@code null} if the counts were never persisted or could not be loaded.
+     */
+    static synchronized GeofenceDensity load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        if ((sCached != null) && (file.lastModified() == sCachedTimestamp)) {
+            return sCached;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int n = in.readInt();
+            long[] cellKeys = new long[n];
+            int[] counts = new int[n];
+            for (int i=0; i<n; i++) {
+                cellKeys[i] = in.readLong();
+                counts[i] = in.readInt();
+            }
+            sCached = new GeofenceDensity(cellKeys, counts);
+            sCachedTimestamp = file.lastModified();
+            return sCached;
+        } catch(Exception e) {
+            log.error(String.format("error loading geofence density from %s", file), e);
+        } finally {
+            close(in);
+        }
+        return null;
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch(Exception e) {
+                log.debug("error closing stream", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import com.ibm.mf.geofence.rest.HttpMethod;
+import com.ibm.mf.geofence.rest.HttpRequest;
+import com.ibm.mf.geofence.rest.HttpRequestCallback;
+
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Request for parts of the {@link GeofenceDigestTree hash tree} of the geofences of the server. The response is compared
+ * with the local tree in the background thread of the request, see {@link GeofenceReconciliation#compare(GeofenceDigestTree, java.util.Collection)}.
+ */
+class GeofenceDigestRequest extends HttpRequest<GeofenceReconciliation> {
+    /**
+     * Path of the hash tree, relative to the path of the geofences.
+     */
+    static final String PATH = "digests";
+    private final GeofenceReconciliation mReconciliation;
+    private final List<Long> mNodes;
+
+    /**
+     * Initialize this request with the specified callback and "GET" request method.
+     * @param callback the callback instance to which the reconciliation will be dispatched asynchronously.
+     * @param reconciliation the reconciliation in progress.
+     * @param nodes the keys of the nodes whose subtrees are requested.
+     */
+    GeofenceDigestRequest(HttpRequestCallback<GeofenceReconciliation> callback, GeofenceReconciliation reconciliation, List<Long> nodes) {
+        super(callback, HttpMethod.GET, null);
+        this.mReconciliation = reconciliation;
+        this.mNodes = nodes;
+        StringBuilder sb = new StringBuilder();
+        for (long node: nodes) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(GeofenceDigestTree.format(node));
+        }
+        addParameter("nodes", sb.toString());
+        addParameter("depth", Integer.toString(GeofenceReconciliation.DEPTH));
+    }
+
+    @Override
+    protected GeofenceReconciliation resultFromResponse(byte[] source) throws Exception {
+        mReconciliation.compare(GeofenceDigestTree.fromJSON(new JSONObject(new String(source, "UTF-8"))), mNodes);
+        return mReconciliation;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A hash tree of the digests of the geofences in each {@link GeoTiles tile}, which tells whether two sets of geofences
+ * differ and in which tiles, without comparing the geofences themselves.
+ * <p>The leaves of the tree, at level 0, are the tiles. Each node at level {@code n} covers a square of 2<sup>n</sup> by 2<sup>n</sup> tiles,
+ * and has the 4 nodes of the level below covering its quarters as children, up to the root at level {@link #ROOT_LEVEL}
+ * which covers all the tiles. Nodes covering no geofence are absent from the tree.
+ * <p>The digest of a tile is computed from a canonical record of each of its geofences, sorted by code, which holds
+ * its code, name, description and geometry, with coordinates in units of 10<sup>-7</sup> degree. The digest of a node
+ * is computed from the keys and digests of its children. The server computes its tree the same way, so that the digests
+ * match when the geofences match.
+ */
+final class GeofenceDigestTree {
+    /**
+     * The level of the root node, the smallest one whose single node covers all the tiles.
+     */
+    static final int ROOT_LEVEL = 11;
+    /**
+     * The key of the root node.
+     */
+    static final long ROOT = nodeKey(ROOT_LEVEL, 0, 0);
+    /**
+     * Number of hexadecimal characters of the digests.
+     */
+    private static final int DIGEST_LENGTH = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * The digests of the nodes of the tree, by node key.
+     */
+    private final Map<Long, String> mDigests;
+    /**
+     * The server date at which the tree was computed, or -1 for a local tree.
+     */
+    private final long mWatermark;
+
+    private GeofenceDigestTree(Map<Long, String> digests, long watermark) {
+        this.mDigests = digests;
+        this.mWatermark = watermark;
+    }
+
+    /**
+     * Compute the hash tree of the specified geofences.
+     * @param geofences the geofences, for instance those of the local database.
+     * @return the complete tree of the geofences.
+     * @throws Exception if the digest of a geofence cannot be computed.
+     */
+    static GeofenceDigestTree build(Iterable<PersistentGeofence> geofences) throws Exception {
+        // the records of the geofences of each tile, sorted by code
+        Map<Long, TreeMap<String, String>> tiles = new HashMap<>();
+        for (PersistentGeofence geofence: geofences) {
+            long leaf = leaf(GeoTiles.tileKey(geofence.getLatitude(), geofence.getLongitude()));
+            TreeMap<String, String> records = tiles.get(leaf);
+            if (records == null) {
+                records = new TreeMap<>();
+                tiles.put(leaf, records);
+            }
+            records.put(geofence.getCode(), record(geofence));
+        }
+        Map<Long, String> digests = new HashMap<>(3 * tiles.size());
+        // the children of the nodes of the current level, sorted by key
+        Map<Long, TreeMap<Long, String>> parents = new HashMap<>();
+        for (Map.Entry<Long, TreeMap<String, String>> entry: tiles.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (String record: entry.getValue().values()) {
+                sb.append(record);
+            }
+            addNode(digests, parents, entry.getKey(), digest(sb));
+        }
+        for (int level = 1; level <= ROOT_LEVEL; level++) {
+            Map<Long, TreeMap<Long, String>> children = parents;
+            parents = new HashMap<>();
+            for (Map.Entry<Long, TreeMap<Long, String>> entry: children.entrySet()) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<Long, String> child: entry.getValue().entrySet()) {
+                    sb.append(format(child.getKey())).append('=').append(child.getValue()).append('\n');
+                }
+                addNode(digests, parents, entry.getKey(), digest(sb));
+            }
+        }
+        return new GeofenceDigestTree(digests, -1L);
+    }
+
+    private static void addNode(Map<Long, String> digests, Map<Long, TreeMap<Long, String>> parents, long node, String digest) {
+        digests.put(node, digest);
+        if (level(node) < ROOT_LEVEL) {
+            long parent = parent(node);
+            TreeMap<Long, String> siblings = parents.get(parent);
+            if (siblings == null) {
+                siblings = new TreeMap<>();
+                parents.put(parent, siblings);
+            }
+            siblings.put(node, digest);
+        }
+    }
+
+    /**
+     * Parse a part of the hash tree of the server.
+     * @param json the response of the server, with the nodes as an array of {@code level}, {@code row}, {@code column} and {@code digest}.
+     * @return a tree holding only the nodes provided by the server.
+     * @throws JSONException if the response is not valid.
+     */
+    static GeofenceDigestTree fromJSON(JSONObject json) throws JSONException {
+        JSONArray nodes = json.getJSONArray("nodes");
+        Map<Long, String> digests = new HashMap<>(2 * nodes.length());
+        for (int i=0; i<nodes.length(); i++) {
+            JSONObject node = nodes.getJSONObject(i);
+            digests.put(nodeKey(node.getInt("level"), node.getInt("row"), node.getInt("column")), node.getString("digest"));
+        }
+        return new GeofenceDigestTree(digests, GeofencingJSONUtils.parseSyncDate(json.optString("lastSyncDate", null)));
+    }
+
+    /**
+     * Get the digest of the specified node.
+     * @param node the key of the node.
+     * @return the digest, or {@code null} if the node is not in this tree.
+     */
+    String digest(long node) {
+        return mDigests.get(node);
+    }
+
+    /**
+     * Get the server date at which this tree was computed.
+     * @return the date in milliseconds since the epoch, or -1 if it is unknown.
+     */
+    long getWatermark() {
+        return mWatermark;
+    }
+
+    /**
+     * Get the keys of the tiles of this tree which are covered by the specified node.
+     * @param node the key of the node.
+     * @return the tile keys, as defined by {@link GeoTiles}.
+     */
+    List<Long> tilesUnder(long node) {
+        int shift = level(node);
+        List<Long> result = new ArrayList<>();
+        for (long key: mDigests.keySet()) {
+            if ((level(key) == 0) && ((row(key) >> shift) == row(node)) && ((column(key) >> shift) == column(node))) {
+                result.add(tileKey(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compute the canonical record of the specified geofence, from which the digest of its tile is computed.
+     * Strings are prefixed with their length, so that the record is unambiguous.
+     */
+    static String record(PersistentGeofence geofence) throws JSONException {
+        StringBuilder sb = new StringBuilder();
+        appendField(sb, geofence.getCode());
+        appendField(sb, geofence.getName());
+        appendField(sb, geofence.getDescription());
+        if (geofence.getPolygon() != null) {
+            sb.append('G');
+            double[][][] rings = GeoPolygon.parseRings(geofence.getPolygon());
+            for (int r=0; r<rings.length; r++) {
+                if (r > 0) {
+                    sb.append('|');
+                }
+                for (int i=0; i<rings[r].length; i++) {
+                    if (i > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(Math.round(rings[r][i][0] * 1e7d)).append(',').append(Math.round(rings[r][i][1] * 1e7d));
+                }
+            }
+        } else {
+            sb.append('P').append(Math.round(geofence.getLongitude() * 1e7d)).append(',').append(Math.round(geofence.getLatitude() * 1e7d))
+                .append(',').append(Math.round(geofence.getRadius() * 100d));
+        }
+        return sb.append('\n').toString();
+    }
+
+    private static void appendField(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("~;");
+        } else {
+            sb.append(value.length()).append(':').append(value).append(';');
+        }
+    }
+
+    /**
+     * Compute the digest of the specified text: the first {@link #DIGEST_LENGTH} hexadecimal characters of its SHA-1 hash.
+     */
+    private static String digest(CharSequence text) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(text.toString().getBytes("UTF-8"));
+        char[] chars = new char[DIGEST_LENGTH];
+        for (int i=0; i<DIGEST_LENGTH; i++) {
+            int b = hash[i / 2] & 0xFF;
+            chars[i] = HEX[((i % 2) == 0) ? (b >> 4) : (b & 0x0F)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compute the key of the node at the specified level, row and column.
+     */
+    static long nodeKey(int level, int row, int column) {
+        return ((long) level << 24) | ((long) row << 12) | column;
+    }
+
+    static int level(long node) {
+        return (int) (node >> 24);
+    }
+
+    static int row(long node) {
+        return (int) ((node >> 12) & 0xFFF);
+    }
+
+    static int column(long node) {
+        return (int) (node & 0xFFF);
+    }
+
+    /**
+     * Get the key of the leaf node of the specified tile.
+     */
+    static long leaf(long tileKey) {
+        return nodeKey(0, (int) (tileKey / GeoTiles.COLUMNS), (int) (tileKey % GeoTiles.COLUMNS));
+    }
+
+    /**
+     * Get the key of the tile of the specified leaf node.
+     */
+    static long tileKey(long leaf) {
+        return (long) row(leaf) * GeoTiles.COLUMNS + column(leaf);
+    }
+
+    static long parent(long node) {
+        return nodeKey(level(node) + 1, row(node) >> 1, column(node) >> 1);
+    }
+
+    /**
+     * Get the keys of the 4 children of the specified node, some of which may be outside of the grid of tiles.
+     */
+    static long[] children(long node) {
+        int level = level(node) - 1;
+        int row = row(node) << 1;
+        int column = column(node) << 1;
+        return new long[] { nodeKey(level, row, column), nodeKey(level, row, column + 1), nodeKey(level, row + 1, column), nodeKey(level, row + 1, column + 1) };
+    }
+
+    /**
+     * Format the specified node key as {@code level/row/column}, which is how nodes are identified by the server.
+     */
+    static String format(long node) {
+        return String.format(Locale.US, "%d/%d/%d", level(node), row(node), column(node));
+    }
+}
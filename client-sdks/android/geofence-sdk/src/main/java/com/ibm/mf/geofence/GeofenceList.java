@@ -20,36 +20,105 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Encapsulates a list of geofences as returned by the backend server upon a get or sync request.
+ * Encapsulates the result of a get or sync request to the backend server.
+ * <p>Only the codes of the added or updated geofences are kept: the geofences themselves are written to the local database
+ * as they are decoded, so that the memory used by a synchronization does not grow with the size of the listing.
  */
 class GeofenceList {
-    private final List<PersistentGeofence> mGeofences;
+    private final List<String> mGeofenceCodes;
     int mTotalGeofences;
     List<String> mDeletedGeofenceCodes;
+    /**
+     * The server date up to which the local geofences are synchronized, in milliseconds since the epoch, or -1 if the server did not provide it.
+     */
+    long mSyncWatermark = -1L;
+    /**
+     * Whether the server responded that the geofences were not modified since the previous synchronization.
+     */
+    boolean mNotModified;
+    /**
+     * The validators of the server response, to make the next synchronization conditional.
+     */
+    String mETag;
+    String mLastModified;
+    /**
+     * The cursor of the next page of a paged listing, or {@code null} if this is the last page.
+     */
+    String mBookmark;
+    /**
+     * The greatest geofence code covered by this page of a listing sorted by code, or {@code null} if unknown.
+     */
+    String mPageEnd;
 
-    GeofenceList(final List<PersistentGeofence> geofences) {
-        this.mGeofences = (geofences == null) ? Collections.<PersistentGeofence>emptyList() : geofences;
+    GeofenceList(final List<String> geofenceCodes) {
+        this.mGeofenceCodes = (geofenceCodes == null) ? Collections.<String>emptyList() : geofenceCodes;
         this.mDeletedGeofenceCodes = Collections.emptyList();
     }
 
-    GeofenceList(final List<PersistentGeofence> geofences, int totalGeofences, List<String> deletedGeofenceCodes) {
-        this.mGeofences = (geofences == null) ? Collections.<PersistentGeofence>emptyList() : geofences;
+    GeofenceList(final List<String> geofenceCodes, int totalGeofences, List<String> deletedGeofenceCodes) {
+        this.mGeofenceCodes = (geofenceCodes == null) ? Collections.<String>emptyList() : geofenceCodes;
         this.mTotalGeofences = totalGeofences;
         this.mDeletedGeofenceCodes = (deletedGeofenceCodes == null) ? Collections.<String>emptyList() : deletedGeofenceCodes;
     }
 
     /**
-     * Get the list of geofences that were added or updated since the last sync and loaded from the backend server.
-     * @return a list of {@link MFGeofence} objects, possibly empty.
+     * Get the codes of the geofences that were added or updated since the last sync and loaded from the backend server.
+     * @return a list of geofence codes, possibly empty.
      */
-    List<PersistentGeofence> getGeofences() {
-        return mGeofences;
+    List<String> getGeofenceCodes() {
+        return mGeofenceCodes;
     }
 
     int getTotalGeofences() {
         return mTotalGeofences;
     }
 
+    /**
+     * Get the server date to pass as the {@code updatedAfter} parameter of the next synchronization.
+     * @return the date in milliseconds since the epoch, or -1 if the server did not provide it.
+     */
+    long getSyncWatermark() {
+        return mSyncWatermark;
+    }
+
+    /**
+     * Determine whether the server responded that the geofences were not modified since the previous synchronization,
+     * in which case this list is empty and the local database was left untouched.
+     */
+    boolean isNotModified() {
+        return mNotModified;
+    }
+
+    /**
+     * Get the "ETag" header of the server response, or {@code null} if it had none.
+     */
+    String getETag() {
+        return mETag;
+    }
+
+    /**
+     * Get the "Last-Modified" header of the server response, or {@code null} if it had none.
+     */
+    String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Get the opaque cursor to request the next page of a paged listing.
+     * @return the cursor, or {@code null} if this is the last page or the listing is not paged.
+     */
+    String getBookmark() {
+        return mBookmark;
+    }
+
+    /**
+     * Get the greatest geofence code covered by this page, which is the lower bound of the next page.
+     * @return the code, or {@code null} if no page was covered before or by this one.
+     */
+    String getPageEnd() {
+        return mPageEnd;
+    }
+
     /**
      * Get the list of codes for the geofences that were deleted since the last sync.
      * @return a list of geofence codes, possibly empty.
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Merges a listing of geofences received from the server into the {@link GeofenceStores#database() local store}, whatever its encoding.
+ * <p>The geofences are written in batches of {@link GeofenceBulkWriter#BATCH_SIZE} as soon as they are decoded.
+ * Once the listing is complete, deletions are applied. If the listing is the response to an incremental request
+ * and holds a {@code lastSyncDate} property, it only contains the changes since the previous synchronization,
+ * and the geofences listed in its {@code deleted} property are deleted. Otherwise it is the complete set of geofences,
+ * and the local geofences that are not in the listing are deleted. A page of a complete listing sorted by code only covers
+ * the codes after those of the previous page, up to its greatest code if there is a next page, as indicated by
+ * its {@code bookmark} property. Likewise, a listing of the geofences of a {@link GeoTiles tile} only covers the local geofences
+ * whose center is in that tile.
+ * <p>The stream is decoded without holding the {@link GeofenceBulkWriter#MERGE_LOCK}, so that a slow download does not block
+ * the other writers. The lock is only held while a batch is written, and while the last batch is written and the deletions
+ * are applied, so that the set of local geofences the deletions are computed from does not change meanwhile.
+ */
+final class GeofenceMerger implements GeofenceSink {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceMerger.class.getSimpleName());
+    private final GeofenceStore mStore;
+    /**
+     * The codes of the merged geofences. The geofences themselves are released once their batch is written.
+     */
+    private final List<String> mCodes = new ArrayList<>();
+    private final List<PersistentGeofence> mBatch = new ArrayList<>(GeofenceBulkWriter.BATCH_SIZE);
+    private final boolean mIncremental;
+    private final String mPageStart;
+    private final long mTileKey;
+    /**
+     * The greatest code merged so far, including those of the previous pages.
+     */
+    private String mPageEnd;
+
+    /**
+     * Initialize this merger.
+     * @param incremental whether the listing was requested with an {@code updatedAfter} parameter.
+     * @param pageStart the greatest code covered by the previous page, or {@code null} if this is the first page.
+     * @param tileKey the key of the tile whose geofences were requested, or -1 if all the geofences were requested.
+     */
+    GeofenceMerger(boolean incremental, String pageStart, long tileKey) {
+        this(GeofenceStores.database(), incremental, pageStart, tileKey);
+    }
+
+    /**
+     * Initialize this merger with the specified store.
+     * @param store the store to merge the listing into.
+     * @param incremental whether the listing was requested with an {@code updatedAfter} parameter.
+     * @param pageStart the greatest code covered by the previous page, or {@code null} if this is the first page.
+     * @param tileKey the key of the tile whose geofences were requested, or -1 if all the geofences were requested.
+     */
+    GeofenceMerger(GeofenceStore store, boolean incremental, String pageStart, long tileKey) {
+        this.mStore = store;
+        this.mIncremental = incremental;
+        this.mPageStart = pageStart;
+        this.mTileKey = tileKey;
+        this.mPageEnd = pageStart;
+    }
+
+    /**
+     * Add a decoded geofence, writing the current batch if it is full.
+     * @param geofence the geofence to merge.
+     */
+    @Override
+    public void add(PersistentGeofence geofence) {
+        mCodes.add(geofence.getCode());
+        if ((mPageEnd == null) || (geofence.getCode().compareTo(mPageEnd) > 0)) {
+            mPageEnd = geofence.getCode();
+        }
+        mBatch.add(geofence);
+        if (mBatch.size() >= GeofenceBulkWriter.BATCH_SIZE) {
+            synchronized(GeofenceBulkWriter.MERGE_LOCK) {
+                mStore.upsert(mBatch);
+            }
+            mBatch.clear();
+        }
+    }
+
+    /**
+     * Write the last batch and apply the deletions, once the whole listing is decoded.
+     * @param properties the properties of the listing, or {@code null} if it has none.
+     * @return the codes of the merged geofences and of the deleted ones, the new synchronization watermark and the cursor of the next page.
+     * @throws JSONException if the properties are not valid.
+     */
+    @Override
+    public GeofenceList finish(JSONObject properties) throws JSONException {
+        long watermark = (properties != null) ? GeofencingJSONUtils.parseSyncDate(properties.optString("lastSyncDate", null)) : -1L;
+        String bookmark = ((properties != null) && !properties.isNull("bookmark")) ? properties.getString("bookmark") : null;
+        List<String> deletedCodes = new ArrayList<>();
+        if (mIncremental && (watermark >= 0L)) {
+            JSONArray deleted = properties.optJSONArray("deleted");
+            for (int i=0; (deleted != null) && (i<deleted.length()); i++) {
+                deletedCodes.add(deleted.getString(i));
+            }
+        }
+        synchronized(GeofenceBulkWriter.MERGE_LOCK) {
+            mStore.upsert(mBatch);
+            mBatch.clear();
+            if (mIncremental && (watermark >= 0L)) {
+                deletedCodes = mStore.delete(deletedCodes);
+            } else {
+                // the server returned the complete set of geofences, or a page of it up to the greatest code if there are more pages
+                List<String> scope = (mTileKey >= 0L) ? mStore.codesInTile(mTileKey) : null;
+                deletedCodes = GeofenceStores.deleteAllExcept(mStore, mCodes, mPageStart, (bookmark != null) ? mPageEnd : null, scope);
+            }
+        }
+        log.debug(String.format(Locale.US, "merged %s sync: %,d geofences updated, %,d deleted, watermark=%d, more pages: %b",
+            (mIncremental && (watermark >= 0L)) ? "incremental" : "full", mCodes.size(), deletedCodes.size(), watermark, bookmark != null));
+        GeofenceList list = new GeofenceList(mCodes, (properties != null) ? properties.optInt("totalFeatures", mCodes.size()) : mCodes.size(), deletedCodes);
+        list.mSyncWatermark = watermark;
+        list.mBookmark = bookmark;
+        list.mPageEnd = mPageEnd;
+        return list;
+    }
+}
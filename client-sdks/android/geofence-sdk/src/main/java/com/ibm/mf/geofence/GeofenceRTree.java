@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A read-only R-tree over the geofences bounding boxes, bulk-loaded with the Sort-Tile-Recursive (STR) packing algorithm.
+ * <p>Each geofence is indexed by the bounding box of its circle, that is its center plus or minus its radius, so that a search
+ * finds the geofences whose area overlaps the searched box even when their center is outside of it. The box of a geofence
+ * near the antimeridian may extend beyond -180 or 180 degrees of longitude: it is then matched against the searched boxes shifted by 360 degrees.
+ * <p>The fences data is held in parallel primitive arrays, ordered such that the entries of each leaf are contiguous,
+ * and each level of the tree is stored as a set of arrays of node bounding boxes and child ranges.
+ * <p>A process-wide instance is kept in memory so that significant location changes can be processed without scanning the local database.
+ * It is invalidated each time a write to the local database commits.
+ */
+final class GeofenceRTree {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceRTree.class.getSimpleName());
+    /**
+     * Maximum number of children per node.
+     */
+    static final int NODE_CAPACITY = 16;
+    /**
+     * The process-wide instance, built from the local database.
+     */
+    private static GeofenceRTree sInstance;
+    /**
+     * Incremented each time the process-wide instance is invalidated, so that a tree built while the local database changed is not kept.
+     */
+    private static long sGeneration = 0L;
+    /**
+     * Number of geofences in this tree.
+     */
+    private final int mSize;
+    /**
+     * The geofences data, in STR order.
+     */
+    private final String[] mCodes;
+    private final String[] mNames;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mRadiuses;
+    /**
+     * Half-height and half-width in degrees of the bounding box of each geofence.
+     */
+    private final double[] mLatExtents;
+    private final double[] mLngExtents;
+    /**
+     * GeoJSON coordinates of the polygon geofences, {@code null} for circular ones.
+     */
+    private final String[] mPolygons;
+    /**
+     * Nodes bounding boxes and children ranges, indexed by [level][node].
+     * Level 0 is the leaf level, whose children are geofence entries. The last level holds the root node.
+     */
+    private final double[][] mMinLat;
+    private final double[][] mMaxLat;
+    private final double[][] mMinLng;
+    private final double[][] mMaxLng;
+    private final int[][] mChildStart;
+    private final int[][] mChildEnd;
+
+    /**
+     * Callback invoked for each geofence entry found by a search.
+     */
+    interface Visitor {
+        /**
+         * Called for each geofence whose bounding box intersects the searched bounding box.
+         * @param entry the index of the geofence in the tree.
+         */
+        void visit(int entry);
+    }
+
+    /**
+     * Build a tree from the specified geofences.
+     * @param geofences the geofences to index.
+     */
+    GeofenceRTree(List<PersistentGeofence> geofences) {
+        mSize = geofences.size();
+        int[] order = new int[mSize];
+        double[] x = new double[mSize];
+        double[] y = new double[mSize];
+        for (int i=0; i<mSize; i++) {
+            PersistentGeofence g = geofences.get(i);
+            order[i] = i;
+            x[i] = g.getLongitude();
+            y[i] = g.getLatitude();
+        }
+        strSort(order, x, y);
+        mCodes = new String[mSize];
+        mNames = new String[mSize];
+        mLatitudes = new double[mSize];
+        mLongitudes = new double[mSize];
+        mRadiuses = new double[mSize];
+        mPolygons = new String[mSize];
+        mLatExtents = new double[mSize];
+        mLngExtents = new double[mSize];
+        for (int i=0; i<mSize; i++) {
+            PersistentGeofence g = geofences.get(order[i]);
+            mCodes[i] = g.getCode();
+            mNames[i] = g.getName();
+            mLatitudes[i] = g.getLatitude();
+            mLongitudes[i] = g.getLongitude();
+            mRadiuses[i] = g.getRadius();
+            mPolygons[i] = g.getPolygon();
+            mLatExtents[i] = latitudeExtent(g.getRadius());
+            mLngExtents[i] = longitudeExtent(g.getLatitude(), g.getRadius());
+        }
+        int nbLevels = 1;
+        for (int n = nodeCount(mSize); n > 1; n = nodeCount(n)) {
+            nbLevels++;
+        }
+        mMinLat = new double[nbLevels][];
+        mMaxLat = new double[nbLevels][];
+        mMinLng = new double[nbLevels][];
+        mMaxLng = new double[nbLevels][];
+        mChildStart = new int[nbLevels][];
+        mChildEnd = new int[nbLevels][];
+        buildLeaves();
+        for (int level=1; level<nbLevels; level++) {
+            buildLevel(level);
+        }
+    }
+
+    /**
+     * Get the number of geofences in this tree.
+     */
+    int size() {
+        return mSize;
+    }
+
+    String getCode(int entry) {
+        return mCodes[entry];
+    }
+
+    String getName(int entry) {
+        return mNames[entry];
+    }
+
+    double getLatitude(int entry) {
+        return mLatitudes[entry];
+    }
+
+    double getLongitude(int entry) {
+        return mLongitudes[entry];
+    }
+
+    double getRadius(int entry) {
+        return mRadiuses[entry];
+    }
+
+    String getPolygon(int entry) {
+        return mPolygons[entry];
+    }
+
+    /**
+     * Create a transient geofence object from the specified entry. The resulting object is not loaded from, nor saved into, the local database.
+     * @param entry the index of the geofence in the tree.
+     * @return a {@link PersistentGeofence} instance.
+     */
+    PersistentGeofence toGeofence(int entry) {
+        return new PersistentGeofence(mCodes[entry], mNames[entry], null, mLatitudes[entry], mLongitudes[entry], mRadiuses[entry], mPolygons[entry]);
+    }
+
+    /**
+     * Find all the geofences whose bounding box intersects the specified bounding box.
+     * @param minLat the minimum latitude of the bounding box.
+     * @param maxLat the maximum latitude of the bounding box.
+     * @param minLng the minimum longitude of the bounding box.
+     * @param maxLng the maximum longitude of the bounding box.
+     * @param visitor the callback invoked for each geofence found.
+     * @return the number of geofences found.
+     */
+    int search(double minLat, double maxLat, double minLng, double maxLng, Visitor visitor) {
+        return search(new double[][] { { minLat, maxLat, minLng, maxLng } }, visitor);
+    }
+
+    /**
+     * Find all the geofences whose bounding box intersects any of the specified bounding boxes, such as those computed
+     * by the {@link GeoQueryPlanner}. Each geofence is visited once, even if it intersects several boxes.
+     * @param boxes the bounding boxes, each one as {@code [minLatitude, maxLatitude, minLongitude, maxLongitude]}
+     * with longitudes in the {@code [-180, 180]} range.
+     * @param visitor the callback invoked for each geofence found.
+     * @return the number of geofences found.
+     */
+    int search(double[][] boxes, Visitor visitor) {
+        if (mSize == 0) {
+            return 0;
+        }
+        int rootLevel = mMinLat.length - 1;
+        // pending nodes: at most (NODE_CAPACITY - 1) siblings per level plus the current node
+        int[] levels = new int[(rootLevel + 1) * NODE_CAPACITY + 1];
+        int[] nodes = new int[levels.length];
+        int top = 0;
+        levels[top] = rootLevel;
+        nodes[top] = 0;
+        top++;
+        int count = 0;
+        while (top > 0) {
+            top--;
+            int level = levels[top];
+            int node = nodes[top];
+            if (!intersects(boxes, mMinLat[level][node], mMaxLat[level][node], mMinLng[level][node], mMaxLng[level][node])) {
+                continue;
+            }
+            int start = mChildStart[level][node];
+            int end = mChildEnd[level][node];
+            if (level == 0) {
+                for (int i=start; i<end; i++) {
+                    double lat = mLatitudes[i];
+                    double lng = mLongitudes[i];
+                    if (intersects(boxes, lat - mLatExtents[i], lat + mLatExtents[i], lng - mLngExtents[i], lng + mLngExtents[i])) {
+                        visitor.visit(i);
+                        count++;
+                    }
+                }
+            } else {
+                for (int i=start; i<end; i++) {
+                    levels[top] = level - 1;
+                    nodes[top] = i;
+                    top++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the process-wide tree, building it from the local database if needed.
+     * @return a {@link GeofenceRTree} instance.
+     */
+    static GeofenceRTree getInstance() {
+        long generation;
+        synchronized(GeofenceRTree.class) {
+            if (sInstance != null) {
+                return sInstance;
+            }
+            generation = sGeneration;
+        }
+        long start = System.nanoTime();
+        GeofenceRTree tree = new GeofenceRTree(PersistentGeofence.listAll(PersistentGeofence.class));
+        log.debug(String.format(Locale.US, "built R-tree for %,d geofences in %,d ms", tree.size(), (System.nanoTime() - start) / 1_000_000L));
+        synchronized(GeofenceRTree.class) {
+            if (generation == sGeneration) {
+                sInstance = tree;
+            } else {
+                // a write committed while the geofences were loaded, the tree is used once then rebuilt upon the next call
+                log.debug("local database changed while building the R-tree, not keeping it");
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Get the process-wide tree only if it is already built.
+     * @return a {@link GeofenceRTree} instance, or {@code null} if the tree was not built in this process since the last synchronization.
+     */
+    static synchronized GeofenceRTree peekInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Discard the process-wide tree, so that it is rebuilt from the local database upon the next call to {@link #getInstance()}.
+     * This must be called after each write to the local database commits, which {@link GeofenceBulkWriter} does.
+     * A tree being built concurrently is not kept either, since it may not include the write.
+     */
+    static synchronized void invalidate() {
+        sInstance = null;
+        sGeneration++;
+    }
+
+    /**
+     * Rebuild the process-wide tree from the local database.
+     */
+    static void rebuild() {
+        invalidate();
+        getInstance();
+    }
+
+    /**
+     * Compute the half-height in degrees of the bounding box of a circle.
+     * @param radius the radius of the circle in meters.
+     */
+    static double latitudeExtent(double radius) {
+        return Math.toDegrees(Math.max(0d, radius) / GeoDistance.EARTH_RADIUS);
+    }
+
+    /**
+     * Compute the half-width in degrees of the bounding box of a circle, like the {@link GeoQueryPlanner} does for a search area.
+     * @param latitude the latitude of the center of the circle.
+     * @param radius the radius of the circle in meters.
+     * @return the half-width, or 180 if the circle contains a pole or spans all longitudes.
+     */
+    static double longitudeExtent(double latitude, double radius) {
+        double angular = Math.max(0d, radius) / GeoDistance.EARTH_RADIUS;
+        double dLat = Math.toDegrees(angular);
+        if ((latitude - dLat <= -90d) || (latitude + dLat >= 90d)) {
+            return 180d;
+        }
+        double ratio = Math.sin(angular) / Math.cos(Math.toRadians(latitude));
+        return (ratio >= 1d) ? 180d : Math.toDegrees(Math.asin(ratio));
+    }
+
+    /**
+     * Determine whether the specified box intersects any of the specified boxes, or their copies shifted by 360 degrees of longitude either way.
+     */
+    private static boolean intersects(double[][] boxes, double minLat, double maxLat, double minLng, double maxLng) {
+        for (double[] box: boxes) {
+            if ((minLat <= box[1]) && (maxLat >= box[0])) {
+                if (((minLng <= box[3]) && (maxLng >= box[2]))
+                    || ((maxLng > 180d) && (minLng <= box[3] + 360d) && (maxLng >= box[2] + 360d))
+                    || ((minLng < -180d) && (minLng <= box[3] - 360d) && (maxLng >= box[2] - 360d))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute the number of nodes needed to hold the specified number of children.
+     */
+    private static int nodeCount(int nbChildren) {
+        return Math.max(1, (nbChildren + NODE_CAPACITY - 1) / NODE_CAPACITY);
+    }
+
+    /**
+     * Build the leaf level, whose nodes group {@link #NODE_CAPACITY} consecutive entries and bound their boxes.
+     */
+    private void buildLeaves() {
+        int n = nodeCount(mSize);
+        allocateLevel(0, n);
+        for (int node=0; node<n; node++) {
+            int start = node * NODE_CAPACITY;
+            int end = Math.min(mSize, start + NODE_CAPACITY);
+            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+            double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+            for (int i=start; i<end; i++) {
+                minLat = Math.min(minLat, mLatitudes[i] - mLatExtents[i]);
+                maxLat = Math.max(maxLat, mLatitudes[i] + mLatExtents[i]);
+                minLng = Math.min(minLng, mLongitudes[i] - mLngExtents[i]);
+                maxLng = Math.max(maxLng, mLongitudes[i] + mLngExtents[i]);
+            }
+            setNode(0, node, minLat, maxLat, minLng, maxLng, start, end);
+        }
+    }
+
+    /**
+     * Build the specified non-leaf level. The nodes of the level below are first reordered in STR order,
+     * then grouped by {@link #NODE_CAPACITY} consecutive nodes.
+     */
+    private void buildLevel(int level) {
+        int below = level - 1;
+        int nbChildren = mMinLat[below].length;
+        int[] order = new int[nbChildren];
+        double[] x = new double[nbChildren];
+        double[] y = new double[nbChildren];
+        for (int i=0; i<nbChildren; i++) {
+            order[i] = i;
+            x[i] = (mMinLng[below][i] + mMaxLng[below][i]) / 2d;
+            y[i] = (mMinLat[below][i] + mMaxLat[below][i]) / 2d;
+        }
+        strSort(order, x, y);
+        mMinLat[below] = permute(mMinLat[below], order);
+        mMaxLat[below] = permute(mMaxLat[below], order);
+        mMinLng[below] = permute(mMinLng[below], order);
+        mMaxLng[below] = permute(mMaxLng[below], order);
+        mChildStart[below] = permute(mChildStart[below], order);
+        mChildEnd[below] = permute(mChildEnd[below], order);
+        int n = nodeCount(nbChildren);
+        allocateLevel(level, n);
+        for (int node=0; node<n; node++) {
+            int start = node * NODE_CAPACITY;
+            int end = Math.min(nbChildren, start + NODE_CAPACITY);
+            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+            double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+            for (int i=start; i<end; i++) {
+                minLat = Math.min(minLat, mMinLat[below][i]);
+                maxLat = Math.max(maxLat, mMaxLat[below][i]);
+                minLng = Math.min(minLng, mMinLng[below][i]);
+                maxLng = Math.max(maxLng, mMaxLng[below][i]);
+            }
+            setNode(level, node, minLat, maxLat, minLng, maxLng, start, end);
+        }
+    }
+
+    private void allocateLevel(int level, int nbNodes) {
+        mMinLat[level] = new double[nbNodes];
+        mMaxLat[level] = new double[nbNodes];
+        mMinLng[level] = new double[nbNodes];
+        mMaxLng[level] = new double[nbNodes];
+        mChildStart[level] = new int[nbNodes];
+        mChildEnd[level] = new int[nbNodes];
+    }
+
+    private void setNode(int level, int node, double minLat, double maxLat, double minLng, double maxLng, int start, int end) {
+        mMinLat[level][node] = minLat;
+        mMaxLat[level][node] = maxLat;
+        mMinLng[level][node] = minLng;
+        mMaxLng[level][node] = maxLng;
+        mChildStart[level][node] = start;
+        mChildEnd[level][node] = end;
+    }
+
+    /**
+     * Sort the specified indices in STR order: sort by x, cut into vertical slices of {@code S * NODE_CAPACITY} items,
+     * where {@code S = ceil(sqrt(number of nodes))}, then sort each slice by y.
+     * @param order the indices to sort.
+     * @param x the x coordinate of each item.
+     * @param y the y coordinate of each item.
+     */
+    private static void strSort(int[] order, double[] x, double[] y) {
+        int n = order.length;
+        if (n <= NODE_CAPACITY) {
+            return;
+        }
+        sort(order, x, 0, n - 1);
+        int nbSlices = (int) Math.ceil(Math.sqrt(nodeCount(n)));
+        int sliceSize = nbSlices * NODE_CAPACITY;
+        for (int start=0; start<n; start+=sliceSize) {
+            sort(order, y, start, Math.min(n, start + sliceSize) - 1);
+        }
+    }
+
+    /**
+     * Sort a range of indices by ascending key value.
+     * @param order the indices to sort.
+     * @param keys the keys to sort by, indexed by the values in {@code order}.
+     * @param lo lower bound of the range, inclusive.
+     * @param hi upper bound of the range, inclusive.
+     */
+    private static void sort(int[] order, double[] keys, int lo, int hi) {
+        while (lo < hi) {
+            if (hi - lo < 16) {
+                for (int i=lo+1; i<=hi; i++) {
+                    int tmp = order[i];
+                    int j = i - 1;
+                    while ((j >= lo) && (keys[order[j]] > keys[tmp])) {
+                        order[j + 1] = order[j];
+                        j--;
+                    }
+                    order[j + 1] = tmp;
+                }
+                return;
+            }
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) i++;
+                while (keys[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller partition to bound the stack depth
+            if (j - lo < hi - i) {
+                sort(order, keys, lo, j);
+                lo = i;
+            } else {
+                sort(order, keys, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private static double[] permute(double[] values, int[] order) {
+        double[] result = new double[values.length];
+        for (int i=0; i<order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+        int[] result = new int[values.length];
+        for (int i=0; i<order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The state of the reconciliation of the local geofences with those of the server, based on their {@link GeofenceDigestTree hash trees}.
+ * <p>The server tree is requested from the root down, {@link #DEPTH} levels at a time, and only below the nodes whose digest differs
+ * from the local one. This yields the tiles whose geofences differ, which are then downloaded again, and the tiles which
+ * have no geofence on the server, whose local geofences are deleted without any download.
+ */
+final class GeofenceReconciliation {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceReconciliation.class.getSimpleName());
+    /**
+     * Number of levels of the server tree requested below each node.
+     */
+    static final int DEPTH = 4;
+    /**
+     * Maximum number of nodes whose subtrees are requested at once.
+     */
+    static final int MAX_NODES_PER_REQUEST = 32;
+    /**
+     * The local tree, computed upon the first comparison.
+     */
+    private GeofenceDigestTree mLocal;
+    /**
+     * The nodes whose subtree of the server tree must be requested.
+     */
+    private final Deque<Long> mPending = new ArrayDeque<>();
+    /**
+     * The tiles whose geofences differ from those of the server.
+     */
+    private final Deque<Long> mChangedTiles = new ArrayDeque<>();
+    /**
+     * The local tiles which have no geofence on the server.
+     */
+    private final Set<Long> mRemovedTiles = new LinkedHashSet<>();
+    /**
+     * The codes of the local geofences deleted because their tile has no geofence on the server.
+     */
+    private List<String> mDeletedCodes = new ArrayList<>();
+    /**
+     * The server date of the first part of the tree, up to which the local geofences are synchronized once the reconciliation is complete.
+     */
+    private long mWatermark = -1L;
+    private int mNbRequests = 0;
+
+    /**
+     * Initialize a reconciliation starting from the root of the trees.
+     */
+    GeofenceReconciliation() {
+        mPending.add(GeofenceDigestTree.ROOT);
+    }
+
+    /**
+     * Get the next nodes whose subtree must be requested from the server.
+     * @return at most {@link #MAX_NODES_PER_REQUEST} node keys, or an empty list if the trees are completely compared.
+     */
+    List<Long> nextNodes() {
+        List<Long> nodes = new ArrayList<>();
+        while (!mPending.isEmpty() && (nodes.size() < MAX_NODES_PER_REQUEST)) {
+            nodes.add(mPending.poll());
+        }
+        return nodes;
+    }
+
+    /**
+     * Compare the specified part of the server tree with the local tree, which is computed from the local database upon the first call.
+     * Once the trees are completely compared, the local geofences of the tiles which have no geofence on the server are deleted.
+     * This method accesses the local database and must not be called from the UI thread.
+     * @param remote the subtrees of the server tree below the requested nodes.
+     * @param requested the keys of the requested nodes.
+     * @throws Exception if the local tree cannot be computed.
+     */
+    void compare(GeofenceDigestTree remote, Collection<Long> requested) throws Exception {
+        if (mLocal == null) {
+            long start = System.currentTimeMillis();
+            mLocal = GeofenceDigestTree.build(GeofenceStores.database());
+            log.debug(String.format(Locale.US, "computed the local hash tree in %,d ms", System.currentTimeMillis() - start));
+        }
+        if (mWatermark < 0L) {
+            mWatermark = remote.getWatermark();
+        }
+        mNbRequests++;
+        for (long node: requested) {
+            compare(remote, node, GeofenceDigestTree.level(node) - DEPTH);
+        }
+        if (mPending.isEmpty() && !mRemovedTiles.isEmpty()) {
+            List<String> codes = new ArrayList<>();
+            GeofenceStore store = GeofenceStores.database();
+            for (long tileKey: mRemovedTiles) {
+                codes.addAll(store.codesInTile(tileKey));
+            }
+            mDeletedCodes = store.delete(codes);
+        }
+    }
+
+    private void compare(GeofenceDigestTree remote, long node, int bottomLevel) {
+        String remoteDigest = remote.digest(node);
+        String localDigest = mLocal.digest(node);
+        int level = GeofenceDigestTree.level(node);
+        if ((remoteDigest != null) && remoteDigest.equals(localDigest)) {
+            return;
+        }
+        if (remoteDigest == null) {
+            if (localDigest != null) {
+                mRemovedTiles.addAll(mLocal.tilesUnder(node));
+            }
+        } else if (level == 0) {
+            mChangedTiles.add(GeofenceDigestTree.tileKey(node));
+        } else if (level <= bottomLevel) {
+            // the children of this node were not requested yet
+            mPending.add(node);
+        } else {
+            for (long child: GeofenceDigestTree.children(node)) {
+                if ((remote.digest(child) != null) || (mLocal.digest(child) != null)) {
+                    compare(remote, child, bottomLevel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether the trees are completely compared.
+     */
+    boolean isCompared() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Get the next tile whose geofences must be downloaded again.
+     * @return the tile key, or -1 if there are no more tiles to download.
+     */
+    long nextTile() {
+        Long tileKey = mChangedTiles.poll();
+        return (tileKey != null) ? tileKey : -1L;
+    }
+
+    /**
+     * Get the codes of the local geofences deleted because their tile has no geofence on the server.
+     */
+    List<String> getDeletedCodes() {
+        return mDeletedCodes;
+    }
+
+    /**
+     * Get the server date up to which the local geofences are synchronized once the reconciliation is complete.
+     * @return the date in milliseconds since the epoch, or -1 if the server did not provide it.
+     */
+    long getWatermark() {
+        return mWatermark;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s[requests=%d, pending nodes=%d, changed tiles=%d, removed tiles=%d]",
+            getClass().getSimpleName(), mNbRequests, mPending.size(), mChangedTiles.size(), mRemovedTiles.size());
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Receives the geofences of a listing as they are decoded, whatever its encoding.
+ */
+interface GeofenceSink {
+    /**
+     * Add a decoded geofence.
+     * @param geofence the geofence, which is not yet stored in the local database.
+     */
+    void add(PersistentGeofence geofence);
+
+    /**
+     * Complete the listing, once all its geofences are decoded.
+     * @param properties the properties of the listing, or {@code null} if it has none.
+     * @return the codes of the geofences of the listing, along with the information derived from its properties.
+     * @throws JSONException if the properties are not valid.
+     */
+    GeofenceList finish(JSONObject properties) throws JSONException;
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import android.content.Context;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only binary snapshot of all the geofences in the local database, memory-mapped from a file in the app's private storage.
+ * <p>The snapshot is written after each synchronization, and allows the services started in a fresh process to look up geofences
+ * by code or by location without initializing the local database or creating any object other than the geofences they return.
+ * <p>The file is made of a header followed by fixed-size sections of big-endian 32-bit integers, then by the UTF-8 bytes of the codes,
+ * names and polygon coordinates:
+ * <pre>
+ * magic | version | count
+ * cellKeys[count] | latitudesE7[count] | longitudesE7[count] | radiusesDm[count] | codeOrder[count]
+ * codeOffsets[count + 1] | nameOffsets[count + 1] | polygonOffsets[count + 1] | string bytes
+ * </pre>
+ * Entries are sorted by {@link GeoGrid} cell key, so that a bounding box query is a binary search per range of cells,
+ * while {@code codeOrder} lists the entries in ascending order of their codes for lookups by code.
+ * Coordinates are stored in units of 10<sup>-7</sup> degree, about 1 cm, and radiuses in decimeters.
+ */
+final class GeofenceSnapshot {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceSnapshot.class.getSimpleName());
+    /**
+     * Name of the snapshot file.
+     */
+    private static final String FILE_NAME = "mf-geofence-snapshot.bin";
+    /**
+     * Identifies a snapshot file: "MFGS".
+     */
+    private static final int MAGIC = 0x4D464753;
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * Scale of the fixed-point coordinates.
+     */
+    private static final double COORDINATE_SCALE = 1e7d;
+    /**
+     * Scale of the fixed-point radiuses.
+     */
+    private static final double RADIUS_SCALE = 10d;
+    /**
+     * Encoding of the codes and names.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The last opened or written snapshot, along with the modification date of its file.
+     */
+    private static GeofenceSnapshot sCached;
+    private static long sCachedTimestamp = -1L;
+    /**
+     * The mapped content of the snapshot file. Only absolute reads are performed, so it can be shared between threads.
+     */
+    private final ByteBuffer mBuffer;
+    /**
+     * Number of geofences in the snapshot.
+     */
+    private final int mCount;
+    /**
+     * Byte offsets of the sections in the buffer.
+     */
+    private final int mCellKeysOffset;
+    private final int mLatitudesOffset;
+    private final int mLongitudesOffset;
+    private final int mRadiusesOffset;
+    private final int mCodeOrderOffset;
+    private final int mCodeOffsetsOffset;
+    private final int mNameOffsetsOffset;
+    private final int mPolygonOffsetsOffset;
+    private final int mStringsOffset;
+
+    private GeofenceSnapshot(ByteBuffer buffer) {
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IllegalArgumentException("not a geofence snapshot");
+        }
+        this.mBuffer = buffer;
+        this.mCount = buffer.getInt(8);
+        this.mCellKeysOffset = HEADER_SIZE;
+        this.mLatitudesOffset = mCellKeysOffset + 4 * mCount;
+        this.mLongitudesOffset = mLatitudesOffset + 4 * mCount;
+        this.mRadiusesOffset = mLongitudesOffset + 4 * mCount;
+        this.mCodeOrderOffset = mRadiusesOffset + 4 * mCount;
+        this.mCodeOffsetsOffset = mCodeOrderOffset + 4 * mCount;
+        this.mNameOffsetsOffset = mCodeOffsetsOffset + 4 * (mCount + 1);
+        this.mPolygonOffsetsOffset = mNameOffsetsOffset + 4 * (mCount + 1);
+        this.mStringsOffset = mPolygonOffsetsOffset + 4 * (mCount + 1);
+        if ((mStringsOffset > buffer.capacity()) || (mStringsOffset + buffer.getInt(mPolygonOffsetsOffset + 4 * mCount) != buffer.capacity())) {
+            throw new IllegalArgumentException("truncated geofence snapshot");
+        }
+    }
+
+    /**
+     * Get the number of geofences in this snapshot.
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Get the latitude of the specified entry.
+     */
+    double getLatitude(int entry) {
+        return mBuffer.getInt(mLatitudesOffset + 4 * entry) / COORDINATE_SCALE;
+    }
+
+    /**
+     * Get the longitude of the specified entry.
+     */
+    double getLongitude(int entry) {
+        return mBuffer.getInt(mLongitudesOffset + 4 * entry) / COORDINATE_SCALE;
+    }
+
+    /**
+     * Get the radius of the specified entry.
+     */
+    double getRadius(int entry) {
+        return mBuffer.getInt(mRadiusesOffset + 4 * entry) / RADIUS_SCALE;
+    }
+
+    /**
+     * Get the code of the specified entry.
+     */
+    String getCode(int entry) {
+        return getString(mCodeOffsetsOffset, entry);
+    }
+
+    /**
+     * Get the name of the specified entry.
+     * @return the name, or {@code null} if the geofence has no name.
+     */
+    String getName(int entry) {
+        String name = getString(mNameOffsetsOffset, entry);
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Get the GeoJSON coordinates of the specified entry.
+     * @return the coordinates, or {@code null} if the geofence is not a polygon.
+     */
+    String getPolygon(int entry) {
+        String polygon = getString(mPolygonOffsetsOffset, entry);
+        return polygon.isEmpty() ? null : polygon;
+    }
+
+    /**
+     * Create a transient {@link PersistentGeofence} for the specified entry. Its description is not available from the snapshot.
+     */
+    PersistentGeofence toGeofence(int entry) {
+        return new PersistentGeofence(getCode(entry), getName(entry), null, getLatitude(entry), getLongitude(entry), getRadius(entry), getPolygon(entry));
+    }
+
+    /**
+     * Find the entry with the specified code.
+     * @param code the code of the geofence to find.
+     * @return the entry, or -1 if there is no geofence with this code in the snapshot.
+     */
+    int indexOf(String code) {
+        int lo = 0;
+        int hi = mCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = mBuffer.getInt(mCodeOrderOffset + 4 * mid);
+            int cmp = getCode(entry).compareTo(code);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the geofence with the specified code.
+     * @param code the code of the geofence to find.
+     * @return a transient geofence, or {@code null} if there is no geofence with this code in the snapshot.
+     */
+    PersistentGeofence geofenceFromCode(String code) {
+        int entry = indexOf(code);
+        return (entry >= 0) ? toGeofence(entry) : null;
+    }
+
+    /**
+     * Get the geofences with the specified codes.
+     * @param codes the codes of the geofences to find.
+     * @return the geofences found in the snapshot, codes that are not found are ignored.
+     */
+    List<PersistentGeofence> geofencesFromCodes(Collection<String> codes) {
+        List<PersistentGeofence> result = new ArrayList<>(codes.size());
+        for (String code: codes) {
+            PersistentGeofence geofence = geofenceFromCode(code);
+            if (geofence != null) {
+                result.add(geofence);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find all the geofences whose center is within the specified bounding box, which must not cross the antimeridian.
+     * @param minLat the minimum latitude of the bounding box.
+     * @param maxLat the maximum latitude of the bounding box.
+     * @param minLng the minimum longitude of the bounding box.
+     * @param maxLng the maximum longitude of the bounding box.
+     * @param visitor the callback invoked for each geofence found.
+     * @return the number of geofences found.
+     */
+    int search(double minLat, double maxLat, double minLng, double maxLng, GeofenceRTree.Visitor visitor) {
+        long[] ranges = GeoGrid.cellRanges(minLat, maxLat, minLng, maxLng);
+        int count = 0;
+        for (int i=0; i<ranges.length; i+=2) {
+            for (int entry = lowerBound(ranges[i]); entry < mCount; entry++) {
+                if (mBuffer.getInt(mCellKeysOffset + 4 * entry) > ranges[i + 1]) {
+                    break;
+                }
+                double lat = getLatitude(entry);
+                double lng = getLongitude(entry);
+                if ((lat >= minLat) && (lat <= maxLat) && (lng >= minLng) && (lng <= maxLng)) {
+                    visitor.visit(entry);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the first entry whose cell key is greater than or equal to the specified key.
+     */
+    private int lowerBound(long cellKey) {
+        int lo = 0;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mBuffer.getInt(mCellKeysOffset + 4 * mid) < cellKey) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Decode the string at the specified position of the specified offset table.
+     */
+    private String getString(int offsetTable, int entry) {
+        int start = mBuffer.getInt(offsetTable + 4 * entry);
+        int end = mBuffer.getInt(offsetTable + 4 * (entry + 1));
+        byte[] bytes = new byte[end - start];
+        ByteBuffer src = mBuffer.duplicate();
+        src.position(mStringsOffset + start);
+        src.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Open the snapshot file in the app's private storage.
+     * @param context the context used to locate the app's private storage.
+     * @return a {@link GeofenceSnapshot} instance, or {@code null} if the snapshot was never written or could not be opened.
+     */
+    static GeofenceSnapshot open(Context context) {
+        return open(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Open the specified snapshot file.
+     * @param file the snapshot file.
+     * @return a {@link GeofenceSnapshot} instance, or {@code null} if the file does not exist or could not be opened.
+     */
+    static synchronized GeofenceSnapshot open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        long timestamp = file.lastModified();
+        if ((sCached != null) && (timestamp == sCachedTimestamp)) {
+            return sCached;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            sCached = new GeofenceSnapshot(buffer);
+            sCachedTimestamp = timestamp;
+            log.debug(String.format("opened snapshot of %d geofences", sCached.size()));
+            return sCached;
+        } catch(Exception e) {
+            log.error(String.format("error opening geofence snapshot %s", file), e);
+        } finally {
+            if (raf != null) {
+                try {
+                    // the mapping remains valid after the file is closed
+                    raf.close();
+                } catch(Exception e) {
+                    log.debug("error closing snapshot file", e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write a snapshot of the geofences in the specified tree to the app's private storage.
+     * The file is first written under a unique temporary name then renamed, so that concurrent readers never see a partial snapshot
+     * and concurrent writers never write into the same file.
+     * @param context the context used to locate the app's private storage.
+     * @param tree the tree holding all the geofences in the local database.
+     */
+    static void write(Context context, GeofenceRTree tree) {
+        write(new File(context.getFilesDir(), FILE_NAME), tree);
+    }
+
+    /**
+     * Write a snapshot of the geofences in the specified tree to the specified file.
+     * @param file the snapshot file.
+     * @param tree the tree holding all the geofences in the local database.
+     */
+    static void write(File file, final GeofenceRTree tree) {
+        File tmp = null;
+        int n = tree.size();
+        // sort the entries by cell key, the tree index is packed in the low 32 bits to keep the sort on primitives
+        long[] keyed = new long[n];
+        for (int i=0; i<n; i++) {
+            keyed[i] = (GeoGrid.cellKey(tree.getLatitude(i), tree.getLongitude(i)) << 32) | i;
+        }
+        Arrays.sort(keyed);
+        int[] rank = new int[n];
+        for (int i=0; i<n; i++) {
+            rank[(int) keyed[i]] = i;
+        }
+        Integer[] byCode = new Integer[n];
+        for (int i=0; i<n; i++) {
+            byCode[i] = (int) keyed[i];
+        }
+        Arrays.sort(byCode, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return tree.getCode(i1).compareTo(tree.getCode(i2));
+            }
+        });
+        byte[][] codes = new byte[n][];
+        byte[][] names = new byte[n][];
+        byte[][] polygons = new byte[n][];
+        for (int i=0; i<n; i++) {
+            int entry = (int) keyed[i];
+            codes[i] = tree.getCode(entry).getBytes(UTF_8);
+            String name = tree.getName(entry);
+            names[i] = (name != null) ? name.getBytes(UTF_8) : new byte[0];
+            String polygon = tree.getPolygon(entry);
+            polygons[i] = (polygon != null) ? polygon.getBytes(UTF_8) : new byte[0];
+        }
+        DataOutputStream out = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            for (int i=0; i<n; i++) {
+                out.writeInt((int) (keyed[i] >>> 32));
+            }
+            for (int i=0; i<n; i++) {
+                out.writeInt((int) Math.round(tree.getLatitude((int) keyed[i]) * COORDINATE_SCALE));
+            }
+            for (int i=0; i<n; i++) {
+                out.writeInt((int) Math.round(tree.getLongitude((int) keyed[i]) * COORDINATE_SCALE));
+            }
+            for (int i=0; i<n; i++) {
+                out.writeInt((int) Math.round(tree.getRadius((int) keyed[i]) * RADIUS_SCALE));
+            }
+            for (int i=0; i<n; i++) {
+                out.writeInt(rank[byCode[i]]);
+            }
+            int offset = 0;
+            for (int i=0; i<n; i++) {
+                out.writeInt(offset);
+                offset += codes[i].length;
+            }
+            out.writeInt(offset);
+            for (int i=0; i<n; i++) {
+                out.writeInt(offset);
+                offset += names[i].length;
+            }
+            out.writeInt(offset);
+            for (int i=0; i<n; i++) {
+                out.writeInt(offset);
+                offset += polygons[i].length;
+            }
+            out.writeInt(offset);
+            for (int i=0; i<n; i++) {
+                out.write(codes[i]);
+            }
+            for (int i=0; i<n; i++) {
+                out.write(names[i]);
+            }
+            for (int i=0; i<n; i++) {
+                out.write(polygons[i]);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                log.error(String.format("could not rename %s to %s", tmp, file));
+                return;
+            }
+            synchronized(GeofenceSnapshot.class) {
+                // the file may be rewritten within the resolution of its modification date
+                sCached = null;
+            }
+            log.debug(String.format("wrote snapshot of %d geofences to %s (%,d bytes)", n, file, file.length()));
+        } catch(Exception e) {
+            log.error(String.format("error writing geofence snapshot %s", file), e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch(Exception e) {
+                    log.debug("error closing snapshot file", e);
+                }
+            }
+            if ((tmp != null) && tmp.exists() && !tmp.delete()) {
+                log.debug("could not delete " + tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage of the geofences, independent of the underlying backend.
+ * <p>The available implementations are:
+ * <ul>
+ *     <li>{@link InMemoryGeofenceStore}: a hash map and an R-tree, usable without an Android context</li>
+ *     <li>{@link SQLiteGeofenceStore}: the local database managed by Sugar, with its grid cell index</li>
+ *     <li>{@link MappedGeofenceStore}: a read-only {@link GeofenceSnapshot}, memory-mapped from the app's private storage</li>
+ * </ul>
+ * {@link GeofenceStores} selects the implementation used by the services, and all the writes to the local geofences go through it.
+ */
+interface GeofenceStore extends Iterable<PersistentGeofence> {
+    /**
+     * Insert or update the specified geofences, based on their code.
+     * @param geofences the geofences to write.
+     * @throws UnsupportedOperationException if this store is read-only.
+     */
+    void upsert(List<PersistentGeofence> geofences);
+
+    /**
+     * Delete the geofences with the specified codes.
+     * @param codes the codes of the geofences to delete.
+     * @return the codes of the geofences that were actually deleted, that is, which were in this store.
+     * @throws UnsupportedOperationException if this store is read-only.
+     */
+    List<String> delete(Collection<String> codes);
+
+    /**
+     * Get the geofences with the specified codes. Unknown codes are ignored.
+     * @param codes the codes of the geofences to retrieve.
+     * @return the geofences found, in no particular order.
+     */
+    List<PersistentGeofence> find(Collection<String> codes);
+
+    /**
+     * Get the codes of all the geofences in this store.
+     * @return the codes, in no particular order.
+     */
+    Collection<String> codes();
+
+    /**
+     * Get the codes of the geofences whose center is in the specified {@link GeoTiles tile}.
+     * @param tileKey the key of the tile.
+     * @return the codes, in no particular order.
+     */
+    List<String> codesInTile(long tileKey);
+
+    /**
+     * Select the geofences nearest to the specified location, among the candidates found in the {@link GeoQueryPlanner bounding boxes}
+     * of the search area. Depending on the index of the store, the candidates are the geofences whose center is in these boxes,
+     * or those whose own bounding box intersects them.
+     * @param lat the latitude of the location.
+     * @param lng the longitude of the location.
+     * @param radius the radius of the search area in meters.
+     * @param selector the selector used to rank the candidate geofences by squared equirectangular distance.
+     * Upon return, it holds the distances of the selected geofences.
+     * @return the selected geofences, sorted by ascending distance to the location.
+     */
+    List<PersistentGeofence> nearest(double lat, double lng, double radius, KNearestSelector selector);
+
+    /**
+     * Get the number of geofences in this store.
+     */
+    int size();
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import android.content.Context;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects the {@link GeofenceStore} implementation to use.
+ * <p>The local database is the reference store, where the synchronized geofences are written. The store used for queries
+ * depends on the {@link MFGeofencingManager.StoreBackend backend} configured with {@link MFGeofencingManager#setStoreBackend(MFGeofencingManager.StoreBackend)}.
+ */
+final class GeofenceStores {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(GeofenceStores.class.getSimpleName());
+    /**
+     * The store of the local database, which is the reference for all the others.
+     */
+    private static final GeofenceStore sDatabase = new SQLiteGeofenceStore();
+    /**
+     * The backend used for queries.
+     */
+    private static volatile MFGeofencingManager.StoreBackend sBackend = MFGeofencingManager.StoreBackend.AUTO;
+    /**
+     * The in-memory store wrapping the process-wide R-tree, if any.
+     */
+    private static InMemoryGeofenceStore sMemory;
+    private static GeofenceRTree sMemoryTree;
+
+    private GeofenceStores() {
+    }
+
+    /**
+     * Get the store of the local database, where synchronized geofences are written.
+     */
+    static GeofenceStore database() {
+        return sDatabase;
+    }
+
+    /**
+     * Set the backend used for queries in the current process.
+     * @param backend the backend, {@code null} for {@link MFGeofencingManager.StoreBackend#AUTO}.
+     */
+    static void setBackend(MFGeofencingManager.StoreBackend backend) {
+        sBackend = (backend != null) ? backend : MFGeofencingManager.StoreBackend.AUTO;
+    }
+
+    /**
+     * Get the store to use for read-only queries in the current process, according to the configured backend.
+     * With {@link MFGeofencingManager.StoreBackend#AUTO}, this is the fastest store available, in order of preference:
+     * <ul>
+     *     <li>the in-memory store, if the process-wide {@link GeofenceRTree} was built in this process</li>
+     *     <li>the mapped-file store, if a {@link GeofenceSnapshot} was ever written</li>
+     *     <li>the database store otherwise</li>
+     * </ul>
+     * This way a service started in a fresh process never loads all the geofences, however many there are.
+     * The freshness of the snapshot is not checked: it is rewritten after each change of the local database, so it only lags
+     * behind while the rebuild of the indexes that follows a synchronization is in progress.
+     * @param context the context used to locate the snapshot file.
+     * @return a {@link GeofenceStore} instance.
+     */
+    static GeofenceStore forQueries(Context context) {
+        GeofenceStore store;
+        switch(sBackend) {
+            case DATABASE:
+                store = sDatabase;
+                break;
+            case MEMORY:
+                store = memory(true);
+                break;
+            case MAPPED:
+                store = mapped(context);
+                break;
+            default:
+                store = memory(false);
+                if (store == null) {
+                    store = mapped(context);
+                }
+                break;
+        }
+        log.debug("using " + store.getClass().getSimpleName());
+        return store;
+    }
+
+    /**
+     * Delete the geofences of the specified store whose code is in the specified range but not in the specified collection.
+     * This is how a complete listing, or a page of it sorted by code, is merged.
+     * @param store the store to delete from.
+     * @param keptCodes the codes of the geofences to keep.
+     * @param after the exclusive lower bound of the range, or {@code null} if it is unbounded.
+     * @param upTo the inclusive upper bound of the range, or {@code null} if it is unbounded.
+     * @param scope the codes of the geofences covered by the listing, or {@code null} if it covers all the geofences of the store.
+     * @return the codes of the deleted geofences.
+     */
+    static List<String> deleteAllExcept(GeofenceStore store, Collection<String> keptCodes, String after, String upTo, Collection<String> scope) {
+        Set<String> kept = new HashSet<>(keptCodes);
+        synchronized(GeofenceBulkWriter.MERGE_LOCK) {
+            List<String> candidates = new ArrayList<>();
+            for (String code: (scope != null) ? scope : store.codes()) {
+                if (!kept.contains(code) && ((after == null) || (code.compareTo(after) > 0)) && ((upTo == null) || (code.compareTo(upTo) <= 0))) {
+                    candidates.add(code);
+                }
+            }
+            return store.delete(candidates);
+        }
+    }
+
+    /**
+     * Get a mapped-file store over the current snapshot.
+     * @return the store, or the database store if there is no snapshot.
+     */
+    private static GeofenceStore mapped(Context context) {
+        GeofenceSnapshot snapshot = GeofenceSnapshot.open(context);
+        return (snapshot != null) ? new MappedGeofenceStore(snapshot) : sDatabase;
+    }
+
+    /**
+     * Get an in-memory store wrapping the process-wide R-tree.
+     * @param build whether to build the tree from the local database if it is not built in this process.
+     * @return the store, or {@code null} if the tree is not built in this process and {@code build} is {@code false}.
+     */
+    private static synchronized GeofenceStore memory(boolean build) {
+        GeofenceRTree tree = build ? GeofenceRTree.getInstance() : GeofenceRTree.peekInstance();
+        if (tree != sMemoryTree) {
+            sMemoryTree = tree;
+            sMemory = (tree != null) ? new InMemoryGeofenceStore(tree) : null;
+        }
+        return sMemory;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import com.ibm.mf.geofence.rest.HttpMethod;
+import com.ibm.mf.geofence.rest.HttpRequest;
+import com.ibm.mf.geofence.rest.HttpRequestCallback;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Request for a page of the geofences from the server. The response is parsed as it is received and merged into the local database
+ * in the background thread of the request, see {@link GeofenceMerger}. Only one listing is merged at a time in the process.
+ * <p>The {@link GeofenceBinaryFormat compact binary encoding} is preferred over GeoJSON, which remains the only format of servers
+ * which do not support it.
+ * <p>The geofences are requested in pages of at most {@link #PAGE_SIZE} geofences, so that an interrupted synchronization
+ * can be resumed from the last merged page. Servers which do not support paging return all the geofences in a single page.
+ */
+class GeofenceSyncRequest extends HttpRequest<GeofenceList> {
+    /**
+     * Maximum number of geofences requested per page.
+     */
+    static final int PAGE_SIZE = 1000;
+    /**
+     * The media types accepted for the response, in order of preference.
+     */
+    static final String ACCEPT = GeofenceBinaryFormat.MEDIA_TYPE + ", application/vnd.geo+json;q=0.9, application/json;q=0.8";
+    /**
+     * The watermark of the previous synchronization, or -1 to request all the geofences.
+     */
+    private final long mUpdatedAfter;
+    /**
+     * The greatest code covered by the previous page, or {@code null} if this is the first page.
+     */
+    private final String mPageStart;
+    /**
+     * The key of the tile whose geofences are requested, or -1 to request the geofences everywhere.
+     */
+    private final long mTileKey;
+
+    /**
+     * Initialize this request with the specified callback and "GET" request method.
+     * @param callback the callback instance to which the merged geofences will be dispatched asynchronously.
+     * @param updatedAfter the watermark of the previous synchronization, to request only the changes since then, or -1 to request all the geofences.
+     * @param bookmark the cursor provided by the previous page, or {@code null} to request the first page.
+     * @param pageStart the greatest code covered by the previous page, or {@code null} to request the first page.
+     * @param tileKey the key of the {@link GeoTiles tile} whose geofences are requested, or -1 to request the geofences everywhere.
+     */
+    GeofenceSyncRequest(HttpRequestCallback<GeofenceList> callback, long updatedAfter, String bookmark, String pageStart, long tileKey) {
+        super(callback, HttpMethod.GET, null);
+        this.mUpdatedAfter = updatedAfter;
+        this.mPageStart = pageStart;
+        this.mTileKey = tileKey;
+        setAccept(ACCEPT);
+        if (updatedAfter >= 0L) {
+            addParameter("updatedAfter", Long.toString(updatedAfter));
+        }
+        if (tileKey >= 0L) {
+            // GeoJSON bounding box order: west, south, east, north
+            double[] box = GeoTiles.bounds(tileKey);
+            addParameter("bbox", String.format(Locale.US, "%s,%s,%s,%s", box[2], box[0], box[3], box[1]));
+        }
+        addParameter("limit", Integer.toString(PAGE_SIZE));
+        if (bookmark != null) {
+            addParameter("bookmark", bookmark);
+        }
+    }
+
+    /**
+     * Determine whether this request only asks for the changes since the previous synchronization.
+     */
+    boolean isIncremental() {
+        return mUpdatedAfter >= 0L;
+    }
+
+    @Override
+    protected boolean isStreamingResponse() {
+        return true;
+    }
+
+    @Override
+    protected GeofenceList resultFromStream(InputStream source) throws Exception {
+        // the stream is decoded without holding the merge lock, which the merger only takes to write each batch and the deletions
+        GeofenceMerger merger = new GeofenceMerger(isIncremental(), mPageStart, mTileKey);
+        if (isBinaryResponse()) {
+            return withValidators(GeofenceBinaryFormat.parseGeofences(source, merger));
+        }
+        return withValidators(GeofencingJSONUtils.parseGeofences(source, merger));
+    }
+
+    @Override
+    protected GeofenceList resultFromResponse(byte[] source) throws Exception {
+        return resultFromStream(new ByteArrayInputStream(source));
+    }
+
+    /**
+     * The geofences were not modified since the previous synchronization: nothing is parsed nor written to the local database.
+     */
+    @Override
+    protected GeofenceList resultFromNotModified() {
+        GeofenceList list = new GeofenceList(null);
+        list.mNotModified = true;
+        return list;
+    }
+
+    /**
+     * Determine whether the server responded with the binary encoding.
+     */
+    private boolean isBinaryResponse() {
+        String contentType = getContentType();
+        return (contentType != null) && contentType.toLowerCase(Locale.US).startsWith(GeofenceBinaryFormat.MEDIA_TYPE);
+    }
+
+    private GeofenceList withValidators(GeofenceList list) {
+        list.mETag = getETag();
+        list.mLastModified = getLastModified();
+        return list;
+    }
+}
@@ -19,6 +19,7 @@ package com.ibm.mf.geofence;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
+import android.location.Location;
 
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
@@ -26,10 +27,13 @@ import com.google.android.gms.location.GeofencingEvent;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This Android service receives events from the Geofencing API and invokes the AEX geofence callback accordingly.
+ * <p>It also re-checks the containment in polygon geofences upon location updates, see {@link PolygonTransitions}.
  */
 public class GeofenceTransitionsService extends IntentService {
     /**
@@ -37,6 +41,11 @@ public class GeofenceTransitionsService extends IntentService {
      */
     private static final Logger log = LoggingConfiguration.getLogger(GeofenceTransitionsService.class.getSimpleName());
 
+    /**
+     * Intent action requesting a re-check of the polygon geofences whose bounding circle the device is inside of.
+     */
+    static final String ACTION_CHECK_POLYGONS = "com.ibm.mf.geofence.action.CHECK_POLYGONS";
+
     public GeofenceTransitionsService() {
         super(GeofenceTransitionsService.class.getName());
     }
@@ -56,6 +65,10 @@ public class GeofenceTransitionsService extends IntentService {
 
     @SuppressWarnings("unchecked")
     private void handleIntent(Intent intent) {
+        if (ACTION_CHECK_POLYGONS.equals(intent.getAction())) {
+            checkPolygons(new ServiceConfig().fromIntent(intent));
+            return;
+        }
         GeofencingEvent event = GeofencingEvent.fromIntent(intent);
         int transition = event.getGeofenceTransition();
         ServiceConfig config = new ServiceConfig().fromIntent(intent);
@@ -69,33 +82,126 @@ public class GeofenceTransitionsService extends IntentService {
             List<Geofence> triggeringGeofences = event.getTriggeringGeofences();
             log.debug("geofence transition: " + triggeringGeofences);
             Context ctx = config.createContext(this);
-            Settings settings = new Settings(ctx);
-            config.populateFromSettings(settings);
-            MFGeofencingManager manager = new MFGeofencingManager(settings, MFGeofencingManager.MODE_GEOFENCE_EVENT, ctx,
-                config.mServerUrl, config.mUsername, config.mPassword, (int) config.mMaxDistance);
-            config.populateFromSettings(manager.mSettings);
-            List<PersistentGeofence> geofences = new ArrayList<>(triggeringGeofences.size());
+            MFGeofencingManager manager = createManager(ctx, config);
+            List<String> codes = new ArrayList<>(triggeringGeofences.size());
             for (Geofence g : triggeringGeofences) {
-                String code = g.getRequestId();
-                PersistentGeofence geofence = GeofencingUtils.geofenceFromCode(code);
-                if (geofence != null) {
+                codes.add(g.getRequestId());
+            }
+            boolean enter = transition == Geofence.GEOFENCE_TRANSITION_ENTER;
+            Location location = event.getTriggeringLocation();
+            List<PersistentGeofence> geofences = new ArrayList<>(codes.size());
+            PolygonTransitions polygons = PolygonTransitions.load(manager.mSettings);
+            for (PersistentGeofence geofence: lookup(ctx, codes)) {
+                if (!geofence.isPolygon()) {
                     geofences.add(geofence);
+                } else {
+                    boolean inside = enter && ((location == null) || isInside(geofence, location.getLatitude(), location.getLongitude()));
+                    if (polygons.onCircleTransition(geofence.getCode(), enter, inside) != null) {
+                        geofences.add(geofence);
+                    }
                 }
             }
+            polygons.store(manager.mSettings);
+            manager.mSettings.commit();
             log.debug(String.format("triggered geofences = %s", geofences));
-            MFGeofenceEvent.Type eventType = (transition == Geofence.GEOFENCE_TRANSITION_ENTER) ? MFGeofenceEvent.Type.ENTER : MFGeofenceEvent.Type.EXIT;
-            manager.postGeofenceEvent(geofences, eventType);
-            try {
-                Intent broadcastIntent = new Intent(MFGeofenceEvent.ACTION_GEOFENCE_EVENT);
-                broadcastIntent.setPackage(ctx.getPackageName());
-                MFGeofenceEvent.toIntent(broadcastIntent, eventType, geofences, null);
-                log.debug(String.format("sending config=%s", config));
-                ctx.sendBroadcast(broadcastIntent);
-            } catch(Exception e) {
-                log.error("error sending broadcast event", e);
-            }
+            reportTransition(ctx, manager, geofences, enter ? MFGeofenceEvent.Type.ENTER : MFGeofenceEvent.Type.EXIT);
         } else {
             log.error("invalid transition type: " + transition);
         }
     }
+
+    /**
+     * Re-check the containment of the new location in the polygon geofences whose bounding circle the device is inside of,
+     * and report the transitions of the polygons for which it changed.
+     * @param config the configuration holding the new location.
+     */
+    private void checkPolygons(ServiceConfig config) {
+        if (config.mNewLocation == null) {
+            return;
+        }
+        Context ctx = config.createContext(this);
+        MFGeofencingManager manager = createManager(ctx, config);
+        PolygonTransitions polygons = PolygonTransitions.load(manager.mSettings);
+        Set<String> codes = polygons.circleCodes();
+        if (codes.isEmpty()) {
+            return;
+        }
+        List<PersistentGeofence> entered = new ArrayList<>();
+        List<PersistentGeofence> exited = new ArrayList<>();
+        for (PersistentGeofence geofence: lookup(ctx, codes)) {
+            boolean inside = isInside(geofence, config.mNewLocation.latitude, config.mNewLocation.longitude);
+            MFGeofenceEvent.Type type = polygons.onLocation(geofence.getCode(), inside);
+            if (type == MFGeofenceEvent.Type.ENTER) {
+                entered.add(geofence);
+            } else if (type == MFGeofenceEvent.Type.EXIT) {
+                exited.add(geofence);
+            }
+        }
+        log.debug(String.format("polygon check at %s: entered = %s, exited = %s", config.mNewLocation, entered, exited));
+        if (!entered.isEmpty() || !exited.isEmpty()) {
+            polygons.store(manager.mSettings);
+            manager.mSettings.commit();
+            reportTransition(ctx, manager, exited, MFGeofenceEvent.Type.EXIT);
+            reportTransition(ctx, manager, entered, MFGeofenceEvent.Type.ENTER);
+        }
+    }
+
+    /**
+     * Create a geofencing manager from the specified configuration.
+     */
+    private MFGeofencingManager createManager(Context ctx, ServiceConfig config) {
+        Settings settings = new Settings(ctx);
+        config.populateFromSettings(settings);
+        MFGeofencingManager manager = new MFGeofencingManager(settings, MFGeofencingManager.MODE_GEOFENCE_EVENT, ctx,
+            config.mServerUrl, config.mUsername, config.mPassword, (int) config.mMaxDistance);
+        config.populateFromSettings(manager.mSettings);
+        return manager;
+    }
+
+    /**
+     * Look up the geofences with the specified codes in the cache, then the snapshot, to avoid opening the local database in a fresh process.
+     */
+    private List<PersistentGeofence> lookup(Context ctx, Collection<String> codes) {
+        GeofenceSnapshot snapshot = GeofenceSnapshot.open(ctx);
+        List<PersistentGeofence> geofences = GeofenceCache.get(codes, (snapshot != null) ? new MappedGeofenceStore(snapshot) : null);
+        log.debug(GeofenceCache.stats());
+        return geofences;
+    }
+
+    /**
+     * Post the specified transition to the server and broadcast it to the application.
+     */
+    static void reportTransition(Context ctx, MFGeofencingManager manager, List<PersistentGeofence> geofences, MFGeofenceEvent.Type eventType) {
+        if (geofences.isEmpty()) {
+            return;
+        }
+        manager.postGeofenceEvent(geofences, eventType);
+        try {
+            Intent broadcastIntent = new Intent(MFGeofenceEvent.ACTION_GEOFENCE_EVENT);
+            broadcastIntent.setPackage(ctx.getPackageName());
+            MFGeofenceEvent.toIntent(broadcastIntent, eventType, GeofencingUtils.geofencesToCodes(geofences), null);
+            ctx.sendBroadcast(broadcastIntent);
+        } catch(Exception e) {
+            log.error("error sending broadcast event", e);
+        }
+    }
+
+    /**
+     * Determine whether the specified location is inside a polygon geofence.
+     * @param geofence the polygon geofence.
+     * @param latitude the location latitude.
+     * @param longitude the location longitude.
+     * @return {@code true} if the location is inside the polygon, or if the polygon is invalid and only its bounding circle can be used.
+     */
+    private boolean isInside(PersistentGeofence geofence, double latitude, double longitude) {
+        boolean inside = true;
+        try {
+            inside = GeoPolygon.fromCoordinates(geofence.getPolygon()).contains(latitude, longitude);
+        } catch(Exception e) {
+            // fall back to the bounding circle
+            log.error("invalid polygon for geofence " + geofence.getCode(), e);
+        }
+        log.debug(String.format("polygon geofence %s: location (%f, %f) is %s", geofence.getCode(), latitude, longitude, inside ? "inside" : "outside"));
+        return inside;
+    }
 }
@@ -16,17 +16,21 @@
 
 package com.ibm.mf.geofence;
 
+import android.util.JsonReader;
+
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Utility methods to parse one or more geofences in geojson format.
@@ -40,58 +44,131 @@ class GeofencingJSONUtils {
      * Date format used to convert dates from/to UTC format such as "2015-08-24T09:00:00-05:00".
      */
     static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+    /**
+     * Date format of the synchronization dates provided by the server, in UTC such as "2016-05-01T09:00:00.000Z".
+     */
+    static final String SYNC_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
 
     /**
-     * Parse a list of geofences.
-     * @param json json object representing the list of fences.
-     * @return a list of {@link MFGeofence} instances.
-     * @throws Exception if a parsing error occurs.
+     * Parse a GeoJSON FeatureCollection of geofences from the specified stream and merge it into the local database.
+     * <p>The features are pulled one at a time from the stream, and written in batches of {@link GeofenceBulkWriter#BATCH_SIZE}
+     * as soon as they are parsed, so neither the raw payload nor its JSON tree are ever held in memory.
+     * <p>Once the whole stream is read, deletions are applied. If the collection is the response to an incremental request
+     * and holds a {@code lastSyncDate} property, it only contains the changes since the previous synchronization,
+     * and the geofences listed in its {@code deleted} property are deleted. Otherwise it is the complete set of geofences,
+     * and the local geofences that are not in the collection are deleted.
+     * The stream is not closed by this method.
+     * @param in the stream to read the UTF-8 encoded GeoJSON from.
+     * @param incremental whether the collection was requested with an {@code updatedAfter} parameter.
+     * @return the parsed geofences, the codes of the deleted ones and the new synchronization watermark.
+     * @throws Exception if a parsing error occurs. In this case, the batches already written are kept and no geofence is deleted.
      */
-    static GeofenceList parseGeofences(JSONObject json) throws Exception {
-        Set<PersistentGeofence> localGeofences = new HashSet<>(PersistentGeofence.listAll(PersistentGeofence.class));
-        List<PersistentGeofence> result = new ArrayList<>();
-        JSONArray features = json.getJSONArray("features");
-        for (int i=0; i<features.length(); i++) {
-            JSONObject feature = features.getJSONObject(i);
-            result.add(parseGeofence(feature));
+    static GeofenceList parseGeofences(InputStream in, boolean incremental) throws Exception {
+        return parseGeofences(in, new GeofenceMerger(incremental, null, -1L));
+    }
+
+    /**
+     * Parse a page of a GeoJSON FeatureCollection of geofences from the specified stream and pass its geofences to the specified sink,
+     * such as a {@link GeofenceMerger} which merges them into the local database. The stream is not closed by this method.
+     * @param in the stream to read the UTF-8 encoded GeoJSON from.
+     * @param sink the sink which receives the geofences, usually a {@link GeofenceMerger}.
+     * @return the parsed geofences, the codes of the deleted ones, the new synchronization watermark and the cursor of the next page.
+     * @throws Exception if a parsing error occurs. In this case, the batches already written are kept and no geofence is deleted.
+     */
+    static GeofenceList parseGeofences(InputStream in, GeofenceSink sink) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        JSONObject properties = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("features".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    sink.add(parseGeofence(readObject(reader)));
+                }
+                reader.endArray();
+            } else if ("properties".equals(name)) {
+                properties = readObject(reader);
+            } else {
+                reader.skipValue();
+            }
         }
-        int totalFeatures = result.size();
-        // shoud now contain only the fences to delete
-        localGeofences.removeAll(result);
-        int n = localGeofences.size();
-        List<String> deletedCodes = null;
-        if (n > 0) {
-            deletedCodes = new ArrayList<>(n);
-            for (PersistentGeofence fence: localGeofences) {
-                deletedCodes.add(fence.getCode());
-                fence.delete();
+        reader.endObject();
+        return sink.finish(properties);
+    }
+
+    /**
+     * Parse a synchronization date provided by the server in ISO 8601 UTC format, such as "2016-05-01T09:00:00.000Z".
+     * @param date the date to parse.
+     * @return the date in milliseconds since the epoch, or -1 if it is {@code null} or cannot be parsed.
+     */
+    static long parseSyncDate(String date) {
+        if (date != null) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat(SYNC_DATE_FORMAT, Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                return format.parse(date).getTime();
+            } catch(ParseException e) {
+                log.error("invalid synchronization date " + date, e);
             }
-            log.debug(String.format("deleted %d geofences from local DB", n));
         }
-        /*
-        if (json.has("properties")) {
-            JSONObject properties = json.getJSONObject("properties");
-            List<String> deletedCodes = null;
-            if (properties.has("deleted")) {
-                JSONArray deletedCodesJson = properties.getJSONArray("deleted");
-                deletedCodes = new ArrayList<>(deletedCodesJson.length());
-                for (int i=0; i<deletedCodesJson.length(); i++) {
-                    deletedCodes.add(deletedCodesJson.getString(i));
-                }
-                if (!deletedCodes.isEmpty()) {
-                    n = GeofencingUtils.deleteGeofences(deletedCodes);
-                    log.debug(String.format("deleted %d geofences from local DB", n));
+        return -1L;
+    }
+
+    /**
+     * Read the next JSON object from the specified reader into a {@link JSONObject}.
+     */
+    static JSONObject readObject(JsonReader reader) throws Exception {
+        JSONObject json = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            json.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return json;
+    }
+
+    /**
+     * Read the next JSON array from the specified reader into a {@link JSONArray}.
+     */
+    static JSONArray readArray(JsonReader reader) throws Exception {
+        JSONArray json = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            json.put(readValue(reader));
+        }
+        reader.endArray();
+        return json;
+    }
+
+    /**
+     * Read the next JSON value from the specified reader, as it would be represented in a {@link JSONObject}.
+     */
+    private static Object readValue(JsonReader reader) throws Exception {
+        switch(reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.valueOf(number);
+                } catch(NumberFormatException e) {
+                    return Double.valueOf(number);
                 }
-            }
-            int totalGeofences = properties.has("totalFeatures") ? properties.getInt("totalFeatures") : -1;
-            return new GeofenceList(result, totalGeofences, deletedCodes);
+            default:
+                return reader.nextString();
         }
-        */
-        return new GeofenceList(result, totalFeatures, deletedCodes);
     }
 
     /**
-     * Parse a single geofence.
+     * Parse a single geofence, whose geometry is either a point with a {@code radius} property, or a polygon.
      * @param feature json object representing the fence.
      * @return a {@link MFGeofence} instance.
      * @throws Exception if a parsing error occurs.
@@ -104,21 +181,22 @@ class GeofencingJSONUtils {
         double radius = props.optDouble("radius", -1d);
         JSONObject geometry = feature.getJSONObject("geometry");
         JSONArray coord = geometry.getJSONArray("coordinates");
-        double lng = coord.getDouble(0);
-        double lat = coord.getDouble(1);
-        PersistentGeofence geofence = GeofencingUtils.geofenceFromCode(code);
-        if (geofence == null) {
-            // if not in local DB create a new one
-            geofence = new PersistentGeofence(code, name, description, lat, lng, radius);
+        double lng;
+        double lat;
+        String polygon = null;
+        if ("Polygon".equals(geometry.optString("type"))) {
+            // polygons are registered with the platform as their bounding circle
+            double[] circle = new GeoPolygon(GeoPolygon.parseRings(coord)).boundingCircle();
+            lat = circle[0];
+            lng = circle[1];
+            radius = circle[2];
+            polygon = coord.toString();
         } else {
-            // update existing geofence
-            geofence.setName(name);
-            geofence.setDescription(description);
-            geofence.setLatitude(lat);
-            geofence.setLongitude(lng);
-            geofence.setRadius(radius);
+            lng = coord.getDouble(0);
+            lat = coord.getDouble(1);
         }
-        return geofence;
+        // the id of the matching local geofence, if any, is set when merging into the local DB
+        return new PersistentGeofence(code, name, description, lat, lng, radius, polygon);
     }
 
     /*
@@ -24,9 +24,11 @@ import org.apache.log4j.Logger;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -51,6 +53,24 @@ class GeofencingUtils {
      */
     private static final String REFERENCE_LOCATION_LAT = "com.ibm.pi.ref_lat";
     private static final String REFERENCE_LOCATION_LNG = "com.ibm.pi.ref_lng";
+    private static final String RESELECTION_DISTANCE = "com.ibm.pi.reselection_distance";
+    private static final String SAFE_RADIUS = "com.ibm.pi.safe_radius";
+    /**
+     * Settings key for the codes of the polygon geofences the device was last reported inside of.
+     */
+    private static final String INSIDE_POLYGONS_PREF_KEY = "com.ibm.pi.inside_polygons";
+    /**
+     * Settings key for the codes of the polygon geofences whose bounding circle the device is inside of.
+     */
+    private static final String POLYGON_CIRCLES_PREF_KEY = "com.ibm.pi.polygon_circles";
+    /**
+     * SQL statement which creates the index on the grid cell keys of the geofences.
+     */
+    private static final String CREATE_CELL_KEY_INDEX = "CREATE INDEX IF NOT EXISTS IDX_PERSISTENT_GEOFENCE_CELL_KEY ON PERSISTENT_GEOFENCE (M_CELL_KEY)";
+    /**
+     * Whether the existence of the cell key index was already checked in this process.
+     */
+    private static boolean sCellKeyIndexChecked = false;
 
     private GeofencingUtils() {
     }
@@ -70,11 +90,45 @@ class GeofencingUtils {
     }
 
     /**
-     * Store the reference location into the {@link Settings}.
+     * Determine whether a reference location was stored in the {@link Settings}.
+     */
+    static boolean hasReferenceLocation(Settings settings) {
+        return settings.getString(REFERENCE_LOCATION_LAT, null) != null;
+    }
+
+    /**
+     * Store the state of the last selection of the monitored geofences into the {@link Settings}, then commit the settings.
+     * All the values are written together, so that they are never read from different selections.
+     * @param settings the settings where the state is stored.
+     * @param location the reference location where the selection happened.
+     * @param reselectionDistance the distance from the reference location beyond which a new selection is required.
+     * @param safeRadius the radius around the reference location within which the set of monitored geofences cannot change.
+     */
+    static void storeSelectionState(Settings settings, Location location, double reselectionDistance, double safeRadius) {
+        settings.putDouble(REFERENCE_LOCATION_LAT, location.getLatitude())
+            .putDouble(REFERENCE_LOCATION_LNG, location.getLongitude())
+            .putDouble(RESELECTION_DISTANCE, reselectionDistance)
+            .putDouble(SAFE_RADIUS, safeRadius)
+            .commit();
+    }
+
+    /**
+     * Retrieve the distance from the reference location beyond which a new selection of the monitored geofences is required.
+     * @param settings the settings from which to retrieve the distance.
+     * @param defaultValue the value to return if no distance was stored.
+     * @return the distance in meters.
+     */
+    static double retrieveReselectionDistance(Settings settings, double defaultValue) {
+        return settings.getDouble(RESELECTION_DISTANCE, defaultValue);
+    }
+
+    /**
+     * Retrieve the radius around the reference location within which the set of monitored geofences cannot change.
+     * @param settings the settings from which to retrieve the radius.
+     * @return the radius in meters, or 0 if none was stored.
      */
-    static void storeReferenceLocation(Settings settings, Location location) {
-        settings.putDouble(REFERENCE_LOCATION_LAT, location.getLatitude());
-        settings.putDouble(REFERENCE_LOCATION_LNG, location.getLongitude());
+    static double retrieveSafeRadius(Settings settings) {
+        return settings.getDouble(SAFE_RADIUS, 0d);
     }
 
     /**
@@ -88,6 +142,42 @@ class GeofencingUtils {
         return uuids;
     }
 
+    /**
+     * Extract the codes of the polygon geofences the device was last reported inside of from the settings.
+     */
+    static Collection<String> insidePolygonCodesFromPrefs(Settings settings) {
+        Collection<String> codes = settings.getStrings(INSIDE_POLYGONS_PREF_KEY, GEOFENCES_PREF_DEFAULT);
+        if ((codes == null) || (codes == GEOFENCES_PREF_DEFAULT)) {
+            codes = new HashSet<>();
+        }
+        return codes;
+    }
+
+    /**
+     * Store the codes of the polygon geofences the device was last reported inside of into the settings.
+     */
+    static void updateInsidePolygonCodes(Settings settings, Collection<String> codes) {
+        settings.putStrings(INSIDE_POLYGONS_PREF_KEY, codes);
+    }
+
+    /**
+     * Extract the codes of the polygon geofences whose bounding circle the device is inside of from the settings.
+     */
+    static Collection<String> polygonCircleCodesFromPrefs(Settings settings) {
+        Collection<String> codes = settings.getStrings(POLYGON_CIRCLES_PREF_KEY, GEOFENCES_PREF_DEFAULT);
+        if ((codes == null) || (codes == GEOFENCES_PREF_DEFAULT)) {
+            codes = new HashSet<>();
+        }
+        return codes;
+    }
+
+    /**
+     * Store the codes of the polygon geofences whose bounding circle the device is inside of into the settings.
+     */
+    static void updatePolygonCircleCodes(Settings settings, Collection<String> codes) {
+        settings.putStrings(POLYGON_CIRCLES_PREF_KEY, codes);
+    }
+
     /**
      * Extract the monitored geofences from the settings.
      */
@@ -97,7 +187,16 @@ class GeofencingUtils {
 
     static void updateGeofences(Settings settings, Collection<PersistentGeofence> fences) {
         if (fences != null) {
-            settings.putStrings(GEOFENCES_PREF_KEY, geofencesToCodes(fences));
+            updateGeofenceCodes(settings, geofencesToCodes(fences));
+        }
+    }
+
+    /**
+     * Store the codes of all monitored geofences into the settings.
+     */
+    static void updateGeofenceCodes(Settings settings, Collection<String> codes) {
+        if (codes != null) {
+            settings.putStrings(GEOFENCES_PREF_KEY, codes);
         }
     }
 
@@ -107,7 +206,7 @@ class GeofencingUtils {
      * @return a list of {@link MFGeofence} objects.
      */
     static List<PersistentGeofence> geofencesFromCodes(Collection<String> geofenceCodes) {
-        return geofencesFromCodes(geofenceCodes.toArray(new String[geofenceCodes.size()]));
+        return ChunkedInClause.find(PersistentGeofence.class, "m_code", geofenceCodes);
     }
 
     /**
@@ -116,19 +215,63 @@ class GeofencingUtils {
      * @return a list of {@link MFGeofence} objects.
      */
     static List<PersistentGeofence> geofencesFromCodes(String[] geofenceCodes) {
-        int size = geofenceCodes.length;
-        List<PersistentGeofence> geofences = new ArrayList<>(size);
-        // build the "code in (?, ..., ?)" where clause
-        StringBuilder where = new StringBuilder("m_code in (");
-        for (int count=0; count<size; count++) {
-            if (count > 0) {
-                where.append(", ");
+        return geofencesFromCodes(Arrays.asList(geofenceCodes));
+    }
+
+    /**
+     * Get the geofences whose center is within the specified bounding box, via a set of range queries on the indexed grid cell keys.
+     * @param minLat the minimum latitude of the bounding box.
+     * @param maxLat the maximum latitude of the bounding box.
+     * @param minLng the minimum longitude of the bounding box.
+     * @param maxLng the maximum longitude of the bounding box.
+     * @return a list of {@link PersistentGeofence} objects, possibly empty.
+     */
+    static List<PersistentGeofence> geofencesInBoundingBox(double minLat, double maxLat, double minLng, double maxLng) {
+        ensureCellKeyIndex();
+        List<PersistentGeofence> result = new ArrayList<>();
+        long[] ranges = GeoGrid.cellRanges(minLat, maxLat, minLng, maxLng);
+        String where = "m_cell_key BETWEEN ? AND ? AND m_latitude >= ? AND m_latitude <= ? AND m_longitude >= ? AND m_longitude <= ?";
+        String[] args = { null, null, Double.toString(minLat), Double.toString(maxLat), Double.toString(minLng), Double.toString(maxLng) };
+        for (int i=0; i<ranges.length; i+=2) {
+            args[0] = Long.toString(ranges[i]);
+            args[1] = Long.toString(ranges[i + 1]);
+            result.addAll(PersistentGeofence.find(PersistentGeofence.class, where, args));
+        }
+        return result;
+    }
+
+    /**
+     * Get the geofences from the local DB whose center is in the specified {@link GeoTiles tile}.
+     * @param tileKey the key of the tile.
+     * @return a list of {@link PersistentGeofence} objects, possibly empty.
+     */
+    static List<PersistentGeofence> geofencesInTile(long tileKey) {
+        double[] box = GeoTiles.bounds(tileKey);
+        List<PersistentGeofence> result = geofencesInBoundingBox(box[0], box[1], box[2], box[3]);
+        Iterator<PersistentGeofence> it = result.iterator();
+        while (it.hasNext()) {
+            PersistentGeofence geofence = it.next();
+            // the bounding box query includes the edges shared with the neighbouring tiles
+            if (GeoTiles.tileKey(geofence.getLatitude(), geofence.getLongitude()) != tileKey) {
+                it.remove();
             }
-            where.append('?');
         }
-        where.append(')');
-        geofences.addAll(PersistentGeofence.find(PersistentGeofence.class, where.toString(), geofenceCodes));
-        return geofences;
+        return result;
+    }
+
+    /**
+     * Create the index on the grid cell keys if it does not exist yet. The index is created by the upgrade script
+     * for existing databases, but not when Sugar creates the database from scratch.
+     */
+    private static synchronized void ensureCellKeyIndex() {
+        if (!sCellKeyIndexChecked) {
+            try {
+                PersistentGeofence.executeQuery(CREATE_CELL_KEY_INDEX);
+            } catch(Exception e) {
+                log.error("error creating the cell key index", e);
+            }
+            sCellKeyIndexChecked = true;
+        }
     }
 
     static PersistentGeofence geofenceFromCode(String geofenceCode) {
@@ -153,17 +296,11 @@ class GeofencingUtils {
      * @return the number of actually deleted geofences.
      */
     static int deleteGeofences(Collection<String> geofenceCodes) {
-        int size = geofenceCodes.size(); // in case size() has a non-constant cost
-        // build the "code in (?, ..., ?)" where clause
-        StringBuilder where = new StringBuilder("m_code in (");
-        for (int count = 0; count < size; count++) {
-            if (count > 0) {
-                where.append(", ");
-            }
-            where.append('?');
+        int count = ChunkedInClause.deleteAll(PersistentGeofence.class, "m_code", geofenceCodes);
+        if (count > 0) {
+            GeofenceRTree.invalidate();
         }
-        where.append(')');
-        return PersistentGeofence.deleteAll(PersistentGeofence.class, where.toString(), geofenceCodes.toArray(new String[size]));
+        return count;
     }
 
     /**
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link GeofenceStore} held in memory, which requires neither an Android context nor a database.
+ * <p>The geofences are kept in a hash map by code, and the nearest geofences are searched in a {@link GeofenceRTree}.
+ * Each one is derived lazily from the other: the tree is rebuilt upon the first search after a change,
+ * and the map is only built when a store created from an existing tree is looked up or modified.
+ */
+final class InMemoryGeofenceStore implements GeofenceStore {
+    /**
+     * The geofences by code, or {@code null} if not derived from {@link #mTree} yet.
+     */
+    private Map<String, PersistentGeofence> mGeofences;
+    /**
+     * The spatial index, or {@code null} if not built from {@link #mGeofences} yet.
+     */
+    private GeofenceRTree mTree;
+
+    /**
+     * Create an empty store.
+     */
+    InMemoryGeofenceStore() {
+        mGeofences = new LinkedHashMap<>();
+    }
+
+    /**
+     * Create a store holding the specified geofences.
+     * @param geofences the initial content of the store.
+     */
+    InMemoryGeofenceStore(Collection<PersistentGeofence> geofences) {
+        this();
+        for (PersistentGeofence geofence: geofences) {
+            mGeofences.put(geofence.getCode(), geofence);
+        }
+    }
+
+    /**
+     * Create a store whose content is that of the specified tree. The tree is not copied, and is only discarded upon a change.
+     * @param tree the initial content of the store.
+     */
+    InMemoryGeofenceStore(GeofenceRTree tree) {
+        mTree = tree;
+    }
+
+    @Override
+    public synchronized void upsert(List<PersistentGeofence> geofences) {
+        Map<String, PersistentGeofence> map = geofences();
+        for (PersistentGeofence geofence: geofences) {
+            map.put(geofence.getCode(), geofence);
+        }
+        mTree = null;
+    }
+
+    @Override
+    public synchronized List<String> delete(Collection<String> codes) {
+        Map<String, PersistentGeofence> map = geofences();
+        List<String> deleted = new ArrayList<>();
+        for (String code: codes) {
+            if (map.remove(code) != null) {
+                deleted.add(code);
+            }
+        }
+        if (!deleted.isEmpty()) {
+            mTree = null;
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized Collection<String> codes() {
+        return new ArrayList<>(geofences().keySet());
+    }
+
+    @Override
+    public synchronized List<String> codesInTile(long tileKey) {
+        List<String> codes = new ArrayList<>();
+        for (PersistentGeofence geofence: geofences().values()) {
+            if (GeoTiles.tileKey(geofence.getLatitude(), geofence.getLongitude()) == tileKey) {
+                codes.add(geofence.getCode());
+            }
+        }
+        return codes;
+    }
+
+    @Override
+    public synchronized List<PersistentGeofence> find(Collection<String> codes) {
+        Map<String, PersistentGeofence> map = geofences();
+        List<PersistentGeofence> result = new ArrayList<>(codes.size());
+        for (String code: codes) {
+            PersistentGeofence geofence = map.get(code);
+            if (geofence != null) {
+                result.add(geofence);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<PersistentGeofence> nearest(final double lat, final double lng, double radius, final KNearestSelector selector) {
+        final GeofenceRTree tree = tree();
+        GeofenceRTree.Visitor visitor = new GeofenceRTree.Visitor() {
+            @Override
+            public void visit(int entry) {
+                selector.offer(GeoDistance.squaredEquirectangular(lat, lng, tree.getLatitude(entry), tree.getLongitude(entry)), entry);
+            }
+        };
+        // a geofence whose box overlaps both sides of the antimeridian is only offered once
+        tree.search(GeoQueryPlanner.plan(lat, lng, radius), visitor);
+        selector.sort();
+        List<PersistentGeofence> result = new ArrayList<>(selector.size());
+        for (int i=0; i<selector.size(); i++) {
+            result.add(tree.toGeofence(selector.index(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int size() {
+        return (mGeofences != null) ? mGeofences.size() : mTree.size();
+    }
+
+    /**
+     * Iterate over a copy of the content of this store, so that it can be modified during the iteration.
+     */
+    @Override
+    public synchronized Iterator<PersistentGeofence> iterator() {
+        return Collections.unmodifiableList(new ArrayList<>(geofences().values())).iterator();
+    }
+
+    /**
+     * Get the spatial index of this store, building it if needed.
+     */
+    synchronized GeofenceRTree tree() {
+        if (mTree == null) {
+            mTree = new GeofenceRTree(new ArrayList<>(mGeofences.values()));
+        }
+        return mTree;
+    }
+
+    /**
+     * Get the geofences by code, deriving them from the tree if needed.
+     */
+    private Map<String, PersistentGeofence> geofences() {
+        if (mGeofences == null) {
+            mGeofences = new LinkedHashMap<>(2 * mTree.size());
+            for (int i=0; i<mTree.size(); i++) {
+                mGeofences.put(mTree.getCode(i), mTree.toGeofence(i));
+            }
+        }
+        return mGeofences;
+    }
+}
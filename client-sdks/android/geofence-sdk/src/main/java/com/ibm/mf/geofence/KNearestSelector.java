@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+/**
+ * Selects the K nearest candidates out of a stream of (distance, index) pairs.
+ * <p>The candidates are kept in a fixed-capacity max-heap backed by primitive arrays, so that offering a candidate
+ * costs O(log K) and does not allocate. Candidates at the same distance are ordered by index, hence none of them is
+ * ever dropped because of a tie, and the selection is deterministic.
+ * <p>The selector also keeps track of the smallest distance among the candidates that were not selected,
+ * that is, the distance of the (K+1)-th nearest candidate.
+ */
+final class KNearestSelector {
+    /**
+     * Maximum number of selected candidates.
+     */
+    private final int mCapacity;
+    /**
+     * Distances of the selected candidates, organized as a max-heap until {@link #sort()} is called.
+     */
+    private final double[] mDistances;
+    /**
+     * Indices of the selected candidates, in the same order as {@link #mDistances}.
+     */
+    private final int[] mIndices;
+    /**
+     * Current number of selected candidates.
+     */
+    private int mSize;
+    /**
+     * Total number of candidates offered since the last reset.
+     */
+    private int mOffered;
+    /**
+     * Smallest distance among the candidates that were rejected or evicted since the last reset.
+     */
+    private double mNextDistance = Double.POSITIVE_INFINITY;
+
+    /**
+     * Initialize this selector with the specified capacity.
+     * @param capacity the maximum number of candidates to select.
+     */
+    KNearestSelector(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0 but is " + capacity);
+        }
+        this.mCapacity = capacity;
+        this.mDistances = new double[capacity];
+        this.mIndices = new int[capacity];
+    }
+
+    /**
+     * Offer a candidate to this selector.
+     * @param distance the distance of the candidate to the reference point.
+     * @param index the index of the candidate.
+     */
+    void offer(double distance, int index) {
+        mOffered++;
+        if (mSize < mCapacity) {
+            int i = mSize++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!greater(distance, index, mDistances[parent], mIndices[parent])) {
+                    break;
+                }
+                mDistances[i] = mDistances[parent];
+                mIndices[i] = mIndices[parent];
+                i = parent;
+            }
+            mDistances[i] = distance;
+            mIndices[i] = index;
+        } else if (greater(mDistances[0], mIndices[0], distance, index)) {
+            // the current farthest candidate is evicted
+            mNextDistance = Math.min(mNextDistance, mDistances[0]);
+            siftDown(0, mSize, distance, index);
+        } else {
+            mNextDistance = Math.min(mNextDistance, distance);
+        }
+    }
+
+    /**
+     * Sort the selected candidates by ascending distance. After this call, no more candidates should be offered until {@link #reset()} is called.
+     */
+    void sort() {
+        for (int end = mSize - 1; end > 0; end--) {
+            double d = mDistances[end];
+            int idx = mIndices[end];
+            mDistances[end] = mDistances[0];
+            mIndices[end] = mIndices[0];
+            siftDown(0, end, d, idx);
+        }
+    }
+
+    /**
+     * Clear this selector so it can be reused.
+     */
+    void reset() {
+        mSize = 0;
+        mOffered = 0;
+        mNextDistance = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Get the number of selected candidates.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the maximum number of candidates this selector can hold.
+     */
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Get the total number of candidates offered since the last reset.
+     */
+    int offered() {
+        return mOffered;
+    }
+
+    /**
+     * Get the smallest distance among the offered candidates that are not selected.
+     * @return the distance of the (K+1)-th nearest candidate, or {@link Double#POSITIVE_INFINITY} if all offered candidates are selected.
+     */
+    double nextDistance() {
+        return mNextDistance;
+    }
+
+    /**
+     * Get the index of the selected candidate at the specified position.
+     * @param position the position in the selection, in ascending order of distance if {@link #sort()} was called.
+     */
+    int index(int position) {
+        return mIndices[position];
+    }
+
+    /**
+     * Get the distance of the selected candidate at the specified position.
+     * @param position the position in the selection, in ascending order of distance if {@link #sort()} was called.
+     */
+    double distance(int position) {
+        return mDistances[position];
+    }
+
+    /**
+     * Place the specified candidate at the specified heap position, then restore the heap property in the range {@code [0, end)}.
+     */
+    private void siftDown(int i, int end, double distance, int index) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if ((child + 1 < end) && greater(mDistances[child + 1], mIndices[child + 1], mDistances[child], mIndices[child])) {
+                child++;
+            }
+            if (!greater(mDistances[child], mIndices[child], distance, index)) {
+                break;
+            }
+            mDistances[i] = mDistances[child];
+            mIndices[i] = mIndices[child];
+            i = child;
+        }
+        mDistances[i] = distance;
+        mIndices[i] = index;
+    }
+
+    /**
+     * Determine whether candidate 1 is farther than candidate 2, using the index to break ties.
+     */
+    private static boolean greater(double d1, int i1, double d2, int i2) {
+        return (d1 > d2) || ((d1 == d2) && (i1 > i2));
+    }
+}
@@ -30,7 +30,10 @@ import java.util.Locale;
 
 /**
  * Receives location change events and determines whether they are significant changes, that is,
- * whether the new location is outside the current bounding box.
+ * whether the new location is farther from the reference location than the re-selection distance stored along with it,
+ * which is {@code maxDistance} unless the {@link MFGeofencingManager#setAdaptiveSelection(boolean) adaptive selection} is enabled.
+ * Changes within the safe radius computed by the {@link SignificantLocationChangeService} are never significant.
+ * <p>Each location change also triggers a re-check of the polygon geofences whose bounding circle the device is inside of.
  */
 public class LocationUpdateReceiver extends BroadcastReceiver {
     /**
@@ -40,6 +43,10 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
     private Context mContext;
     private Location mReferenceLocation = null;
     private double mMaxDistance;
+    /**
+     * Radius around the reference location within which the set of monitored geofences cannot change.
+     */
+    private double mSafeRadius;
     private Settings mSettings;
     private ServiceConfig mConfig;
 
@@ -50,8 +57,9 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
         this();
         this.mContext = geofencingService.mContext;
         this.mSettings = geofencingService.mSettings;
-        this.mMaxDistance = geofencingService.mMaxDistance;
+        this.mMaxDistance = GeofencingUtils.retrieveReselectionDistance(mSettings, geofencingService.mMaxDistance);
         this.mReferenceLocation = GeofencingUtils.retrieveReferenceLocation(mSettings);
+        this.mSafeRadius = GeofencingUtils.retrieveSafeRadius(mSettings);
         this.mConfig = new ServiceConfig().fromGeofencingManager(geofencingService);
         //log.debug(String.format("GeofenceManager() config=%s, settings=%s", config, settings));
     }
@@ -62,12 +70,30 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
         if (shouldProcess) {
             this.mConfig = new ServiceConfig().fromIntent(intent);
             this.mContext = context;
-            this.mMaxDistance = mConfig.mMaxDistance;
             this.mSettings = new Settings(context);
+            this.mMaxDistance = GeofencingUtils.retrieveReselectionDistance(mSettings, mConfig.mMaxDistance);
             this.mReferenceLocation = GeofencingUtils.retrieveReferenceLocation(mSettings);
+            this.mSafeRadius = GeofencingUtils.retrieveSafeRadius(mSettings);
             Location location = (Location) intent.getExtras().get(LocationManager.KEY_LOCATION_CHANGED);
             //log.debug(String.format("onReceive() config=%s, settings=%s", config, settings));
             onLocationChanged(location, false);
+            checkPolygons(location);
+        }
+    }
+
+    /**
+     * Request a re-check of the containment in the polygon geofences whose bounding circle the device is inside of, if any,
+     * since the platform only reports transitions of the circles.
+     * @param location the new location.
+     */
+    private void checkPolygons(Location location) {
+        if (!GeofencingUtils.polygonCircleCodesFromPrefs(mSettings).isEmpty()) {
+            Intent intent = new Intent(mContext, GeofenceTransitionsService.class);
+            intent.setAction(GeofenceTransitionsService.ACTION_CHECK_POLYGONS);
+            intent.setPackage(mContext.getPackageName());
+            mConfig.mNewLocation = new LatLng(location.getLatitude(), location.getLongitude());
+            mConfig.toIntent(intent);
+            mContext.startService(intent);
         }
     }
 
@@ -80,10 +106,10 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
     void onLocationChanged(Location location, boolean force) {
         double d = mMaxDistance + 1d;
         if (mReferenceLocation != null) {
-            d = mReferenceLocation.distanceTo(location);
+            d = GeoDistance.haversine(mReferenceLocation.getLatitude(), mReferenceLocation.getLongitude(), location.getLatitude(), location.getLongitude());
         }
         //log.debug(String.format("onLocationChanged(location=%s; d=%,.0f)", location, d));
-        if ((d > mMaxDistance) || force) {
+        if (isSignificantMove(d, mMaxDistance, mSafeRadius) || force) {
             log.debug(String.format(Locale.US, "onLocationChanged() detected significant location change, distance to ref = %,.0f m, new location = %s", d, location));
             Intent intent = new Intent(mContext, SignificantLocationChangeService.class);
             intent.setPackage(mContext.getPackageName());
@@ -93,4 +119,17 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Determine whether the monitored geofences must be selected again after the specified move.
+     * <p>Within the safe radius, the nearest geofences are the same as at the reference location, hence no new selection is needed
+     * however far the device moved. Beyond it, a new selection only happens past the reselection distance.
+     * @param distance the distance in meters between the reference location and the current location.
+     * @param reselectionDistance the distance in meters beyond which a new selection is required.
+     * @param safeRadius the radius in meters around the reference location within which the set of monitored geofences cannot change.
+     * @return {@code true} if a new selection is needed, {@code false} otherwise.
+     */
+    static boolean isSignificantMove(double distance, double reselectionDistance, double safeRadius) {
+        return (distance > safeRadius) && (distance > reselectionDistance);
+    }
+
 }
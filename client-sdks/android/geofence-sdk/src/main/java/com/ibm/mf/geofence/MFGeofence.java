@@ -28,6 +28,10 @@ public class MFGeofence implements Serializable {
     private double mLatitude;
     private double mLongitude;
     private double mRadius;
+    /**
+     * Rings of {@code [longitude, latitude]} positions of the polygon outline, or {@code null} for a circular geofence.
+     */
+    private double[][][] mPolygon;
 
     public MFGeofence() {
     }
@@ -41,6 +45,22 @@ public class MFGeofence implements Serializable {
         this.mRadius = radius;
     }
 
+    /**
+     * Create a polygon geofence.
+     * @param code the geofence code.
+     * @param name the geofence name.
+     * @param description the geofence description.
+     * @param latitude the latitude of the center of the bounding circle of the polygon.
+     * @param longitude the longitude of the center of the bounding circle of the polygon.
+     * @param radius the radius of the bounding circle of the polygon.
+     * @param polygon the rings of {@code [longitude, latitude]} positions in GeoJSON order, the first ring being the outline and
+     * the others holes, or {@code null} for a circular geofence.
+     */
+    public MFGeofence(String code, String name, String description, double latitude, double longitude, double radius, double[][][] polygon) {
+        this(code, name, description, latitude, longitude, radius);
+        this.mPolygon = polygon;
+    }
+
     public String getCode() {
         return mCode;
     }
@@ -65,6 +85,14 @@ public class MFGeofence implements Serializable {
         return mRadius;
     }
 
+    /**
+     * Get the outline of this geofence if it is a polygon.
+     * @return the rings of {@code [longitude, latitude]} positions, or {@code null} for a circular geofence.
+     */
+    public double[][][] getPolygon() {
+        return mPolygon;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "[" + mName + "]";
@@ -19,6 +19,7 @@ package com.ibm.mf.geofence;
 import android.content.Intent;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -146,7 +147,7 @@ public class MFGeofenceEvent {
         List<MFGeofence> geofences = null;
         String[] codes = intent.getStringArrayExtra(GEOFENCES_KEY);
         if (codes != null) {
-            List<PersistentGeofence> pgList = GeofencingUtils.geofencesFromCodes(codes);
+            List<PersistentGeofence> pgList = GeofenceCache.get(Arrays.asList(codes), null);
             geofences = PersistentGeofence.toMFGeofences(pgList);
         }
         List<String> deletedCodes = null;
@@ -158,20 +159,16 @@ public class MFGeofenceEvent {
     }
 
     /**
-     * Convert the specified data to extras in the specified intent.
+     * Convert the specified data to extras in the specified intent. The geofences are resolved from their codes on the receiving side.
      * @param intent the intent to update with extras.
      * @param eventType the type of geofence event.
-     * @param geofences the affected geofences.
+     * @param geofenceCodes the codes of the affected geofences.
      * @param deletedGeofenceCodes a list of deleted geofence codes.
      */
-    static void toIntent(Intent intent, final Type eventType, List<PersistentGeofence> geofences, final List<String> deletedGeofenceCodes) {
+    static void toIntent(Intent intent, final Type eventType, Collection<String> geofenceCodes, final List<String> deletedGeofenceCodes) {
         intent.putExtra(EVENT_TYPE_KEY, eventType.name());
-        if (geofences != null) {
-            String[] geofenceCodes = new String[geofences.size()];
-            for (int i=0; i<geofences.size(); i++) {
-                geofenceCodes[i] = geofences.get(i).getCode();
-            }
-            intent.putExtra(GEOFENCES_KEY, geofenceCodes);
+        if (geofenceCodes != null) {
+            intent.putExtra(GEOFENCES_KEY, geofenceCodes.toArray(new String[geofenceCodes.size()]));
         }
         if (deletedGeofenceCodes != null) {
             intent.putExtra(DELETED_GEOFENCES_KEY, deletedGeofenceCodes.toArray(new String[deletedGeofenceCodes.size()]));
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+/**
+ * Receives the progress of the import of a bundle of geofences, see {@link MFGeofencingManager#loadGeofencesFromResource(String, MFGeofenceImportListener)}.
+ * All methods are invoked on the UI thread.
+ */
+public interface MFGeofenceImportListener {
+    /**
+     * Called each time an entry of the bundle is decoded, then each time a batch of geofences is written to the local database.
+     * @param decodedEntries the number of entries decoded so far.
+     * @param decodedGeofences the number of distinct geofences decoded so far.
+     * @param writtenGeofences the number of geofences written to the local database so far.
+     * @param totalGeofences the number of geofences in the bundle, or -1 while the entries are still being decoded.
+     */
+    void onImportProgress(int decodedEntries, int decodedGeofences, int writtenGeofences, int totalGeofences);
+
+    /**
+     * Called once the import is complete, successfully or not.
+     * @param importedGeofences the number of geofences imported from the bundle, or 0 if the import failed.
+     * @param deletedGeofences the number of local geofences which were not in the bundle and were deleted.
+     * @param error the cause of the failure, or {@code null} if the import was successful.
+     */
+    void onImportComplete(int importedGeofences, int deletedGeofences, Exception error);
+}
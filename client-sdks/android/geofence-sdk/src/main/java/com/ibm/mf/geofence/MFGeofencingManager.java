@@ -21,7 +21,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.location.Location;
-import android.location.LocationManager;
 import android.os.AsyncTask;
 
 import com.google.android.gms.common.ConnectionResult;
@@ -36,22 +35,22 @@ import com.ibm.mf.geofence.rest.HttpMethod;
 import com.ibm.mf.geofence.rest.HttpRequest;
 import com.ibm.mf.geofence.rest.HttpRequestCallback;
 import com.ibm.mf.geofence.rest.HttpRequestError;
+import com.ibm.mf.geofence.rest.HttpRequestPriority;
 import com.ibm.mf.geofence.rest.HttpService;
-import com.ibm.mf.geofence.rest.JSONPayloadRequest;
 import com.ibm.pisdk.geofencing.BuildConfig;
 
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * Provides an API to load geofences from, and send entry/exit to, the server.
@@ -61,6 +60,10 @@ public class MFGeofencingManager {
      * Logger for this class.
      */
     private static final Logger log = LoggingConfiguration.getLogger(MFGeofencingManager.class.getSimpleName());
+    /**
+     * Lock held while the indexes of the local geofences are rebuilt.
+     */
+    private static final Object INDEXES_LOCK = new Object();
     static final String INTENT_ID = "IBMGeofencingService";
     /**
      * Part of a request path pointing to the geofence connector.
@@ -86,6 +89,14 @@ public class MFGeofencingManager {
      * Mode indicating this geofence manager is executed by the reboot handler service.
      */
     static final int MODE_REBOOT = 4;
+    /**
+     * Maximum number of geofences that can be registered for monitoring on the device, as per the Google location API.
+     */
+    static final int MAX_MONITORED_GEOFENCES_LIMIT = 100;
+    /**
+     * Default maximum number of geofences registered for monitoring around the current location.
+     */
+    static final int DEFAULT_MAX_MONITORED_GEOFENCES = MAX_MONITORED_GEOFENCES_LIMIT;
     /**
      * The restful service which connects to and communicates with the Adaptive Experience server.
      */
@@ -127,6 +138,46 @@ public class MFGeofencingManager {
      * The minimum delay between two synchronizations with the server.
      */
     int mIntervalBetweenDowloads = 24;
+    /**
+     * The maximum number of geofences nearest to the current location that are registered for monitoring.
+     */
+    int mMaxMonitoredGeofences = DEFAULT_MAX_MONITORED_GEOFENCES;
+    /**
+     * Whether the radius of the area where the nearest geofences are selected is adapted to the local density of geofences.
+     */
+    boolean mAdaptiveSelection = false;
+    /**
+     * The maximum number of {@link GeoTiles tiles} of geofences kept in the local database, or 0 to synchronize all the geofences.
+     */
+    int mMaxSyncedTiles = 0;
+    /**
+     * The backend used to query the local geofences.
+     */
+    StoreBackend mStoreBackend = StoreBackend.AUTO;
+
+    /**
+     * The possible backends used to query the local geofences. Whatever the backend, the geofences are stored in the local database.
+     */
+    public enum StoreBackend {
+        /**
+         * Use the in-memory index if it is already built in the process, else the memory-mapped snapshot if there is one, else the local database.
+         */
+        AUTO,
+        /**
+         * Always query the local database, which uses the least memory and suits deployments with few geofences near the device.
+         */
+        DATABASE,
+        /**
+         * Always query an in-memory index of all the geofences, built from the local database upon first use.
+         * This is the fastest backend, but its memory footprint grows with the number of geofences.
+         */
+        MEMORY,
+        /**
+         * Query the memory-mapped snapshot written after each synchronization, or the local database if there is none yet.
+         * This suits large numbers of geofences, with services running in short-lived processes.
+         */
+        MAPPED
+    }
 
     /**
      * Initialize this service.
@@ -159,6 +210,11 @@ public class MFGeofencingManager {
         this.mSettings = (settings != null) ? settings : new Settings(context);
         log.debug("MFGeofencingManager() settings = " + this.mSettings);
         this.mIntervalBetweenDowloads = this.mSettings.getInt(ServiceConfig.SERVER_SYNC_MIN_DELAY_HOURS, 24);
+        this.mMaxMonitoredGeofences = this.mSettings.getInt(ServiceConfig.MAX_MONITORED_GEOFENCES, DEFAULT_MAX_MONITORED_GEOFENCES);
+        this.mAdaptiveSelection = this.mSettings.getBoolean(ServiceConfig.ADAPTIVE_SELECTION, false);
+        this.mMaxSyncedTiles = this.mSettings.getInt(ServiceConfig.MAX_SYNCED_TILES, 0);
+        this.mStoreBackend = parseStoreBackend(this.mSettings.getString(ServiceConfig.STORE_BACKEND, null));
+        GeofenceStores.setBackend(this.mStoreBackend);
         this.mDeviceDescriptor = retrieveDeviceDescriptor();
         int n = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(context);
         log.debug("google play service availability = " + getGoogleAvailabilityAsText(n));
@@ -227,6 +283,9 @@ public class MFGeofencingManager {
         String path = String.format(Locale.US, "%s", GEOFENCE_CONNECTOR_PATH);
         request.setPath(path);
         request.setBasicAuthRequired(true);
+        request.setCompressPayload(true);
+        // the notification must not wait behind a synchronization
+        request.setPriority(HttpRequestPriority.HIGH);
         mHttpService.executeRequest(request);
     }
 
@@ -249,10 +308,8 @@ public class MFGeofencingManager {
                     .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
                     .build();
 
-                Location location = new Location(LocationManager.NETWORK_PROVIDER);
-                location.setLatitude(geofence.getLatitude());
-                location.setLongitude(geofence.getLongitude());
-                if ((mMode != MODE_REBOOT) || (last == null) || (location.distanceTo(last) > geofence.getRadius())) {
+                if ((mMode != MODE_REBOOT) || (last == null)
+                    || (GeoDistance.haversine(geofence.getLatitude(), geofence.getLongitude(), last.getLatitude(), last.getLongitude()) > geofence.getRadius())) {
                     list.add(fence);
                 } else {
                     // if already in geofence, do not trigger upon registration.
@@ -294,6 +351,17 @@ public class MFGeofencingManager {
         }
     }
 
+    /**
+     * Remove the geofences with the specified codes from the monitored geofences.
+     * @param codes the codes of the geofences to remove.
+     */
+    void unmonitorGeofenceCodes(List<String> codes) {
+        log.debug("unmonitorGeofenceCodes(" + codes + ")");
+        if (!codes.isEmpty()) {
+            LocationServices.GeofencingApi.removeGeofences(mGoogleApiClient, codes);
+        }
+    }
+
     /**
      * Get the minimum delay in hours between two synchronizations with the server.
      * When not already set, the default value is 24 hours.
@@ -315,62 +383,177 @@ public class MFGeofencingManager {
         }
     }
 
+    /**
+     * Get the maximum number of geofences nearest to the current location that are registered for monitoring.
+     * When not already set, the default value is 100.
+     * @return the maximum number of monitored geofences.
+     */
+    public int getMaxMonitoredGeofences() {
+        return mMaxMonitoredGeofences;
+    }
+
+    /**
+     * Set the maximum number of geofences nearest to the current location that are registered for monitoring.
+     * If the specified value is less than 1 or greater than 100, then this method has no effect.
+     * @param maxMonitoredGeofences the maximum number of monitored geofences.
+     */
+    public void setMaxMonitoredGeofences(int maxMonitoredGeofences) {
+        if ((maxMonitoredGeofences > 0) && (maxMonitoredGeofences <= MAX_MONITORED_GEOFENCES_LIMIT)) {
+            this.mMaxMonitoredGeofences = maxMonitoredGeofences;
+            updateSettings();
+        }
+    }
+
+    /**
+     * Determine whether the selection of the monitored geofences adapts to the local density of geofences.
+     * @return {@code true} if the adaptive selection is enabled, {@code false} otherwise.
+     */
+    public boolean isAdaptiveSelection() {
+        return mAdaptiveSelection;
+    }
+
+    /**
+     * Enable or disable the adaptive selection of the monitored geofences.
+     * <p>When disabled (the default), the geofences are selected within {@code maxDistance / 2} of the current location,
+     * and a new selection happens whenever the device moves by more than {@code maxDistance}.
+     * <p>When enabled, the search radius is estimated from the density of geofences around the current location, such that it holds
+     * roughly the {@link #getMaxMonitoredGeofences() maximum number of monitored geofences}, up to {@code maxDistance}:
+     * it shrinks in dense areas and grows in sparse ones. A new selection then happens whenever the device moves by more than half this radius.
+     * @param adaptiveSelection {@code true} to enable the adaptive selection, {@code false} to disable it.
+     */
+    public void setAdaptiveSelection(boolean adaptiveSelection) {
+        this.mAdaptiveSelection = adaptiveSelection;
+        updateSettings();
+    }
+
+    /**
+     * Get the backend used to query the local geofences.
+     * @return the backend, {@link StoreBackend#AUTO} by default.
+     */
+    public StoreBackend getStoreBackend() {
+        return mStoreBackend;
+    }
+
+    /**
+     * Set the backend used to query the local geofences, in the app and in the services of the SDK.
+     * @param storeBackend the backend to use, {@code null} for {@link StoreBackend#AUTO}.
+     */
+    public void setStoreBackend(StoreBackend storeBackend) {
+        this.mStoreBackend = (storeBackend != null) ? storeBackend : StoreBackend.AUTO;
+        GeofenceStores.setBackend(mStoreBackend);
+        updateSettings();
+    }
+
+    /**
+     * Parse the name of a store backend, as stored in the settings.
+     * @param name the name of the backend, may be {@code null}.
+     * @return the backend, or {@link StoreBackend#AUTO} if the name is {@code null} or unknown.
+     */
+    private static StoreBackend parseStoreBackend(String name) {
+        if (name != null) {
+            try {
+                return StoreBackend.valueOf(name);
+            } catch(IllegalArgumentException e) {
+                log.error("unknown store backend " + name);
+            }
+        }
+        return StoreBackend.AUTO;
+    }
+
+    /**
+     * Get the maximum number of tiles of geofences kept in the local database when only the geofences near the device are synchronized.
+     * @return the maximum number of tiles, or 0 if all the geofences are synchronized (the default).
+     */
+    public int getMaxSyncedTiles() {
+        return mMaxSyncedTiles;
+    }
+
+    /**
+     * Enable or disable the synchronization of only the geofences near the device.
+     * <p>When enabled, the geofences are downloaded per tile of {@value GeoTiles#TILE_SIZE} degrees, for the tiles within {@code maxDistance}
+     * of the current location, and for those ahead of the device as it moves. Each tile is refreshed at most once per
+     * {@link #getIntervalBetweenDowloads() interval between downloads}. When more than {@code maxSyncedTiles} tiles were downloaded,
+     * the geofences of the tiles farthest from the current location are removed from the local database.
+     * <p>Switching between the two modes restarts the synchronization from scratch.
+     * @param maxSyncedTiles the maximum number of tiles to keep, or 0 to synchronize all the geofences. Negative values are ignored.
+     */
+    public void setMaxSyncedTiles(int maxSyncedTiles) {
+        if (maxSyncedTiles >= 0) {
+            boolean modeChanged = (maxSyncedTiles > 0) != (mMaxSyncedTiles > 0);
+            this.mMaxSyncedTiles = maxSyncedTiles;
+            if (modeChanged) {
+                synchronized(SyncedTiles.class) {
+                    new SyncedTiles().store(mSettings);
+                }
+                storeSyncState(-1L, null, null);
+                mSettings.remove(ServiceConfig.SERVER_SYNC_LOCAL_TIMESTAMP);
+            }
+            updateSettings();
+        }
+    }
+
     /**
      * Load a set of geofences from a reosurce file.
      * @param resource the path to the resource to load the geofences from.
      */
     public void loadGeofencesFromResource(final String resource) {
-        AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
+        loadGeofencesFromResource(resource, null);
+    }
+
+    /**
+     * Load a set of geofences from a resource file, which replace all the local geofences.
+     * <p>The resource is a zip file whose entries hold geofences in GeoJSON or in the compact binary encoding of the server.
+     * The entries are decoded concurrently, and a geofence appearing in several entries is taken from the last one.
+     * @param resource the path to the resource to load the geofences from.
+     * @param listener the listener which receives the progress of the import, or {@code null} if it is not tracked.
+     */
+    public void loadGeofencesFromResource(final String resource, final MFGeofenceImportListener listener) {
+        AsyncTask<Void, Integer, Void> task = new AsyncTask<Void, Integer, Void>() {
             private GeofenceList geofenceList;
             private HttpRequestError error;
 
             @Override
             protected Void doInBackground(Void... params) {
-                ZipInputStream zis = null;
+                InputStream is = null;
                 try {
-                    InputStream is = getClass().getClassLoader().getResourceAsStream(resource);
-                    zis = new ZipInputStream(is);
-                    ZipEntry entry;
-                    Map<String, PersistentGeofence> allGeofences = new HashMap<>();
-                    while ((entry = zis.getNextEntry()) != null) {
-                        byte[] bytes = GeofencingUtils.loadBytes(zis);
-                        if (bytes != null) {
-                            int fileSize = bytes.length;
-                            JSONObject json = new JSONObject(new String(bytes, "UTF-8"));
-                            bytes = null; // the byte[] may be large, we make sure it can be GC-ed ASAP
-                            GeofenceList list = GeofencingJSONUtils.parseGeofences(json);
-                            List<PersistentGeofence> geofences = list.getGeofences();
-                            if ((geofences != null) && !geofences.isEmpty()) {
-                                PersistentGeofence.saveInTx(geofences);
-                                log.debug(String.format(Locale.US, "loaded %,d geofences from resource '[%s]/%s' (%,d bytes)",
-                                    geofences.size(), resource, entry.getName(), fileSize));
-                            }
-
-                            for (PersistentGeofence pg: list.getGeofences()) {
-                                allGeofences.put(pg.getCode(), pg);
-                            }
-                        }
-                        else {
-                            log.debug(String.format("the zip entry [%s]/%s is empty", resource, entry.getName()));
-                        }
+                    is = getClass().getClassLoader().getResourceAsStream(resource);
+                    if (is == null) {
+                        throw new FileNotFoundException(String.format("resource '%s' not found", resource));
                     }
-                    geofenceList = new GeofenceList(new ArrayList<>(allGeofences.values()));
-                    log.debug(String.format(Locale.US, "loaded %,d geofences from resource '[%s]'", allGeofences.size(), resource));
+                    GeofenceBundleImporter.Progress progress = new GeofenceBundleImporter.Progress() {
+                        @Override
+                        public void update(int decodedEntries, int decodedGeofences, int writtenGeofences, int totalGeofences) {
+                            publishProgress(decodedEntries, decodedGeofences, writtenGeofences, totalGeofences);
+                        }
+                    };
+                    geofenceList = new GeofenceBundleImporter(GeofenceBundleImporter.defaultThreads(), progress).importBundle(is, resource);
+                    // the content of the local database no longer derives from the server
+                    storeSyncState(-1L, null, null);
+                    GeofenceCache.clear();
+                    GeofenceRTree.rebuild();
+                    updateGeofenceIndexes();
+                    log.debug(String.format(Locale.US, "loaded %,d geofences from resource '[%s]'", geofenceList.getGeofenceCodes().size(), resource));
                 } catch(Exception e) {
                     error = new HttpRequestError(-1, e, String.format("error loading resource '%s'", resource));
                 } finally {
                     try {
-                        zis.close();
-                    } catch(Exception e) {
-                        log.error(String.format("error closing zip input stream for resource %s", resource), e);
-                        if (error == null) {
-                            error = new HttpRequestError(-1, e, String.format("error loading resource '%s'", resource));
+                        if (is != null) {
+                            is.close();
                         }
+                    } catch(Exception e) {
+                        log.error(String.format("error closing input stream for resource %s", resource), e);
                     }
                 }
                 return null;
             }
 
+            @Override
+            protected void onProgressUpdate(Integer... values) {
+                if (listener != null) {
+                    listener.onImportProgress(values[0], values[1], values[2], values[3]);
+                }
+            }
+
             @Override
             protected void onPostExecute(Void aVoid) {
                 if (error != null) {
@@ -379,12 +562,19 @@ public class MFGeofencingManager {
                     try {
                         Intent broadcastIntent = new Intent(MFGeofenceEvent.ACTION_GEOFENCE_EVENT);
                         broadcastIntent.setPackage(mContext.getPackageName());
-                        MFGeofenceEvent.toIntent(broadcastIntent, MFGeofenceEvent.Type.SERVER_SYNC, geofenceList.getGeofences(), null);
+                        MFGeofenceEvent.toIntent(broadcastIntent, MFGeofenceEvent.Type.SERVER_SYNC, geofenceList.getGeofenceCodes(), geofenceList.getDeletedGeofenceCodes());
                         mContext.sendBroadcast(broadcastIntent);
                     } catch(Exception e) {
                         log.error("error sending broadcast event", e);
                     }
                 }
+                if (listener != null) {
+                    if (error != null) {
+                        listener.onImportComplete(0, 0, error.getException());
+                    } else {
+                        listener.onImportComplete(geofenceList.getGeofenceCodes().size(), geofenceList.getDeletedGeofenceCodes().size(), null);
+                    }
+                }
             }
         };
         task.execute();
@@ -431,60 +621,367 @@ public class MFGeofencingManager {
     }
 
     /**
-     * Query the geofences from the server, based on the current anchor.
+     * Query the geofences from the server, if the minimum delay since the last synchronization has elapsed.
+     * Only the changes since the last synchronization are requested, unless the local database is empty or there is no valid watermark.
+     * The request is conditional on the validators of the last response, so that nothing is downloaded if nothing changed.
+     * A paged synchronization which was interrupted is resumed from its last merged page, regardless of the minimum delay.
+     * When there is no valid watermark but the local database is not empty, for instance after geofences were loaded from a resource,
+     * only the tiles whose geofences differ from those of the server are downloaded, see {@link GeofenceReconciliation}.
      */
     private void loadGeofencesFromServer() {
-        if (PersistentGeofence.count(PersistentGeofence.class) <= 0) {
+        String bookmark = mSettings.getString(ServiceConfig.SERVER_SYNC_PAGE_BOOKMARK, null);
+        if (mMaxSyncedTiles > 0) {
+            // the tiles are synchronized when the geofences around the current location are selected
+            setInitialLocation();
+        } else if (GeofenceStores.database().size() <= 0) {
+            storeSyncState(-1L, null, null);
             loadGeofencesFromServer(-1L);
+        } else if (bookmark != null) {
+            long updatedAfter = mSettings.getLong(ServiceConfig.SERVER_SYNC_PAGE_UPDATED_AFTER, -1L);
+            log.debug("loadGeofences() resuming the synchronization of the geofences updated after " + updatedAfter);
+            loadGeofencesPage(-1L, updatedAfter, bookmark, mSettings.getString(ServiceConfig.SERVER_SYNC_PAGE_START, null),
+                mSettings.getLong(ServiceConfig.SERVER_SYNC_PAGE_WATERMARK, -1L), true, null, null);
         } else {
             long now = System.currentTimeMillis();
             long lastTimeStamp = mSettings.getLong(ServiceConfig.SERVER_SYNC_LOCAL_TIMESTAMP, -1L);
             if ((lastTimeStamp < 0L) || (now - lastTimeStamp >= mIntervalBetweenDowloads * 3600L * 1000L)) {
-                loadGeofencesFromServer(-1L);
+                long watermark = mSettings.getLong(ServiceConfig.SERVER_SYNC_WATERMARK, -1L);
+                if (watermark >= 0L) {
+                    loadGeofencesFromServer(watermark);
+                } else {
+                    reconcileGeofences(new GeofenceReconciliation());
+                }
             }
         }
     }
 
     /**
      * Query the geofences from the server, based on the current last sync date.
+     * @param lastSyncTimestamp the watermark of the last synchronization, or -1 to request all the geofences.
+     */
+    private void loadGeofencesFromServer(final long lastSyncTimestamp) {
+        loadGeofencesPage(-1L, lastSyncTimestamp, null, null, -1L, false, null, null);
+    }
+
+    /**
+     * Request the next parts of the hash tree of the server, until the local tree is completely compared with it, then
+     * download the tiles whose geofences differ one after the other. Servers which do not provide a hash tree get a full synchronization.
+     * @param reconciliation the reconciliation in progress.
+     */
+    private void reconcileGeofences(final GeofenceReconciliation reconciliation) {
+        final List<Long> nodes = reconciliation.nextNodes();
+        HttpRequestCallback<GeofenceReconciliation> cb = new HttpRequestCallback<GeofenceReconciliation>() {
+            @Override
+            public void onSuccess(GeofenceReconciliation result) {
+                if (!result.isCompared()) {
+                    reconcileGeofences(result);
+                    return;
+                }
+                List<String> deletedCodes = result.getDeletedCodes();
+                if (!deletedCodes.isEmpty()) {
+                    GeofenceCache.invalidate(deletedCodes);
+                    Intent broadcastIntent = new Intent(MFGeofenceEvent.ACTION_GEOFENCE_EVENT);
+                    broadcastIntent.setPackage(mContext.getPackageName());
+                    MFGeofenceEvent.toIntent(broadcastIntent, MFGeofenceEvent.Type.SERVER_SYNC, null, deletedCodes);
+                    mContext.sendBroadcast(broadcastIntent);
+                }
+                log.debug(String.format(Locale.US, "reconcileGeofences() %s, %,d geofences deleted", result, deletedCodes.size()));
+                reconcileNextTile(result, !deletedCodes.isEmpty());
+            }
+
+            @Override
+            public void onError(HttpRequestError error) {
+                log.debug(error.toString());
+                if (nodes.contains(GeofenceDigestTree.ROOT) && (error.getStatusCode() >= 400) && (error.getStatusCode() < 500)) {
+                    // the server does not provide a hash tree
+                    loadGeofencesFromServer(-1L);
+                }
+            }
+        };
+        GeofenceDigestRequest request = new GeofenceDigestRequest(cb, reconciliation, nodes);
+        request.setPath(String.format("%s/%s", CONFIG_CONNECTOR_PATH, GeofenceDigestRequest.PATH));
+        mHttpService.executeRequest(request);
+    }
+
+    /**
+     * Download the next tile whose geofences differ from those of the server, or complete the reconciliation
+     * by storing the watermark of the server tree if there are no more tiles.
+     * @param reconciliation the reconciliation in progress.
+     * @param changed whether the reconciliation changed the local database so far.
+     */
+    private void reconcileNextTile(GeofenceReconciliation reconciliation, boolean changed) {
+        long tileKey = reconciliation.nextTile();
+        if (tileKey >= 0L) {
+            loadGeofencesPage(tileKey, -1L, null, null, -1L, changed, reconciliation, null);
+        } else {
+            mSettings.putLong(ServiceConfig.SERVER_SYNC_LOCAL_TIMESTAMP, System.currentTimeMillis());
+            storeSyncState(reconciliation.getWatermark(), null, null);
+            if (changed) {
+                setInitialLocation();
+            }
+        }
+    }
+
+    /**
+     * Synchronize the tiles of geofences around the specified location, and ahead of the device if it is moving,
+     * then remove the geofences of the tiles farthest from the location when there are more than {@link #mMaxSyncedTiles} tiles.
+     * This method accesses the local database and must not be called from the UI thread.
+     * @param location the current location.
+     * @param previous the previous reference location, or {@code null} if there is none.
+     */
+    void loadTilesAround(Location location, Location previous) {
+        double lat = location.getLatitude();
+        double lng = location.getLongitude();
+        Set<Long> wanted = GeoTiles.tilesAround(lat, lng, mMaxDistance);
+        if ((previous != null) && (GeoDistance.haversine(previous.getLatitude(), previous.getLongitude(), lat, lng) <= 2d * mMaxDistance)) {
+            // prefetch the tiles where the device will be if it keeps moving the same way
+            wanted.addAll(GeoTiles.tilesAround(2d * lat - previous.getLatitude(), 2d * lng - previous.getLongitude(), mMaxDistance));
+        }
+        SyncedTiles tiles;
+        List<String> removedCodes = new ArrayList<>();
+        synchronized(SyncedTiles.class) {
+            tiles = SyncedTiles.load(mSettings);
+            if (tiles.size() == 0) {
+                // the geofences in the local database were not synchronized by tile, only those of the wanted tiles can be kept
+                for (PersistentGeofence geofence: GeofenceStores.database()) {
+                    if (!wanted.contains(GeoTiles.tileKey(geofence.getLatitude(), geofence.getLongitude()))) {
+                        removedCodes.add(geofence.getCode());
+                    }
+                }
+            }
+            for (long tileKey: tiles.evict(mMaxSyncedTiles, lat, lng, wanted)) {
+                removedCodes.addAll(GeofenceStores.database().codesInTile(tileKey));
+            }
+            if (!removedCodes.isEmpty()) {
+                GeofenceStores.database().delete(removedCodes);
+                GeofenceCache.invalidate(removedCodes);
+            }
+            tiles.store(mSettings);
+            mSettings.commit();
+        }
+        if (!removedCodes.isEmpty()) {
+            updateGeofenceIndexes();
+        }
+        log.debug(String.format(Locale.US, "loadTilesAround() %d wanted tiles, %s, removed %,d geofences", wanted.size(), tiles, removedCodes.size()));
+        long now = System.currentTimeMillis();
+        List<Long> stale = new ArrayList<>();
+        for (long tileKey: wanted) {
+            long timestamp = tiles.timestamp(tileKey);
+            if ((timestamp < 0L) || (now - timestamp >= mIntervalBetweenDowloads * 3600L * 1000L)) {
+                stale.add(tileKey);
+            }
+        }
+        TileBatch batch = new TileBatch(stale);
+        for (long tileKey: stale) {
+            loadGeofencesPage(tileKey, tiles.watermark(tileKey), null, null, -1L, false, null, batch);
+        }
+    }
+
+    /**
+     * The tiles requested together by {@link #loadTilesAround(Location, Location)}. The indexes of the local geofences are rebuilt
+     * and the geofences around the device are selected again once, after all the tiles are downloaded or failed, if any of them
+     * changed the local database.
      */
-    private void loadGeofencesFromServer(long lastSyncTimestamp) {
-        HttpRequestCallback<JSONObject> cb = new HttpRequestCallback<JSONObject>() {
+    private final class TileBatch {
+        /**
+         * The keys of the tiles which are still being downloaded.
+         */
+        private final Set<Long> mPending;
+        private boolean mChanged = false;
+
+        TileBatch(Collection<Long> tileKeys) {
+            this.mPending = new HashSet<>(tileKeys);
+        }
+
+        /**
+         * Record the end of the download of the specified tile, successful or not.
+         * @param tileKey the key of the tile.
+         * @param changed whether the tile changed the local database.
+         */
+        void finished(long tileKey, boolean changed) {
+            boolean done;
+            synchronized(this) {
+                mChanged |= changed;
+                done = mPending.remove(tileKey) && mPending.isEmpty() && mChanged;
+            }
+            if (done) {
+                log.debug("loadTilesAround() all the tiles are downloaded, updating the indexes");
+                setInitialLocation();
+            }
+        }
+    }
+
+    /**
+     * Query a page of the geofences from the server, then the next pages if any. Each page is merged into the local database
+     * and checkpointed in the settings before the next one is requested, and the state of the synchronization is only stored
+     * once the last page is merged. The pages of a tile are not checkpointed: an interrupted tile is downloaded again.
+     * @param tileKey the key of the tile whose geofences are requested, or -1 to request the geofences everywhere.
+     * @param lastSyncTimestamp the watermark of the last synchronization, or -1 to request all the geofences.
+     * @param bookmark the cursor of the page to request, or {@code null} for the first page.
+     * @param pageStart the greatest code covered by the previous page, or {@code null} for the first page.
+     * @param watermark the watermark provided by the first page, or -1 for the first page.
+     * @param changed whether the previous pages changed the local database.
+     * @param reconciliation the reconciliation the tile is downloaded for, or {@code null} if the tile is synchronized around the device.
+     * @param batch the batch the tile is downloaded for, or {@code null} if the tile is not synchronized around the device.
+     */
+    private void loadGeofencesPage(final long tileKey, final long lastSyncTimestamp, final String bookmark, final String pageStart, final long watermark,
+                                   final boolean changed, final GeofenceReconciliation reconciliation, final TileBatch batch) {
+        HttpRequestCallback<GeofenceList> cb = new HttpRequestCallback<GeofenceList>() {
             @Override
-            public void onSuccess(JSONObject result) {
+            public void onSuccess(GeofenceList list) {
                 try {
-                    GeofenceList list = GeofencingJSONUtils.parseGeofences(result);
-                    List<PersistentGeofence> geofences = list.getGeofences();
-                    if (!geofences.isEmpty()) {
-                        PersistentGeofence.saveInTx(geofences);
-                        setInitialLocation();
+                    if (list.isNotModified()) {
+                        log.debug("loadGeofences() geofences not modified since the last synchronization");
+                        mSettings.putLong(ServiceConfig.SERVER_SYNC_LOCAL_TIMESTAMP, System.currentTimeMillis());
+                        mSettings.commit();
+                        if (batch != null) {
+                            batch.finished(tileKey, changed);
+                        }
+                        return;
                     }
-                    if (!geofences.isEmpty() || !list.getDeletedGeofenceCodes().isEmpty()) {
+                    // changes made while the pages are downloaded will be included in the next synchronization
+                    long newWatermark = (bookmark == null) ? list.getSyncWatermark() : watermark;
+                    List<String> codes = list.getGeofenceCodes();
+                    boolean pageChanged = !codes.isEmpty() || !list.getDeletedGeofenceCodes().isEmpty();
+                    if (pageChanged) {
+                        GeofenceCache.invalidate(codes);
+                        GeofenceCache.invalidate(list.getDeletedGeofenceCodes());
                         Intent broadcastIntent = new Intent(MFGeofenceEvent.ACTION_GEOFENCE_EVENT);
                         broadcastIntent.setPackage(mContext.getPackageName());
-                        MFGeofenceEvent.toIntent(broadcastIntent, MFGeofenceEvent.Type.SERVER_SYNC, geofences, list.getDeletedGeofenceCodes());
+                        MFGeofenceEvent.toIntent(broadcastIntent, MFGeofenceEvent.Type.SERVER_SYNC, codes, list.getDeletedGeofenceCodes());
                         mContext.sendBroadcast(broadcastIntent);
                     }
-                    log.debug("loadGeofences() got " + list.getGeofences().size() + " geofences");
+                    log.debug(String.format(Locale.US, "loadGeofences() got %,d geofences and %,d deletions",
+                        codes.size(), list.getDeletedGeofenceCodes().size()));
+                    if (list.getBookmark() != null) {
+                        if (tileKey < 0L) {
+                            storeSyncCheckpoint(lastSyncTimestamp, list.getBookmark(), list.getPageEnd(), newWatermark);
+                        }
+                        loadGeofencesPage(tileKey, lastSyncTimestamp, list.getBookmark(), list.getPageEnd(), newWatermark, changed || pageChanged, reconciliation, batch);
+                    } else if (reconciliation != null) {
+                        reconcileNextTile(reconciliation, changed || pageChanged);
+                    } else if (tileKey >= 0L) {
+                        // tiles are downloaded concurrently, each one must be recorded in the latest state
+                        synchronized(SyncedTiles.class) {
+                            SyncedTiles tiles = SyncedTiles.load(mSettings);
+                            tiles.synced(tileKey, newWatermark, System.currentTimeMillis());
+                            tiles.store(mSettings);
+                            mSettings.commit();
+                        }
+                        if (batch != null) {
+                            batch.finished(tileKey, changed || pageChanged);
+                        } else if (changed || pageChanged) {
+                            setInitialLocation();
+                        }
+                    } else {
+                        // the local database is up to date at this point
+                        mSettings.putLong(ServiceConfig.SERVER_SYNC_LOCAL_TIMESTAMP, System.currentTimeMillis());
+                        storeSyncState(newWatermark, list.getETag(), list.getLastModified());
+                        if (changed || pageChanged) {
+                            setInitialLocation();
+                        }
+                    }
                 } catch (Exception e) {
-                    HttpRequestError error = new HttpRequestError(-1, e, "error while parsing JSON");
+                    HttpRequestError error = new HttpRequestError(-1, e, "error while processing the synchronized geofences");
                     log.debug(error.toString());
+                    if (batch != null) {
+                        // the batches already merged are kept
+                        batch.finished(tileKey, true);
+                    }
                 }
             }
 
             @Override
             public void onError(HttpRequestError error) {
                 log.debug(error.toString());
+                if (batch != null) {
+                    batch.finished(tileKey, changed);
+                }
+                if (reconciliation != null) {
+                    // no watermark is stored, the next synchronization will start a new reconciliation
+                    log.debug("loadGeofences() reconciliation of tile " + tileKey + " failed, " + reconciliation);
+                } else if ((error.getStatusCode() >= 400) && (error.getStatusCode() < 500)) {
+                    if (tileKey >= 0L) {
+                        // the tile will be downloaded again from scratch
+                        synchronized(SyncedTiles.class) {
+                            SyncedTiles tiles = SyncedTiles.load(mSettings);
+                            tiles.remove(tileKey);
+                            tiles.store(mSettings);
+                            mSettings.commit();
+                        }
+                    } else if (bookmark != null) {
+                        // the server rejected the bookmark, the next synchronization will start over from the first page
+                        log.debug("loadGeofences() invalid bookmark " + bookmark + ", discarding the paged synchronization");
+                        storeSyncCheckpoint(-1L, null, null, -1L);
+                    } else if (lastSyncTimestamp >= 0L) {
+                        // the server rejected the watermark, fall back to a reconciliation of the tiles
+                        log.debug("loadGeofences() invalid sync watermark " + lastSyncTimestamp + ", reconciling the geofences");
+                        storeSyncState(-1L, null, null);
+                        reconcileGeofences(new GeofenceReconciliation());
+                    }
+                }
             }
         };
-        JSONPayloadRequest request = new JSONPayloadRequest(cb, HttpMethod.GET, null);
+        GeofenceSyncRequest request = new GeofenceSyncRequest(cb, lastSyncTimestamp, bookmark, pageStart, tileKey);
         request.setPath(String.format("%s", CONFIG_CONNECTOR_PATH));
-        if (lastSyncTimestamp >= 0L) {
-            request.addParameter("updatedAfter", Long.toString(lastSyncTimestamp));
+        if ((bookmark == null) && (tileKey < 0L)) {
+            request.setValidators(mSettings.getString(ServiceConfig.SERVER_SYNC_ETAG, null), mSettings.getString(ServiceConfig.SERVER_SYNC_LAST_MODIFIED, null));
         }
         mHttpService.executeRequest(request);
     }
 
+    /**
+     * Store the watermark and the validators of the last synchronization, clearing those which are unknown,
+     * discard the checkpoint of any paged synchronization in progress, then commit the settings.
+     * @param watermark the server date up to which the local geofences are synchronized, or -1 if unknown.
+     * @param eTag the "ETag" header of the last response, or {@code null} if unknown.
+     * @param lastModified the "Last-Modified" header of the last response, or {@code null} if unknown.
+     */
+    private void storeSyncState(long watermark, String eTag, String lastModified) {
+        if (watermark >= 0L) {
+            mSettings.putLong(ServiceConfig.SERVER_SYNC_WATERMARK, watermark);
+        } else {
+            mSettings.remove(ServiceConfig.SERVER_SYNC_WATERMARK);
+        }
+        if (eTag != null) {
+            mSettings.putString(ServiceConfig.SERVER_SYNC_ETAG, eTag);
+        } else {
+            mSettings.remove(ServiceConfig.SERVER_SYNC_ETAG);
+        }
+        if (lastModified != null) {
+            mSettings.putString(ServiceConfig.SERVER_SYNC_LAST_MODIFIED, lastModified);
+        } else {
+            mSettings.remove(ServiceConfig.SERVER_SYNC_LAST_MODIFIED);
+        }
+        storeSyncCheckpoint(-1L, null, null, -1L);
+    }
+
+    /**
+     * Store the checkpoint of a paged synchronization, from which it is resumed if it is interrupted, then commit the settings.
+     * @param lastSyncTimestamp the watermark of the synchronization the pages are requested for, or -1 if they list all the geofences.
+     * @param bookmark the cursor of the next page to request, or {@code null} to discard the checkpoint.
+     * @param pageStart the greatest code covered by the pages merged so far.
+     * @param watermark the watermark provided by the first page.
+     */
+    private void storeSyncCheckpoint(long lastSyncTimestamp, String bookmark, String pageStart, long watermark) {
+        if (bookmark != null) {
+            mSettings.putString(ServiceConfig.SERVER_SYNC_PAGE_BOOKMARK, bookmark);
+            mSettings.putLong(ServiceConfig.SERVER_SYNC_PAGE_UPDATED_AFTER, lastSyncTimestamp);
+            mSettings.putLong(ServiceConfig.SERVER_SYNC_PAGE_WATERMARK, watermark);
+            if (pageStart != null) {
+                mSettings.putString(ServiceConfig.SERVER_SYNC_PAGE_START, pageStart);
+            } else {
+                mSettings.remove(ServiceConfig.SERVER_SYNC_PAGE_START);
+            }
+        } else {
+            mSettings.remove(ServiceConfig.SERVER_SYNC_PAGE_BOOKMARK);
+            mSettings.remove(ServiceConfig.SERVER_SYNC_PAGE_UPDATED_AFTER);
+            mSettings.remove(ServiceConfig.SERVER_SYNC_PAGE_WATERMARK);
+            mSettings.remove(ServiceConfig.SERVER_SYNC_PAGE_START);
+        }
+        mSettings.commit();
+    }
+
     /**
      * Set the initial location upon starting the app and trigger the registration of geofences, if any, around this location.
      */
@@ -492,6 +989,8 @@ public class MFGeofencingManager {
         Runnable r = new Runnable() {
             @Override
             public void run() {
+                // build the R-tree, the density estimate and the snapshot now rather than in the significant location change service
+                updateGeofenceIndexes();
                 Location last = LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
                 log.debug("setInitialLocation() last location = " + last);
                 if (last != null) {
@@ -502,6 +1001,19 @@ public class MFGeofencingManager {
         new Thread(r).start();
     }
 
+    /**
+     * Build the in-memory R-tree if needed, then update the density estimate and the snapshot of the geofences
+     * used by the services, so they reflect the current content of the local database.
+     * <p>Concurrent updates are serialized, so that a snapshot of an older tree never replaces that of a newer one.
+     */
+    private void updateGeofenceIndexes() {
+        synchronized(INDEXES_LOCK) {
+            GeofenceRTree tree = GeofenceRTree.getInstance();
+            GeofenceDensity.fromTree(tree).store(mContext);
+            GeofenceSnapshot.write(mContext, tree);
+        }
+    }
+
     /**
      * Converts a Google play services availability code into a displayable string. Used for debugging and tracing purposes.
      * @param availabilityCode the google api connection result to convert.
@@ -525,6 +1037,10 @@ public class MFGeofencingManager {
             .putString(ServiceConfig.PASSWORD, mHttpService.getPassword())
             .putInt(ServiceConfig.MAX_DISTANCE, mMaxDistance)
             .putInt(ServiceConfig.SERVER_SYNC_MIN_DELAY_HOURS, mIntervalBetweenDowloads)
+            .putInt(ServiceConfig.MAX_MONITORED_GEOFENCES, mMaxMonitoredGeofences)
+            .putBoolean(ServiceConfig.ADAPTIVE_SELECTION, mAdaptiveSelection)
+            .putInt(ServiceConfig.MAX_SYNCED_TILES, mMaxSyncedTiles)
+            .putString(ServiceConfig.STORE_BACKEND, mStoreBackend.name())
             .commit();
     }
 
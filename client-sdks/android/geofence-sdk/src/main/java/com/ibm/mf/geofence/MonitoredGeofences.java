@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps track of the codes of the geofences currently registered for monitoring, and computes the changes to apply
+ * when a new set of geofences is selected.
+ * <p>Only the codes are held, in a hash set, such that computing the changes takes a time linear in the number of geofences
+ * and does not require loading the monitored geofences from the local database.
+ */
+final class MonitoredGeofences {
+    /**
+     * Codes of the monitored geofences.
+     */
+    private Set<String> mCodes;
+
+    /**
+     * Initialize with the specified codes of monitored geofences.
+     * @param codes the codes of the monitored geofences, empty codes are ignored.
+     */
+    MonitoredGeofences(Collection<String> codes) {
+        mCodes = new LinkedHashSet<>(codes.size());
+        for (String code: codes) {
+            if ((code != null) && !code.isEmpty()) {
+                mCodes.add(code);
+            }
+        }
+    }
+
+    /**
+     * Load the codes of the monitored geofences from the specified settings.
+     */
+    static MonitoredGeofences load(Settings settings) {
+        return new MonitoredGeofences(GeofencingUtils.geofenceCodesFromPrefs(settings));
+    }
+
+    /**
+     * Store the codes of the monitored geofences into the specified settings.
+     */
+    void store(Settings settings) {
+        GeofencingUtils.updateGeofenceCodes(settings, mCodes);
+    }
+
+    /**
+     * Replace the monitored geofences with the specified selection and compute the changes between them.
+     * @param selected the newly selected geofences.
+     * @return the geofences to register and the codes of the geofences to unregister.
+     */
+    Delta update(List<PersistentGeofence> selected) {
+        Set<String> newCodes = new LinkedHashSet<>(2 * selected.size());
+        List<PersistentGeofence> added = new ArrayList<>();
+        for (PersistentGeofence fence: selected) {
+            if (newCodes.add(fence.getCode()) && !mCodes.contains(fence.getCode())) {
+                added.add(fence);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String code: mCodes) {
+            if (!newCodes.contains(code)) {
+                removed.add(code);
+            }
+        }
+        mCodes = newCodes;
+        return new Delta(added, removed);
+    }
+
+    /**
+     * Determine whether the geofence with the specified code is monitored.
+     */
+    boolean contains(String code) {
+        return mCodes.contains(code);
+    }
+
+    /**
+     * Get the number of monitored geofences.
+     */
+    int size() {
+        return mCodes.size();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + mCodes;
+    }
+
+    /**
+     * The changes between two selections of monitored geofences.
+     */
+    static final class Delta {
+        private final List<PersistentGeofence> mAdded;
+        private final List<String> mRemovedCodes;
+
+        private Delta(List<PersistentGeofence> added, List<String> removedCodes) {
+            this.mAdded = added;
+            this.mRemovedCodes = removedCodes;
+        }
+
+        /**
+         * Get the geofences to register for monitoring.
+         */
+        List<PersistentGeofence> getAdded() {
+            return mAdded;
+        }
+
+        /**
+         * Get the codes of the geofences to unregister.
+         */
+        List<String> getRemovedCodes() {
+            return mRemovedCodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[added=%d, removed=%d]", getClass().getSimpleName(), mAdded.size(), mRemovedCodes.size());
+        }
+    }
+}
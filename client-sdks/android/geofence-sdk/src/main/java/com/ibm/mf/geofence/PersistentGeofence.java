@@ -34,6 +34,15 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
     private double mLatitude;
     private double mLongitude;
     private double mRadius;
+    /**
+     * Key of the {@link GeoGrid} cell containing the center of this geofence, indexed in the local database.
+     */
+    private long mCellKey;
+    /**
+     * GeoJSON coordinates of the polygon outline, or {@code null} for a circular geofence.
+     * The center and radius of a polygon geofence are those of its bounding circle.
+     */
+    private String mPolygon;
 
     public PersistentGeofence() {
     }
@@ -45,6 +54,12 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
         this.mLatitude = latitude;
         this.mLongitude = longitude;
         this.mRadius = radius;
+        updateCellKey();
+    }
+
+    PersistentGeofence(String code, String name, String description, double latitude, double longitude, double radius, String polygon) {
+        this(code, name, description, latitude, longitude, radius);
+        this.mPolygon = polygon;
     }
 
     String getCode() {
@@ -77,6 +92,7 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
 
     void setLatitude(double latitude) {
         this.mLatitude = latitude;
+        updateCellKey();
     }
 
     double getLongitude() {
@@ -85,6 +101,7 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
 
     void setLongitude(double longitude) {
         this.mLongitude = longitude;
+        updateCellKey();
     }
 
     double getRadius() {
@@ -95,6 +112,35 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
         this.mRadius = radius;
     }
 
+    long getCellKey() {
+        return mCellKey;
+    }
+
+    String getPolygon() {
+        return mPolygon;
+    }
+
+    void setPolygon(String polygon) {
+        this.mPolygon = polygon;
+    }
+
+    boolean isPolygon() {
+        return mPolygon != null;
+    }
+
+    /**
+     * Recompute the grid cell key from the current latitude and longitude.
+     */
+    private void updateCellKey() {
+        this.mCellKey = GeoGrid.cellKey(mLatitude, mLongitude);
+    }
+
+    @Override
+    public long save() {
+        updateCellKey();
+        return super.save();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "[" + mName + "]";
@@ -114,12 +160,14 @@ public class PersistentGeofence extends SugarRecord implements Serializable {
     }
 
     MFGeofence toMFGeofence() {
-        return new MFGeofence(mCode, mName, mDescription, mLatitude, mLongitude, mRadius);
+        double[][][] rings = (mPolygon != null) ? GeoPolygon.toRings(mPolygon) : null;
+        return new MFGeofence(mCode, mName, mDescription, mLatitude, mLongitude, mRadius, rings);
     }
 
     static PersistentGeofence fromMFGeofence(MFGeofence piGeofence) {
+        String polygon = (piGeofence.getPolygon() != null) ? GeoPolygon.toCoordinates(piGeofence.getPolygon()) : null;
         return new PersistentGeofence(piGeofence.getCode(), piGeofence.getName(), piGeofence.getDescription(),
-            piGeofence.getLatitude(), piGeofence.getLongitude(), piGeofence.getRadius());
+            piGeofence.getLatitude(), piGeofence.getLongitude(), piGeofence.getRadius(), polygon);
     }
 
     static List<MFGeofence> toMFGeofences(List<PersistentGeofence> list) {
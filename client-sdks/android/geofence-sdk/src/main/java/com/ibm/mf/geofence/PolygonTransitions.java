@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks the transitions of polygon geofences, which are monitored by the platform through their bounding circle.
+ * <p>While the device is inside the bounding circle of a polygon, containment in the polygon itself is re-checked on each
+ * location update, and an ENTER or EXIT transition is reported whenever it flips. Leaving the circle reports an EXIT transition
+ * if an ENTER transition was reported before, so that the reported events remain paired.
+ */
+final class PolygonTransitions {
+    /**
+     * Codes of the polygon geofences whose bounding circle the device is inside of.
+     */
+    private final Set<String> mInCircle;
+    /**
+     * Codes of the polygon geofences for which an ENTER transition was reported.
+     */
+    private final Set<String> mInside;
+
+    /**
+     * Initialize with the specified state.
+     * @param inCircle the codes of the polygon geofences whose bounding circle the device is inside of.
+     * @param inside the codes of the polygon geofences for which an ENTER transition was reported.
+     */
+    PolygonTransitions(Collection<String> inCircle, Collection<String> inside) {
+        mInCircle = new HashSet<>(inCircle);
+        mInside = new HashSet<>(inside);
+    }
+
+    /**
+     * Load the state from the specified settings.
+     * @param settings the settings to read from.
+     * @return a new {@link PolygonTransitions} instance.
+     */
+    static PolygonTransitions load(Settings settings) {
+        return new PolygonTransitions(GeofencingUtils.polygonCircleCodesFromPrefs(settings), GeofencingUtils.insidePolygonCodesFromPrefs(settings));
+    }
+
+    /**
+     * Store the state into the specified settings, without committing them.
+     * @param settings the settings to write to.
+     */
+    void store(Settings settings) {
+        GeofencingUtils.updatePolygonCircleCodes(settings, mInCircle);
+        GeofencingUtils.updateInsidePolygonCodes(settings, mInside);
+    }
+
+    /**
+     * Process a platform transition of the bounding circle of a polygon geofence.
+     * @param code the code of the polygon geofence.
+     * @param enter {@code true} if the device entered the circle, {@code false} if it exited it.
+     * @param inside whether the triggering location is inside the polygon, ignored when exiting the circle.
+     * @return the transition to report, or {@code null} if there is none.
+     */
+    MFGeofenceEvent.Type onCircleTransition(String code, boolean enter, boolean inside) {
+        if (!enter) {
+            mInCircle.remove(code);
+            return mInside.remove(code) ? MFGeofenceEvent.Type.EXIT : null;
+        }
+        mInCircle.add(code);
+        return onLocation(code, inside);
+    }
+
+    /**
+     * Process a new location for a polygon geofence whose bounding circle the device is inside of.
+     * @param code the code of the polygon geofence.
+     * @param inside whether the new location is inside the polygon.
+     * @return the transition to report, or {@code null} if there is none or if the device is not inside the circle.
+     */
+    MFGeofenceEvent.Type onLocation(String code, boolean inside) {
+        if (!mInCircle.contains(code)) {
+            return null;
+        }
+        if (inside) {
+            return mInside.add(code) ? MFGeofenceEvent.Type.ENTER : null;
+        }
+        return mInside.remove(code) ? MFGeofenceEvent.Type.EXIT : null;
+    }
+
+    /**
+     * Stop tracking the specified polygon geofences, typically because they are no longer monitored. Those for which an ENTER
+     * transition was reported get their EXIT transition, so that they are reported again if they are monitored and entered later.
+     * @param codes the codes of the polygon geofences.
+     * @return the codes of the polygon geofences for which an EXIT transition must be reported.
+     */
+    List<String> forget(Collection<String> codes) {
+        mInCircle.removeAll(codes);
+        List<String> exited = new ArrayList<>();
+        for (String code: codes) {
+            if (mInside.remove(code)) {
+                exited.add(code);
+            }
+        }
+        return exited;
+    }
+
+    /**
+     * Get the codes of the polygon geofences whose bounding circle the device is inside of.
+     * @return a copy of the set of codes.
+     */
+    Set<String> circleCodes() {
+        return new HashSet<>(mInCircle);
+    }
+}
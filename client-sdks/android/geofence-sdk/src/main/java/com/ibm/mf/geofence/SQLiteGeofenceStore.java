@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link GeofenceStore} backed by the local database managed by Sugar.
+ * <p>Writes are performed in bulk by a {@link GeofenceBulkWriter}, and the nearest geofences are searched
+ * via range queries on the indexed grid cell keys.
+ */
+final class SQLiteGeofenceStore implements GeofenceStore {
+    @Override
+    public void upsert(List<PersistentGeofence> geofences) {
+        new GeofenceBulkWriter().upsert(geofences);
+    }
+
+    @Override
+    public List<String> delete(Collection<String> codes) {
+        return new GeofenceBulkWriter().delete(codes);
+    }
+
+    @Override
+    public Collection<String> codes() {
+        return new GeofenceBulkWriter().codeIds().keySet();
+    }
+
+    @Override
+    public List<String> codesInTile(long tileKey) {
+        return GeofencingUtils.geofencesToCodes(GeofencingUtils.geofencesInTile(tileKey));
+    }
+
+    @Override
+    public List<PersistentGeofence> find(Collection<String> codes) {
+        return GeofencingUtils.geofencesFromCodes(codes);
+    }
+
+    @Override
+    public List<PersistentGeofence> nearest(double lat, double lng, double radius, KNearestSelector selector) {
+        List<PersistentGeofence> candidates = new ArrayList<>();
+        for (double[] box: GeoQueryPlanner.plan(lat, lng, radius)) {
+            candidates.addAll(GeofencingUtils.geofencesInBoundingBox(box[0], box[1], box[2], box[3]));
+        }
+        for (int i=0; i<candidates.size(); i++) {
+            PersistentGeofence g = candidates.get(i);
+            selector.offer(GeoDistance.squaredEquirectangular(lat, lng, g.getLatitude(), g.getLongitude()), i);
+        }
+        selector.sort();
+        List<PersistentGeofence> result = new ArrayList<>(selector.size());
+        for (int i=0; i<selector.size(); i++) {
+            result.add(candidates.get(selector.index(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return (int) PersistentGeofence.count(PersistentGeofence.class);
+    }
+
+    /**
+     * Iterate over the geofences of the local database, each row being loaded upon access.
+     */
+    @Override
+    public Iterator<PersistentGeofence> iterator() {
+        return PersistentGeofence.findAll(PersistentGeofence.class);
+    }
+}
@@ -53,11 +53,25 @@ class ServiceConfig implements Serializable {
     static final String REBOOT_EVENT_FLAG =           PREFIX + "reboot_event";
     static final String SERVER_SYNC_LOCAL_TIMESTAMP = PREFIX + "server_sync_local_timestamp";
     static final String SERVER_SYNC_MIN_DELAY_HOURS = PREFIX + "server_sync_min_delay_hours";
+    static final String SERVER_SYNC_WATERMARK =       PREFIX + "server_sync_watermark";
+    static final String SERVER_SYNC_ETAG =            PREFIX + "server_sync_etag";
+    static final String SERVER_SYNC_LAST_MODIFIED =   PREFIX + "server_sync_last_modified";
+    static final String SERVER_SYNC_PAGE_BOOKMARK =   PREFIX + "server_sync_page_bookmark";
+    static final String SERVER_SYNC_PAGE_START =      PREFIX + "server_sync_page_start";
+    static final String SERVER_SYNC_PAGE_UPDATED_AFTER = PREFIX + "server_sync_page_updated_after";
+    static final String SERVER_SYNC_PAGE_WATERMARK =  PREFIX + "server_sync_page_watermark";
+    static final String SYNCED_TILES =                PREFIX + "synced_tiles";
+    static final String MAX_SYNCED_TILES =            PREFIX + "max_synced_tiles";
+    static final String MAX_MONITORED_GEOFENCES =     PREFIX + "max_monitored_geofences";
+    static final String ADAPTIVE_SELECTION =          PREFIX + "adaptive_selection";
+    static final String STORE_BACKEND =               PREFIX + "store_backend";
 
     String mServerUrl;
     String mUsername;
     String mPassword;
     double mMaxDistance;
+    int mMaxMonitoredGeofences = MFGeofencingManager.DEFAULT_MAX_MONITORED_GEOFENCES;
+    boolean mAdaptiveSelection;
     String mPackageName;
     List<PersistentGeofence> mGeofences;
     MFGeofenceEvent.Type mEventType;
@@ -87,6 +101,8 @@ class ServiceConfig implements Serializable {
         mUsername = httpService.getUsername();
         mPassword = httpService.getPassword();
         mMaxDistance = service.mMaxDistance;
+        mMaxMonitoredGeofences = service.mMaxMonitoredGeofences;
+        mAdaptiveSelection = service.mAdaptiveSelection;
         mPackageName = service.mContext.getPackageName();
         debugCheck();
         return this;
@@ -99,6 +115,8 @@ class ServiceConfig implements Serializable {
             .append(", username=").append(mUsername)
             .append(", password=********") // never print the password!
             .append(", maxDistance=").append(mMaxDistance)
+            .append(", maxMonitoredGeofences=").append(mMaxMonitoredGeofences)
+            .append(", adaptiveSelection=").append(mAdaptiveSelection)
             .append(", packageName=").append(mPackageName)
             .append(", geofences=").append(mGeofences)
             .append(", eventType=").append(mEventType)
@@ -115,6 +133,8 @@ class ServiceConfig implements Serializable {
         mPassword = intent.getStringExtra(PASSWORD);
         mPackageName = intent.getStringExtra(PACKAGE_NAME);
         mMaxDistance = intent.getDoubleExtra(MAX_DISTANCE, 10_000d);
+        mMaxMonitoredGeofences = intent.getIntExtra(MAX_MONITORED_GEOFENCES, MFGeofencingManager.DEFAULT_MAX_MONITORED_GEOFENCES);
+        mAdaptiveSelection = intent.getBooleanExtra(ADAPTIVE_SELECTION, false);
         if (intent.getBooleanExtra(LOCATION_UPDATE_FLAG, false)) {
             mNewLocation = new LatLng(intent.getDoubleExtra(LATITUDE, 0d), intent.getDoubleExtra(LONGITUDE, 0d));
         }
@@ -153,6 +173,8 @@ class ServiceConfig implements Serializable {
         intent.putExtra(PASSWORD, mPassword);
         intent.putExtra(PACKAGE_NAME, mPackageName);
         intent.putExtra(MAX_DISTANCE, mMaxDistance);
+        intent.putExtra(MAX_MONITORED_GEOFENCES, mMaxMonitoredGeofences);
+        intent.putExtra(ADAPTIVE_SELECTION, mAdaptiveSelection);
         if (mNewLocation != null) {
             intent.putExtra(LOCATION_UPDATE_FLAG, true);
             intent.putExtra(LATITUDE, mNewLocation.latitude);
@@ -203,5 +225,7 @@ class ServiceConfig implements Serializable {
         mServerUrl = settings.getString(SERVER_URL, null);
         mUsername = settings.getString(USERNAME, null);
         mPassword = settings.getString(PASSWORD, null);
+        mMaxMonitoredGeofences = settings.getInt(MAX_MONITORED_GEOFENCES, mMaxMonitoredGeofences);
+        mAdaptiveSelection = settings.getBoolean(ADAPTIVE_SELECTION, mAdaptiveSelection);
     }
 }
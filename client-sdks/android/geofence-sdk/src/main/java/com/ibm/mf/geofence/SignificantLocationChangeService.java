@@ -22,27 +22,35 @@ import android.content.Intent;
 import android.location.Location;
 import android.location.LocationManager;
 
-import com.google.android.gms.maps.model.LatLng;
-
 import org.apache.log4j.Logger;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.TreeMap;
 
 /**
  * This service handles significant location changes.
  * <p>A new bounding box is computed based on the new location and the maxDistance.
- * Geofences in the new bounding box are registered monitoring on the device,
+ * Geofences in the new bounding box are looked up in the in-memory {@link GeofenceRTree}, or in the memory-mapped {@link GeofenceSnapshot}
+ * when the tree is not built in the current process, or else in the local database via a grid cell index, and registered for monitoring on the device,
  * whereas registered geofences that no longer fit in the bounding box are unregistered,
- * all within the 100 geofences iimit.
+ * all within the {@link MFGeofencingManager#getMaxMonitoredGeofences() maximum number of monitored geofences}.
+ * <p>When the {@link MFGeofencingManager#setAdaptiveSelection(boolean) adaptive selection} is enabled, the size of the bounding box
+ * is estimated from the {@link GeofenceDensity density of geofences} around the new location instead of the {@code maxDistance}.
  */
 public class SignificantLocationChangeService extends IntentService {
     /**
      * Logger for this class.
      */
     private static final Logger log = LoggingConfiguration.getLogger(SignificantLocationChangeService.class.getSimpleName());
+    /**
+     * In adaptive selection mode, the search radius is estimated to hold this many times the maximum number of monitored geofences,
+     * to compensate for the uneven distribution of geofences within the grid cells.
+     */
+    private static final double ADAPTIVE_SELECTION_MARGIN = 1.5d;
+    /**
+     * Maximum number of times the search radius is doubled while looking for the nearest geofence that was not selected.
+     */
+    private static final int MAX_NEXT_SEARCHES = 8;
     private MFGeofencingManager mGeofencingService;
     private Settings mSettings;
     private ServiceConfig mConfig;
@@ -82,7 +90,7 @@ public class SignificantLocationChangeService extends IntentService {
                 config.populateFromSettings(settings);
                 MFGeofencingManager geofencingService = new MFGeofencingManager(settings, MFGeofencingManager.MODE_REBOOT, context,
                     config.mServerUrl, config.mUsername, config.mPassword, (int) config.mMaxDistance);
-                List<PersistentGeofence> geofences = GeofencingUtils.extractGeofences(settings);
+                List<PersistentGeofence> geofences = GeofenceStores.forQueries(context).find(GeofencingUtils.geofenceCodesFromPrefs(settings));
                 geofencingService.monitorGeofences(geofences);
             } catch(Exception e) {
                 log.error("error handling post-reboot remonitoring", e);
@@ -92,80 +100,147 @@ public class SignificantLocationChangeService extends IntentService {
 
     /**
      * Computes a new bounding box based on the specified location and the {@code maxDistance} value.
-     * Retrieves from the local DB the first 100 geofences nearest to the location and registers them if needed for monitoring.
+     * Retrieves the first {@code maxMonitoredGeofences} geofences nearest to the location and registers them if needed for monitoring.
+     * When only the geofences near the device are synchronized, the tiles around the location are synchronized beforehand.
      * @param location he center of the new bounding box.
      */
     void processNewLocation(Location location) {
-        // where clause to find all geofences whose distance to the new location is < maxDistance
-        String where = createWhereClause(location.getLatitude(), location.getLongitude(), mConfig.mMaxDistance / 2);
-        List<PersistentGeofence> bboxFences = PersistentGeofence.find(PersistentGeofence.class, where);
-        log.debug(String.format("where clause=%s, found fences: %s", where, bboxFences));
-        TreeMap<Float, PersistentGeofence> map = new TreeMap<>();
-        if ((bboxFences != null) && !bboxFences.isEmpty()) {
-            for (PersistentGeofence g : bboxFences) {
-                Location l = new Location(LocationManager.NETWORK_PROVIDER);
-                l.setLatitude(g.getLatitude());
-                l.setLongitude(g.getLongitude());
-                float distance = l.distanceTo(location);
-                map.put(distance, g);
-            }
+        if (mGeofencingService.mMaxSyncedTiles > 0) {
+            Location previous = GeofencingUtils.hasReferenceLocation(mSettings) ? GeofencingUtils.retrieveReferenceLocation(mSettings) : null;
+            mGeofencingService.loadTilesAround(location, previous);
         }
-        int count = 0;
-        bboxFences = new ArrayList<>(map.size());
-        for (PersistentGeofence g : map.values()) {
-            bboxFences.add(g);
-            count++;
-            if (count >= 100) break;
+        double radius = searchRadius(location.getLatitude(), location.getLongitude());
+        KNearestSelector selector = new KNearestSelector(mConfig.mMaxMonitoredGeofences);
+        GeofenceStore store = GeofenceStores.forQueries(mGeofencingService.mContext);
+        List<PersistentGeofence> bboxFences = selectNearestGeofences(store, location.getLatitude(), location.getLongitude(), radius, selector);
+        MonitoredGeofences monitored = MonitoredGeofences.load(mSettings);
+        MonitoredGeofences.Delta delta = monitored.update(bboxFences);
+        log.debug("monitored geofences changes: " + delta);
+        mGeofencingService.unmonitorGeofenceCodes(delta.getRemovedCodes());
+        PolygonTransitions polygons = PolygonTransitions.load(mSettings);
+        List<String> exitedPolygons = polygons.forget(delta.getRemovedCodes());
+        polygons.store(mSettings);
+        if (!exitedPolygons.isEmpty()) {
+            // the device may still be inside these polygons, but no EXIT transition will come for them once they are unmonitored
+            GeofenceTransitionsService.reportTransition(mGeofencingService.mContext, mGeofencingService, store.find(exitedPolygons), MFGeofenceEvent.Type.EXIT);
         }
-        List<PersistentGeofence> monitoredFences = GeofencingUtils.extractGeofences(mSettings);
-        List<PersistentGeofence> toAdd = new ArrayList<>();
-        List<PersistentGeofence> toRemove = new ArrayList<>();
-        for (PersistentGeofence fence: bboxFences) {
-            if (!monitoredFences.contains(fence)) {
-                toAdd.add(fence);
+        mGeofencingService.monitorGeofences(delta.getAdded());
+        monitored.store(mSettings);
+        double reselectionDistance = mConfig.mAdaptiveSelection ? radius / 2d : mConfig.mMaxDistance;
+        log.debug("committing settings=" + mSettings);
+        double safeRadius = safeRadius(store, location.getLatitude(), location.getLongitude(), radius, selector, safeRadiusLimit(location));
+        GeofencingUtils.storeSelectionState(mSettings, location, reselectionDistance, safeRadius);
+    }
+
+    /**
+     * Compute the upper bound of the safe radius around the specified location. The local database only holds the geofences
+     * of the synchronized tiles when tile synchronization is enabled, so the selection is only known to be stable within them.
+     * @param location the location of the selection.
+     * @return {@code maxDistance}, or the distance to the nearest tile which is not synchronized if it is shorter.
+     */
+    private double safeRadiusLimit(Location location) {
+        double limit = mConfig.mMaxDistance;
+        if (mGeofencingService.mMaxSyncedTiles > 0) {
+            synchronized(SyncedTiles.class) {
+                limit = SyncedTiles.load(mSettings).coveredRadius(location.getLatitude(), location.getLongitude(), limit);
             }
         }
-        for (PersistentGeofence fence: monitoredFences) {
-            if (!bboxFences.contains(fence)) {
-                toRemove.add(fence);
+        return limit;
+    }
+
+    /**
+     * Compute the radius of the area in which the nearest geofences are selected.
+     * @param lat the latitude of the location.
+     * @param lng the longitude of the location.
+     * @return {@code maxDistance / 2}, or an estimate based on the density of geofences if the adaptive selection is enabled.
+     */
+    private double searchRadius(double lat, double lng) {
+        double radius = mConfig.mMaxDistance / 2d;
+        if (mConfig.mAdaptiveSelection) {
+            GeofenceDensity density = GeofenceDensity.load(mGeofencingService.mContext);
+            if (density != null) {
+                int target = (int) Math.ceil(ADAPTIVE_SELECTION_MARGIN * mConfig.mMaxMonitoredGeofences);
+                radius = density.estimateRadius(lat, lng, target, mConfig.mMaxDistance);
+                log.debug(String.format(Locale.US, "adaptive search radius = %,.0f m", radius));
+            } else {
+                log.debug("no geofence density available, using the default search radius");
             }
         }
-        mGeofencingService.unmonitorGeofences(toRemove);
-        mGeofencingService.monitorGeofences(toAdd);
-        GeofencingUtils.updateGeofences(mSettings, bboxFences);
-        GeofencingUtils.storeReferenceLocation(mSettings, location);
-        log.debug("committing settings=" + mSettings);
-        mSettings.commit();
+        return radius;
+    }
+
+    /**
+     * Select the geofences nearest to the specified location, within the specified radius.
+     * @param store the fastest {@link GeofenceStore} available in this process.
+     * @param lat the latitude of the location.
+     * @param lng the longitude of the location.
+     * @param radius the radius of the search area in meters.
+     * @param selector the selector used to rank the candidate geofences by squared equirectangular distance.
+     * @return the selected geofences, sorted by ascending distance to the location.
+     */
+    private List<PersistentGeofence> selectNearestGeofences(GeofenceStore store, double lat, double lng, double radius, KNearestSelector selector) {
+        List<PersistentGeofence> result = store.nearest(lat, lng, radius, selector);
+        log.debug(String.format(Locale.US, "radius=%,.0f m, selected %d fences out of %d candidates", radius, result.size(), selector.offered()));
+        return result;
     }
 
     /**
-     * Calculate the coordinates of a point located at the specified distance on the specified bearing.
-     * @param latitude the source point latitude.
-     * @param longitude the source point longitude.
-     * @param distance the distance to the source.
-     * @param bearing direction in which to go for the target point, expressed in degrees.
-     * @return a computed {@link LatLng} instance.
+     * Compute the radius around the new location within which the selected geofences remain the nearest ones.
+     * <p>When moving by {@code s} meters, the distance to each selected geofence increases by at most {@code s}, and the distance
+     * to any other geofence decreases by at most {@code s}. The selection cannot change as long as {@code s} is less than half the gap
+     * between the farthest selected geofence and the nearest geofence that was not selected, wherever the latter is: it is searched
+     * beyond the search radius if needed. When fewer geofences than the maximum were selected, the nearest other geofence must also
+     * remain outside of the search radius. Selected geofences which end up outside of the search radius remain the nearest ones,
+     * so they are kept until the next selection.
+     * @param store the store the geofences were selected from.
+     * @param lat the latitude of the location.
+     * @param lng the longitude of the location.
+     * @param radius the radius of the search area in meters.
+     * @param selector the selector holding the selected geofences, sorted by ascending distance.
+     * @param limit the upper bound of the safe radius, since the store may not hold the geofences beyond it.
+     * @return the safe radius in meters, at most {@code limit} even if there is no other geofence.
      */
-    private LatLng calculateDerivedPosition(double latitude, double longitude, double distance, double bearing) {
-        double latitudeRadians = Math.toRadians(latitude);
-        double longitudeRadians = Math.toRadians(longitude);
-        double EarthRadius = 6371000d; // meters
-        double angularDistance = distance / EarthRadius;
-        double trueCourse = Math.toRadians(bearing);
-        double lat = Math.asin(Math.sin(latitudeRadians) * Math.cos(angularDistance) + Math.cos(latitudeRadians) * Math.sin(angularDistance) * Math.cos(trueCourse));
-        double dlon = Math.atan2(Math.sin(trueCourse) * Math.sin(angularDistance) * Math.cos(latitudeRadians), Math.cos(angularDistance) - Math.sin(latitudeRadians) * Math.sin(lat));
-        double lon = ((longitudeRadians + dlon + Math.PI) % (Math.PI * 2)) - Math.PI;
-        return new LatLng(Math.toDegrees(lat), Math.toDegrees(lon));
+    static double safeRadius(GeofenceStore store, double lat, double lng, double radius, KNearestSelector selector, double limit) {
+        double farthest = (selector.size() > 0) ? GeoDistance.fromSquaredEquirectangular(selector.distance(selector.size() - 1)) : 0d;
+        double next = nextDistance(store, lat, lng, radius, selector);
+        double safe = Math.max(0d, (next - farthest) / 2d);
+        if (selector.size() < selector.capacity()) {
+            safe = Math.min(safe, Math.max(0d, next - radius));
+        }
+        safe = Math.min(safe, limit);
+        log.debug(String.format(Locale.US, "safe radius = %,.0f m (farthest selected = %,.0f m, next = %,.0f m)", safe, farthest, next));
+        return safe;
     }
 
     /**
-     * Create a where clause to find the geofences closest to the specified location and in the specified range.
+     * Compute the distance to the nearest geofence that was not selected.
+     * <p>The candidates were found in the bounding boxes of the search area, so a geofence that was not offered to the selector
+     * is farther than the search radius. If no candidate was left over within that radius, the search is repeated with a doubled radius,
+     * up to {@link #MAX_NEXT_SEARCHES} times, after which the last radius is a lower bound of the distance.
+     * @return the distance in meters, or {@link Double#POSITIVE_INFINITY} if all the geofences were selected.
      */
-    private String createWhereClause(double latitude, double longitude, double radius) {
-        LatLng pos1 = calculateDerivedPosition(latitude, longitude, radius, 0d);
-        LatLng pos2 = calculateDerivedPosition(latitude, longitude, radius, 90d);
-        LatLng pos3 = calculateDerivedPosition(latitude, longitude, radius, 180d);
-        LatLng pos4 = calculateDerivedPosition(latitude, longitude, radius, 270d);
-        return String.format(Locale.US, "m_latitude < %f AND m_longitude < %f AND m_latitude > %f AND m_longitude > %f", pos1.latitude, pos2.longitude, pos3.latitude, pos4.longitude);
+    private static double nextDistance(GeofenceStore store, double lat, double lng, double radius, KNearestSelector selector) {
+        double next = GeoDistance.fromSquaredEquirectangular(selector.nextDistance());
+        if (next <= radius) {
+            return next;
+        }
+        int selected = selector.size();
+        if (selected >= store.size()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        KNearestSelector wider = new KNearestSelector(selected + 1);
+        double searched = radius;
+        for (int i=0; i<MAX_NEXT_SEARCHES; i++) {
+            searched *= 2d;
+            wider.reset();
+            store.nearest(lat, lng, searched, wider);
+            if (wider.size() > selected) {
+                double d = GeoDistance.fromSquaredEquirectangular(wider.distance(selected));
+                if (d <= searched) {
+                    return Math.min(next, d);
+                }
+            }
+        }
+        return Math.min(next, searched);
     }
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the {@link GeoTiles tiles} whose geofences were downloaded into the local database,
+ * with the synchronization watermark of each tile and the local time of its last synchronization.
+ * <p>The state is stored in the {@link Settings} as a list of {@code tile:watermark:timestamp} strings.
+ * Since tiles are downloaded concurrently, each load, update and store cycle is performed while holding the lock of this class.
+ */
+final class SyncedTiles {
+    /**
+     * The watermark and the local timestamp of the last synchronization of each tile, by tile key.
+     */
+    private final Map<Long, long[]> mTiles = new LinkedHashMap<>();
+
+    /**
+     * Load the synchronized tiles from the specified settings.
+     */
+    static SyncedTiles load(Settings settings) {
+        SyncedTiles tiles = new SyncedTiles();
+        for (String s: settings.getStrings(ServiceConfig.SYNCED_TILES, Collections.<String>emptyList())) {
+            String[] parts = s.split(":");
+            if (parts.length == 3) {
+                try {
+                    tiles.mTiles.put(Long.valueOf(parts[0]), new long[] { Long.parseLong(parts[1]), Long.parseLong(parts[2]) });
+                } catch(NumberFormatException ignore) {
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Store the synchronized tiles into the specified settings.
+     */
+    void store(Settings settings) {
+        if (mTiles.isEmpty()) {
+            settings.remove(ServiceConfig.SYNCED_TILES);
+        } else {
+            List<String> values = new ArrayList<>(mTiles.size());
+            for (Map.Entry<Long, long[]> entry: mTiles.entrySet()) {
+                values.add(entry.getKey() + ":" + entry.getValue()[0] + ":" + entry.getValue()[1]);
+            }
+            settings.putStrings(ServiceConfig.SYNCED_TILES, values);
+        }
+    }
+
+    /**
+     * Determine whether the geofences of the specified tile were downloaded.
+     */
+    boolean contains(long tileKey) {
+        return mTiles.containsKey(tileKey);
+    }
+
+    /**
+     * Get the watermark of the last synchronization of the specified tile.
+     * @return the watermark, or -1 if the tile was never synchronized or the server did not provide it.
+     */
+    long watermark(long tileKey) {
+        long[] state = mTiles.get(tileKey);
+        return (state != null) ? state[0] : -1L;
+    }
+
+    /**
+     * Get the local time of the last synchronization of the specified tile.
+     * @return the time in milliseconds since the epoch, or -1 if the tile was never synchronized.
+     */
+    long timestamp(long tileKey) {
+        long[] state = mTiles.get(tileKey);
+        return (state != null) ? state[1] : -1L;
+    }
+
+    /**
+     * Record the synchronization of the specified tile.
+     * @param tileKey the key of the tile.
+     * @param watermark the watermark provided by the server, or -1 if none.
+     * @param timestamp the local time of the synchronization.
+     */
+    void synced(long tileKey, long watermark, long timestamp) {
+        mTiles.put(tileKey, new long[] { watermark, timestamp });
+    }
+
+    /**
+     * Forget the specified tile.
+     */
+    void remove(long tileKey) {
+        mTiles.remove(tileKey);
+    }
+
+    /**
+     * Get the number of synchronized tiles.
+     */
+    int size() {
+        return mTiles.size();
+    }
+
+    /**
+     * Compute the radius of the area around the specified location which is entirely covered by synchronized tiles.
+     * Beyond it, the local database does not tell which geofences are the nearest ones.
+     * @param latitude the latitude of the location.
+     * @param longitude the longitude of the location.
+     * @param maxRadius the largest radius of interest in meters.
+     * @return the distance in meters to the nearest tile which is not synchronized, at most {@code maxRadius}.
+     */
+    double coveredRadius(double latitude, double longitude, double maxRadius) {
+        double radius = maxRadius;
+        for (long tileKey: GeoTiles.tilesAround(latitude, longitude, maxRadius)) {
+            if (!mTiles.containsKey(tileKey)) {
+                radius = Math.min(radius, GeoTiles.distanceToEdge(tileKey, latitude, longitude));
+            }
+        }
+        return radius;
+    }
+
+    /**
+     * Remove the tiles farthest from the specified location until at most {@code budget} tiles remain.
+     * @param budget the maximum number of tiles to keep.
+     * @param latitude the latitude of the current location.
+     * @param longitude the longitude of the current location.
+     * @param pinned the tiles which must be kept regardless of the budget.
+     * @return the keys of the removed tiles.
+     */
+    List<Long> evict(int budget, final double latitude, final double longitude, Collection<Long> pinned) {
+        List<Long> candidates = new ArrayList<>();
+        for (Long tileKey: mTiles.keySet()) {
+            if (!pinned.contains(tileKey)) {
+                candidates.add(tileKey);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Long>() {
+            @Override
+            public int compare(Long t1, Long t2) {
+                return Double.compare(GeoTiles.distance(t2, latitude, longitude), GeoTiles.distance(t1, latitude, longitude));
+            }
+        });
+        List<Long> evicted = new ArrayList<>();
+        for (int i=0; (i<candidates.size()) && (mTiles.size() > budget); i++) {
+            mTiles.remove(candidates.get(i));
+            evicted.add(candidates.get(i));
+        }
+        return evicted;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + mTiles.keySet();
+    }
+}
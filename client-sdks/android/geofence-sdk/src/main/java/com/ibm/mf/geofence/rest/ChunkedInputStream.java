@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * An input stream which decodes a body sent with the "chunked" transfer coding. The trailer headers are discarded.
+ */
+class ChunkedInputStream extends HttpBodyInputStream {
+    private final HttpConnection mConnection;
+    /**
+     * Number of bytes left in the current chunk, or -1 if the size of the next chunk must be read.
+     */
+    private long mRemaining = -1L;
+    private boolean mComplete = false;
+
+    ChunkedInputStream(HttpConnection connection) {
+        this.mConnection = connection;
+    }
+
+    /**
+     * Determine whether the body was read up to the last chunk and its trailer.
+     */
+    @Override
+    boolean isComplete() {
+        return mComplete;
+    }
+
+    @Override
+    int readBody(byte[] buffer, int offset, int length) throws IOException {
+        if (mComplete) {
+            return -1;
+        }
+        if (mRemaining <= 0L) {
+            if (mRemaining == 0L) {
+                // the CRLF which ends the previous chunk
+                mConnection.readLine();
+            }
+            mRemaining = readChunkSize();
+            if (mRemaining == 0L) {
+                while (mConnection.readLine().length() > 0) {
+                    // trailer header
+                }
+                mComplete = true;
+                return -1;
+            }
+        }
+        int n = mConnection.getInput().read(buffer, offset, (int) Math.min(length, mRemaining));
+        if (n < 0) {
+            throw new EOFException("unexpected end of chunked body");
+        }
+        mRemaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (isClosed() || mComplete || (mRemaining <= 0L)) ? 0 : (int) Math.min(mConnection.getInput().available(), mRemaining);
+    }
+
+    private long readChunkSize() throws IOException {
+        String line = mConnection.readLine();
+        int end = line.indexOf(';');
+        String size = ((end < 0) ? line : line.substring(0, end)).trim();
+        try {
+            long n = Long.parseLong(size, 16);
+            if (n < 0L) {
+                throw new ProtocolException("invalid chunk size: " + line);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("invalid chunk size: " + line);
+        }
+    }
+}
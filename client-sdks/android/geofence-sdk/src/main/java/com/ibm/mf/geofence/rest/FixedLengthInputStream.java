@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which reads a body of known length, as specified by the "Content-Length" header.
+ */
+class FixedLengthInputStream extends HttpBodyInputStream {
+    private final InputStream mIn;
+    /**
+     * Number of bytes left in the body.
+     */
+    private long mRemaining;
+
+    FixedLengthInputStream(InputStream in, long length) {
+        this.mIn = in;
+        this.mRemaining = length;
+    }
+
+    /**
+     * Determine whether the body was read up to its last byte.
+     */
+    @Override
+    boolean isComplete() {
+        return mRemaining == 0L;
+    }
+
+    @Override
+    int readBody(byte[] buffer, int offset, int length) throws IOException {
+        if (mRemaining == 0L) {
+            return -1;
+        }
+        int n = mIn.read(buffer, offset, (int) Math.min(length, mRemaining));
+        if (n < 0) {
+            throw new EOFException("unexpected end of body, " + mRemaining + " bytes missing");
+        }
+        mRemaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return isClosed() ? 0 : (int) Math.min(mIn.available(), mRemaining);
+    }
+}
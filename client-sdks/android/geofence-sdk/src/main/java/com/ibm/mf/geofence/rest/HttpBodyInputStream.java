@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Base class of the streams of response bodies whose end is known without closing the connection,
+ * which can thus be reused once the body is consumed.
+ * <p>Closing such a stream does not close the connection.
+ */
+abstract class HttpBodyInputStream extends InputStream {
+    private boolean mClosed = false;
+
+    /**
+     * Determine whether the body was read up to its end.
+     */
+    abstract boolean isComplete();
+
+    /**
+     * Read bytes of the body, whether this stream is closed or not.
+     * @return the number of bytes read, or -1 at the end of the body.
+     */
+    abstract int readBody(byte[] buffer, int offset, int length) throws IOException;
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mClosed) {
+            throw new IOException("stream closed");
+        }
+        return (length == 0) ? 0 : readBody(buffer, offset, length);
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Skip the rest of the body, for instance the final chunk which decoders stop short of, so that the connection can be reused.
+     * @param maxBytes the maximum number of bytes to skip.
+     * @return {@code true} if the end of the body was reached, {@code false} otherwise.
+     */
+    boolean discard(int maxBytes) {
+        byte[] buffer = new byte[2048];
+        try {
+            int total = 0;
+            int n;
+            while ((total <= maxBytes) && ((n = readBody(buffer, 0, buffer.length)) >= 0)) {
+                total += n;
+            }
+        } catch (IOException ignore) {
+        }
+        return isComplete();
+    }
+}
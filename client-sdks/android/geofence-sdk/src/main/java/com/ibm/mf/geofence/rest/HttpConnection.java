@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+
+/**
+ * A connection to a host, which may be kept alive in the pool of a {@link PooledHttpTransport} between requests.
+ */
+class HttpConnection {
+    /**
+     * Maximum length of a status line or header line.
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+    /**
+     * The key of the pool of this connection, which identifies its host, port and TLS settings.
+     */
+    final String mKey;
+    private final Socket mSocket;
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    /**
+     * Number of requests sent on this connection.
+     */
+    int mUseCount = 0;
+    /**
+     * Time at which this connection was last returned to the pool, in milliseconds.
+     */
+    long mIdleSince;
+    /**
+     * How long this connection may be kept idle, in milliseconds, as limited by the "Keep-Alive" header of the server.
+     */
+    long mKeepAliveMillis;
+
+    HttpConnection(String key, Socket socket, long keepAliveMillis) throws IOException {
+        this.mKey = key;
+        this.mSocket = socket;
+        this.mIn = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.mOut = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.mKeepAliveMillis = keepAliveMillis;
+    }
+
+    Socket getSocket() {
+        return mSocket;
+    }
+
+    InputStream getInput() {
+        return mIn;
+    }
+
+    OutputStream getOutput() {
+        return mOut;
+    }
+
+    /**
+     * Read a line of the response head, in ISO-8859-1.
+     * @return the line, without its CRLF terminator.
+     * @throws EOFException if the connection is closed before the line ends.
+     * @throws IOException if any other error occurs.
+     */
+    String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = mIn.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("connection closed by the server");
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("response line too long");
+            }
+            sb.append((char) b);
+        }
+        int length = sb.length();
+        if ((length > 0) && (sb.charAt(length - 1) == '\r')) {
+            sb.setLength(length - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Determine whether this connection may still be reused at the specified time.
+     */
+    boolean isReusable(long now) {
+        return !mSocket.isClosed() && !mSocket.isInputShutdown() && (now - mIdleSince < mKeepAliveMillis);
+    }
+
+    void close() {
+        try {
+            mSocket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + mKey + ", uses=" + mUseCount + "]";
+    }
+}
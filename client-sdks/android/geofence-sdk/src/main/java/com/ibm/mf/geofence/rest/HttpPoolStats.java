@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of the usage counters of a {@link PooledHttpTransport}, since it was created.
+ */
+public final class HttpPoolStats {
+    private final long mRequests;
+    private final long mOpened;
+    private final long mReused;
+    private final long mClosed;
+    private final int mIdle;
+
+    HttpPoolStats(long requests, long opened, long reused, long closed, int idle) {
+        this.mRequests = requests;
+        this.mOpened = opened;
+        this.mReused = reused;
+        this.mClosed = closed;
+        this.mIdle = idle;
+    }
+
+    /**
+     * Get the number of requests sent, including redirects and retries.
+     */
+    public long getRequestCount() {
+        return mRequests;
+    }
+
+    /**
+     * Get the number of connections opened.
+     */
+    public long getOpenedCount() {
+        return mOpened;
+    }
+
+    /**
+     * Get the number of requests sent on a connection kept alive from a previous request.
+     */
+    public long getReusedCount() {
+        return mReused;
+    }
+
+    /**
+     * Get the number of connections closed, whether they were evicted from the pool or could not be kept alive.
+     */
+    public long getClosedCount() {
+        return mClosed;
+    }
+
+    /**
+     * Get the number of connections currently idle in the pool.
+     */
+    public int getIdleCount() {
+        return mIdle;
+    }
+
+    /**
+     * Get the ratio of the requests sent on a connection kept alive, between 0 and 1.
+     */
+    public double getReuseRatio() {
+        return (mRequests == 0L) ? 0d : (double) mReused / mRequests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s[requests=%,d, opened=%,d, reused=%,d, closed=%,d, idle=%d]",
+            getClass().getSimpleName(), mRequests, mOpened, mReused, mClosed, mIdle);
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.ibm.mf.geofence.rest;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,6 +24,10 @@ import java.util.List;
  * Abstract super class common to all requests.
  */
 public abstract class HttpRequest<C> {
+    /**
+     * Minimum size in bytes of a payload compressed with gzip, smaller ones would not shrink enough to be worth it.
+     */
+    static final int GZIP_PAYLOAD_THRESHOLD = 1024;
     /**
      * The callback associated with the request.
      */
@@ -47,6 +52,46 @@ public abstract class HttpRequest<C> {
      * Whether basic authentication is required for this request.
      */
     boolean mBasicAuthRequired = false;
+    /**
+     * The media types accepted for the response, or {@code null} to accept any.
+     */
+    String mAccept;
+    /**
+     * The validators of a previous response, sent along with the request to make it conditional.
+     */
+    String mIfNoneMatch;
+    String mIfModifiedSince;
+    /**
+     * The validators of the response, that is, the values of its "ETag" and "Last-Modified" headers.
+     */
+    String mETag;
+    String mLastModified;
+    /**
+     * The value of the "Content-Type" header of the response.
+     */
+    String mContentType;
+    /**
+     * Whether the payload is compressed with gzip when it is larger than {@link #GZIP_PAYLOAD_THRESHOLD}.
+     */
+    boolean mCompressPayload = false;
+    /**
+     * Size in bytes of the payload, as sent over the network and before compression.
+     */
+    long mRequestBytes = 0L;
+    long mRequestBytesUncompressed = 0L;
+    /**
+     * Size in bytes of the response body, as received over the network and after decompression.
+     */
+    long mResponseBytes = 0L;
+    long mResponseBytesUncompressed = 0L;
+    /**
+     * The priority class of this request.
+     */
+    HttpRequestPriority mPriority = HttpRequestPriority.NORMAL;
+    /**
+     * Whether this request was cancelled.
+     */
+    private volatile boolean mCancelled = false;
 
     /**
      * Initialize this request with the specified identifier and callback.
@@ -98,6 +143,167 @@ public abstract class HttpRequest<C> {
      */
     protected abstract C resultFromResponse(byte[] source) throws Exception;
 
+    /**
+     * Determine whether the response body is parsed as it is received, via {@link #resultFromStream(InputStream)},
+     * rather than loaded in memory and passed to {@link #resultFromResponse(byte[])}.
+     * @return {@code false} by default, subclasses handling large responses should override it and return {@code true}.
+     */
+    protected boolean isStreamingResponse() {
+        return false;
+    }
+
+    /**
+     * Parse the response received from the server, as it is read from the connection, into an objet of the type handled by this request.
+     * This method is invoked in a background thread, only when {@link #isStreamingResponse()} returns {@code true}.
+     * The default implementation loads the whole response and delegates to {@link #resultFromResponse(byte[])}.
+     * @param source the stream of the server response, which is closed by the caller.
+     * @return an object of the type handled by this request.
+     * @throws Exception if any error occurs while reading or parsing the response.
+     */
+    protected C resultFromStream(InputStream source) throws Exception {
+        return resultFromResponse(Utils.readBytes(source));
+    }
+
+    /**
+     * Build the result of this request when the server responds that the requested content was not modified,
+     * based on the validators set with {@link #setValidators(String, String)}.
+     * @return an object of the type handled by this request. The default implementation returns {@code null},
+     * in which case the callback is not invoked.
+     */
+    protected C resultFromNotModified() {
+        return null;
+    }
+
+    /**
+     * Make this request conditional, based on the validators of a previous response. If the content was not modified since,
+     * the server responds with a 304 status and no content, and the result of the request is built by {@link #resultFromNotModified()}.
+     * @param eTag the "ETag" header of the previous response, sent as the "If-None-Match" header, or {@code null}.
+     * @param lastModified the "Last-Modified" header of the previous response, sent as the "If-Modified-Since" header, or {@code null}.
+     */
+    public void setValidators(String eTag, String lastModified) {
+        this.mIfNoneMatch = eTag;
+        this.mIfModifiedSince = lastModified;
+    }
+
+    /**
+     * Get the "ETag" header of the response.
+     * @return the header value, or {@code null} if the response is not received yet or does not have this header.
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * Get the "Last-Modified" header of the response.
+     * @return the header value, or {@code null} if the response is not received yet or does not have this header.
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Get the media type of the response body.
+     * @return the value of the "Content-Type" header of the response, or {@code null} if the response is not received yet or does not have this header.
+     */
+    public String getContentType() {
+        return mContentType;
+    }
+
+    /**
+     * Get the media types accepted for the response.
+     * @return the value of the "Accept" header, or {@code null} if any media type is accepted.
+     */
+    public String getAccept() {
+        return mAccept;
+    }
+
+    /**
+     * Set the media types accepted for the response, in the format of the "Accept" header.
+     * @param accept the media types, in order of preference, or {@code null} to accept any.
+     */
+    public void setAccept(String accept) {
+        this.mAccept = accept;
+    }
+
+    /**
+     * Determine whether the payload is compressed with gzip when it is large enough.
+     * @return {@code true} if the payload may be compressed, {@code false} otherwise.
+     */
+    public boolean isCompressPayload() {
+        return mCompressPayload;
+    }
+
+    /**
+     * Specify whether the payload is compressed with gzip when it is large enough, and sent with a "Content-Encoding: gzip" header.
+     * This is only supported by servers which inflate request bodies, and is disabled by default.
+     * @param compressPayload {@code true} to compress the payload, {@code false} otherwise.
+     */
+    public void setCompressPayload(boolean compressPayload) {
+        this.mCompressPayload = compressPayload;
+    }
+
+    /**
+     * Get the size of the payload as it was sent over the network, that is, after compression if any.
+     * @return the size in bytes, or 0 if there is no payload or the request was not sent yet.
+     */
+    public long getRequestBytes() {
+        return mRequestBytes;
+    }
+
+    /**
+     * Get the size of the payload before compression.
+     * @return the size in bytes, or 0 if there is no payload or the request was not sent yet.
+     */
+    public long getRequestBytesUncompressed() {
+        return mRequestBytesUncompressed;
+    }
+
+    /**
+     * Get the size of the response body as it was received over the network, that is, before decompression if any.
+     * @return the size in bytes, or 0 if the response has no body or was not received yet.
+     */
+    public long getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    /**
+     * Get the size of the response body after decompression.
+     * @return the size in bytes, or 0 if the response has no body or was not received yet.
+     */
+    public long getResponseBytesUncompressed() {
+        return mResponseBytesUncompressed;
+    }
+
+    /**
+     * Get the priority class of this request.
+     */
+    public HttpRequestPriority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Set the priority class of this request, which must be done before it is submitted.
+     * @param priority the priority class, {@link HttpRequestPriority#NORMAL NORMAL} by default.
+     */
+    public void setPriority(HttpRequestPriority priority) {
+        this.mPriority = priority;
+    }
+
+    /**
+     * Cancel this request. If it is still queued, it is never sent; if it is being sent, the transfer of the response body
+     * is aborted. In both cases its callback is not invoked.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Determine whether this request was cancelled.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
     /**
      * Get the callback associated with this request.
      * @return an instance of an implementation of {@link HttpRequestCallback}.
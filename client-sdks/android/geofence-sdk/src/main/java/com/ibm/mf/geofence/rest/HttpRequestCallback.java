@@ -17,7 +17,8 @@
 package com.ibm.mf.geofence.rest;
 
 /**
- * Callback handler invoked once the server's response has been received.
+ * Callback handler invoked once the server's response has been received, with the
+ * {@link HttpService#getCallbackExecutor() callback executor} of the service, that is, on the main thread by default.
  * @param <T> the type of results returned by the request.
  */
 public interface HttpRequestCallback<T> {
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+/**
+ * The priority classes of the requests dispatched by a {@link HttpService}, from the most to the least urgent.
+ * Requests of the same class are dispatched in the order they were submitted.
+ */
+public enum HttpRequestPriority {
+    /**
+     * Time-critical requests, such as the notifications of geofence events. One of the concurrent requests is reserved for them.
+     */
+    HIGH,
+    /**
+     * The default priority, for instance of the geofence synchronization requests.
+     */
+    NORMAL,
+    /**
+     * Deferrable requests, such as telemetry. They are the first to be rejected when the queue is full.
+     */
+    LOW
+}
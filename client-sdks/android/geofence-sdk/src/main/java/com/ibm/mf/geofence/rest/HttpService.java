@@ -17,6 +17,8 @@
 package com.ibm.mf.geofence.rest;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Base64;
 
 import com.ibm.mf.geofence.LoggingConfiguration;
@@ -24,16 +26,13 @@ import com.ibm.mf.geofence.LoggingConfiguration;
 import org.apache.log4j.Logger;
 
 import java.net.CookieManager;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocketFactory;
@@ -50,9 +49,17 @@ public class HttpService {
     private static final Logger log = LoggingConfiguration.getLogger(HttpService.class.getSimpleName());
     private CookieManager mCookieManager = new CookieManager();
     /**
-     * Used to queue the http requests.
+     * Used to queue the http requests by priority and send them in worker threads.
      */
-    ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    final RequestDispatcher mDispatcher = new RequestDispatcher();
+    /**
+     * Used to invoke the callbacks of the requests, or {@code null} to invoke them on the main thread.
+     */
+    private volatile Executor mCallbackExecutor;
+    /**
+     * The engine which sends the HTTP requests.
+     */
+    private volatile HttpTransport mTransport = new UrlConnectionTransport();
     /**
      * The base server URL, for instance <code>http[s]://hostname[:port]</code>.
      */
@@ -139,13 +146,79 @@ public class HttpService {
     }
 
     /**
-     * Execute the specified request against the server.
+     * Execute the specified request against the server. The request is queued according to its {@link HttpRequest#getPriority() priority},
+     * then sent in a worker thread, and its callback is invoked with the {@link #getCallbackExecutor() callback executor}.
      * @param <T> the type of result returned from the server.
      * @param request the request to execute.
      */
     public <T> void executeRequest(final HttpRequest<T> request) {
-        log.debug("executeRequest()");
-        mExecutor.execute(new RequestTask<>(request));
+        log.debug("executeRequest() " + request.getPriority());
+        mDispatcher.enqueue(new RequestCall<>(this, request));
+    }
+
+    /**
+     * Cancel the specified request, removing it from the queue if it is not sent yet. Its callback will not be invoked.
+     * @param request the request to cancel.
+     */
+    public void cancel(HttpRequest<?> request) {
+        request.cancel();
+        mDispatcher.dequeue(request);
+    }
+
+    /**
+     * Cancel all the queued and running requests.
+     * @return the number of cancelled requests.
+     */
+    public int cancelAll() {
+        return mDispatcher.cancelAll();
+    }
+
+    /**
+     * Get the maximum number of requests sent at once.
+     */
+    public int getMaxConcurrentRequests() {
+        return mDispatcher.getMaxConcurrent();
+    }
+
+    /**
+     * Set the maximum number of requests sent at once. When it is greater than 1, one of the requests is reserved
+     * for those of {@link HttpRequestPriority#HIGH high priority}.
+     * @param maxConcurrentRequests the maximum number of concurrent requests, at least 1.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        mDispatcher.setMaxConcurrent(maxConcurrentRequests);
+    }
+
+    /**
+     * Get the executor which invokes the callbacks of the requests.
+     * @return by default, an executor which posts the callbacks to the main thread.
+     */
+    public Executor getCallbackExecutor() {
+        Executor executor = mCallbackExecutor;
+        if (executor == null) {
+            synchronized(this) {
+                if (mCallbackExecutor == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    mCallbackExecutor = new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+                executor = mCallbackExecutor;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Specify the executor which invokes the callbacks of the requests, for instance to process the results
+     * in a background thread rather than on the main thread.
+     * @param callbackExecutor the executor to use, or {@code null} to invoke the callbacks on the main thread.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.mCallbackExecutor = callbackExecutor;
     }
 
     /**
@@ -166,6 +239,27 @@ public class HttpService {
         this.mAllowUntrustedCertificates = allowUntrustedCertificates;
     }
 
+    /**
+     * Get the engine which sends the HTTP requests of this service.
+     * @return by default, a {@link UrlConnectionTransport}.
+     */
+    public HttpTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Specify the engine which sends the HTTP requests of this service, for instance a {@link PooledHttpTransport}
+     * to keep the connections alive between requests. The idle connections of the previous engine are closed.
+     * @param transport the transport to use for subsequent requests.
+     */
+    public void setTransport(HttpTransport transport) {
+        HttpTransport previous = mTransport;
+        mTransport = transport;
+        if ((previous != null) && (previous != transport)) {
+            previous.shutdown();
+        }
+    }
+
     /**
      * Get the object which holds session identifiers.
      * This object can be used to perform furtther requests to the server with the same HTTP session.
@@ -176,23 +270,23 @@ public class HttpService {
     }
 
     /**
-     * Set the header for basic authentication onto the specified connection.
-     * @param connection the connection used for autheitcation.
+     * Set the header for basic authentication onto the specified request.
+     * @param request the request used for autheitcation.
      * @throws Exception if any error occurs.
      */
-    void setAuthHeader(HttpURLConnection connection) throws Exception {
+    void setAuthHeader(HttpTransportRequest request) throws Exception {
         String credentials = mUsername + ":" + mPassword;
         String encoded = Base64.encodeToString(credentials.getBytes(Utils.UTF_8), Base64.NO_WRAP);
-        connection.setRequestProperty("Authorization", "Basic " + encoded);
+        request.setHeader("Authorization", "Basic " + encoded);
     }
 
     /**
-     * Set the header for basic authentication onto the specified connection.
-     * @param connection the connection used for autheitcation.
+     * Set the user agent header onto the specified request.
+     * @param request the request to update.
      * @throws Exception if any error occurs.
      */
-    void setUserAgentHeader(HttpURLConnection connection) throws Exception {
-        connection.setRequestProperty(Utils.HTTP_HEADER_USER_AGENT, System.getProperty(Utils.PROPERTY_HTTP_AGENT));
+    void setUserAgentHeader(HttpTransportRequest request) throws Exception {
+        request.setHeader(Utils.HTTP_HEADER_USER_AGENT, System.getProperty(Utils.PROPERTY_HTTP_AGENT));
     }
 
     /**
@@ -210,11 +304,11 @@ public class HttpService {
 
     /**
      * Log the error response of an HTTP request.
-     * @param connection the connection encapsulating the request and response.
+     * @param response the response whose body is the error.
      */
-    void logErrorBody(HttpURLConnection connection) {
+    void logErrorBody(HttpTransportResponse response) {
         try {
-            String err = Utils.readErrorBody(connection);
+            String err = Utils.readErrorBody(response);
             log.debug("error body = " + err);
         } catch (Exception ignore) {
         }
@@ -224,38 +318,21 @@ public class HttpService {
     public String toString() {
         final StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('[');
         sb.append("mServerURL=").append(mServerURL);
+        sb.append(", mDispatcher=").append(mDispatcher);
         sb.append(']');
         return sb.toString();
     }
 
     /**
-     * Handle whether to allow untrusted certificated for an https connection.
-     * @param connection the connection to check.
-     * @return the connection, eventually updated to allow untrusted certificatess.
-     * @throws Exception if any error occurs.
-     */
-    HttpURLConnection handleConnection(HttpURLConnection connection) throws Exception {
-        if (mAllowUntrustedCertificates && "https".equalsIgnoreCase(connection.getURL().getProtocol())) {
-            ((HttpsURLConnection) connection).setHostnameVerifier(untrustedHostNameVerifier);
-            ((HttpsURLConnection) connection).setSSLSocketFactory(untrustedSocketFactory);
-        }
-        return connection;
-    }
-
-    /**
-     * A task wrapping an HTTP request for asynchronous submission and queuing.
-     * @param <T> the type of the result of the request.
+     * Handle whether to allow untrusted certificated for an https request.
+     * @param request the request to check.
+     * @return the request, eventually updated to allow untrusted certificatess.
      */
-    class RequestTask<T> implements Runnable {
-        final HttpRequest<T> mRequest;
-
-        RequestTask(final HttpRequest<T> request) {
-            this.mRequest = request;
-        }
-
-        @Override
-        public void run() {
-            new RequestAsyncTask<>(HttpService.this, mRequest).execute();
+    HttpTransportRequest handleRequest(HttpTransportRequest request) {
+        if (mAllowUntrustedCertificates && "https".equalsIgnoreCase(request.getUrl().getProtocol())) {
+            request.setHostnameVerifier(untrustedHostNameVerifier);
+            request.setSSLSocketFactory(untrustedSocketFactory);
         }
+        return request;
     }
 }
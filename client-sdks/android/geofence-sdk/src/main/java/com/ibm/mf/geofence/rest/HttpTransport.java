@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.IOException;
+
+/**
+ * Service provider interface of the engines which send the HTTP requests of a {@link HttpService}.
+ * <p>Two engines are provided: {@link UrlConnectionTransport}, the default one, which relies on {@link java.net.HttpURLConnection},
+ * and {@link PooledHttpTransport}, which keeps the connections alive between requests.
+ * Implementations must be safe for use by several threads at once.
+ */
+public interface HttpTransport {
+    /**
+     * Send the specified request and wait for the status line and headers of the response.
+     * Redirects are followed if the request allows it.
+     * @param request the request to send.
+     * @return the response, whose body must be consumed or {@link HttpTransportResponse#close() closed} by the caller.
+     * @throws IOException if the request could not be sent or the response could not be read.
+     */
+    HttpTransportResponse send(HttpTransportRequest request) throws IOException;
+
+    /**
+     * Release the resources held by this transport, such as idle connections. Requests can still be sent afterwards.
+     */
+    void shutdown();
+}
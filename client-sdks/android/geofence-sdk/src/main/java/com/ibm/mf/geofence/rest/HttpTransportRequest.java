@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.net.CookieHandler;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A request sent by a {@link HttpTransport}: the URL, method, headers and body, along with the connection settings.
+ */
+public final class HttpTransportRequest {
+    /**
+     * The URL of the request.
+     */
+    private URL mUrl;
+    /**
+     * The HTTP method of the request.
+     */
+    private String mMethod = "GET";
+    /**
+     * The request headers, by case-insensitive name.
+     */
+    private final Map<String, String> mHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * The encoded request body, or {@code null} if there is none.
+     */
+    private byte[] mBody;
+    /**
+     * Connection timeout in milliseconds.
+     */
+    private int mConnectTimeout = 30_000;
+    /**
+     * Read timeout in milliseconds.
+     */
+    private int mReadTimeout = 30_000;
+    /**
+     * Whether redirects are followed.
+     */
+    private boolean mFollowRedirects = true;
+    /**
+     * The factory of the sockets of HTTPS requests, or {@code null} to use the platform default.
+     */
+    private SSLSocketFactory mSSLSocketFactory;
+    /**
+     * The verifier of the host names of HTTPS requests, or {@code null} to use the platform default.
+     */
+    private HostnameVerifier mHostnameVerifier;
+    /**
+     * The cookie store of the request, or {@code null} to use the {@link CookieHandler#getDefault() default one}, if any.
+     */
+    private CookieHandler mCookieHandler;
+
+    /**
+     * Create a "GET" request for the specified URL.
+     * @param url the URL of the request.
+     */
+    public HttpTransportRequest(URL url) {
+        this.mUrl = url;
+    }
+
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    public void setUrl(URL url) {
+        this.mUrl = url;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public void setMethod(String method) {
+        this.mMethod = method;
+    }
+
+    /**
+     * Get the value of the specified request header.
+     * @param name the case-insensitive name of the header.
+     * @return the value of the header, or {@code null} if it is not set.
+     */
+    public String getHeader(String name) {
+        return mHeaders.get(name);
+    }
+
+    /**
+     * Set the value of the specified request header, replacing any previous value.
+     * @param name the case-insensitive name of the header.
+     * @param value the value of the header, or {@code null} to remove it.
+     */
+    public void setHeader(String name, String value) {
+        if (value == null) {
+            mHeaders.remove(name);
+        } else {
+            mHeaders.put(name, value);
+        }
+    }
+
+    /**
+     * Get the request headers, by case-insensitive name.
+     */
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    /**
+     * Set the request body, which must be already encoded as specified by the "Content-Type" and "Content-Encoding" headers.
+     * @param body the bytes of the body, or {@code null} if there is none.
+     */
+    public void setBody(byte[] body) {
+        this.mBody = body;
+    }
+
+    public int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.mConnectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.mReadTimeout = readTimeout;
+    }
+
+    public boolean isFollowRedirects() {
+        return mFollowRedirects;
+    }
+
+    public void setFollowRedirects(boolean followRedirects) {
+        this.mFollowRedirects = followRedirects;
+    }
+
+    public SSLSocketFactory getSSLSocketFactory() {
+        return mSSLSocketFactory;
+    }
+
+    public void setSSLSocketFactory(SSLSocketFactory factory) {
+        this.mSSLSocketFactory = factory;
+    }
+
+    public HostnameVerifier getHostnameVerifier() {
+        return mHostnameVerifier;
+    }
+
+    public void setHostnameVerifier(HostnameVerifier verifier) {
+        this.mHostnameVerifier = verifier;
+    }
+
+    public CookieHandler getCookieHandler() {
+        return mCookieHandler;
+    }
+
+    public void setCookieHandler(CookieHandler cookieHandler) {
+        this.mCookieHandler = cookieHandler;
+    }
+
+    @Override
+    public String toString() {
+        return mMethod + " " + mUrl;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response to a request sent by a {@link HttpTransport}.
+ * <p>The body is exposed as received, that is, still compressed if it has a "Content-Encoding". The response must be
+ * closed once the body is consumed, which allows the transport to reuse the connection.
+ */
+public abstract class HttpTransportResponse implements Closeable {
+    /**
+     * The status code of the response.
+     */
+    private final int mStatusCode;
+    /**
+     * The response headers, by case-insensitive name, in the order they were received.
+     */
+    private final Map<String, List<String>> mHeaders;
+
+    /**
+     * Initialize this response with the specified status code and headers.
+     * @param statusCode the status code of the response.
+     * @param headers the response headers, in a map whose keys are case-insensitive.
+     */
+    protected HttpTransportResponse(int statusCode, Map<String, List<String>> headers) {
+        this.mStatusCode = statusCode;
+        this.mHeaders = Collections.unmodifiableMap(headers);
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Get the last value of the specified response header.
+     * @param name the case-insensitive name of the header.
+     * @return the value of the header, or {@code null} if it was not received.
+     */
+    public String getHeader(String name) {
+        List<String> values = mHeaders.get(name);
+        return ((values == null) || values.isEmpty()) ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * Get the response headers, by case-insensitive name.
+     */
+    public Map<String, List<String>> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * Get the value of the "Content-Type" response header.
+     */
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    /**
+     * Get the value of the "Content-Encoding" response header.
+     */
+    public String getContentEncoding() {
+        return getHeader(Utils.HTTP_HEADER_CONTENT_ENCODING);
+    }
+
+    /**
+     * Get the body of the response, whatever its status code.
+     * @return a stream of the raw bytes of the body, which is empty if there is no body.
+     * @throws IOException if the body cannot be read.
+     */
+    public abstract InputStream getBody() throws IOException;
+
+    /**
+     * Release the connection of this response. The part of the body which was not consumed is discarded.
+     */
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,659 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import com.ibm.mf.geofence.LoggingConfiguration;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.CookieHandler;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link HttpTransport} which speaks HTTP/1.1 over a pool of keep-alive connections per host.
+ * <p>A connection returns to the pool as soon as the body of its response is fully consumed, so that the requests sent
+ * in sequence to the same host, such as the pages of a synchronization, reuse a warm connection instead of paying
+ * a TCP and TLS handshake each. At most {@link #DEFAULT_MAX_IDLE_PER_HOST} connections are kept idle per host,
+ * for at most {@link #DEFAULT_KEEP_ALIVE_MILLIS} milliseconds or the timeout advertised by the server, whichever is shorter.
+ * Cookies are handled by the cookie store of each request, or else the default one. When a redirect leads to another host,
+ * port or scheme, the credentials and cookies set on the request are not sent to the target.
+ * <p>A GET or HEAD request which fails on a reused connection before any response is received, typically because the server
+ * closed it while it was idle, is sent again once on a new connection. Other requests are not sent again, since the server
+ * may already have processed them. Requests sent through a proxy are delegated to a fallback
+ * transport, a {@link UrlConnectionTransport} by default.
+ * <p>Like {@link HttpsURLConnection}, HTTPS connections send the host name through SNI and check that the certificate
+ * of the server matches it, with the hostname verifier of the request or else the default one, before any request is written.
+ */
+public class PooledHttpTransport implements HttpTransport {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(PooledHttpTransport.class.getSimpleName());
+    /**
+     * Default maximum number of idle connections kept per host.
+     */
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 4;
+    /**
+     * Default maximum time a connection is kept idle, in milliseconds.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30_000L;
+    /**
+     * Maximum number of redirects followed for a request.
+     */
+    private static final int MAX_REDIRECTS = 5;
+    /**
+     * Maximum number of unread body bytes skipped when a response is closed, to keep its connection alive.
+     */
+    private static final int MAX_DISCARD_BYTES = 64 * 1024;
+    /**
+     * Read timeout while skipping the unread body bytes, in milliseconds.
+     */
+    private static final int DISCARD_TIMEOUT_MILLIS = 100;
+    /**
+     * The request headers which are computed by this transport.
+     */
+    private static final String[] COMPUTED_HEADERS = { "Host", "Connection", "Content-Length", "Transfer-Encoding" };
+    /**
+     * The request headers which are not sent when a redirect leads to another host, port or scheme.
+     */
+    private static final String[] CREDENTIAL_HEADERS = { "Authorization", "Cookie", "Cookie2" };
+    private static final Pattern IPV4_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private final int mMaxIdlePerHost;
+    private final long mKeepAliveMillis;
+    /**
+     * The transport used for requests sent through a proxy.
+     */
+    private final HttpTransport mFallback;
+    /**
+     * The idle connections by pool key, most recently used first.
+     */
+    private final Map<String, ArrayDeque<HttpConnection>> mIdle = new HashMap<>();
+    private long mRequests = 0L;
+    private long mOpened = 0L;
+    private long mReused = 0L;
+    private long mClosed = 0L;
+
+    /**
+     * Create a transport with the default pool settings and a {@link UrlConnectionTransport} fallback.
+     */
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS, new UrlConnectionTransport());
+    }
+
+    /**
+     * Create a transport with the specified pool settings.
+     * @param maxIdlePerHost the maximum number of idle connections kept per host, 0 to disable the reuse of connections.
+     * @param keepAliveMillis the maximum time a connection is kept idle, in milliseconds.
+     * @param fallback the transport used for the requests sent through a proxy.
+     */
+    public PooledHttpTransport(int maxIdlePerHost, long keepAliveMillis, HttpTransport fallback) {
+        this.mMaxIdlePerHost = maxIdlePerHost;
+        this.mKeepAliveMillis = keepAliveMillis;
+        this.mFallback = fallback;
+    }
+
+    @Override
+    public HttpTransportResponse send(HttpTransportRequest request) throws IOException {
+        URL url = request.getUrl();
+        if (isProxied(url)) {
+            return mFallback.send(request);
+        }
+        String method = request.getMethod();
+        byte[] body = request.getBody();
+        for (int redirects = 0; ; redirects++) {
+            PooledResponse response = execute(request, url, method, body);
+            int code = response.getStatusCode();
+            String location = response.getHeader("Location");
+            if (!request.isFollowRedirects() || (code < 300) || (code > 308) || (location == null) || (redirects >= MAX_REDIRECTS)) {
+                return response;
+            }
+            URL target = new URL(url, location);
+            // like HttpURLConnection, do not follow redirects to another protocol
+            if (!target.getProtocol().equalsIgnoreCase(url.getProtocol())) {
+                return response;
+            }
+            response.close();
+            if ((code == 303) || (((code == 301) || (code == 302)) && "POST".equals(method))) {
+                method = "GET";
+                body = null;
+            }
+            log.debug("following redirect " + code + " to " + target);
+            url = target;
+        }
+    }
+
+    /**
+     * Close all the idle connections.
+     */
+    @Override
+    public synchronized void shutdown() {
+        for (ArrayDeque<HttpConnection> connections: mIdle.values()) {
+            for (HttpConnection connection: connections) {
+                discard(connection);
+            }
+        }
+        mIdle.clear();
+    }
+
+    /**
+     * Get a snapshot of the usage counters of this transport.
+     */
+    public synchronized HttpPoolStats getStats() {
+        int idle = 0;
+        for (ArrayDeque<HttpConnection> connections: mIdle.values()) {
+            idle += connections.size();
+        }
+        return new HttpPoolStats(mRequests, mOpened, mReused, mClosed, idle);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + getStats().toString().substring(HttpPoolStats.class.getSimpleName().length());
+    }
+
+    /**
+     * Send a single request, on a pooled connection if there is one for the host.
+     */
+    private PooledResponse execute(HttpTransportRequest request, URL url, String method, byte[] body) throws IOException {
+        String key = poolKey(url, request);
+        HttpConnection connection = acquire(key);
+        if (connection != null) {
+            try {
+                return exchange(connection, request, url, method, body);
+            } catch (EOFException | SocketException e) {
+                discard(connection);
+                if (!isRetryable(method)) {
+                    throw e;
+                }
+                // the server most likely closed the connection while it was idle, before reading this request
+                log.debug("reused connection failed, retrying on a new one: " + e);
+            } catch (IOException e) {
+                discard(connection);
+                throw e;
+            }
+        }
+        connection = open(key, url, request);
+        try {
+            return exchange(connection, request, url, method, body);
+        } catch (IOException e) {
+            discard(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Determine whether a request which failed on a reused connection can be sent again without side effects.
+     */
+    private static boolean isRetryable(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * Write a request onto the specified connection, then read the head of its response.
+     */
+    private PooledResponse exchange(HttpConnection connection, HttpTransportRequest request, URL url, String method, byte[] body) throws IOException {
+        synchronized(this) {
+            mRequests++;
+            if (connection.mUseCount > 0) {
+                mReused++;
+            }
+        }
+        connection.mUseCount++;
+        connection.getSocket().setSoTimeout(request.getReadTimeout());
+        URI uri = toURI(url);
+        writeRequest(connection.getOutput(), request, uri, url, method, body);
+        String version;
+        int code;
+        Map<String, List<String>> headers;
+        do {
+            String status = connection.readLine();
+            String[] parts = status.split(" ", 3);
+            if ((parts.length < 2) || !parts[0].startsWith("HTTP/")) {
+                throw new ProtocolException("invalid status line: " + status);
+            }
+            version = parts[0];
+            try {
+                code = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("invalid status line: " + status);
+            }
+            headers = readHeaders(connection);
+            // interim responses, such as "100 Continue", are skipped
+        } while ((code >= 100) && (code < 200));
+        CookieHandler cookies = cookieHandler(request);
+        if ((cookies != null) && (uri != null)) {
+            cookies.put(uri, headers);
+        }
+        boolean reusable = isKeepAlive(version, headers.get("Connection"));
+        updateKeepAlive(connection, headers.get("Keep-Alive"));
+        InputStream in;
+        List<String> transferEncoding = headers.get("Transfer-Encoding");
+        List<String> contentLength = headers.get("Content-Length");
+        if ("HEAD".equals(method) || (code == 204) || (code == 304)) {
+            in = null;
+        } else if ((transferEncoding != null) && transferEncoding.get(transferEncoding.size() - 1).toLowerCase(Locale.US).contains("chunked")) {
+            in = new ChunkedInputStream(connection);
+        } else if (contentLength != null) {
+            try {
+                long length = Long.parseLong(contentLength.get(contentLength.size() - 1).trim());
+                in = (length > 0L) ? new FixedLengthInputStream(connection.getInput(), length) : null;
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("invalid content length: " + contentLength);
+            }
+        } else {
+            // the body ends when the server closes the connection
+            in = connection.getInput();
+            reusable = false;
+        }
+        return new PooledResponse(code, headers, connection, in, reusable);
+    }
+
+    private void writeRequest(OutputStream out, HttpTransportRequest request, URI uri, URL url, String method, byte[] body) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String target = url.getFile();
+        sb.append(method).append(' ').append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if ((url.getPort() >= 0) && (url.getPort() != url.getDefaultPort())) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append("\r\n");
+        boolean sameOrigin = isSameOrigin(url, request.getUrl());
+        for (Map.Entry<String, String> header: request.getHeaders().entrySet()) {
+            String name = header.getKey();
+            boolean content = name.regionMatches(true, 0, "Content-", 0, 8);
+            if (!isComputedHeader(name) && ((body != null) || !content) && (sameOrigin || !isCredentialHeader(name))) {
+                sb.append(name).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        CookieHandler cookies = cookieHandler(request);
+        if ((cookies != null) && (uri != null)) {
+            Map<String, List<String>> requestHeaders = new HashMap<>();
+            for (Map.Entry<String, String> header: request.getHeaders().entrySet()) {
+                List<String> values = new ArrayList<>(1);
+                values.add(header.getValue());
+                requestHeaders.put(header.getKey(), values);
+            }
+            for (Map.Entry<String, List<String>> entry: cookies.get(uri, requestHeaders).entrySet()) {
+                if (!entry.getValue().isEmpty() && ("Cookie".equalsIgnoreCase(entry.getKey()) || "Cookie2".equalsIgnoreCase(entry.getKey()))) {
+                    sb.append(entry.getKey()).append(": ");
+                    for (int i=0; i<entry.getValue().size(); i++) {
+                        sb.append((i > 0) ? "; " : "").append(entry.getValue().get(i));
+                    }
+                    sb.append("\r\n");
+                }
+            }
+        }
+        if (body != null) {
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        } else if ("POST".equals(method) || "PUT".equals(method)) {
+            sb.append("Content-Length: 0\r\n");
+        }
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    /**
+     * Get the cookie store of the specified request, which is the default one unless the request specifies its own.
+     */
+    private static CookieHandler cookieHandler(HttpTransportRequest request) {
+        return (request.getCookieHandler() != null) ? request.getCookieHandler() : CookieHandler.getDefault();
+    }
+
+    private static Map<String, List<String>> readHeaders(HttpConnection connection) throws IOException {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = connection.readLine()).length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new ProtocolException("invalid header line: " + line);
+            }
+            String name = line.substring(0, colon).trim();
+            List<String> values = headers.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                headers.put(name, values);
+            }
+            values.add(line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    private static boolean isComputedHeader(String name) {
+        for (String computed: COMPUTED_HEADERS) {
+            if (computed.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCredentialHeader(String name) {
+        for (String credential: CREDENTIAL_HEADERS) {
+            if (credential.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the specified URLs have the same scheme, host and port, in which case the credentials
+     * of a request to the first one may be sent to the second one after a redirect.
+     */
+    private static boolean isSameOrigin(URL url, URL other) {
+        int port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        int otherPort = (other.getPort() < 0) ? other.getDefaultPort() : other.getPort();
+        return url.getProtocol().equalsIgnoreCase(other.getProtocol()) && url.getHost().equalsIgnoreCase(other.getHost()) && (port == otherPort);
+    }
+
+    /**
+     * Determine whether the server keeps the connection alive after the response.
+     * @param version the HTTP version of the response.
+     * @param connection the values of the "Connection" header of the response, if any.
+     */
+    private static boolean isKeepAlive(String version, List<String> connection) {
+        if (connection != null) {
+            for (String value: connection) {
+                if ("close".equalsIgnoreCase(value)) {
+                    return false;
+                } else if ("keep-alive".equalsIgnoreCase(value)) {
+                    return true;
+                }
+            }
+        }
+        // connections are persistent by default only as of HTTP/1.1
+        return !"HTTP/1.0".equals(version);
+    }
+
+    /**
+     * Shorten the keep-alive time of the connection to the timeout advertised by the server, if any, and stop reusing
+     * the connection if the server does not accept more requests on it.
+     * @param connection the connection to update.
+     * @param keepAlive the values of the "Keep-Alive" header of the response, for instance "timeout=5, max=100".
+     */
+    private void updateKeepAlive(HttpConnection connection, List<String> keepAlive) {
+        if (keepAlive == null) {
+            return;
+        }
+        for (String value: keepAlive) {
+            for (String parameter: value.split(",")) {
+                String[] pair = parameter.trim().split("=", 2);
+                try {
+                    if ((pair.length == 2) && "timeout".equalsIgnoreCase(pair[0].trim())) {
+                        connection.mKeepAliveMillis = Math.min(mKeepAliveMillis, 1000L * Long.parseLong(pair[1].trim()));
+                    } else if ((pair.length == 2) && "max".equalsIgnoreCase(pair[0].trim()) && (Long.parseLong(pair[1].trim()) <= 1L)) {
+                        connection.mKeepAliveMillis = 0L;
+                    }
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether the default proxy selector routes the specified URL through a proxy.
+     */
+    private static boolean isProxied(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        URI uri = toURI(url);
+        if ((selector == null) || (uri == null)) {
+            return false;
+        }
+        List<Proxy> proxies = selector.select(uri);
+        return (proxies != null) && !proxies.isEmpty() && (proxies.get(0).type() != Proxy.Type.DIRECT);
+    }
+
+    private static URI toURI(URL url) {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compute the key of the pool of the connections to the host of the specified URL. Connections to the same host
+     * with different TLS settings are pooled separately.
+     */
+    private static String poolKey(URL url, HttpTransportRequest request) {
+        int port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        String key = url.getProtocol().toLowerCase(Locale.US) + "://" + url.getHost().toLowerCase(Locale.US) + ":" + port;
+        if ("https".equals(url.getProtocol().toLowerCase(Locale.US))) {
+            key += "#" + System.identityHashCode(request.getSSLSocketFactory()) + "#" + System.identityHashCode(request.getHostnameVerifier());
+        }
+        return key;
+    }
+
+    /**
+     * Open a new connection to the host of the specified URL, performing the TLS handshake if needed.
+     */
+    private HttpConnection open(String key, URL url, HttpTransportRequest request) throws IOException {
+        String host = url.getHost();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), request.getConnectTimeout());
+            socket.setTcpNoDelay(true);
+            if ("https".equalsIgnoreCase(url.getProtocol())) {
+                SSLSocketFactory factory = request.getSSLSocketFactory();
+                if (factory == null) {
+                    factory = HttpsURLConnection.getDefaultSSLSocketFactory();
+                }
+                HostnameVerifier verifier = request.getHostnameVerifier();
+                if (verifier == null) {
+                    verifier = HttpsURLConnection.getDefaultHostnameVerifier();
+                }
+                SSLSocket ssl = (SSLSocket) factory.createSocket(socket, host, port, true);
+                socket = ssl;
+                enableServerNameIndication(ssl, host);
+                ssl.setSoTimeout(request.getReadTimeout());
+                ssl.startHandshake();
+                if (!verifier.verify(host, ssl.getSession())) {
+                    throw new SSLPeerUnverifiedException("host name " + host + " could not be verified");
+                }
+            }
+            HttpConnection connection = new HttpConnection(key, socket, mKeepAliveMillis);
+            synchronized(this) {
+                mOpened++;
+            }
+            log.debug("opened connection to " + key);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send the specified host name in the TLS handshake, so that servers hosting several domains present the right certificate.
+     * The Android socket implementations only do it when asked through their {@code setHostname()} method,
+     * while the JSSE ones already use the host passed to {@link SSLSocketFactory#createSocket(Socket, String, int, boolean)}.
+     * @param ssl the socket, before its handshake.
+     * @param host the host name, which is not sent if it is an IP address.
+     */
+    private static void enableServerNameIndication(SSLSocket ssl, String host) {
+        if ((host.indexOf(':') >= 0) || IPV4_ADDRESS.matcher(host).matches()) {
+            return;
+        }
+        try {
+            Method method = ssl.getClass().getMethod("setHostname", String.class);
+            method.invoke(ssl, host);
+        } catch (NoSuchMethodException ignore) {
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            log.debug("could not set the SNI host name " + host + ": " + e);
+        }
+    }
+
+    /**
+     * Take the most recently used idle connection of the specified pool.
+     * @return the connection, or {@code null} if there is no reusable connection in the pool.
+     */
+    private synchronized HttpConnection acquire(String key) {
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        ArrayDeque<HttpConnection> connections = mIdle.get(key);
+        return (connections == null) ? null : connections.pollFirst();
+    }
+
+    /**
+     * Return the specified connection to its pool, closing the least recently used one if the pool is full.
+     */
+    private synchronized void release(HttpConnection connection) {
+        long now = System.currentTimeMillis();
+        connection.mIdleSince = now;
+        if (!connection.isReusable(now) || (mMaxIdlePerHost <= 0)) {
+            discard(connection);
+            return;
+        }
+        ArrayDeque<HttpConnection> connections = mIdle.get(connection.mKey);
+        if (connections == null) {
+            connections = new ArrayDeque<>(mMaxIdlePerHost);
+            mIdle.put(connection.mKey, connections);
+        }
+        connections.addFirst(connection);
+        while (connections.size() > mMaxIdlePerHost) {
+            discard(connections.pollLast());
+        }
+        evictExpired(now);
+    }
+
+    /**
+     * Close the idle connections which expired.
+     */
+    private synchronized void evictExpired(long now) {
+        Iterator<ArrayDeque<HttpConnection>> pools = mIdle.values().iterator();
+        while (pools.hasNext()) {
+            ArrayDeque<HttpConnection> connections = pools.next();
+            Iterator<HttpConnection> it = connections.iterator();
+            while (it.hasNext()) {
+                HttpConnection connection = it.next();
+                if (!connection.isReusable(now)) {
+                    it.remove();
+                    discard(connection);
+                }
+            }
+            if (connections.isEmpty()) {
+                pools.remove();
+            }
+        }
+    }
+
+    private synchronized void discard(HttpConnection connection) {
+        connection.close();
+        mClosed++;
+    }
+
+    /**
+     * A response read from a pooled connection, which returns the connection to the pool when it is closed
+     * after its body was consumed. A short remainder of the body, such as the final chunk, is skipped beforehand.
+     */
+    private class PooledResponse extends HttpTransportResponse {
+        private final HttpConnection mConnection;
+        /**
+         * The body stream, or {@code null} if the response has no body.
+         */
+        private final InputStream mBody;
+        private final boolean mReusable;
+        private boolean mClosed = false;
+
+        PooledResponse(int statusCode, Map<String, List<String>> headers, HttpConnection connection, InputStream body, boolean reusable) {
+            super(statusCode, headers);
+            this.mConnection = connection;
+            this.mBody = body;
+            this.mReusable = reusable;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mClosed) {
+                throw new IOException("response closed");
+            }
+            return (mBody == null) ? new ByteArrayInputStream(new byte[0]) : mBody;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mReusable && isBodyComplete()) {
+                release(mConnection);
+            } else {
+                discard(mConnection);
+            }
+        }
+
+        private boolean isBodyComplete() {
+            if (mBody == null) {
+                return true;
+            } else if (!(mBody instanceof HttpBodyInputStream)) {
+                return false;
+            }
+            HttpBodyInputStream body = (HttpBodyInputStream) mBody;
+            if (body.isComplete()) {
+                return true;
+            }
+            try {
+                mConnection.getSocket().setSoTimeout(DISCARD_TIMEOUT_MILLIS);
+            } catch (SocketException e) {
+                return false;
+            }
+            return body.discard(MAX_DISCARD_BYTES);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import com.ibm.mf.geofence.LoggingConfiguration;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Executes a request in a worker thread of the {@link RequestDispatcher}, then delivers its result
+ * with the {@link HttpService#getCallbackExecutor() callback executor} of the service.
+ * @param <T> the type of result returned by the request.
+ */
+class RequestCall<T> implements Runnable, Comparable<RequestCall<?>> {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(RequestCall.class.getSimpleName());
+    /**
+     * Maximum number of connection attemps.
+     */
+    private static final int MAX_TRIES = 3;
+    /**
+     * The request to execute.
+     */
+    final HttpRequest<T> mRequest;
+    /**
+     * The service which executes the request.
+     */
+    private final HttpService mService;
+    /**
+     * The result to return if the query succeeds.
+     */
+    private T mResult = null;
+    //private AERequestResult<T> result = null;
+    /**
+     * The error to return if the query fails.
+     */
+    private HttpRequestError mError = null;
+    int mStatusCode = -1;
+    int mNbTries = 0;
+    boolean mReauthenticationRequired = false;
+    /**
+     * The sequence number of this call, which orders the calls of the same priority.
+     */
+    long mSequence;
+
+    RequestCall(HttpService service, HttpRequest<T> request) {
+        this.mRequest = request;
+        this.mService = service;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (mRequest.isCancelled()) {
+                log.debug("skipping cancelled request " + this);
+                return;
+            }
+            execute();
+            deliver();
+        } finally {
+            mService.mDispatcher.finished(this);
+        }
+    }
+
+    /**
+     * Deliver an error to the callback of the request, without sending it.
+     * @param message the error message.
+     */
+    void reject(String message) {
+        mError = new HttpRequestError(-1, null, message);
+        deliver();
+    }
+
+    /**
+     * Order the calls by priority, then by order of submission.
+     */
+    @Override
+    public int compareTo(RequestCall<?> other) {
+        int c = mRequest.getPriority().compareTo(other.mRequest.getPriority());
+        return (c != 0) ? c : ((mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + mRequest.getMethod() + " " + mRequest.getPath() + ", priority=" + mRequest.getPriority() + "]";
+    }
+
+    private void execute() {
+        boolean done = false;
+        try {
+            StringBuilder sb = new StringBuilder();
+            String query = mRequest.buildQuery(mService);
+            sb.append(query);
+            URL url = new URL(sb.toString());
+            while (!done && (mNbTries < MAX_TRIES) && !mRequest.isCancelled()) {
+                mNbTries++;
+                log.debug("request attempt #" + mNbTries);
+                done = sendRequest(url);
+            }
+        } catch (ConnectException | SocketTimeoutException e) {
+            log.debug("detected loss of connectivity with the server", e);
+        } catch (Exception e) {
+            mError = new HttpRequestError(mStatusCode, e, e.getMessage());
+        }
+    }
+
+    private boolean sendRequest(URL url) throws Exception {
+        HttpTransportRequest request = mService.handleRequest(new HttpTransportRequest(url));
+        request.setCookieHandler(mService.getCookieManager());
+        request.setHeader(Utils.HTTP_HEADER_ACCEPT_LANGUAGE, Locale.getDefault().toString());
+        // the response body is decompressed here rather than by the transport, so the compressed bytes can be counted
+        request.setHeader(Utils.HTTP_HEADER_ACCEPT_ENCODING, Utils.ENCODING_GZIP);
+        mService.setUserAgentHeader(request);
+        log.debug("HTTP method = " + mRequest.getMethod() + ", request url = " + url + ", payload = " + mRequest.getPayload());
+        request.setFollowRedirects(true);
+        request.setConnectTimeout(30_000);
+        request.setReadTimeout(30_000);
+        if (mRequest.isBasicAuthRequired()) mService.setAuthHeader(request);
+        if (mRequest.mAccept != null) request.setHeader(Utils.HTTP_HEADER_ACCEPT, mRequest.mAccept);
+        if (mRequest.mIfNoneMatch != null) request.setHeader(Utils.HTTP_HEADER_IF_NONE_MATCH, mRequest.mIfNoneMatch);
+        if (mRequest.mIfModifiedSince != null) request.setHeader(Utils.HTTP_HEADER_IF_MODIFIED_SINCE, mRequest.mIfModifiedSince);
+        HttpMethod method = mRequest.getMethod();
+        request.setMethod(method.name());
+        if ((method == HttpMethod.POST) || (method == HttpMethod.PUT)) {
+            String payload = mRequest.getPayload();
+            log.debug(mRequest.getMethod() + " method request url = " + url + ", payload = " + payload);
+            if (payload != null && (payload.length() > 0)) {
+                byte[] bytes = payload.getBytes(Utils.UTF_8);
+                boolean gzip = mRequest.isCompressPayload() && (bytes.length >= HttpRequest.GZIP_PAYLOAD_THRESHOLD);
+                request.setHeader("Content-Type", "application/json");
+                if (gzip) request.setHeader(Utils.HTTP_HEADER_CONTENT_ENCODING, Utils.ENCODING_GZIP);
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(gzip ? bytes.length / 4 : bytes.length);
+                OutputStream out = gzip ? new GZIPOutputStream(buffer) : buffer;
+                out.write(bytes);
+                out.close();
+                request.setBody(buffer.toByteArray());
+                mRequest.mRequestBytes = buffer.size();
+                mRequest.mRequestBytesUncompressed = bytes.length;
+            }
+        }
+        Utils.logRequestHeaders(request);
+        HttpTransportResponse response;
+        try {
+            response = mService.getTransport().send(request);
+        } catch (ConnectException | SocketTimeoutException e) {
+            if (mNbTries >= MAX_TRIES) {
+                log.error("code " + mStatusCode + ", exception: ", e);
+            }
+            return false;
+        }
+        try {
+            mStatusCode = response.getStatusCode();
+            Utils.logResponseHeaders(response);
+            if (mStatusCode >= 400) {
+                mService.logErrorBody(response);
+                // if version is >= JellyBean and an authentication challenge is issued, then handle re-authentication and resend the request
+                if ((mStatusCode == 401) && !mReauthenticationRequired) {
+                    log.debug("re-authenticating due to auth challenge...");
+                    mReauthenticationRequired = true;
+                    return false;
+                } else {
+                    mError = new HttpRequestError(mStatusCode, null, "query failure");
+                }
+            }
+            if (mError == null) {
+                mRequest.mETag = response.getHeader(Utils.HTTP_HEADER_ETAG);
+                mRequest.mLastModified = response.getHeader(Utils.HTTP_HEADER_LAST_MODIFIED);
+                mRequest.mContentType = response.getContentType();
+            }
+            if ((mError == null) && (mStatusCode == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+                log.debug("content not modified since " + mRequest.mIfModifiedSince + ", etag=" + mRequest.mIfNoneMatch);
+                mResult = mRequest.resultFromNotModified();
+            } else if ((mError == null) && mRequest.isStreamingResponse()) {
+                InputStream in = openResponseBody(response);
+                try {
+                    mResult = mRequest.resultFromStream(in);
+                } finally {
+                    in.close();
+                    logTransferredBytes();
+                }
+            } else if (mError == null) {
+                InputStream in = openResponseBody(response);
+                byte[] body;
+                try {
+                    body = Utils.readBytes(in);
+                } finally {
+                    in.close();
+                    logTransferredBytes();
+                }
+                if (Utils.isTextResponseBody(response)) {
+                    String bodyStr = new String(body, Utils.UTF_8);
+                    log.debug("doInBackground() response body = " + bodyStr);
+                }
+                mResult = mRequest.resultFromResponse(body);
+            }
+        } finally {
+            response.close();
+        }
+        log.debug(String.format("status code for " + mRequest.getMethod() + " request = %d, url = %s", mStatusCode, url));
+        return true;
+    }
+
+    /**
+     * Open the body of the response, decompressing it if needed, and count the bytes it has before and after decompression.
+     * The counts are stored in the request once the returned stream is closed. Reading it fails once the request is cancelled.
+     * @param response the response whose body is opened.
+     * @return a stream of the decompressed response body.
+     * @throws IOException if any error occurs.
+     */
+    private InputStream openResponseBody(HttpTransportResponse response) throws IOException {
+        final CountingInputStream wire = new CountingInputStream(new BufferedInputStream(response.getBody())) {
+            @Override
+            public int read() throws IOException {
+                checkCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                checkCancelled();
+                return super.read(buffer, offset, length);
+            }
+        };
+        InputStream decoded = Utils.isGzipEncoded(response) ? new GZIPInputStream(wire) : wire;
+        return new CountingInputStream(decoded) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                mRequest.mResponseBytes = wire.getCount();
+                mRequest.mResponseBytesUncompressed = getCount();
+            }
+        };
+    }
+
+    /**
+     * Log the number of bytes transferred for the request, before and after compression.
+     */
+    private void logTransferredBytes() {
+        log.debug(String.format(Locale.US, "%s %s: sent %,d bytes (%,d uncompressed), received %,d bytes (%,d uncompressed)",
+            mRequest.getMethod(), mRequest.getPath(), mRequest.mRequestBytes, mRequest.mRequestBytesUncompressed,
+            mRequest.mResponseBytes, mRequest.mResponseBytesUncompressed));
+        log.debug("transport: " + mService.getTransport());
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (mRequest.isCancelled()) {
+            throw new InterruptedIOException("request cancelled");
+        }
+    }
+
+    /**
+     * Invoke the callback of the request with its result or error, unless it was cancelled meanwhile.
+     */
+    private void deliver() {
+        if (mRequest.isCancelled() || ((mError == null) && (mResult == null))) {
+            return;
+        }
+        mService.getCallbackExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequest.isCancelled()) {
+                    return;
+                }
+                HttpRequestCallback<T> callback = mRequest.getCallback();
+                if (mError != null) {
+                    callback.onError(mError);
+                } else if (mResult != null) {
+                    callback.onSuccess(mResult);
+                }
+            }
+        });
+    }
+}
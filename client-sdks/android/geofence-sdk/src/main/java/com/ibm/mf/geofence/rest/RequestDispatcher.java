@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import com.ibm.mf.geofence.LoggingConfiguration;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches the requests of a {@link HttpService} to a bounded number of worker threads, by {@link HttpRequestPriority priority}.
+ * <p>Requests of the same priority are sent in the order they were submitted. When more than one request may run at once,
+ * the last worker is reserved for {@link HttpRequestPriority#HIGH high priority} requests, so that a long synchronization
+ * never delays the notification of a geofence event. The queue is bounded as well: when it is full, the least urgent
+ * and most recent request is rejected with an error.
+ */
+final class RequestDispatcher {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger log = LoggingConfiguration.getLogger(RequestDispatcher.class.getSimpleName());
+    /**
+     * Default maximum number of requests sent at once.
+     */
+    static final int DEFAULT_MAX_CONCURRENT = 3;
+    /**
+     * Maximum number of queued requests.
+     */
+    static final int MAX_QUEUED = 64;
+    /**
+     * The worker threads, whose number is bounded by the dispatcher rather than by the pool itself.
+     */
+    private final ExecutorService mWorkers;
+    /**
+     * The requests waiting for a worker, most urgent first.
+     */
+    private final PriorityQueue<RequestCall<?>> mQueued = new PriorityQueue<>();
+    /**
+     * The requests being sent.
+     */
+    private final Set<RequestCall<?>> mRunning = new HashSet<>();
+    private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+    /**
+     * The sequence number of the next submitted request.
+     */
+    private long mSequence = 0L;
+
+    RequestDispatcher() {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpService-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        mWorkers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory);
+    }
+
+    /**
+     * Get the maximum number of requests sent at once.
+     */
+    synchronized int getMaxConcurrent() {
+        return mMaxConcurrent;
+    }
+
+    /**
+     * Set the maximum number of requests sent at once.
+     * @param maxConcurrent a value of at least 1. If it is greater than 1, one of the requests is reserved for the high priority ones.
+     */
+    void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("the maximum number of concurrent requests must be at least 1: " + maxConcurrent);
+        }
+        synchronized(this) {
+            mMaxConcurrent = maxConcurrent;
+        }
+        promote();
+    }
+
+    /**
+     * Queue the specified call, then start it if a worker is available for its priority.
+     * @param call the call to queue.
+     */
+    void enqueue(RequestCall<?> call) {
+        RequestCall<?> rejected = null;
+        synchronized(this) {
+            call.mSequence = mSequence++;
+            if (mQueued.size() >= MAX_QUEUED) {
+                // reject the least urgent call, the most recent one among equals
+                rejected = call;
+                for (RequestCall<?> queued: mQueued) {
+                    if (queued.compareTo(rejected) > 0) {
+                        rejected = queued;
+                    }
+                }
+                mQueued.remove(rejected);
+            }
+            if (rejected != call) {
+                mQueued.add(call);
+            }
+        }
+        if (rejected != null) {
+            log.debug("queue full, rejecting " + rejected);
+            rejected.reject("too many queued requests");
+        }
+        promote();
+    }
+
+    /**
+     * Notify this dispatcher that the specified call is complete, so the next queued call may start.
+     * @param call the call which completed.
+     */
+    void finished(RequestCall<?> call) {
+        synchronized(this) {
+            mRunning.remove(call);
+        }
+        promote();
+    }
+
+    /**
+     * Remove the specified request from the queue.
+     * @param request the request, which is already marked as cancelled.
+     * @return {@code true} if the request was queued, {@code false} if it is running or already complete.
+     */
+    synchronized boolean dequeue(HttpRequest<?> request) {
+        Iterator<RequestCall<?>> it = mQueued.iterator();
+        while (it.hasNext()) {
+            if (it.next().mRequest == request) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancel all the queued and running requests.
+     * @return the number of cancelled requests.
+     */
+    synchronized int cancelAll() {
+        int count = mQueued.size() + mRunning.size();
+        for (RequestCall<?> call: mQueued) {
+            call.mRequest.cancel();
+        }
+        for (RequestCall<?> call: mRunning) {
+            call.mRequest.cancel();
+        }
+        mQueued.clear();
+        return count;
+    }
+
+    /**
+     * Start as many queued calls as the workers available for their priority allow.
+     */
+    private void promote() {
+        List<RequestCall<?>> started = new ArrayList<>();
+        synchronized(this) {
+            while (!mQueued.isEmpty() && (mRunning.size() < mMaxConcurrent)) {
+                RequestCall<?> call = mQueued.peek();
+                boolean reserved = (mMaxConcurrent > 1) && (mRunning.size() >= mMaxConcurrent - 1);
+                if (reserved && (call.mRequest.getPriority() != HttpRequestPriority.HIGH)) {
+                    break;
+                }
+                mQueued.poll();
+                mRunning.add(call);
+                started.add(call);
+            }
+        }
+        for (RequestCall<?> call: started) {
+            mWorkers.execute(call);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s[running=%d, queued=%d, maxConcurrent=%d]", getClass().getSimpleName(), mRunning.size(), mQueued.size(), mMaxConcurrent);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieHandler;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * A {@link HttpTransport} which sends each request with a new {@link HttpURLConnection}, thus relying on the connection
+ * reuse of the platform, if any. The cookie store of a request, if any, is applied along with the default one.
+ * It is the fallback of {@link PooledHttpTransport} for requests sent through a proxy.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    @Override
+    public HttpTransportResponse send(HttpTransportRequest request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            if (request.getSSLSocketFactory() != null) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(request.getSSLSocketFactory());
+            }
+            if (request.getHostnameVerifier() != null) {
+                ((HttpsURLConnection) connection).setHostnameVerifier(request.getHostnameVerifier());
+            }
+        }
+        connection.setInstanceFollowRedirects(request.isFollowRedirects());
+        connection.setConnectTimeout(request.getConnectTimeout());
+        connection.setReadTimeout(request.getReadTimeout());
+        connection.setRequestMethod(request.getMethod());
+        for (Map.Entry<String, String> header: request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        CookieHandler cookies = request.getCookieHandler();
+        URI uri = null;
+        if (cookies != null) {
+            try {
+                uri = request.getUrl().toURI();
+            } catch (URISyntaxException e) {
+                throw new IOException(e.getMessage());
+            }
+            for (Map.Entry<String, List<String>> entry: cookies.get(uri, connection.getRequestProperties()).entrySet()) {
+                for (String value: entry.getValue()) {
+                    connection.addRequestProperty(entry.getKey(), value);
+                }
+            }
+        }
+        byte[] body = request.getBody();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+        }
+        int statusCode;
+        try {
+            statusCode = connection.getResponseCode();
+        } catch (IOException e) {
+            // workaround for issue described at http://stackoverflow.com/q/17121213
+            statusCode = connection.getResponseCode();
+        }
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header: connection.getHeaderFields().entrySet()) {
+            // the status line is mapped to a null key
+            if (header.getKey() != null) {
+                headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+            }
+        }
+        if (cookies != null) {
+            cookies.put(uri, headers);
+        }
+        final boolean error = statusCode >= 400;
+        return new HttpTransportResponse(statusCode, headers) {
+            private InputStream mBody;
+
+            @Override
+            public synchronized InputStream getBody() throws IOException {
+                if (mBody == null) {
+                    mBody = error ? connection.getErrorStream() : connection.getInputStream();
+                    if (mBody == null) {
+                        mBody = new ByteArrayInputStream(new byte[0]);
+                    }
+                }
+                return mBody;
+            }
+
+            /**
+             * The connection is not disconnected, so that the platform can keep it alive.
+             */
+            @Override
+            public synchronized void close() {
+                try {
+                    getBody().close();
+                } catch (IOException ignore) {
+                }
+            }
+        };
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
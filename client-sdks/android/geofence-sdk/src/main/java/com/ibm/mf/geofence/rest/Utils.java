@@ -33,6 +33,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.zip.GZIPInputStream;
 
 /**
  * This class is package-protected so as not to be exposed to clients.
@@ -50,7 +51,15 @@ final class Utils {
     final static String AUTHENTICATION_CHALLENGE_HEADER = "WWW-Authenticate";
     // HTTP connection stuff
     static final String HTTP_HEADER_USER_AGENT = "User-Agent";
+    static final String HTTP_HEADER_ACCEPT = "Accept";
     static final String HTTP_HEADER_ACCEPT_LANGUAGE = "Accept-Language";
+    static final String HTTP_HEADER_ETAG = "ETag";
+    static final String HTTP_HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HTTP_HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HTTP_HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String HTTP_HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String HTTP_HEADER_CONTENT_ENCODING = "Content-Encoding";
+    static final String ENCODING_GZIP = "gzip";
     /**
      * Default resource bundle base name for localization.
      */
@@ -146,25 +155,46 @@ final class Utils {
         return !((type == null) || (!type.contains("application/json") && !type.contains("text/html")));
     }
 
+    /**
+     * Determine whether the response contains text data, based on the "Content-Type" header.
+     * @param response the response to check.
+     * @return <code>true</code> if the response contains text data, <code>false</code> otherwise.
+     */
+    static boolean isTextResponseBody(HttpTransportResponse response) {
+        String type = response.getContentType();
+        log.debug("response content type = [" + type + "]");
+        return !((type == null) || (!type.contains("application/json") && !type.contains("text/html")));
+    }
+
     /**
      * Extract the error of an HTTP response as a string.
-     * @param connection the connection to read from.
-     * @return the string extracted from the connection's error stream.
+     * @param response the response to read from.
+     * @return the string extracted from the response body.
      * @throws Exception if any error occurs.
      */
-    static String readErrorBody(HttpURLConnection connection) throws Exception {
-        return readString(new BufferedInputStream(connection.getErrorStream()));
+    static String readErrorBody(HttpTransportResponse response) throws Exception {
+        InputStream in = new BufferedInputStream(response.getBody());
+        return readString(isGzipEncoded(response) ? new GZIPInputStream(in) : in);
+    }
+
+    /**
+     * Determine whether the response body is compressed with gzip, based on the "Content-Encoding" header.
+     * @param response the response to check.
+     * @return <code>true</code> if the response body is gzip-compressed, <code>false</code> otherwise.
+     */
+    static boolean isGzipEncoded(HttpTransportResponse response) {
+        return ENCODING_GZIP.equalsIgnoreCase(response.getContentEncoding());
     }
 
     /**
      * Print the HTTP request headers to Logcat. This method is for tracing and debugging purposes only.
-     * @param connection the HTTP connection from which to extract the headers.
+     * @param request the HTTP request from which to extract the headers.
      * @throws Exception if any error occurs.
      */
-    static void logRequestHeaders(HttpURLConnection connection) throws Exception {
+    static void logRequestHeaders(HttpTransportRequest request) throws Exception {
         StringBuilder sb = new StringBuilder();
-        Map<String, List<String>> headers = connection.getRequestProperties();
-        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+        Map<String, String> headers = request.getHeaders();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
             sb.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
         }
         log.debug("request header:\n" + sb.toString());
@@ -172,12 +202,12 @@ final class Utils {
 
     /**
      * Print the HTTP reponse headers to Logcat. This method is for tracing and debugging purposes only.
-     * @param connection the HTTP connection from which to extract the headers.
+     * @param response the HTTP response from which to extract the headers.
      * @throws Exception if any error occurs.
      */
-    static void logResponseHeaders(HttpURLConnection connection) throws Exception {
+    static void logResponseHeaders(HttpTransportResponse response) throws Exception {
         try {
-            Map<String, List<String>> headers = connection.getHeaderFields();
+            Map<String, List<String>> headers = response.getHeaders();
             if (headers != null) {
                 StringBuilder sb = new StringBuilder();
                 for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ChunkedInClauseTest {
+    @Test
+    public void generatesOnePlaceholderPerValue() {
+        assertEquals("M_CODE in (?)", ChunkedInClause.clause("M_CODE", 1));
+        assertEquals("M_CODE in (?, ?, ?, ?)", ChunkedInClause.clause("M_CODE", 4));
+        assertEquals("ID in (?, ?)", ChunkedInClause.clause("ID", 2));
+    }
+
+    @Test
+    public void cachesTheClauses() {
+        String clause = ChunkedInClause.clause("M_NAME", ChunkedInClause.MAX_CHUNK_SIZE);
+        assertSame(clause, ChunkedInClause.clause("M_NAME", ChunkedInClause.MAX_CHUNK_SIZE));
+    }
+
+    @Test
+    public void padsChunksToAPowerOfTwoWithTheirLastValue() {
+        String[] values = { "a", "b", "c", "d", "e" };
+        assertArrayEquals(new String[] { "a", "b", "c", "d", "e", "e", "e", "e" }, ChunkedInClause.chunk(values, 0));
+        assertArrayEquals(new String[] { "d", "e" }, ChunkedInClause.chunk(values, 3));
+        assertArrayEquals(new String[] { "e" }, ChunkedInClause.chunk(values, 4));
+    }
+
+    @Test
+    public void splitsValuesIntoChunksOfAtMostTheMaximumSize() {
+        String[] values = new String[ChunkedInClause.MAX_CHUNK_SIZE + 3];
+        for (int i=0; i<values.length; i++) {
+            values[i] = "code" + i;
+        }
+        String[] first = ChunkedInClause.chunk(values, 0);
+        assertEquals(ChunkedInClause.MAX_CHUNK_SIZE, first.length);
+        assertArrayEquals(Arrays.copyOf(values, ChunkedInClause.MAX_CHUNK_SIZE), first);
+        String[] second = ChunkedInClause.chunk(values, ChunkedInClause.MAX_CHUNK_SIZE);
+        assertArrayEquals(new String[] { "code512", "code513", "code514", "code514" }, second);
+    }
+
+    @Test
+    public void removesDuplicatesKeepingTheFirstOccurrence() {
+        assertArrayEquals(new String[] { "b", "a", "c" }, ChunkedInClause.distinct(Arrays.asList("b", "a", "b", "c", "a")));
+    }
+}
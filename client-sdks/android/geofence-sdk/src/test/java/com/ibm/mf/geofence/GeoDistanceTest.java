@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoDistanceTest {
+    @Test
+    public void computesGreatCircleDistances() {
+        // Paris to London, about 343.5 km
+        assertEquals(343_556d, GeoDistance.haversine(48.856614, 2.3522219, 51.5073509, -0.1277583), 100d);
+        // a quarter of the equator
+        assertEquals(Math.PI * GeoDistance.EARTH_RADIUS / 2d, GeoDistance.haversine(0d, 0d, 0d, 90d), 1e-6d);
+        // antipodes
+        assertEquals(Math.PI * GeoDistance.EARTH_RADIUS, GeoDistance.haversine(0d, 0d, 0d, 180d), 1e-6d);
+        assertEquals(0d, GeoDistance.haversine(45d, 45d, 45d, 45d), 0d);
+    }
+
+    @Test
+    public void approximatesTheHaversineDistanceUpTo100Km() {
+        double[] latitudes = { 0d, 30d, 45d, -60d, 70d };
+        double[] bearings = { 0d, 45d, 90d, 135d, 200d };
+        for (double lat : latitudes) {
+            for (double bearing : bearings) {
+                for (double km = 1d; km <= 100d; km *= 10d) {
+                    double dLat = km * 1000d * Math.cos(Math.toRadians(bearing)) / GeoDistance.EARTH_RADIUS;
+                    double dLng = km * 1000d * Math.sin(Math.toRadians(bearing)) / (GeoDistance.EARTH_RADIUS * Math.cos(Math.toRadians(lat)));
+                    double lat2 = lat + Math.toDegrees(dLat);
+                    double lng2 = 10d + Math.toDegrees(dLng);
+                    double exact = GeoDistance.haversine(lat, 10d, lat2, lng2);
+                    double approx = GeoDistance.equirectangular(lat, 10d, lat2, lng2);
+                    assertTrue(lat + "/" + bearing + "/" + km, Math.abs(approx - exact) / exact < 1e-4d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void takesTheShortestWayAcrossTheAntimeridian() {
+        double across = GeoDistance.equirectangular(10d, 179.9d, 10d, -179.9d);
+        assertEquals(GeoDistance.haversine(10d, 179.9d, 10d, -179.9d), across, 1d);
+        assertEquals(across, GeoDistance.equirectangular(10d, -179.9d, 10d, 179.9d), 1e-9d);
+    }
+
+    @Test
+    public void convertsSquaredDistancesToMeters() {
+        double squared = GeoDistance.squaredEquirectangular(40d, -74d, 40.1d, -73.9d);
+        assertEquals(GeoDistance.equirectangular(40d, -74d, 40.1d, -73.9d), GeoDistance.fromSquaredEquirectangular(squared), 1e-9d);
+        // monotonic with the distance
+        assertTrue(squared < GeoDistance.squaredEquirectangular(40d, -74d, 40.2d, -73.9d));
+    }
+}
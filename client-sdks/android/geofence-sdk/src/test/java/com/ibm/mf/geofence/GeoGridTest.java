@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoGridTest {
+    private static final long LAST_COLUMN = GeoGrid.COLUMNS - 1;
+
+    @Test
+    public void numbersTheCellsRowByRowFromTheSouthWest() {
+        assertEquals(0L, GeoGrid.cellKey(-90d, -180d));
+        assertEquals((long) GeoGrid.ROWS * GeoGrid.COLUMNS - 1L, GeoGrid.cellKey(90d, 179.99d));
+        assertEquals(1800L * GeoGrid.COLUMNS + 3600L, GeoGrid.cellKey(0d, 0d));
+        // the antimeridian belongs to the first column as -180, and to the last one as 180, where the boxes crossing it end
+        assertEquals(GeoGrid.cellKey(10d, 0d) - GeoGrid.COLUMNS / 2, GeoGrid.cellKey(10d, -180d));
+        assertEquals(GeoGrid.cellKey(10d, -180d) + LAST_COLUMN, GeoGrid.cellKey(10d, 180d));
+        // other longitudes beyond the range are wrapped
+        assertEquals(GeoGrid.cellKey(10d, -170d), GeoGrid.cellKey(10d, 190d));
+    }
+
+    @Test
+    public void findsAGeofenceOnTheAntimeridianFromBothSides() {
+        long key = GeoGrid.cellKey(10d, 180d);
+        for (double lng: new double[] { 179.99d, -179.99d }) {
+            boolean found = false;
+            for (double[] box: GeoQueryPlanner.plan(10d, lng, 5_000d)) {
+                long[] ranges = GeoGrid.cellRanges(box[0], box[1], box[2], box[3]);
+                for (int i=0; i<ranges.length; i+=2) {
+                    found |= (key >= ranges[i]) && (key <= ranges[i + 1]);
+                }
+            }
+            assertTrue("from " + lng, found);
+        }
+    }
+
+    @Test
+    public void returnsOneRangePerRow() {
+        long[] ranges = GeoGrid.cellRanges(0.01d, 0.11d, 2.01d, 2.06d);
+        assertArrayEquals(new long[] {
+            1800L * GeoGrid.COLUMNS + 3640L, 1800L * GeoGrid.COLUMNS + 3641L,
+            1801L * GeoGrid.COLUMNS + 3640L, 1801L * GeoGrid.COLUMNS + 3641L,
+            1802L * GeoGrid.COLUMNS + 3640L, 1802L * GeoGrid.COLUMNS + 3641L }, ranges);
+    }
+
+    @Test
+    public void returnsASingleCellForAPoint() {
+        long key = GeoGrid.cellKey(12.5d, -3.25d);
+        assertArrayEquals(new long[] { key, key }, GeoGrid.cellRanges(12.5d, 12.5d, -3.25d, -3.25d));
+    }
+
+    @Test
+    public void coversTheEastAndWestHalvesOfABoxSplitAtTheAntimeridian() {
+        double[][] boxes = GeoQueryPlanner.plan(10d, 179.99d, 5_000d);
+        long[] east = GeoGrid.cellRanges(boxes[0][0], boxes[0][1], boxes[0][2], boxes[0][3]);
+        long[] west = GeoGrid.cellRanges(boxes[1][0], boxes[1][1], boxes[1][2], boxes[1][3]);
+        int row0 = GeoGrid.row(boxes[0][0]);
+        int nbRows = GeoGrid.row(boxes[0][1]) - row0 + 1;
+        assertEquals(2 * nbRows, east.length);
+        assertEquals(2 * nbRows, west.length);
+        for (int i=0; i<nbRows; i++) {
+            long rowStart = (long) (row0 + i) * GeoGrid.COLUMNS;
+            // 180 is the end of the row rather than the first column
+            assertArrayEquals(new long[] { rowStart + GeoGrid.column(boxes[0][2]), rowStart + LAST_COLUMN }, new long[] { east[2 * i], east[2 * i + 1] });
+            assertArrayEquals(new long[] { rowStart, rowStart + GeoGrid.column(boxes[1][3]) }, new long[] { west[2 * i], west[2 * i + 1] });
+        }
+    }
+
+    @Test
+    public void clampsTheRowsAtThePoles() {
+        long[] north = GeoGrid.cellRanges(89.96d, 90d, -180d, 180d);
+        assertArrayEquals(new long[] { (GeoGrid.ROWS - 1L) * GeoGrid.COLUMNS, (long) GeoGrid.ROWS * GeoGrid.COLUMNS - 1L }, north);
+        long[] south = GeoGrid.cellRanges(-90d, -89.96d, -180d, 180d);
+        assertArrayEquals(new long[] { 0L, LAST_COLUMN }, south);
+        long[] all = GeoGrid.cellRanges(-90d, 90d, -180d, 180d);
+        assertArrayEquals(new long[] { 0L, (long) GeoGrid.ROWS * GeoGrid.COLUMNS - 1L }, all);
+    }
+
+    @Test
+    public void mergesTheRangesOfTallBoxes() {
+        double maxLat = GeoGrid.CELL_SIZE * (GeoGrid.MAX_RANGES + 0.5d);
+        assertEquals(GeoGrid.MAX_RANGES + 1, GeoGrid.row(maxLat) - GeoGrid.row(0d) + 1);
+        long[] ranges = GeoGrid.cellRanges(0d, maxLat, 2d, 2.1d);
+        assertArrayEquals(new long[] { GeoGrid.cellKey(0d, 2d), GeoGrid.cellKey(maxLat, 2.1d) }, ranges);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeoPolygonTest {
+    @Test
+    public void containsPointsOfASquare() throws Exception {
+        GeoPolygon polygon = GeoPolygon.fromCoordinates("[[[2,48],[3,48],[3,49],[2,49],[2,48]]]");
+        assertTrue(polygon.contains(48.5d, 2.5d));
+        assertFalse(polygon.contains(47.9d, 2.5d));
+        assertFalse(polygon.contains(48.5d, 3.1d));
+        assertFalse(polygon.contains(49.5d, 1.5d));
+    }
+
+    @Test
+    public void excludesHoles() throws Exception {
+        GeoPolygon polygon = GeoPolygon.fromCoordinates(
+            "[[[0,0],[10,0],[10,10],[0,10],[0,0]],[[4,4],[6,4],[6,6],[4,6],[4,4]]]");
+        assertTrue(polygon.contains(2d, 2d));
+        assertTrue(polygon.contains(5d, 8d));
+        assertFalse(polygon.contains(5d, 5d));
+        assertFalse(polygon.contains(11d, 5d));
+    }
+
+    @Test
+    public void containsPointsOfAConcavePolygon() throws Exception {
+        // a U shape open to the north
+        GeoPolygon polygon = GeoPolygon.fromCoordinates("[[[0,0],[3,0],[3,3],[2,3],[2,1],[1,1],[1,3],[0,3],[0,0]]]");
+        assertTrue(polygon.contains(2d, 0.5d));
+        assertTrue(polygon.contains(2d, 2.5d));
+        assertFalse(polygon.contains(2d, 1.5d));
+        assertTrue(polygon.contains(0.5d, 1.5d));
+    }
+
+    @Test
+    public void supportsPolygonsCrossingTheAntimeridian() throws Exception {
+        GeoPolygon polygon = GeoPolygon.fromCoordinates("[[[179,-1],[-179,-1],[-179,1],[179,1],[179,-1]]]");
+        assertTrue(polygon.contains(0d, 179.5d));
+        assertTrue(polygon.contains(0d, -179.5d));
+        assertTrue(polygon.contains(0d, 180d));
+        assertFalse(polygon.contains(0d, 178.5d));
+        assertFalse(polygon.contains(0d, -178.5d));
+        assertFalse(polygon.contains(0d, 0d));
+    }
+
+    @Test
+    public void matchesABruteForceRayCastOnAStarPolygon() {
+        // many vertices, so that the edges are spread across many slabs
+        int n = 1000;
+        double[][] ring = new double[n + 1][];
+        Random random = new Random(7L);
+        for (int i=0; i<n; i++) {
+            double angle = 2d * Math.PI * i / n;
+            double r = ((i % 2) == 0) ? 0.01d : 0.002d + 0.006d * random.nextDouble();
+            ring[i] = new double[] { 5d + r * Math.cos(angle), 45d + r * Math.sin(angle) };
+        }
+        ring[n] = ring[0];
+        GeoPolygon polygon = new GeoPolygon(new double[][][] { ring });
+        int inside = 0;
+        for (int k=0; k<5000; k++) {
+            double lat = 45d + (random.nextDouble() - 0.5d) * 0.022d;
+            double lng = 5d + (random.nextDouble() - 0.5d) * 0.022d;
+            boolean expected = rayCast(ring, lat, lng);
+            assertEquals("at (" + lat + ", " + lng + ")", expected, polygon.contains(lat, lng));
+            if (expected) {
+                inside++;
+            }
+        }
+        assertTrue(inside > 0);
+    }
+
+    @Test
+    public void boundingCircleContainsAllVertices() throws Exception {
+        GeoPolygon polygon = GeoPolygon.fromCoordinates("[[[2,48],[2.01,48],[2.01,48.02],[2,48.02],[2,48]]]");
+        double[] circle = polygon.boundingCircle();
+        assertEquals(48.01d, circle[0], 1e-9d);
+        assertEquals(2.005d, circle[1], 1e-9d);
+        assertEquals(GeoDistance.haversine(circle[0], circle[1], 48d, 2d), circle[2], 1e-6d);
+    }
+
+    /**
+     * Plain even-odd ray cast over all the edges of a ring of {@code [longitude, latitude]} positions.
+     */
+    private static boolean rayCast(double[][] ring, double lat, double lng) {
+        boolean inside = false;
+        for (int i=0; i<ring.length - 1; i++) {
+            double[] p1 = ring[i];
+            double[] p2 = ring[i + 1];
+            if ((p1[1] > lat) != (p2[1] > lat)) {
+                double x = p1[0] + (lat - p1[1]) * (p2[0] - p1[0]) / (p2[1] - p1[1]);
+                if (lng < x) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+}
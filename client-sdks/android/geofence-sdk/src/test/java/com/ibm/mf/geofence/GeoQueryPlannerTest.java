@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoQueryPlannerTest {
+    private static final double DELTA = 1e-9d;
+
+    @Test
+    public void keepsASingleBoxAwayFromTheAntimeridianAndThePoles() {
+        double[][] boxes = GeoQueryPlanner.plan(48.85d, 2.35d, 10_000d);
+        assertEquals(1, boxes.length);
+        double dLat = Math.toDegrees(10_000d / GeoDistance.EARTH_RADIUS);
+        assertEquals(48.85d - dLat, boxes[0][0], DELTA);
+        assertEquals(48.85d + dLat, boxes[0][1], DELTA);
+        // wider in longitude than in latitude at this latitude
+        assertTrue(boxes[0][3] - 2.35d > dLat);
+        assertEquals(2.35d, (boxes[0][2] + boxes[0][3]) / 2d, DELTA);
+    }
+
+    @Test
+    public void splitsABoxCrossingTheAntimeridianEastward() {
+        double[][] boxes = GeoQueryPlanner.plan(10d, 179.99d, 5_000d);
+        assertEquals(2, boxes.length);
+        double dLng = 179.99d - boxes[0][2];
+        assertEquals(180d, boxes[0][3], 0d);
+        assertEquals(-180d, boxes[1][2], 0d);
+        assertEquals(179.99d + dLng - 360d, boxes[1][3], DELTA);
+        assertEquals(boxes[0][0], boxes[1][0], 0d);
+        assertEquals(boxes[0][1], boxes[1][1], 0d);
+    }
+
+    @Test
+    public void splitsABoxCrossingTheAntimeridianWestward() {
+        double[][] boxes = GeoQueryPlanner.plan(-10d, -179.99d, 5_000d);
+        assertEquals(2, boxes.length);
+        double dLng = boxes[1][3] + 179.99d;
+        assertEquals(-179.99d - dLng + 360d, boxes[0][2], DELTA);
+        assertEquals(180d, boxes[0][3], 0d);
+        assertEquals(-180d, boxes[1][2], 0d);
+    }
+
+    @Test
+    public void normalizesTheLongitude() {
+        assertArrayEquals(GeoQueryPlanner.plan(10d, -170d, 5_000d)[0], GeoQueryPlanner.plan(10d, 190d, 5_000d)[0], DELTA);
+        assertArrayEquals(GeoQueryPlanner.plan(10d, 170d, 5_000d)[0], GeoQueryPlanner.plan(10d, -550d, 5_000d)[0], DELTA);
+        assertEquals(-180d, GeoQueryPlanner.normalizeLongitude(-180d), 0d);
+        assertEquals(180d, GeoQueryPlanner.normalizeLongitude(180d), 0d);
+    }
+
+    @Test
+    public void coversAllLongitudesWhenTheAreaTouchesAPole() {
+        assertArrayEquals(new double[] { 89.99d - Math.toDegrees(5_000d / GeoDistance.EARTH_RADIUS), 90d, -180d, 180d },
+            GeoQueryPlanner.plan(89.99d, 45d, 5_000d)[0], DELTA);
+        assertArrayEquals(new double[] { -90d, -89.99d + Math.toDegrees(5_000d / GeoDistance.EARTH_RADIUS), -180d, 180d },
+            GeoQueryPlanner.plan(-89.99d, 45d, 5_000d)[0], DELTA);
+        // at the pole itself, even with a zero radius
+        assertArrayEquals(new double[] { 90d, 90d, -180d, 180d }, GeoQueryPlanner.plan(90d, 0d, 0d)[0], 0d);
+        assertArrayEquals(new double[] { -90d, -90d, -180d, 180d }, GeoQueryPlanner.plan(-90d, 123d, 0d)[0], 0d);
+    }
+
+    @Test
+    public void handlesDegenerateRadiuses() {
+        // a zero radius is a point
+        assertArrayEquals(new double[] { 12.5d, 12.5d, -3.25d, -3.25d }, GeoQueryPlanner.plan(12.5d, -3.25d, 0d)[0], 0d);
+        // a negative radius is treated as zero
+        assertArrayEquals(new double[] { 12.5d, 12.5d, -3.25d, -3.25d }, GeoQueryPlanner.plan(12.5d, -3.25d, -100d)[0], 0d);
+        // a radius larger than the Earth covers it all
+        assertArrayEquals(new double[] { -90d, 90d, -180d, 180d }, GeoQueryPlanner.plan(0d, 0d, 40_000_000d)[0], 0d);
+        assertArrayEquals(new double[] { -90d, 90d, -180d, 180d }, GeoQueryPlanner.plan(0d, 0d, Double.POSITIVE_INFINITY)[0], 0d);
+    }
+
+    @Test
+    public void coversEveryCellWithinTheRadius() {
+        Random random = new Random(11L);
+        for (int run=0; run<500; run++) {
+            double lat = (run % 3 == 0) ? 85d + 5d * random.nextDouble() : 20d * random.nextDouble() - 10d;
+            lat = random.nextBoolean() ? lat : -lat;
+            double lng = (random.nextBoolean() ? 179.9d : -179.9d) + 0.2d * random.nextDouble() - 0.1d;
+            double radius = 200_000d * random.nextDouble();
+            double[][] boxes = GeoQueryPlanner.plan(lat, lng, radius);
+            for (int p=0; p<50; p++) {
+                // a random point within the radius
+                double bearing = 2d * Math.PI * random.nextDouble();
+                double angular = radius * random.nextDouble() / GeoDistance.EARTH_RADIUS;
+                double phi1 = Math.toRadians(lat);
+                double phi2 = Math.asin(Math.sin(phi1) * Math.cos(angular) + Math.cos(phi1) * Math.sin(angular) * Math.cos(bearing));
+                double lambda2 = Math.toRadians(lng) + Math.atan2(Math.sin(bearing) * Math.sin(angular) * Math.cos(phi1),
+                    Math.cos(angular) - Math.sin(phi1) * Math.sin(phi2));
+                double pLat = Math.toDegrees(phi2);
+                double pLng = GeoQueryPlanner.normalizeLongitude(Math.toDegrees(lambda2));
+                long key = GeoGrid.cellKey(pLat, pLng);
+                boolean covered = false;
+                for (double[] box: boxes) {
+                    long[] ranges = GeoGrid.cellRanges(box[0], box[1], box[2], box[3]);
+                    for (int i=0; i<ranges.length; i+=2) {
+                        covered |= (key >= ranges[i]) && (key <= ranges[i + 1]);
+                    }
+                }
+                assertTrue(String.format("%f,%f within %f m of %f,%f", pLat, pLng, radius, lat, lng), covered);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoTilesTest {
+    /**
+     * Length of a degree of latitude in meters.
+     */
+    private static final double DEGREE = Math.toRadians(1d) * GeoDistance.EARTH_RADIUS;
+
+    @Test
+    public void numbersTheTilesFromTheSouthWestCorner() {
+        assertEquals(0L, GeoTiles.tileKey(-90d, -180d));
+        assertEquals(1L, GeoTiles.tileKey(-90d, -179.75d));
+        assertEquals(GeoTiles.COLUMNS, GeoTiles.tileKey(-89.75d, -180d));
+        assertEquals(360L * GeoTiles.COLUMNS + 720L, GeoTiles.tileKey(0d, 0d));
+        assertEquals(360L * GeoTiles.COLUMNS + 719L, GeoTiles.tileKey(0.1d, -0.1d));
+        assertEquals(359L * GeoTiles.COLUMNS + 720L, GeoTiles.tileKey(-0.1d, 0.1d));
+    }
+
+    @Test
+    public void includesTheNorthernAndEasternEdgesInTheLastTiles() {
+        assertEquals(GeoTiles.ROWS - 1, GeoTiles.row(90d));
+        assertEquals(GeoTiles.COLUMNS - 1, GeoTiles.column(180d));
+        assertEquals((long) GeoTiles.ROWS * GeoTiles.COLUMNS - 1L, GeoTiles.tileKey(90d, 180d));
+        // longitudes are normalized
+        assertEquals(GeoTiles.column(-170d), GeoTiles.column(190d));
+    }
+
+    @Test
+    public void computesTheBoundsOfATile() {
+        assertArrayEquals(new double[] { 0d, 0.25d, 0d, 0.25d }, GeoTiles.bounds(GeoTiles.tileKey(0.1d, 0.1d)), 1e-9d);
+        assertArrayEquals(new double[] { -90d, -89.75d, -180d, -179.75d }, GeoTiles.bounds(0L), 1e-9d);
+        assertArrayEquals(new double[] { 89.75d, 90d, 179.75d, 180d }, GeoTiles.bounds(GeoTiles.tileKey(90d, 180d)), 1e-9d);
+    }
+
+    @Test
+    public void computesTheDistanceToTheEdgeOfATile() {
+        long tile = GeoTiles.tileKey(0.1d, 0.1d);
+        assertEquals(0d, GeoTiles.distanceToEdge(tile, 0.1d, 0.1d), 0d);
+        assertEquals(0.01d * DEGREE, GeoTiles.distanceToEdge(tile, 0.125d, -0.01d), 1d);
+        assertEquals(0.05d * DEGREE, GeoTiles.distanceToEdge(tile, 0.3d, 0.1d), 1d);
+        // the nearest edge is on the other side of the antimeridian
+        assertEquals(0.01d * DEGREE, GeoTiles.distanceToEdge(GeoTiles.tileKey(0.1d, 179.9d), 0.1d, -179.99d), 1d);
+        assertEquals(0.01d * DEGREE, GeoTiles.distanceToEdge(GeoTiles.tileKey(0.1d, -179.9d), 0.1d, 179.99d), 1d);
+    }
+
+    @Test
+    public void startsTheTilesAroundALocationWithItsTile() {
+        Set<Long> tiles = GeoTiles.tilesAround(0.1d, 0.1d, 1_000d);
+        assertEquals(1, tiles.size());
+        assertEquals(GeoTiles.tileKey(0.1d, 0.1d), (long) tiles.iterator().next());
+        tiles = GeoTiles.tilesAround(0.125d, 0.125d, 20_000d);
+        assertEquals(9, tiles.size());
+        assertEquals(GeoTiles.tileKey(0.125d, 0.125d), (long) tiles.iterator().next());
+        assertTrue(tiles.contains(GeoTiles.tileKey(-0.1d, -0.1d)));
+        assertTrue(tiles.contains(GeoTiles.tileKey(0.3d, 0.3d)));
+    }
+
+    @Test
+    public void coversTheTilesAcrossTheAntimeridian() {
+        Set<Long> tiles = GeoTiles.tilesAround(0.01d, 179.99d, 5_000d);
+        assertEquals(4, tiles.size());
+        assertTrue(tiles.contains(GeoTiles.tileKey(0.01d, 179.99d)));
+        assertTrue(tiles.contains(GeoTiles.tileKey(0.01d, -179.99d)));
+        assertTrue(tiles.contains(GeoTiles.tileKey(-0.01d, 179.99d)));
+        assertTrue(tiles.contains(GeoTiles.tileKey(-0.01d, -179.99d)));
+    }
+}
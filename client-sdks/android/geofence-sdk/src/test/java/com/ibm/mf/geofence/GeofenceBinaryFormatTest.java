@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeofenceBinaryFormatTest {
+    /**
+     * Tolerance on the decoded coordinates, which are encoded in units of 1e-7 degree.
+     */
+    private static final double DEGREE_DELTA = 1e-7d;
+
+    @Test
+    public void decodesTheListingProducedByTheServerEncoder() throws Exception {
+        JSONObject json = new JSONObject(new String(TestResources.read("/geofences.json"), "UTF-8"));
+        JSONArray features = json.getJSONArray("features");
+        GeofenceBinaryFormat decoder = new GeofenceBinaryFormat(new ByteArrayInputStream(TestResources.read("/geofences.bin")));
+        JSONObject properties = decoder.readHeader();
+        assertEquals(json.getJSONObject("properties").toString(), properties.toString());
+        assertEquals(features.length(), decoder.readCount());
+        for (int i=0; i<features.length(); i++) {
+            PersistentGeofence expected = GeofencingJSONUtils.parseGeofence(features.getJSONObject(i));
+            PersistentGeofence actual = decoder.readGeofence();
+            assertEquals(expected.getCode(), actual.getCode());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getDescription(), actual.getDescription());
+            assertEquals(expected.getCode(), expected.getLatitude(), actual.getLatitude(), DEGREE_DELTA);
+            assertEquals(expected.getCode(), expected.getLongitude(), actual.getLongitude(), DEGREE_DELTA);
+            assertEquals(expected.getCode(), expected.getRadius(), actual.getRadius(), 0.01d);
+            assertEquals(expected.isPolygon(), actual.isPolygon());
+            if (expected.isPolygon()) {
+                assertRingsEqual(GeoPolygon.toRings(expected.getPolygon()), GeoPolygon.toRings(actual.getPolygon()));
+            }
+        }
+    }
+
+    @Test
+    public void measuresBothEncodingsOfTheSharedListing() throws Exception {
+        SyncFormatBenchmark.Result result = SyncFormatBenchmark.measure(TestResources.read("/geofences.json"), TestResources.read("/geofences.bin"));
+        assertEquals(result.mJsonGeofences, result.mBinaryGeofences);
+        assertTrue(result.toString(), result.mBinaryBytes < result.mJsonBytes);
+        assertTrue(result.toString(), result.mBinaryGzipBytes < result.mJsonGzipBytes);
+        assertTrue(result.toString(), (result.mJsonMillis >= 0d) && (result.mBinaryMillis >= 0d));
+    }
+
+    @Test
+    public void decodesVarintsAndZigzagDeltas() throws Exception {
+        ByteArrayOutputStream out = header(2);
+        geofence(out, 1L, 0L, 0L, 0);
+        // 179.9999999 then -179.9999999 degrees: a delta of -3,599,999,998 units, beyond 32 bits once zigzag-encoded
+        zigzag(out, 1_799_999_999L);
+        zigzag(out, -1L);
+        zigzag(out, 30_000L);
+        geofence(out, 0L, 0L, 0L, 0);
+        zigzag(out, -3_599_999_998L);
+        zigzag(out, 900_000_001L);
+        zigzag(out, 0L);
+        GeofenceBinaryFormat decoder = new GeofenceBinaryFormat(new ByteArrayInputStream(out.toByteArray()));
+        decoder.readHeader();
+        assertEquals(2, decoder.readCount());
+        PersistentGeofence g = decoder.readGeofence();
+        assertEquals("a", g.getCode());
+        assertNull(g.getName());
+        assertEquals(179.9999999d, g.getLongitude(), DEGREE_DELTA);
+        assertEquals(-0.0000001d, g.getLatitude(), DEGREE_DELTA);
+        assertEquals(300d, g.getRadius(), 0d);
+        g = decoder.readGeofence();
+        assertNull(g.getCode());
+        assertEquals(-179.9999999d, g.getLongitude(), DEGREE_DELTA);
+        assertEquals(90d, g.getLatitude(), DEGREE_DELTA);
+        assertEquals(0d, g.getRadius(), 0d);
+    }
+
+    @Test
+    public void decodesMultiByteCounts() throws Exception {
+        ByteArrayOutputStream out = header(300);
+        GeofenceBinaryFormat decoder = new GeofenceBinaryFormat(new ByteArrayInputStream(out.toByteArray()));
+        decoder.readHeader();
+        assertEquals(300, decoder.readCount());
+    }
+
+    @Test
+    public void detectsTheMagicBytesWithoutConsumingTheStream() throws Exception {
+        InputStream binary = new BufferedInputStream(new ByteArrayInputStream(TestResources.read("/geofences.bin")));
+        assertTrue(GeofenceBinaryFormat.isBinary(binary));
+        assertEquals('M', binary.read());
+        InputStream json = new BufferedInputStream(new ByteArrayInputStream(TestResources.read("/geofences.json")));
+        assertFalse(GeofenceBinaryFormat.isBinary(json));
+        assertEquals('{', json.read());
+        assertFalse(GeofenceBinaryFormat.isBinary(new BufferedInputStream(new ByteArrayInputStream(new byte[] { 'M', 'F' }))));
+    }
+
+    @Test
+    public void rejectsAnUnsupportedVersion() throws Exception {
+        byte[] bytes = header(0).toByteArray();
+        bytes[GeofenceBinaryFormat.MAGIC.length]++;
+        try {
+            new GeofenceBinaryFormat(new ByteArrayInputStream(bytes)).readHeader();
+            fail("the version should be rejected");
+        } catch(IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void rejectsAnInvalidStringIndex() throws Exception {
+        ByteArrayOutputStream out = header(1);
+        geofence(out, 2L, 0L, 0L, 0);
+        GeofenceBinaryFormat decoder = new GeofenceBinaryFormat(new ByteArrayInputStream(out.toByteArray()));
+        decoder.readHeader();
+        decoder.readCount();
+        try {
+            decoder.readGeofence();
+            fail("the string index should be rejected");
+        } catch(IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("index"));
+        }
+    }
+
+    /**
+     * Write the header of a listing with empty properties and a string table holding {@code "a"}, followed by the count of geofences.
+     */
+    private static ByteArrayOutputStream header(long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(GeofenceBinaryFormat.MAGIC);
+        out.write(GeofenceBinaryFormat.VERSION);
+        varint(out, 2L);
+        out.write("{}".getBytes("UTF-8"));
+        varint(out, 1L);
+        varint(out, 1L);
+        out.write('a');
+        varint(out, count);
+        return out;
+    }
+
+    /**
+     * Write the string references and the geometry type of a geofence.
+     */
+    private static void geofence(ByteArrayOutputStream out, long code, long name, long description, int type) {
+        varint(out, code);
+        varint(out, name);
+        varint(out, description);
+        out.write(type);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long n) {
+        while ((n & ~0x7FL) != 0L) {
+            out.write((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    private static void zigzag(ByteArrayOutputStream out, long n) {
+        varint(out, (n << 1) ^ (n >> 63));
+    }
+
+    private static void assertRingsEqual(double[][][] expected, double[][][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int r=0; r<expected.length; r++) {
+            assertEquals(expected[r].length, actual[r].length);
+            for (int i=0; i<expected[r].length; i++) {
+                assertEquals(expected[r][i][0], actual[r][i][0], DEGREE_DELTA);
+                assertEquals(expected[r][i][1], actual[r][i][1], DEGREE_DELTA);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeofenceBundleImporterTest {
+    /**
+     * Decodes entries of the form {@code delay|code=name,code=name}, waiting for the specified number of milliseconds.
+     */
+    private static final GeofenceBundleImporter.EntryDecoder TEXT_DECODER = new GeofenceBundleImporter.EntryDecoder() {
+        @Override
+        public List<PersistentGeofence> decode(String name, InputStream in) throws Exception {
+            String content = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+            String[] parts = content.split("\\|");
+            Thread.sleep(Long.parseLong(parts[0]));
+            if ((parts.length < 2) || parts[1].equals("fail")) {
+                throw new IOException("cannot decode " + name);
+            }
+            List<PersistentGeofence> geofences = new ArrayList<>();
+            for (String geofence: parts[1].split(",")) {
+                String[] codeAndName = geofence.split("=");
+                geofences.add(new PersistentGeofence(codeAndName[0], codeAndName[1], null, 0d, 0d, 10d));
+            }
+            return geofences;
+        }
+    };
+
+    @Test
+    public void mergesTheEntriesInBundleOrder() throws Exception {
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore();
+        final List<Integer> decodedEntries = new ArrayList<>();
+        GeofenceBundleImporter.Progress progress = new GeofenceBundleImporter.Progress() {
+            @Override
+            public void update(int decoded, int decodedGeofences, int writtenGeofences, int totalGeofences) {
+                if (totalGeofences < 0) {
+                    decodedEntries.add(decoded);
+                }
+            }
+        };
+        // the first entry is decoded last
+        byte[] bundle = zip("60|a=0,b=0", "30|b=1,c=1", "0|a=2,d=2");
+        GeofenceList list = new GeofenceBundleImporter(3, progress, store, TEXT_DECODER).importBundle(new ByteArrayInputStream(bundle), "bundle");
+        assertEquals(Arrays.asList(1, 2, 3), decodedEntries);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), list.getGeofenceCodes());
+        // a geofence in several entries is taken from the last one
+        assertEquals(Arrays.asList("2", "1", "1", "2"), names(store.find(list.getGeofenceCodes())));
+    }
+
+    @Test
+    public void deletesTheLocalGeofencesMissingFromTheBundle() throws Exception {
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore(Arrays.asList(geofence("x"), geofence("a"), geofence("y")));
+        byte[] bundle = zip("0|a=1", "0|b=1");
+        GeofenceList list = new GeofenceBundleImporter(2, null, store, TEXT_DECODER).importBundle(new ByteArrayInputStream(bundle), "bundle");
+        assertEquals(Arrays.asList("x", "y"), sorted(list.getDeletedGeofenceCodes()));
+        assertEquals(Arrays.asList("a", "b"), sorted(store.codes()));
+        assertEquals(Collections.singletonList("1"), names(store.find(Collections.singletonList("a"))));
+    }
+
+    @Test
+    public void leavesTheStoreUnchangedWhenAnEntryCannotBeDecoded() throws Exception {
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore(Arrays.asList(geofence("x"), geofence("a")));
+        byte[] bundle = zip("0|a=1", "10|fail", "0|b=1");
+        try {
+            new GeofenceBundleImporter(2, null, store, TEXT_DECODER).importBundle(new ByteArrayInputStream(bundle), "bundle");
+            fail("the import should fail");
+        } catch(IOException e) {
+            assertEquals("cannot decode bundle/entry1", e.getMessage());
+        }
+        assertEquals(Arrays.asList("a", "x"), sorted(store.codes()));
+        assertEquals(Collections.singletonList("a"), names(store.find(Collections.singletonList("a"))));
+    }
+
+    @Test
+    public void rejectsABundleWithoutEntries() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        zos.putNextEntry(new ZipEntry("directory/"));
+        zos.closeEntry();
+        zos.close();
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore(Collections.singletonList(geofence("x")));
+        try {
+            new GeofenceBundleImporter(1, null, store, TEXT_DECODER).importBundle(new ByteArrayInputStream(bytes.toByteArray()), "bundle");
+            fail("the import should fail");
+        } catch(IOException e) {
+            assertEquals("the bundle bundle has no entry", e.getMessage());
+        }
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void boundsThePendingEntries() throws Exception {
+        for (int nbThreads=1; nbThreads<=3; nbThreads++) {
+            assertEquals(2 * nbThreads, maxPendingEntries(nbThreads, 4 * nbThreads + 2));
+        }
+    }
+
+    @Test
+    public void importsBinaryEntries() throws Exception {
+        byte[] binary = TestResources.read("/geofences.bin");
+        List<PersistentGeofence> expected = GeofenceBundleImporter.FORMAT_DECODER.decode("geofences.bin", new ByteArrayInputStream(binary));
+        assertTrue(expected.size() > 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        for (int i=0; i<2; i++) {
+            zos.putNextEntry(new ZipEntry("geofences" + i + ".bin"));
+            zos.write(binary);
+            zos.closeEntry();
+        }
+        zos.close();
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore(Collections.singletonList(geofence("x")));
+        GeofenceList list = new GeofenceBundleImporter(2, null, store, GeofenceBundleImporter.FORMAT_DECODER)
+            .importBundle(new ByteArrayInputStream(bytes.toByteArray()), "bundle");
+        assertEquals(codes(expected), list.getGeofenceCodes());
+        assertEquals(Collections.singletonList("x"), list.getDeletedGeofenceCodes());
+        assertEquals(expected.size(), store.size());
+    }
+
+    /**
+     * Import a bundle of slowly decoded entries and track how many entries were read but not yet merged.
+     * @return the largest number of entries read but not merged.
+     */
+    private static int maxPendingEntries(int nbThreads, int nbEntries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        // an entry counts as read once the bytes well into its data were read, beyond the read-ahead of the zip stream
+        long[] markers = new long[nbEntries];
+        Random random = new Random(nbEntries);
+        for (int i=0; i<nbEntries; i++) {
+            zos.putNextEntry(new ZipEntry("entry" + i));
+            markers[i] = bytes.size() + 4096L;
+            zos.write(("20|g" + i + "=" + i + "|").getBytes("UTF-8"));
+            // incompressible padding, so the compressed entry is as large as its content
+            byte[] padding = new byte[16 * 1024];
+            random.nextBytes(padding);
+            zos.write(padding);
+            zos.closeEntry();
+        }
+        zos.close();
+        PendingTracker tracker = new PendingTracker(new ByteArrayInputStream(bytes.toByteArray()), markers);
+        GeofenceList list = new GeofenceBundleImporter(nbThreads, tracker, new InMemoryGeofenceStore(), TEXT_DECODER).importBundle(tracker, "bundle");
+        assertEquals(nbEntries, list.getGeofenceCodes().size());
+        assertEquals(nbEntries, tracker.mNextEntry);
+        return tracker.mMaxPending;
+    }
+
+    /**
+     * Counts the entries read from a bundle and those merged by the importer, both on the importing thread.
+     */
+    private static final class PendingTracker extends FilterInputStream implements GeofenceBundleImporter.Progress {
+        private final long[] mMarkers;
+        private long mPosition = 0L;
+        private int mNextEntry = 0;
+        private int mMerged = 0;
+        private int mMaxPending = 0;
+
+        PendingTracker(InputStream in, long[] markers) {
+            super(in);
+            this.mMarkers = markers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                advance(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void update(int decodedEntries, int decodedGeofences, int writtenGeofences, int totalGeofences) {
+            if (totalGeofences < 0) {
+                mMerged = decodedEntries;
+            }
+        }
+
+        private void advance(int n) {
+            mPosition += n;
+            while ((mNextEntry < mMarkers.length) && (mPosition > mMarkers[mNextEntry])) {
+                mNextEntry++;
+                mMaxPending = Math.max(mMaxPending, mNextEntry - mMerged);
+            }
+        }
+    }
+
+    /**
+     * Create a bundle with the specified entry contents.
+     */
+    private static byte[] zip(String... contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        for (int i=0; i<contents.length; i++) {
+            zos.putNextEntry(new ZipEntry("entry" + i));
+            zos.write(contents[i].getBytes("UTF-8"));
+            zos.closeEntry();
+        }
+        zos.close();
+        return bytes.toByteArray();
+    }
+
+    private static PersistentGeofence geofence(String code) {
+        return new PersistentGeofence(code, code, null, 0d, 0d, 10d);
+    }
+
+    private static List<String> codes(List<PersistentGeofence> geofences) {
+        List<String> codes = new ArrayList<>(geofences.size());
+        for (PersistentGeofence geofence: geofences) {
+            codes.add(geofence.getCode());
+        }
+        return codes;
+    }
+
+    private static List<String> names(List<PersistentGeofence> geofences) {
+        List<String> names = new ArrayList<>(geofences.size());
+        for (PersistentGeofence geofence: geofences) {
+            names.add(geofence.getName());
+        }
+        return names;
+    }
+
+    private static List<String> sorted(Collection<String> codes) {
+        List<String> result = new ArrayList<>(codes);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GeofenceCacheTest {
+    private InMemoryGeofenceStore mDatabase;
+
+    @Before
+    public void setUp() {
+        GeofenceCache.clear();
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        for (int i=0; i<GeofenceCache.CAPACITY + 10; i++) {
+            geofences.add(geofence("g" + i, "v1"));
+        }
+        mDatabase = new InMemoryGeofenceStore(geofences);
+    }
+
+    @Test
+    public void servesTheCachedGeofencesWithoutQueryingTheDatabase() {
+        CountingStore database = new CountingStore(mDatabase);
+        assertEquals(codes("g1", "g0"), codes(GeofenceCache.get(codes("g1", "g0", "unknown"), null, database)));
+        assertEquals(1, database.mQueries);
+        long hits = GeofenceCache.hitCount();
+        assertEquals(codes("g0", "g1"), codes(GeofenceCache.get(codes("g0", "g1"), null, database)));
+        assertEquals(1, database.mQueries);
+        assertEquals(hits + 2, GeofenceCache.hitCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedGeofences() {
+        CountingStore database = new CountingStore(mDatabase);
+        GeofenceCache.get(codes("g0"), null, database);
+        for (int i=1; i<GeofenceCache.CAPACITY; i++) {
+            GeofenceCache.get(codes("g" + i), null, database);
+        }
+        assertEquals(GeofenceCache.CAPACITY, GeofenceCache.size());
+        // g0 becomes the most recently used, so g1 is evicted by the next geofence
+        GeofenceCache.get(codes("g0"), null, database);
+        GeofenceCache.get(codes("g" + GeofenceCache.CAPACITY), null, database);
+        assertEquals(GeofenceCache.CAPACITY, GeofenceCache.size());
+        int queries = database.mQueries;
+        GeofenceCache.get(codes("g0", "g2"), null, database);
+        assertEquals(queries, database.mQueries);
+        GeofenceCache.get(codes("g1"), null, database);
+        assertEquals(queries + 1, database.mQueries);
+    }
+
+    @Test
+    public void reloadsInvalidatedGeofences() {
+        GeofenceCache.get(codes("g0", "g1"), null, mDatabase);
+        mDatabase.upsert(Collections.singletonList(geofence("g0", "v2")));
+        GeofenceCache.invalidate(codes("g0"));
+        List<PersistentGeofence> result = GeofenceCache.get(codes("g0", "g1"), null, mDatabase);
+        assertEquals("v2", result.get(0).getName());
+        assertEquals(2, GeofenceCache.size());
+    }
+
+    @Test
+    public void doesNotCacheGeofencesReadBeforeAnInvalidation() {
+        // a synchronization updates g0 and invalidates it while the cache is reading the previous version from the database
+        GeofenceStore database = new CountingStore(mDatabase) {
+            @Override
+            public List<PersistentGeofence> find(Collection<String> codes) {
+                List<PersistentGeofence> result = super.find(codes);
+                mDatabase.upsert(Collections.singletonList(geofence("g0", "v2")));
+                GeofenceCache.invalidate(Collections.singleton("g0"));
+                return result;
+            }
+        };
+        assertEquals("v1", GeofenceCache.get(codes("g0"), null, database).get(0).getName());
+        assertEquals(0, GeofenceCache.size());
+        assertEquals("v2", GeofenceCache.get(codes("g0"), null, mDatabase).get(0).getName());
+        assertEquals(1, GeofenceCache.size());
+    }
+
+    @Test
+    public void doesNotCacheTheGeofencesOfTheFallbackStore() {
+        InMemoryGeofenceStore fallback = new InMemoryGeofenceStore(Collections.singletonList(geofence("g0", "snapshot")));
+        List<PersistentGeofence> result = GeofenceCache.get(codes("g0", "g1"), fallback, mDatabase);
+        assertEquals("snapshot", result.get(0).getName());
+        assertEquals("v1", result.get(1).getName());
+        assertEquals(1, GeofenceCache.size());
+    }
+
+    private static PersistentGeofence geofence(String code, String name) {
+        return new PersistentGeofence(code, name, null, 10d, 20d, 100d);
+    }
+
+    private static List<String> codes(String... codes) {
+        return Arrays.asList(codes);
+    }
+
+    private static List<String> codes(List<PersistentGeofence> geofences) {
+        return GeofencingUtils.geofencesToCodes(geofences);
+    }
+
+    /**
+     * A store which counts the lookups of the geofences of another store.
+     */
+    private static class CountingStore implements GeofenceStore {
+        private final GeofenceStore mDelegate;
+        int mQueries = 0;
+
+        CountingStore(GeofenceStore delegate) {
+            this.mDelegate = delegate;
+        }
+
+        @Override
+        public void upsert(List<PersistentGeofence> geofences) {
+            mDelegate.upsert(geofences);
+        }
+
+        @Override
+        public List<String> delete(Collection<String> codes) {
+            return mDelegate.delete(codes);
+        }
+
+        @Override
+        public List<PersistentGeofence> find(Collection<String> codes) {
+            mQueries++;
+            return mDelegate.find(codes);
+        }
+
+        @Override
+        public Collection<String> codes() {
+            return mDelegate.codes();
+        }
+
+        @Override
+        public List<String> codesInTile(long tileKey) {
+            return mDelegate.codesInTile(tileKey);
+        }
+
+        @Override
+        public List<PersistentGeofence> nearest(double lat, double lng, double radius, KNearestSelector selector) {
+            return mDelegate.nearest(lat, lng, radius, selector);
+        }
+
+        @Override
+        public int size() {
+            return mDelegate.size();
+        }
+
+        @Override
+        public Iterator<PersistentGeofence> iterator() {
+            return mDelegate.iterator();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GeofenceDensityTest {
+    /**
+     * Height of a grid cell in meters, which is also its width at the equator.
+     */
+    private static final double CELL_HEIGHT = Math.toRadians(GeoGrid.CELL_SIZE) * GeoDistance.EARTH_RADIUS;
+
+    @Test
+    public void countsTheGeofencesOfEachCell() {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        geofences.add(geofence(0, 0.01d, 0.01d));
+        geofences.add(geofence(1, 0.04d, 0.02d));
+        geofences.add(geofence(2, 0.06d, 0.01d));
+        GeofenceDensity density = GeofenceDensity.fromTree(new GeofenceRTree(geofences));
+        assertEquals(2, density.count(GeoGrid.cellKey(0.01d, 0.01d)));
+        assertEquals(1, density.count(GeoGrid.cellKey(0.06d, 0.01d)));
+        assertEquals(0, density.count(GeoGrid.cellKey(-0.01d, 0.01d)));
+    }
+
+    @Test
+    public void derivesTheRadiusFromAUniformDensity() {
+        // one geofence per cell around the equator: the circle holding 100 geofences has an area of 100 cells
+        GeofenceDensity density = GeofenceDensity.fromTree(new GeofenceRTree(grid(20, 1)));
+        double expected = Math.sqrt(100d * CELL_HEIGHT * CELL_HEIGHT / Math.PI);
+        assertEquals(expected, density.estimateRadius(0.025d, 0.025d, 100, 100_000d), 1d);
+        // twice as many geofences per cell, the same number of geofences fits in half the area
+        density = GeofenceDensity.fromTree(new GeofenceRTree(grid(20, 2)));
+        assertEquals(expected / Math.sqrt(2d), density.estimateRadius(0.025d, 0.025d, 100, 100_000d), 1d);
+    }
+
+    @Test
+    public void boundsTheRadius() {
+        // a dense area returns the minimum radius
+        GeofenceDensity density = GeofenceDensity.fromTree(new GeofenceRTree(grid(2, 200)));
+        assertEquals(GeofenceDensity.MIN_RADIUS, density.estimateRadius(0.025d, 0.025d, 1, 100_000d), 0d);
+        density = GeofenceDensity.fromTree(new GeofenceRTree(grid(20, 1)));
+        // the maximum radius is returned when it is smaller than the estimate
+        assertEquals(10_000d, density.estimateRadius(0.025d, 0.025d, 100, 10_000d), 0d);
+        // or when there are not enough geofences within it
+        assertEquals(50_000d, density.estimateRadius(45d, 45d, 100, 50_000d), 0d);
+    }
+
+    @Test
+    public void countsTheCellsAcrossTheAntimeridian() {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        for (int i=0; i<9; i++) {
+            geofences.add(geofence(i, 0.025d, 179.975d));
+        }
+        GeofenceDensity density = GeofenceDensity.fromTree(new GeofenceRTree(geofences));
+        // the geofences are in the next cell to the west: the first ring of 9 cells holds them
+        double expected = Math.sqrt(9d * CELL_HEIGHT * CELL_HEIGHT / Math.PI);
+        assertEquals(expected, density.estimateRadius(0.025d, -179.975d, 9, 100_000d), 1d);
+    }
+
+    /**
+     * Create the specified number of geofences at the center of each cell within {@code halfSize} cells of the origin.
+     */
+    private static List<PersistentGeofence> grid(int halfSize, int perCell) {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        int n = 0;
+        for (int row=-halfSize; row<halfSize; row++) {
+            for (int col=-halfSize; col<halfSize; col++) {
+                for (int i=0; i<perCell; i++) {
+                    geofences.add(geofence(n++, (row + 0.5d) * GeoGrid.CELL_SIZE, (col + 0.5d) * GeoGrid.CELL_SIZE));
+                }
+            }
+        }
+        return geofences;
+    }
+
+    private static PersistentGeofence geofence(int index, double lat, double lng) {
+        return new PersistentGeofence("g" + index, null, null, lat, lng, 10d);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the digest tree against the vectors shared with the server tests, so that both sides compute the same digests.
+ */
+public class GeofenceDigestTreeTest {
+    private JSONObject mVectors;
+    private List<PersistentGeofence> mGeofences;
+
+    @Before
+    public void setUp() throws Exception {
+        mVectors = new JSONObject(new String(TestResources.read("/geofence-digests.json"), "UTF-8"));
+        JSONArray features = mVectors.getJSONArray("features");
+        mGeofences = new ArrayList<>(features.length());
+        for (int i=0; i<features.length(); i++) {
+            mGeofences.add(GeofencingJSONUtils.parseGeofence(features.getJSONObject(i)));
+        }
+    }
+
+    @Test
+    public void recordsMatchTheServer() throws Exception {
+        JSONObject records = mVectors.getJSONObject("records");
+        assertEquals(records.length(), mGeofences.size());
+        for (PersistentGeofence geofence: mGeofences) {
+            assertEquals(geofence.getCode(), records.getString(geofence.getCode()), GeofenceDigestTree.record(geofence));
+        }
+    }
+
+    @Test
+    public void tileDigestsMatchTheServer() throws Exception {
+        GeofenceDigestTree tree = GeofenceDigestTree.build(mGeofences);
+        JSONArray tiles = mVectors.getJSONArray("tiles");
+        assertEquals(tiles.length(), tree.tilesUnder(GeofenceDigestTree.ROOT).size());
+        for (int i=0; i<tiles.length(); i++) {
+            JSONObject tile = tiles.getJSONObject(i);
+            long key = GeofenceDigestTree.nodeKey(tile.getInt("level"), tile.getInt("row"), tile.getInt("column"));
+            assertEquals(tile.toString(), tile.getString("digest"), tree.digest(key));
+        }
+    }
+
+    @Test
+    public void rootDigestMatchesTheServer() throws Exception {
+        GeofenceDigestTree tree = GeofenceDigestTree.build(mGeofences);
+        assertEquals(mVectors.getString("root"), tree.digest(GeofenceDigestTree.ROOT));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GeofenceMergerTest {
+    @Test
+    public void fullListingReplacesTheStoreContent() throws Exception {
+        InMemoryGeofenceStore store = store("a", "b", "c");
+        GeofenceMerger merger = new GeofenceMerger(store, false, null, -1L);
+        merger.add(geofence("b"));
+        merger.add(geofence("d"));
+        GeofenceList list = merger.finish(null);
+        assertEquals(Arrays.asList("b", "d"), sorted(store.codes()));
+        assertEquals(Arrays.asList("a", "c"), sorted(list.getDeletedGeofenceCodes()));
+        assertEquals(Arrays.asList("b", "d"), list.getGeofenceCodes());
+    }
+
+    @Test
+    public void incrementalListingDeletesOnlyTheListedCodes() throws Exception {
+        InMemoryGeofenceStore store = store("a", "b", "c");
+        GeofenceMerger merger = new GeofenceMerger(store, true, null, -1L);
+        merger.add(geofence("d"));
+        JSONObject properties = new JSONObject("{\"lastSyncDate\":\"2016-05-04T10:20:30.000Z\",\"deleted\":[\"a\",\"x\"]}");
+        GeofenceList list = merger.finish(properties);
+        assertEquals(Arrays.asList("b", "c", "d"), sorted(store.codes()));
+        assertEquals(Collections.singletonList("a"), list.getDeletedGeofenceCodes());
+        assertEquals(GeofencingJSONUtils.parseSyncDate("2016-05-04T10:20:30.000Z"), list.getSyncWatermark());
+    }
+
+    @Test
+    public void pageOfAFullListingOnlyCoversItsRangeOfCodes() throws Exception {
+        InMemoryGeofenceStore store = store("a", "b", "c", "d", "e");
+        // the previous page ended at "a", this one ends at "c" and has a next page
+        GeofenceMerger merger = new GeofenceMerger(store, false, "a", -1L);
+        merger.add(geofence("c"));
+        GeofenceList list = merger.finish(new JSONObject("{\"bookmark\":\"next\"}"));
+        assertEquals(Collections.singletonList("b"), list.getDeletedGeofenceCodes());
+        assertEquals(Arrays.asList("a", "c", "d", "e"), sorted(store.codes()));
+        assertEquals("c", list.getPageEnd());
+    }
+
+    @Test
+    public void tileListingOnlyCoversTheGeofencesOfTheTile() throws Exception {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        geofences.add(new PersistentGeofence("in", null, null, 48.85d, 2.35d, 10d));
+        geofences.add(new PersistentGeofence("out", null, null, -33.87d, 151.21d, 10d));
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore(geofences);
+        GeofenceMerger merger = new GeofenceMerger(store, false, null, GeoTiles.tileKey(48.85d, 2.35d));
+        GeofenceList list = merger.finish(null);
+        assertEquals(Collections.singletonList("in"), list.getDeletedGeofenceCodes());
+        assertEquals(Collections.singletonList("out"), sorted(store.codes()));
+    }
+
+    @Test
+    public void writesBatchesAsTheyAreFull() throws Exception {
+        InMemoryGeofenceStore store = new InMemoryGeofenceStore();
+        GeofenceMerger merger = new GeofenceMerger(store, false, null, -1L);
+        for (int i=0; i<GeofenceBulkWriter.BATCH_SIZE; i++) {
+            merger.add(geofence(String.format("g%04d", i)));
+        }
+        assertEquals(GeofenceBulkWriter.BATCH_SIZE, store.size());
+        merger.add(geofence("z"));
+        assertEquals(GeofenceBulkWriter.BATCH_SIZE, store.size());
+        merger.finish(null);
+        assertEquals(GeofenceBulkWriter.BATCH_SIZE + 1, store.size());
+    }
+
+    private static InMemoryGeofenceStore store(String... codes) {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        for (String code: codes) {
+            geofences.add(geofence(code));
+        }
+        return new InMemoryGeofenceStore(geofences);
+    }
+
+    private static PersistentGeofence geofence(String code) {
+        return new PersistentGeofence(code, null, null, 48.85d, 2.35d, 10d);
+    }
+
+    private static List<String> sorted(Collection<String> codes) {
+        List<String> list = new ArrayList<>(codes);
+        Collections.sort(list);
+        return list;
+    }
+}
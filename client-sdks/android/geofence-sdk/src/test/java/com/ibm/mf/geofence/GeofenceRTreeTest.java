@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceRTreeTest {
+    @Test
+    public void findsTheGeofencesWhoseBoxIntersectsTheSearchedBox() {
+        Random random = new Random(7L);
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        for (int i=0; i<2_000; i++) {
+            double radius = random.nextBoolean() ? 50d : 20_000d * random.nextDouble();
+            geofences.add(new PersistentGeofence("g" + i, null, null, 40d + random.nextDouble(), 2d + random.nextDouble(), radius));
+        }
+        GeofenceRTree tree = new GeofenceRTree(geofences);
+        for (int run=0; run<100; run++) {
+            double lat = 40d + random.nextDouble();
+            double lng = 2d + random.nextDouble();
+            double size = 0.05d * random.nextDouble();
+            double[] box = { lat, lat + size, lng, lng + size };
+            Set<String> expected = new HashSet<>();
+            for (PersistentGeofence g: geofences) {
+                double dLat = GeofenceRTree.latitudeExtent(g.getRadius());
+                double dLng = GeofenceRTree.longitudeExtent(g.getLatitude(), g.getRadius());
+                if ((g.getLatitude() - dLat <= box[1]) && (g.getLatitude() + dLat >= box[0])
+                    && (g.getLongitude() - dLng <= box[3]) && (g.getLongitude() + dLng >= box[2])) {
+                    expected.add(g.getCode());
+                }
+            }
+            assertEquals(expected, search(tree, box));
+        }
+    }
+
+    @Test
+    public void findsALargeGeofenceWhoseCenterIsOutsideTheSearchedBox() {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        // about 1.1 km north of the searched box, with a 2 km radius
+        geofences.add(new PersistentGeofence("large", null, null, 48.01d, 2d, 2_000d));
+        geofences.add(new PersistentGeofence("small", null, null, 48.01d, 2.001d, 100d));
+        GeofenceRTree tree = new GeofenceRTree(geofences);
+        Set<String> found = search(tree, new double[] { 47.99d, 48d, 1.99d, 2.01d });
+        assertTrue(found.contains("large"));
+        assertEquals(1, found.size());
+    }
+
+    @Test
+    public void findsGeofencesAcrossTheAntimeridianOnce() {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        // 10 km radius centered 1 km west of the antimeridian, overlapping the east side of it
+        geofences.add(new PersistentGeofence("west", null, null, 0d, 179.991d, 10_000d));
+        geofences.add(new PersistentGeofence("east", null, null, 0d, -179.991d, 10_000d));
+        geofences.add(new PersistentGeofence("far", null, null, 0d, 170d, 10_000d));
+        GeofenceRTree tree = new GeofenceRTree(geofences);
+        Set<String> found = search(tree, new double[] { -0.01d, 0.01d, -179.99d, -179.98d });
+        assertEquals(new HashSet<>(Arrays.asList("west", "east")), found);
+        found = search(tree, new double[] { -0.01d, 0.01d, 179.98d, 179.99d });
+        assertEquals(new HashSet<>(Arrays.asList("west", "east")), found);
+        // both boxes of a search area split by the planner: each geofence is visited once
+        final List<String> visited = new ArrayList<>();
+        final GeofenceRTree t = tree;
+        int count = tree.search(GeoQueryPlanner.plan(0d, 180d, 5_000d), new GeofenceRTree.Visitor() {
+            @Override
+            public void visit(int entry) {
+                visited.add(t.getCode(entry));
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(2, new HashSet<>(visited).size());
+    }
+
+    @Test
+    public void coversAllLongitudesForAGeofenceContainingAPole() {
+        assertEquals(180d, GeofenceRTree.longitudeExtent(89.99d, 5_000d), 0d);
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        geofences.add(new PersistentGeofence("pole", null, null, 89.99d, 0d, 5_000d));
+        GeofenceRTree tree = new GeofenceRTree(geofences);
+        assertEquals(1, search(tree, new double[] { 89.98d, 90d, 179d, 180d }).size());
+        assertEquals(1, search(tree, new double[] { 89.98d, 90d, -180d, -179d }).size());
+    }
+
+    @Test
+    public void findsNothingInAnEmptyTree() {
+        GeofenceRTree tree = new GeofenceRTree(new ArrayList<PersistentGeofence>());
+        assertEquals(0, search(tree, new double[] { -90d, 90d, -180d, 180d }).size());
+    }
+
+    private static Set<String> search(final GeofenceRTree tree, double[] box) {
+        final Set<String> found = new HashSet<>();
+        tree.search(box[0], box[1], box[2], box[3], new GeofenceRTree.Visitor() {
+            @Override
+            public void visit(int entry) {
+                found.add(tree.getCode(entry));
+            }
+        });
+        return found;
+    }
+}
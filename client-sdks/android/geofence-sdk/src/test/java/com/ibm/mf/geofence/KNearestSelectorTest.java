@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class KNearestSelectorTest {
+    @Test
+    public void selectsTheNearestCandidatesInAscendingOrder() {
+        Random random = new Random(42L);
+        for (int run=0; run<200; run++) {
+            int capacity = 1 + random.nextInt(20);
+            int count = random.nextInt(200);
+            final double[] distances = new double[count];
+            KNearestSelector selector = new KNearestSelector(capacity);
+            for (int i=0; i<count; i++) {
+                // few distinct distances, so that there are many ties
+                distances[i] = random.nextInt(30);
+                selector.offer(distances[i], i);
+            }
+            selector.sort();
+            Integer[] expected = new Integer[count];
+            for (int i=0; i<count; i++) {
+                expected[i] = i;
+            }
+            Arrays.sort(expected, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    int c = Double.compare(distances[i1], distances[i2]);
+                    return (c != 0) ? c : i1 - i2;
+                }
+            });
+            assertEquals(Math.min(capacity, count), selector.size());
+            assertEquals(count, selector.offered());
+            for (int i=0; i<selector.size(); i++) {
+                assertEquals(expected[i].intValue(), selector.index(i));
+                assertEquals(distances[expected[i]], selector.distance(i), 0d);
+            }
+            double next = (count > capacity) ? distances[expected[capacity]] : Double.POSITIVE_INFINITY;
+            assertEquals(next, selector.nextDistance(), 0d);
+        }
+    }
+
+    @Test
+    public void tracksTheNextDistanceOfEvictedCandidates() {
+        KNearestSelector selector = new KNearestSelector(2);
+        selector.offer(5d, 0);
+        selector.offer(4d, 1);
+        assertEquals(Double.POSITIVE_INFINITY, selector.nextDistance(), 0d);
+        // evicts the candidate at 5
+        selector.offer(1d, 2);
+        assertEquals(5d, selector.nextDistance(), 0d);
+        // rejected
+        selector.offer(4.5d, 3);
+        assertEquals(4.5d, selector.nextDistance(), 0d);
+        selector.sort();
+        assertEquals(2, selector.index(0));
+        assertEquals(1, selector.index(1));
+    }
+
+    @Test
+    public void breaksTiesByIndex() {
+        KNearestSelector selector = new KNearestSelector(2);
+        selector.offer(1d, 7);
+        selector.offer(1d, 3);
+        selector.offer(1d, 5);
+        selector.sort();
+        assertEquals(3, selector.index(0));
+        assertEquals(5, selector.index(1));
+        assertEquals(1d, selector.nextDistance(), 0d);
+    }
+
+    @Test
+    public void canBeReused() {
+        KNearestSelector selector = new KNearestSelector(1);
+        selector.offer(1d, 0);
+        selector.offer(2d, 1);
+        selector.reset();
+        assertEquals(0, selector.size());
+        assertEquals(0, selector.offered());
+        assertEquals(Double.POSITIVE_INFINITY, selector.nextDistance(), 0d);
+        selector.offer(3d, 2);
+        assertEquals(2, selector.index(0));
+    }
+
+    @Test
+    public void rejectsANonPositiveCapacity() {
+        try {
+            new KNearestSelector(0);
+            fail("a capacity of 0 should be rejected");
+        } catch(IllegalArgumentException expected) {
+        }
+    }
+}
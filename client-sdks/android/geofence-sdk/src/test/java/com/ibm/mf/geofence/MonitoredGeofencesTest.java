@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MonitoredGeofencesTest {
+    @Test
+    public void ignoresEmptyCodes() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Arrays.asList("a", "", null, "b", "a"));
+        assertEquals(2, monitored.size());
+        assertTrue(monitored.contains("a"));
+        assertTrue(monitored.contains("b"));
+        assertFalse(monitored.contains(""));
+    }
+
+    @Test
+    public void addsEverythingInitially() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Collections.<String>emptyList());
+        MonitoredGeofences.Delta delta = monitored.update(geofences("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), codes(delta.getAdded()));
+        assertTrue(delta.getRemovedCodes().isEmpty());
+        assertEquals(2, monitored.size());
+    }
+
+    @Test
+    public void computesTheAddedAndRemovedGeofences() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Arrays.asList("a", "b", "c"));
+        MonitoredGeofences.Delta delta = monitored.update(geofences("b", "d", "c", "e"));
+        assertEquals(Arrays.asList("d", "e"), codes(delta.getAdded()));
+        assertEquals(Collections.singletonList("a"), delta.getRemovedCodes());
+        assertEquals(4, monitored.size());
+        assertFalse(monitored.contains("a"));
+        assertTrue(monitored.contains("e"));
+    }
+
+    @Test
+    public void returnsAnEmptyDeltaForTheSameSelection() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Arrays.asList("a", "b"));
+        MonitoredGeofences.Delta delta = monitored.update(geofences("b", "a"));
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemovedCodes().isEmpty());
+    }
+
+    @Test
+    public void removesEverythingForAnEmptySelection() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Arrays.asList("a", "b"));
+        MonitoredGeofences.Delta delta = monitored.update(Collections.<PersistentGeofence>emptyList());
+        assertTrue(delta.getAdded().isEmpty());
+        assertEquals(Arrays.asList("a", "b"), delta.getRemovedCodes());
+        assertEquals(0, monitored.size());
+    }
+
+    @Test
+    public void addsADuplicateSelectionOnce() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Collections.<String>emptyList());
+        MonitoredGeofences.Delta delta = monitored.update(geofences("a", "a", "b"));
+        assertEquals(Arrays.asList("a", "b"), codes(delta.getAdded()));
+        assertEquals(2, monitored.size());
+    }
+
+    @Test
+    public void computesEachDeltaFromThePreviousUpdate() {
+        MonitoredGeofences monitored = new MonitoredGeofences(Collections.<String>emptyList());
+        monitored.update(geofences("a", "b"));
+        MonitoredGeofences.Delta delta = monitored.update(geofences("b", "c"));
+        assertEquals(Collections.singletonList("c"), codes(delta.getAdded()));
+        assertEquals(Collections.singletonList("a"), delta.getRemovedCodes());
+        delta = monitored.update(geofences("a"));
+        assertEquals(Collections.singletonList("a"), codes(delta.getAdded()));
+        assertEquals(Arrays.asList("b", "c"), delta.getRemovedCodes());
+    }
+
+    private static List<PersistentGeofence> geofences(String... codes) {
+        List<PersistentGeofence> geofences = new ArrayList<>(codes.length);
+        for (String code: codes) {
+            geofences.add(new PersistentGeofence(code, null, null, 0d, 0d, 10d));
+        }
+        return geofences;
+    }
+
+    private static List<String> codes(List<PersistentGeofence> geofences) {
+        List<String> codes = new ArrayList<>(geofences.size());
+        for (PersistentGeofence fence: geofences) {
+            codes.add(fence.getCode());
+        }
+        return codes;
+    }
+}
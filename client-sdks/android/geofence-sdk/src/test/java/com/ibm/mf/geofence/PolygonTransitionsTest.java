@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PolygonTransitionsTest {
+    private static final MFGeofenceEvent.Type ENTER = MFGeofenceEvent.Type.ENTER;
+    private static final MFGeofenceEvent.Type EXIT = MFGeofenceEvent.Type.EXIT;
+
+    @Test
+    public void reportsContainmentFlipsWhileInsideTheCircle() {
+        PolygonTransitions polygons = new PolygonTransitions(Collections.<String>emptySet(), Collections.<String>emptySet());
+        // entering the circle outside the polygon reports nothing
+        assertNull(polygons.onCircleTransition("p", true, false));
+        assertEquals(Collections.singleton("p"), polygons.circleCodes());
+        assertNull(polygons.onLocation("p", false));
+        assertEquals(ENTER, polygons.onLocation("p", true));
+        assertNull(polygons.onLocation("p", true));
+        assertEquals(EXIT, polygons.onLocation("p", false));
+        assertNull(polygons.onLocation("p", false));
+        assertEquals(ENTER, polygons.onLocation("p", true));
+        // leaving the circle while inside the polygon reports the pending exit
+        assertEquals(EXIT, polygons.onCircleTransition("p", false, false));
+        assertTrue(polygons.circleCodes().isEmpty());
+    }
+
+    @Test
+    public void reportsEnterWhenEnteringTheCircleInsideThePolygon() {
+        PolygonTransitions polygons = new PolygonTransitions(Collections.<String>emptySet(), Collections.<String>emptySet());
+        assertEquals(ENTER, polygons.onCircleTransition("p", true, true));
+        assertEquals(EXIT, polygons.onLocation("p", false));
+        // no exit is reported twice
+        assertNull(polygons.onCircleTransition("p", false, false));
+    }
+
+    @Test
+    public void ignoresLocationsOutsideTheCircle() {
+        PolygonTransitions polygons = new PolygonTransitions(Collections.<String>emptySet(), Collections.<String>emptySet());
+        assertNull(polygons.onLocation("p", true));
+        assertNull(polygons.onCircleTransition("p", false, false));
+    }
+
+    @Test
+    public void forgetsUnmonitoredPolygons() {
+        PolygonTransitions polygons = new PolygonTransitions(Arrays.asList("p", "q"), Collections.singleton("p"));
+        // the device is inside p when it is unmonitored: its exit is pending
+        assertEquals(Collections.singletonList("p"), polygons.forget(Collections.singleton("p")));
+        assertEquals(Collections.singleton("q"), polygons.circleCodes());
+        assertNull(polygons.onLocation("p", false));
+        assertEquals(ENTER, polygons.onLocation("q", true));
+        // monitored again and re-entered, p reports its ENTER transition
+        assertEquals(ENTER, polygons.onCircleTransition("p", true, true));
+        assertEquals(EXIT, polygons.onLocation("p", false));
+    }
+
+    @Test
+    public void doesNotReportExitsForPolygonsThatWereNotEntered() {
+        PolygonTransitions polygons = new PolygonTransitions(Arrays.asList("p", "q"), Collections.singleton("p"));
+        assertTrue(polygons.forget(Arrays.asList("q", "r")).isEmpty());
+        assertEquals(Collections.singleton("p"), polygons.circleCodes());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SignificantLocationChangeServiceTest {
+    /**
+     * Meters per degree along the equator.
+     */
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoDistance.EARTH_RADIUS);
+    /**
+     * A limit of the safe radius which is larger than all the distances of the tests.
+     */
+    private static final double NO_LIMIT = 10_000_000d;
+
+    @Test
+    public void doesNotReselectAfterASmallMoveInASparseArea() {
+        // two geofences nearby, the next one 20 km away, far beyond the 5 km search radius
+        InMemoryGeofenceStore store = store(100d, 200d, 20_000d);
+        double radius = 5_000d;
+        double reselectionDistance = 1_000d;
+        KNearestSelector selector = new KNearestSelector(2);
+        List<PersistentGeofence> selected = store.nearest(0d, 0d, radius, selector);
+        assertEquals(2, selected.size());
+        double safe = SignificantLocationChangeService.safeRadius(store, 0d, 0d, radius, selector, NO_LIMIT);
+        assertEquals((20_000d - 200d) / 2d, safe, 1d);
+        // a 3 km move is beyond the reselection distance, but within the safe radius
+        double moved = 3_000d;
+        assertFalse(LocationUpdateReceiver.isSignificantMove(moved, reselectionDistance, safe));
+        // and indeed the selection would be the same at the new location
+        KNearestSelector after = new KNearestSelector(2);
+        List<PersistentGeofence> reselected = store.nearest(0d, -moved / METERS_PER_DEGREE, radius, after);
+        assertEquals(codes(selected), codes(reselected));
+        // past the safe radius and the reselection distance, a new selection happens
+        assertTrue(LocationUpdateReceiver.isSignificantMove(safe + 1d, reselectionDistance, safe));
+    }
+
+    @Test
+    public void usesTheNextCandidateWithinTheSearchRadius() {
+        InMemoryGeofenceStore store = store(100d, 200d, 1_000d, 1_500d);
+        KNearestSelector selector = new KNearestSelector(2);
+        store.nearest(0d, 0d, 5_000d, selector);
+        assertEquals(400d, SignificantLocationChangeService.safeRadius(store, 0d, 0d, 5_000d, selector, NO_LIMIT), 1d);
+    }
+
+    @Test
+    public void isLimitedWhenAllTheGeofencesAreSelected() {
+        InMemoryGeofenceStore store = store(100d, 200d);
+        KNearestSelector selector = new KNearestSelector(2);
+        store.nearest(0d, 0d, 5_000d, selector);
+        double safe = SignificantLocationChangeService.safeRadius(store, 0d, 0d, 5_000d, selector, 10_000d);
+        assertEquals(10_000d, safe, 0d);
+        assertTrue(LocationUpdateReceiver.isSignificantMove(10_001d, 1_000d, safe));
+    }
+
+    @Test
+    public void isLimitedToTheSyncedTilesWhenAllTheLocalGeofencesAreSelected() {
+        // in a sparse area, the local store holds fewer geofences than the maximum number of monitored ones
+        InMemoryGeofenceStore store = store(100d, 200d);
+        KNearestSelector selector = new KNearestSelector(5);
+        store.nearest(0.1d, 0.1d, 20_000d, selector);
+        assertEquals(2, selector.size());
+        // only the tile of the location is synced: its nearest edge is 0.1 degree away
+        SyncedTiles tiles = new SyncedTiles();
+        tiles.synced(GeoTiles.tileKey(0.1d, 0.1d), -1L, 0L);
+        double limit = tiles.coveredRadius(0.1d, 0.1d, 50_000d);
+        assertEquals(0.1d * METERS_PER_DEGREE, limit, 10d);
+        double safe = SignificantLocationChangeService.safeRadius(store, 0.1d, 0.1d, 20_000d, selector, limit);
+        assertEquals(limit, safe, 0d);
+        assertFalse(Double.isInfinite(safe));
+        // leaving the synced tile is a significant move, after which the tiles around the device are downloaded
+        assertTrue(LocationUpdateReceiver.isSignificantMove(limit + 1d, 1_000d, safe));
+    }
+
+    @Test
+    public void keepsTheOtherGeofencesOutsideTheSearchRadiusWhenFewerAreSelected() {
+        // only one geofence within the 5 km search radius, the next one at 8 km enters it after a 3 km move
+        InMemoryGeofenceStore store = store(100d, 8_000d);
+        KNearestSelector selector = new KNearestSelector(5);
+        store.nearest(0d, 0d, 5_000d, selector);
+        assertEquals(1, selector.size());
+        assertEquals(3_000d, SignificantLocationChangeService.safeRadius(store, 0d, 0d, 5_000d, selector, NO_LIMIT), 1d);
+    }
+
+    @Test
+    public void boundsTheSearchForTheNextGeofence() {
+        // the next geofence is too far to be found after doubling the radius 8 times: 256 x 1 km is a lower bound of its distance
+        InMemoryGeofenceStore store = store(100d, 1_000_000d);
+        KNearestSelector selector = new KNearestSelector(1);
+        store.nearest(0d, 0d, 1_000d, selector);
+        assertEquals((256_000d - 100d) / 2d, SignificantLocationChangeService.safeRadius(store, 0d, 0d, 1_000d, selector, NO_LIMIT), 1d);
+    }
+
+    @Test
+    public void reselectsBeyondTheReselectionDistanceWhenTheSafeRadiusIsSmaller() {
+        assertFalse(LocationUpdateReceiver.isSignificantMove(500d, 1_000d, 0d));
+        assertTrue(LocationUpdateReceiver.isSignificantMove(1_500d, 1_000d, 0d));
+        assertFalse(LocationUpdateReceiver.isSignificantMove(1_500d, 1_000d, 1_500d));
+    }
+
+    /**
+     * Create a store with geofences along the equator, east of longitude 0 at the specified distances.
+     */
+    private static InMemoryGeofenceStore store(double... distances) {
+        List<PersistentGeofence> geofences = new ArrayList<>();
+        for (int i=0; i<distances.length; i++) {
+            geofences.add(new PersistentGeofence("g" + i, null, null, 0d, distances[i] / METERS_PER_DEGREE, 10d));
+        }
+        return new InMemoryGeofenceStore(geofences);
+    }
+
+    private static List<String> codes(List<PersistentGeofence> geofences) {
+        List<String> codes = new ArrayList<>();
+        for (PersistentGeofence geofence: geofences) {
+            codes.add(geofence.getCode());
+        }
+        return codes;
+    }
+}
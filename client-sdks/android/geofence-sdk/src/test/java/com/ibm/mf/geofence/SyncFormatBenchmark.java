@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the size and the decoding time of the GeoJSON and binary encodings of the same listing.
+ * <p>The listing is generated by {@code app/service/test/benchmark/sync-format.js}, then measured with:
+ * <pre>java com.ibm.mf.geofence.SyncFormatBenchmark [directory of the generated files]</pre>
+ * The decoded geofences are only counted, so that the time of the local database is not measured. The GeoJSON listing is parsed
+ * with org.json then {@link GeofencingJSONUtils#parseGeofence(JSONObject)}, since the streaming parser of the SDK relies on
+ * {@code android.util.JsonReader}, which is not available outside of a device.
+ */
+final class SyncFormatBenchmark {
+    /**
+     * Number of decodings of each encoding before the measured ones, to let the JIT compile the decoders.
+     */
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private SyncFormatBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        Result result = measure(read(new File(dir, "geofences-benchmark.json")), read(new File(dir, "geofences-benchmark.bin")));
+        System.out.println(result);
+    }
+
+    /**
+     * Decode the specified listings repeatedly and measure their median decoding time.
+     * @param json the listing encoded as GeoJSON.
+     * @param binary the same listing in the binary encoding.
+     * @return the sizes and the decoding times of both encodings.
+     * @throws Exception if a listing cannot be decoded.
+     */
+    static Result measure(byte[] json, byte[] binary) throws Exception {
+        Result result = new Result();
+        result.mJsonBytes = json.length;
+        result.mBinaryBytes = binary.length;
+        result.mJsonGzipBytes = gzip(json).length;
+        result.mBinaryGzipBytes = gzip(binary).length;
+        long[] jsonNanos = new long[MEASURED_ITERATIONS];
+        long[] binaryNanos = new long[MEASURED_ITERATIONS];
+        for (int i=0; i<WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            JSONArray features = new JSONObject(new String(json, "UTF-8")).getJSONArray("features");
+            int count = 0;
+            for (int j=0; j<features.length(); j++) {
+                if (GeofencingJSONUtils.parseGeofence(features.getJSONObject(j)) != null) {
+                    count++;
+                }
+            }
+            long jsonTime = System.nanoTime() - start;
+            result.mJsonGeofences = count;
+            CountingSink sink = new CountingSink();
+            start = System.nanoTime();
+            GeofenceBinaryFormat.parseGeofences(new ByteArrayInputStream(binary), sink);
+            long binaryTime = System.nanoTime() - start;
+            result.mBinaryGeofences = sink.mCount;
+            if (i >= WARMUP_ITERATIONS) {
+                jsonNanos[i - WARMUP_ITERATIONS] = jsonTime;
+                binaryNanos[i - WARMUP_ITERATIONS] = binaryTime;
+            }
+        }
+        result.mJsonMillis = median(jsonNanos) / 1e6d;
+        result.mBinaryMillis = median(binaryNanos) / 1e6d;
+        return result;
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The measures of both encodings of a listing.
+     */
+    static final class Result {
+        int mJsonBytes;
+        int mBinaryBytes;
+        int mJsonGzipBytes;
+        int mBinaryGzipBytes;
+        int mJsonGeofences;
+        int mBinaryGeofences;
+        double mJsonMillis;
+        double mBinaryMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%,d geofences%n"
+                + "GeoJSON: %,d bytes, gzipped %,d bytes, decoded in %.2f ms%n"
+                + "binary:  %,d bytes, gzipped %,d bytes, decoded in %.2f ms",
+                mJsonGeofences, mJsonBytes, mJsonGzipBytes, mJsonMillis, mBinaryBytes, mBinaryGzipBytes, mBinaryMillis);
+        }
+    }
+
+    /**
+     * A sink which only counts the decoded geofences.
+     */
+    private static final class CountingSink implements GeofenceSink {
+        int mCount = 0;
+
+        @Override
+        public void add(PersistentGeofence geofence) {
+            mCount++;
+        }
+
+        @Override
+        public GeofenceList finish(JSONObject properties) throws JSONException {
+            return new GeofenceList(null);
+        }
+    }
+}
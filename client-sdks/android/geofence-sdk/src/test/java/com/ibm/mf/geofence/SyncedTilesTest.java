@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncedTilesTest {
+    /**
+     * Length of a degree of latitude in meters.
+     */
+    private static final double DEGREE = Math.toRadians(1d) * GeoDistance.EARTH_RADIUS;
+
+    @Test
+    public void recordsTheStateOfEachTile() {
+        SyncedTiles tiles = new SyncedTiles();
+        long tile = GeoTiles.tileKey(0.1d, 0.1d);
+        assertFalse(tiles.contains(tile));
+        assertEquals(-1L, tiles.watermark(tile));
+        assertEquals(-1L, tiles.timestamp(tile));
+        tiles.synced(tile, 42L, 1000L);
+        assertTrue(tiles.contains(tile));
+        assertEquals(42L, tiles.watermark(tile));
+        assertEquals(1000L, tiles.timestamp(tile));
+        tiles.synced(tile, 43L, 2000L);
+        assertEquals(1, tiles.size());
+        assertEquals(43L, tiles.watermark(tile));
+        tiles.remove(tile);
+        assertFalse(tiles.contains(tile));
+        assertEquals(0, tiles.size());
+    }
+
+    @Test
+    public void evictsTheFarthestTilesFirst() {
+        SyncedTiles tiles = new SyncedTiles();
+        long near = GeoTiles.tileKey(0.1d, 0.1d);
+        long middle = GeoTiles.tileKey(0.1d, 1.1d);
+        long far = GeoTiles.tileKey(0.1d, 2.1d);
+        long farthest = GeoTiles.tileKey(0.1d, -3.1d);
+        for (long tile: Arrays.asList(far, near, farthest, middle)) {
+            tiles.synced(tile, -1L, 0L);
+        }
+        List<Long> evicted = tiles.evict(2, 0.1d, 0.1d, Collections.<Long>emptySet());
+        assertEquals(Arrays.asList(farthest, far), evicted);
+        assertEquals(2, tiles.size());
+        assertTrue(tiles.contains(near));
+        assertTrue(tiles.contains(middle));
+        // nothing to evict within the budget
+        assertTrue(tiles.evict(2, 0.1d, 0.1d, Collections.<Long>emptySet()).isEmpty());
+    }
+
+    @Test
+    public void keepsThePinnedTiles() {
+        SyncedTiles tiles = new SyncedTiles();
+        long near = GeoTiles.tileKey(0.1d, 0.1d);
+        long middle = GeoTiles.tileKey(0.1d, 1.1d);
+        long far = GeoTiles.tileKey(0.1d, 2.1d);
+        for (long tile: Arrays.asList(near, middle, far)) {
+            tiles.synced(tile, -1L, 0L);
+        }
+        List<Long> evicted = tiles.evict(1, 0.1d, 0.1d, Collections.singleton(far));
+        assertEquals(Arrays.asList(middle, near), evicted);
+        assertEquals(1, tiles.size());
+        assertTrue(tiles.contains(far));
+        // the budget may be exceeded by the pinned tiles
+        tiles.synced(near, -1L, 0L);
+        evicted = tiles.evict(0, 0.1d, 0.1d, Arrays.asList(near, far));
+        assertTrue(evicted.isEmpty());
+        assertEquals(2, tiles.size());
+    }
+
+    @Test
+    public void computesTheRadiusCoveredBySyncedTiles() {
+        SyncedTiles tiles = new SyncedTiles();
+        // the tile of the location is not synchronized
+        assertEquals(0d, tiles.coveredRadius(0.125d, 0.125d, 50_000d), 0d);
+        // only the tile of the location is synchronized: the nearest edge is an eighth of a degree away
+        tiles.synced(GeoTiles.tileKey(0.125d, 0.125d), -1L, 0L);
+        assertEquals(0.125d * DEGREE, tiles.coveredRadius(0.125d, 0.125d, 50_000d), 10d);
+        assertEquals(1_000d, tiles.coveredRadius(0.125d, 0.125d, 1_000d), 0d);
+        // all the tiles within the radius are synchronized
+        for (long tile: GeoTiles.tilesAround(0.125d, 0.125d, 20_000d)) {
+            tiles.synced(tile, -1L, 0L);
+        }
+        assertEquals(20_000d, tiles.coveredRadius(0.125d, 0.125d, 20_000d), 0d);
+        assertEquals(0.375d * DEGREE, tiles.coveredRadius(0.125d, 0.125d, 50_000d), 10d);
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the test vectors shared with the server tests, from {@code app/service/test/fixtures}.
+ */
+final class TestResources {
+    private TestResources() {
+    }
+
+    /**
+     * Read the content of the specified resource.
+     * @param name the absolute name of the resource.
+     * @return the bytes of the resource.
+     * @throws IOException if the resource does not exist or cannot be read.
+     */
+    static byte[] read(String name) throws IOException {
+        InputStream in = TestResources.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("missing test resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedInputStreamTest {
+    @Test
+    public void decodesTheChunksUpToTheLastOne() throws Exception {
+        HttpConnection connection = StubSocket.connection("5\r\nhello\r\n1;name=value\r\n \r\nA\r\n0123456789\r\n0\r\n\r\nHTTP/1.1 200 OK\r\n");
+        ChunkedInputStream in = new ChunkedInputStream(connection);
+        assertFalse(in.isComplete());
+        assertEquals("hello 0123456789", read(in));
+        assertTrue(in.isComplete());
+        assertEquals(-1, in.read());
+        // the next response starts right after the body
+        assertEquals("HTTP/1.1 200 OK", connection.readLine());
+    }
+
+    @Test
+    public void skipsTheTrailerHeaders() throws Exception {
+        HttpConnection connection = StubSocket.connection("3\r\nabc\r\n0\r\nDigest: x\r\nExpires: 0\r\n\r\nnext\r\n");
+        ChunkedInputStream in = new ChunkedInputStream(connection);
+        assertEquals("abc", read(in));
+        assertTrue(in.isComplete());
+        assertEquals("next", connection.readLine());
+    }
+
+    @Test
+    public void rejectsAnInvalidChunkSize() throws Exception {
+        for (String size: new String[] { "zz", "-5", "", "1 2" }) {
+            ChunkedInputStream in = new ChunkedInputStream(StubSocket.connection(size + "\r\nabc\r\n0\r\n\r\n"));
+            try {
+                read(in);
+                fail("the chunk size [" + size + "] should be rejected");
+            } catch(ProtocolException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void failsWhenTheConnectionEndsWithinAChunk() throws Exception {
+        ChunkedInputStream in = new ChunkedInputStream(StubSocket.connection("A\r\n01234"));
+        try {
+            read(in);
+            fail("the chunk should be incomplete");
+        } catch(EOFException expected) {
+        }
+        assertFalse(in.isComplete());
+    }
+
+    @Test
+    public void limitsTheAvailableBytesToTheCurrentChunk() throws Exception {
+        ChunkedInputStream in = new ChunkedInputStream(StubSocket.connection("4\r\nabcd\r\n4\r\nefgh\r\n0\r\n\r\n"));
+        assertEquals(0, in.available());
+        assertEquals('a', in.read());
+        assertEquals(3, in.available());
+    }
+
+    @Test
+    public void discardsTheRestOfTheBodyOnceClosed() throws Exception {
+        HttpConnection connection = StubSocket.connection("4\r\nabcd\r\n4\r\nefgh\r\n0\r\n\r\nnext\r\n");
+        ChunkedInputStream in = new ChunkedInputStream(connection);
+        assertEquals('a', in.read());
+        in.close();
+        try {
+            in.read();
+            fail("the stream should be closed");
+        } catch(IOException expected) {
+        }
+        assertTrue(in.discard(1024));
+        assertEquals("next", connection.readLine());
+    }
+
+    @Test
+    public void stopsDiscardingBeyondTheMaximum() throws Exception {
+        HttpConnection connection = StubSocket.connection("1000\r\n" + new String(new char[4096]) + "\r\n0\r\n\r\n");
+        ChunkedInputStream in = new ChunkedInputStream(connection);
+        assertFalse(in.discard(1024));
+    }
+
+    static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("ISO-8859-1");
+    }
+}
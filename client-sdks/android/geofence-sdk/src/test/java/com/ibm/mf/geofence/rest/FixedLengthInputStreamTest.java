@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FixedLengthInputStreamTest {
+    @Test
+    public void readsTheSpecifiedNumberOfBytes() throws Exception {
+        InputStream connection = new ByteArrayInputStream("0123456789next".getBytes("ISO-8859-1"));
+        FixedLengthInputStream in = new FixedLengthInputStream(connection, 10L);
+        assertEquals(10, in.available());
+        assertEquals("0123456789", ChunkedInputStreamTest.read(in));
+        assertTrue(in.isComplete());
+        assertEquals(0, in.available());
+        // the next response starts right after the body
+        assertEquals('n', connection.read());
+    }
+
+    @Test
+    public void failsWhenTheConnectionEndsWithinTheBody() throws Exception {
+        FixedLengthInputStream in = new FixedLengthInputStream(new ByteArrayInputStream("01234".getBytes("ISO-8859-1")), 10L);
+        try {
+            ChunkedInputStreamTest.read(in);
+            fail("the body should be incomplete");
+        } catch(EOFException e) {
+            assertEquals("unexpected end of body, 5 bytes missing", e.getMessage());
+        }
+        assertFalse(in.isComplete());
+    }
+
+    @Test
+    public void discardsTheRestOfTheBody() throws Exception {
+        InputStream connection = new ByteArrayInputStream("0123456789next".getBytes("ISO-8859-1"));
+        FixedLengthInputStream in = new FixedLengthInputStream(connection, 10L);
+        assertEquals('0', in.read());
+        in.close();
+        assertEquals(0, in.available());
+        assertTrue(in.discard(1024));
+        assertEquals('n', connection.read());
+    }
+
+    @Test
+    public void stopsDiscardingBeyondTheMaximum() throws Exception {
+        FixedLengthInputStream in = new FixedLengthInputStream(new ByteArrayInputStream(new byte[8192]), 8192L);
+        assertFalse(in.discard(1024));
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.net.ProtocolException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpConnectionTest {
+    @Test
+    public void readsLinesWithOrWithoutCarriageReturns() throws Exception {
+        HttpConnection connection = StubSocket.connection("HTTP/1.1 200 OK\r\nA: b\n\r\nbody");
+        assertEquals("HTTP/1.1 200 OK", connection.readLine());
+        assertEquals("A: b", connection.readLine());
+        assertEquals("", connection.readLine());
+        assertEquals('b', connection.getInput().read());
+    }
+
+    @Test
+    public void failsWhenTheConnectionEndsWithinALine() throws Exception {
+        HttpConnection connection = StubSocket.connection("HTTP/1.1 200");
+        try {
+            connection.readLine();
+            fail("the line should be incomplete");
+        } catch(EOFException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsTooLongLines() throws Exception {
+        StringBuilder sb = new StringBuilder("X-Long: ");
+        while (sb.length() <= 8192) {
+            sb.append("0123456789");
+        }
+        HttpConnection connection = StubSocket.connection(sb.append("\r\n").toString());
+        try {
+            connection.readLine();
+            fail("the line should be rejected");
+        } catch(ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void isReusableUntilItsKeepAliveTimeElapses() throws Exception {
+        HttpConnection connection = StubSocket.connection("");
+        connection.mIdleSince = 1000L;
+        connection.mKeepAliveMillis = 5000L;
+        assertTrue(connection.isReusable(1000L));
+        assertTrue(connection.isReusable(5999L));
+        assertFalse(connection.isReusable(6000L));
+        connection.mKeepAliveMillis = 0L;
+        assertFalse(connection.isReusable(1000L));
+    }
+
+    @Test
+    public void isNotReusableOnceClosed() throws Exception {
+        HttpConnection connection = StubSocket.connection("");
+        connection.mIdleSince = 1000L;
+        connection.close();
+        assertFalse(connection.isReusable(1000L));
+    }
+}
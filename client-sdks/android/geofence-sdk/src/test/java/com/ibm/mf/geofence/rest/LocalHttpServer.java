@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local HTTP server which replies to each request with the next scripted response, and records the requests it reads
+ * along with the number of the connection they were read from.
+ */
+final class LocalHttpServer {
+    private static final long TIMEOUT_SECONDS = 5L;
+    private final ServerSocket mServerSocket;
+    private final BlockingQueue<Reply> mReplies = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Request> mRequests = new LinkedBlockingQueue<>();
+    private final List<Socket> mSockets = new ArrayList<>();
+    private int mConnections = 0;
+
+    LocalHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LocalHttpServer-" + mServerSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Get the URL of the specified path on this server.
+     */
+    URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    /**
+     * Add a response to send, in full, to the next request.
+     * @param response the status line, headers and body of the response.
+     * @param close whether to close the connection once the response is sent, without any notice in the response.
+     */
+    void enqueue(String response, boolean close) {
+        mReplies.add(new Reply(response, close));
+    }
+
+    /**
+     * Take the oldest request read by this server.
+     * @return the request, or {@code null} if no request was read within a few seconds.
+     */
+    Request takeRequest() throws InterruptedException {
+        return mRequests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Get the number of requests read and not yet taken.
+     */
+    int pendingRequests() {
+        return mRequests.size();
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ignore) {
+        }
+        synchronized(mSockets) {
+            for (Socket socket: mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = mServerSocket.accept();
+                final int connection;
+                synchronized(mSockets) {
+                    mSockets.add(socket);
+                    connection = ++mConnections;
+                }
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, connection);
+                    }
+                }, "LocalHttpServer-connection-" + connection);
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException ignore) {
+            // the server was shut down
+        }
+    }
+
+    private void serve(Socket socket, int connection) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Request request = readRequest(in, connection);
+                if (request == null) {
+                    break;
+                }
+                mRequests.add(request);
+                Reply reply = mReplies.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (reply == null) {
+                    break;
+                }
+                out.write(reply.mResponse.getBytes("ISO-8859-1"));
+                out.flush();
+                if (reply.mClose) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException ignore) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Read a request, with a body if it has a "Content-Length" header.
+     * @return the request, or {@code null} if the connection was closed by the client.
+     */
+    private static Request readRequest(InputStream in, int connection) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while (((line = readLine(in)) != null) && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        byte[] body = new byte[headers.containsKey("Content-Length") ? Integer.parseInt(headers.get("Content-Length")) : 0];
+        for (int n = 0; n < body.length; ) {
+            int count = in.read(body, n, body.length - n);
+            if (count < 0) {
+                return null;
+            }
+            n += count;
+        }
+        String[] parts = requestLine.split(" ");
+        return new Request(parts[0], parts[1], headers, new String(body, "UTF-8"), connection);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static final class Reply {
+        final String mResponse;
+        final boolean mClose;
+
+        Reply(String response, boolean close) {
+            this.mResponse = response;
+            this.mClose = close;
+        }
+    }
+
+    /**
+     * A request read by the server.
+     */
+    static final class Request {
+        final String mMethod;
+        final String mTarget;
+        final Map<String, String> mHeaders;
+        final String mBody;
+        /**
+         * The number of the connection the request was read from, starting at 1.
+         */
+        final int mConnection;
+
+        Request(String method, String target, Map<String, String> headers, String body, int connection) {
+            this.mMethod = method;
+            this.mTarget = target;
+            this.mHeaders = headers;
+            this.mBody = body;
+            this.mConnection = connection;
+        }
+    }
+}
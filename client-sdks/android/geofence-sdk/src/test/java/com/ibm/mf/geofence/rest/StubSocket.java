@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2015, 2016 IBM Corporation. All rights reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.mf.geofence.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+
+/**
+ * An unconnected socket which reads from a fixed buffer, to test the parsing of responses without a server.
+ */
+final class StubSocket extends Socket {
+    private final InputStream mIn;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+    StubSocket(String input) throws UnsupportedEncodingException {
+        this.mIn = new ByteArrayInputStream(input.getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Create a connection reading the specified response bytes.
+     */
+    static HttpConnection connection(String input) throws Exception {
+        return new HttpConnection("http://localhost:80", new StubSocket(input), 30_000L);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mIn;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mOut;
+    }
+}